@@ -0,0 +1,240 @@
+package app;
+
+import dao.CargadorPorLotes;
+import javafx.application.Platform;
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.scene.control.IndexedCell;
+import javafx.scene.control.TableView;
+import javafx.scene.control.skin.VirtualFlow;
+import model.Cliente;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+/**
+ * Caché acotada de datos por cliente (detalle, resumen de pedidos...) que
+ * solo carga las filas que la tabla está pintando (más un margen de precarga
+ * por arriba y por abajo).
+ *
+ * Las celdas piden una propiedad por id; si el valor aún no está, se programa
+ * (una vez por pulso de JavaFX) una carga asíncrona de todo el rango visible.
+ * Las peticiones se agrupan con un CargadorPorLotes, así que un scroll rápido
+ * se traduce en unas pocas consultas findByIds. Cuando llegan los datos se
+ * actualiza la propiedad y las celdas enlazadas se repintan solas.
+ *
+ * Todo el estado se toca SOLO desde el hilo de JavaFX.
+ */
+class CacheVisibles<T> {
+
+    /** Fuente en memoria consultada antes que la BD (p. ej. la copia local en disco). */
+    interface FuenteLocal<T> {
+        boolean contiene(int idCliente);
+        T valor(int idCliente);
+    }
+
+    /** Entrada de la caché: la propiedad que observan las celdas + estado de carga. */
+    private static final class Entrada<T> {
+        final ObjectProperty<T> valor = new SimpleObjectProperty<>();
+        boolean cargado;
+        boolean solicitado;
+        // Acciones de conValor a la espera de la carga (también si llega null)
+        List<Consumer<T>> esperando;
+    }
+
+    private final TableView<Cliente> tabla;
+    private final CargadorPorLotes<T> cargador;
+    private final int margen;
+    private final int maxEntradas;
+
+    // LRU por orden de acceso: las filas que llevan tiempo sin verse son las primeras en salir.
+    private final Map<Integer, Entrada<T>> cache;
+
+    private boolean cargaProgramada;
+
+    // Fuente local (si la hay): sus valores se sirven sin ir a la BD.
+    private FuenteLocal<T> fuenteLocal;
+
+    // Aviso de errores de carga (la vista los enseña); se avisa una vez hasta que una carga vaya bien.
+    private Consumer<Throwable> alError = error -> {};
+    private boolean errorAvisado;
+
+    CacheVisibles(TableView<Cliente> tabla, CargadorPorLotes<T> cargador, int margen, int maxEntradas) {
+        this.tabla = tabla;
+        this.cargador = cargador;
+        this.margen = margen;
+        this.maxEntradas = maxEntradas;
+        this.cache = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entrada<T>> eldest) {
+                return size() > CacheVisibles.this.maxEntradas;
+            }
+        };
+    }
+
+    /**
+     * Propiedad observable con el valor del cliente. Si todavía no está
+     * cargado, devuelve la propiedad vacía y programa la carga del rango visible.
+     */
+    ObjectProperty<T> propiedad(Integer idCliente) {
+        Entrada<T> e = entrada(idCliente);
+        if (!e.cargado && !e.solicitado) {
+            programarCarga();
+        }
+        return e.valor;
+    }
+
+    /**
+     * Entrega el valor del cliente en cuanto esté disponible (en el hilo FX).
+     * Útil para el formulario al seleccionar una fila.
+     */
+    void conValor(Integer idCliente, Consumer<T> accion) {
+        Entrada<T> e = entrada(idCliente);
+        if (e.cargado) {
+            accion.accept(e.valor.get());
+            return;
+        }
+        // Se guarda la acción y se ejecuta al terminar la carga, aunque en la BD
+        // no haya valor (un listener de la propiedad no saltaría con null).
+        if (e.esperando == null) {
+            e.esperando = new ArrayList<>(1);
+        }
+        e.esperando.add(accion);
+        solicitar(List.of(idCliente));
+    }
+
+    /** Qué hacer si falla una carga (en el hilo FX). */
+    void setAlError(Consumer<Throwable> alError) {
+        this.alError = alError;
+    }
+
+    /** Vacía la caché (p. ej. tras recargar o guardar). */
+    void limpiar() {
+        cache.clear();
+    }
+
+    /** Usa una fuente local antes que la BD (null = solo BD). */
+    void setFuenteLocal(FuenteLocal<T> fuenteLocal) {
+        this.fuenteLocal = fuenteLocal;
+        cache.clear();
+    }
+
+    private Entrada<T> entrada(Integer idCliente) {
+        Entrada<T> e = cache.get(idCliente);
+        if (e == null) {
+            e = new Entrada<>();
+            if (fuenteLocal != null && fuenteLocal.contiene(idCliente)) {
+                e.cargado = true;
+                e.valor.set(fuenteLocal.valor(idCliente));
+            }
+            cache.put(idCliente, e);
+        }
+        return e;
+    }
+
+    void cerrar() {
+        cargador.close();
+    }
+
+    // =========================================================================
+    //  CARGA DEL RANGO VISIBLE
+    // =========================================================================
+
+    private void programarCarga() {
+        if (cargaProgramada) {
+            return;
+        }
+        cargaProgramada = true;
+        // Se espera al final del pulso para que el VirtualFlow ya tenga las celdas colocadas.
+        Platform.runLater(() -> {
+            cargaProgramada = false;
+            cargarRangoVisible();
+        });
+    }
+
+    private void cargarRangoVisible() {
+        List<Cliente> items = tabla.getItems();
+        if (items.isEmpty()) {
+            return;
+        }
+
+        int primera = 0;
+        int ultima = Math.min(items.size() - 1, 50);
+
+        VirtualFlow<?> flow = (VirtualFlow<?>) tabla.lookup(".virtual-flow");
+        if (flow != null) {
+            IndexedCell<?> a = flow.getFirstVisibleCell();
+            IndexedCell<?> b = flow.getLastVisibleCell();
+            if (a != null && b != null) {
+                primera = a.getIndex();
+                ultima = b.getIndex();
+            }
+        }
+
+        primera = Math.max(0, primera - margen);
+        ultima = Math.min(items.size() - 1, ultima + margen);
+
+        List<Integer> ids = new ArrayList<>();
+        for (int i = primera; i <= ultima; i++) {
+            ids.add(items.get(i).getId());
+        }
+        solicitar(ids);
+    }
+
+    private void solicitar(List<Integer> ids) {
+        List<Integer> pedir = new ArrayList<>();
+        List<CompletableFuture<T>> futuros = new ArrayList<>();
+
+        for (Integer id : ids) {
+            Entrada<T> e = entrada(id);
+            if (e.cargado || e.solicitado) {
+                continue;
+            }
+            e.solicitado = true;
+            pedir.add(id);
+            futuros.add(cargador.cargar(id));
+        }
+
+        if (pedir.isEmpty()) {
+            return;
+        }
+
+        // Un único runLater por tanda, no uno por fila.
+        CompletableFuture.allOf(futuros.toArray(new CompletableFuture<?>[0]))
+                .whenComplete((ok, error) -> Platform.runLater(() -> aplicar(pedir, futuros, error)));
+    }
+
+    private void aplicar(List<Integer> ids, List<CompletableFuture<T>> futuros, Throwable error) {
+        if (error == null) {
+            errorAvisado = false;
+        } else if (!errorAvisado) {
+            // Una tanda fallida se avisa una vez; las siguientes (p. ej. al seguir
+            // haciendo scroll sin BD) no abren más diálogos hasta que una vaya bien.
+            errorAvisado = true;
+            alError.accept(error instanceof CompletionException ce && ce.getCause() != null ? ce.getCause() : error);
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            Entrada<T> e = cache.get(ids.get(i));
+            if (e == null) {
+                continue; // expulsada de la caché mientras se cargaba
+            }
+            e.solicitado = false;
+            CompletableFuture<T> f = futuros.get(i);
+            List<Consumer<T>> esperando = e.esperando;
+            e.esperando = null;
+            if (!f.isCompletedExceptionally()) {
+                e.cargado = true;
+                T valor = f.join();
+                e.valor.set(valor);
+                if (esperando != null) {
+                    esperando.forEach(a -> a.accept(valor));
+                }
+            }
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package app;
 
+import dao.CacheBusquedas;
 import dao.ClienteDAO;
+import dao.ConflictoVersionException;
 import dao.DetalleClienteDAO;
+import dao.MapaIdentidad;
 import model.Cliente;
 
 import javafx.collections.FXCollections;
@@ -12,13 +15,32 @@ import javafx.scene.control.*;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
 import model.DetalleCliente;
+import model.ResultadoBusqueda;
+import model.ResumenPedidos;
 import services.ClienteDetalle;
+import services.ClientesAsync;
+import services.EscrituraDiferida;
+import services.InstantaneaLocal;
 
+import javafx.application.Platform;
+import javafx.beans.binding.Bindings;
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.value.ObservableValue;
+
+import java.io.IOException;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -44,10 +66,15 @@ public class ClientesView {
     private final TableView<Cliente> tabla = new TableView<>();
     private final ObservableList<Cliente> datos = FXCollections.observableArrayList();
 
-    private final DetalleClienteDAO detalleClienteDAO = new DetalleClienteDAO();
+    // Mapa de identidad de la vista: un único objeto por cliente/detalle, venga de la consulta que venga.
+    // Los objetos están en la tabla: cuando una lectura les copia valores nuevos, se repinta.
+    private final AtomicBoolean repintadoPendiente = new AtomicBoolean();
+    private final MapaIdentidad identidad = new MapaIdentidad(this::repintarTrasRefresco);
+    private final DetalleClienteDAO detalleClienteDAO = new DetalleClienteDAO(identidad);
 
-    // Caché en memoria: idCliente -> detalle
-    private final Map<Integer, DetalleCliente> cacheDetalles = new HashMap<>();
+    // Caché acotada idCliente -> detalle: solo se cargan las filas visibles (+ margen)
+    private final CacheVisibles<DetalleCliente> cacheDetalles =
+            new CacheVisibles<>(tabla, detalleClienteDAO.crearCargador(5, 256), 30, 2_000);
     // Campos de formulario (Cliente)
     private final TextField txtId = new TextField();
     private final TextField txtNombre = new TextField();
@@ -68,22 +95,80 @@ public class ClientesView {
     private final TextField txtBuscar          = new TextField();
     private final Button    btnBuscar          = new Button("Buscar");
     private final Button    btnLimpiarBusqueda = new Button("Limpiar");
+    private final CheckBox  chkTextoLibre      = new CheckBox("En dirección/notas");
+    private final Label     lblFragmento       = new Label();
+
+    // Fragmentos resaltados de la última búsqueda de texto (id -> fragmento)
+    private final Map<Integer, String> fragmentos = new HashMap<>();
+
+    // Copias de la fila que está en el formulario, con la versión con la que
+    // se leyó: es lo que se guarda al actualizar (las instancias de la tabla
+    // son las del mapa de identidad y no se editan). null = no hay fila cargada.
+    private Cliente clienteEditado;
+    private DetalleCliente detalleEditado;
 
     // DAO (acceso a BD)
-    private final ClienteDAO clienteDAO = new ClienteDAO();
+    private final ClienteDAO clienteDAO = new ClienteDAO(identidad);
     private final ClienteDetalle clienteService = new ClienteDetalle();
 
+    // Resultados de búsquedas recientes: al ir tecleando se refinan en memoria
+    private final CacheBusquedas cacheBusquedas = clienteDAO.crearCacheBusquedas(64, 50_000);
+
+    // Resumen de pedidos (nº, total, último) de las filas visibles, calculado en la BD
+    private final CacheVisibles<ResumenPedidos> cacheResumenes =
+            new CacheVisibles<>(tabla, clienteDAO.crearCargadorResumenes(5, 256), 30, 2_000);
+
+    // Columnas del resumen: al ordenar por ellas, la ordenación la hace la BD
+    private final Map<TableColumn<Cliente, ?>, ClienteDAO.CampoResumen> columnasResumen = new HashMap<>();
+    private final ClientesAsync async = new ClientesAsync(2, Duration.ofMinutes(2));
+    private CompletableFuture<int[]> ordenEnServidor;
+
+    // Copia local en disco: se pinta al arrancar y se sincroniza en segundo plano.
+    // La lee el hilo de sincronización y la cambia el hilo FX: volatile.
+    private final InstantaneaLocal instantaneaLocal = new InstantaneaLocal(InstantaneaLocal.rutaPorDefecto());
+    private volatile InstantaneaLocal.Datos datosLocales;
+    private final AtomicBoolean recargaPendiente = new AtomicBoolean();
+    private final ExecutorService sincronizador = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "sincronizacion-clientes");
+        t.setDaemon(true);
+        return t;
+    });
+
     public ClientesView() {
         configurarTabla();
         configurarFormulario();
         configurarEventos();
-        recargarDatos(); // al iniciar la vista cargamos los clientes
+        arrancar(); // al iniciar la vista pintamos la copia local y sincronizamos
+    }
+
+    // Modo escritura diferida (opcional): -Dlv.escrituraDiferida=true o LV_ESCRITURA_DIFERIDA=true.
+    // Se encola desde el hilo FX, así que con la cola llena se rechaza al momento en lugar de esperar.
+    private final EscrituraDiferida escrituraDiferida =
+            escrituraDiferidaActivada() ? new EscrituraDiferida(10_000, 500, 200, 0) : null;
+
+    private static boolean escrituraDiferidaActivada() {
+        return Boolean.getBoolean("lv.escrituraDiferida")
+                || "true".equalsIgnoreCase(System.getenv("LV_ESCRITURA_DIFERIDA"));
     }
 
     public Parent getRoot() {
         return root;
     }
 
+    /**
+     * Libera los recursos de la vista. Si hay escritura diferida, confirma
+     * antes todas las escrituras pendientes.
+     */
+    public void cerrar() {
+        if (escrituraDiferida != null) {
+            escrituraDiferida.close();
+        }
+        cacheDetalles.cerrar();
+        cacheResumenes.cerrar();
+        async.close();
+        sincronizador.shutdown();
+    }
+
     /* =========================================================
        CONFIGURACIÓN INTERFAZ
        ========================================================= */
@@ -101,34 +186,134 @@ public class ClientesView {
         colEmail.setCellValueFactory(c ->
                 new javafx.beans.property.SimpleStringProperty(c.getValue().getEmail()));
 
-        // ===== Columnas “placeholder” para DetalleCliente =====
+        // ===== Columnas de DetalleCliente (carga perezosa de las filas visibles) =====
         TableColumn<Cliente, String> colDireccion = new TableColumn<>("Dirección");
-        colDireccion.setCellValueFactory(c -> {
-            DetalleCliente d = cacheDetalles.get(c.getValue().getId());
-            String valor = (d != null) ? d.getDireccion() : "";
-            return new javafx.beans.property.SimpleStringProperty(valor);
-        });
+        colDireccion.setCellValueFactory(c -> columnaDetalle(c.getValue(), DetalleCliente::getDireccion));
 
         TableColumn<Cliente, String> colTelefono = new TableColumn<>("Teléfono");
-        colTelefono.setCellValueFactory(c -> {
-            DetalleCliente d = cacheDetalles.get(c.getValue().getId());
-            String valor = (d != null) ? d.getTelefono() : "";
-            return new javafx.beans.property.SimpleStringProperty(valor);
-        });
+        colTelefono.setCellValueFactory(c -> columnaDetalle(c.getValue(), DetalleCliente::getTelefono));
 
         TableColumn<Cliente, String> colNotas = new TableColumn<>("Notas");
-        colNotas.setCellValueFactory(c -> {
-            DetalleCliente d = cacheDetalles.get(c.getValue().getId());
-            String valor = (d != null) ? d.getNotas() : "";
-            return new javafx.beans.property.SimpleStringProperty(valor);
-        });
+        colNotas.setCellValueFactory(c -> columnaDetalle(c.getValue(), DetalleCliente::getNotas));
+
+        // ===== Resumen de pedidos (calculado en la BD, ordenable en la BD) =====
+        TableColumn<Cliente, String> colPedidos = new TableColumn<>("Pedidos");
+        colPedidos.setCellValueFactory(c -> columnaResumen(c.getValue(), r -> String.valueOf(r.getNumPedidos())));
+        colPedidos.setStyle("-fx-alignment: CENTER-RIGHT;");
+
+        TableColumn<Cliente, String> colTotal = new TableColumn<>("Total");
+        colTotal.setCellValueFactory(c -> columnaResumen(c.getValue(), r -> "%,.2f €".formatted(r.getTotal())));
+        colTotal.setStyle("-fx-alignment: CENTER-RIGHT;");
+
+        TableColumn<Cliente, String> colUltimo = new TableColumn<>("Último pedido");
+        colUltimo.setCellValueFactory(c -> columnaResumen(c.getValue(),
+                r -> r.getUltimoPedido() != null ? r.getUltimoPedido().toString() : ""));
+
+        columnasResumen.put(colPedidos, ClienteDAO.CampoResumen.PEDIDOS);
+        columnasResumen.put(colTotal, ClienteDAO.CampoResumen.TOTAL);
+        columnasResumen.put(colUltimo, ClienteDAO.CampoResumen.ULTIMO_PEDIDO);
 
         tabla.getColumns().addAll(colId, colNombre, colEmail,
-                colDireccion, colTelefono, colNotas);
+                colDireccion, colTelefono, colNotas,
+                colPedidos, colTotal, colUltimo);
         tabla.setItems(datos);
+        // Si se ordena por una columna del resumen, la BD devuelve los ids ya ordenados.
+        // Si se está mostrando la instantánea columnar, se ordena por permutación
+        // de filas en lugar de copiar y reordenar objetos.
+        tabla.setSortPolicy(t -> {
+            ClienteDAO.CampoResumen campo = t.getSortOrder().isEmpty()
+                    ? null : columnasResumen.get(t.getSortOrder().get(0));
+            if (campo != null) {
+                ordenarEnServidor(campo,
+                        t.getSortOrder().get(0).getSortType() == TableColumn.SortType.DESCENDING);
+                return true;
+            }
+            if (t.getItems() instanceof ListaInstantanea lista) {
+                lista.ordenar(t.getComparator());
+                return true;
+            }
+            return TableView.DEFAULT_SORT_POLICY.call(t);
+        });
+
+        // Los fallos al cargar detalles/resúmenes de las filas visibles se avisan como el resto.
+        cacheDetalles.setAlError(error -> mostrarError("Error al cargar detalles",
+                error instanceof Exception ex ? ex : new RuntimeException(error)));
+        cacheResumenes.setAlError(error -> mostrarError("Error al cargar resúmenes de pedidos",
+                error instanceof Exception ex ? ex : new RuntimeException(error)));
+
+        // Selección múltiple: permite borrar muchos clientes de una vez.
+        tabla.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
 
         root.setCenter(tabla);
     }
+
+    /**
+     * Valor de una columna de detalle. La celda queda enlazada a la propiedad
+     * de la caché, así que se repinta sola cuando llega el detalle de la BD.
+     */
+    private ObservableValue<String> columnaDetalle(Cliente c, Function<DetalleCliente, String> campo) {
+        ObjectProperty<DetalleCliente> p = cacheDetalles.propiedad(c.getId());
+        return Bindings.createStringBinding(() -> {
+            DetalleCliente d = p.get();
+            return (d != null) ? campo.apply(d) : "";
+        }, p);
+    }
+
+    /** Valor de una columna del resumen de pedidos (vacía hasta que llega de la BD). */
+    private ObservableValue<String> columnaResumen(Cliente c, Function<ResumenPedidos, String> campo) {
+        ObjectProperty<ResumenPedidos> p = cacheResumenes.propiedad(c.getId());
+        return Bindings.createStringBinding(() -> {
+            ResumenPedidos r = p.get();
+            return (r != null) ? campo.apply(r) : "";
+        }, p);
+    }
+
+    /**
+     * Ordena la lista mostrada por un campo del resumen de pedidos. La BD
+     * agrega y ordena y solo devuelve los ids en orden; aquí se aplica como
+     * permutación (instantánea) o reordenando la lista de búsqueda.
+     * Si se pide otra ordenación antes de que acabe, la anterior se cancela.
+     */
+    private void ordenarEnServidor(ClienteDAO.CampoResumen campo, boolean descendente) {
+        List<Cliente> items = tabla.getItems();
+        int[] ids = (items instanceof ListaInstantanea)
+                ? null
+                : items.stream().mapToInt(Cliente::getId).toArray();
+
+        if (ordenEnServidor != null) {
+            ordenEnServidor.cancel(true);
+        }
+        CompletableFuture<int[]> f = async.enviar(
+                () -> clienteDAO.idsOrdenadosPorResumen(campo, descendente, ids), null);
+        ordenEnServidor = f;
+
+        f.whenComplete((orden, error) -> Platform.runLater(() -> {
+            if (f != ordenEnServidor || f.isCancelled() || tabla.getItems() != items) {
+                return;   // superada por otra ordenación o la lista ya no es la misma
+            }
+            ordenEnServidor = null;
+            if (error != null) {
+                mostrarError("Error al ordenar", error instanceof Exception ex ? ex : new RuntimeException(error));
+                return;
+            }
+            if (items instanceof ListaInstantanea lista) {
+                lista.ordenarPorIds(orden);
+            } else {
+                Map<Integer, Cliente> porId = new HashMap<>();
+                for (Cliente c : items) {
+                    porId.put(c.getId(), c);
+                }
+                List<Cliente> ordenados = new ArrayList<>(items.size());
+                for (int id : orden) {
+                    Cliente c = porId.remove(id);
+                    if (c != null) ordenados.add(c);
+                }
+                ordenados.addAll(porId.values());
+                datos.setAll(ordenados);
+            }
+        }));
+    }
+
     private void configurarFormulario() {
         GridPane form = new GridPane();
         form.setPadding(new Insets(10));
@@ -165,11 +350,13 @@ public class ClientesView {
 
         // Zona de búsqueda
         HBox zonaBusqueda = new HBox(10,
-                new Label("Buscar:"), txtBuscar, btnBuscar, btnLimpiarBusqueda);
+                new Label("Buscar:"), txtBuscar, chkTextoLibre, btnBuscar, btnLimpiarBusqueda);
         zonaBusqueda.setPadding(new Insets(10, 0, 10, 0));
 
+        lblFragmento.setWrapText(true);
+
         BorderPane bottom = new BorderPane();
-        bottom.setTop(zonaBusqueda);
+        bottom.setTop(new VBox(zonaBusqueda, lblFragmento));
         bottom.setCenter(form);
         bottom.setBottom(botonesCrud);
 
@@ -185,14 +372,27 @@ public class ClientesView {
                 txtNombre.setText(newSel.getNombre());
                 txtEmail.setText(newSel.getEmail());
                 txtId.setDisable(true); // al editar, de momento, no dejamos cambiar el ID
+                clienteEditado = newSel.copia();
+                detalleEditado = null;
 
-                // DetalleCliente (cuando exista DetalleClienteDAO se cargará desde BD)
-                // TODO: cuando implementéis DetalleClienteDAO, aquí:
-                //   - detalleDAO.findById(newSel.getId())
-                //   - rellenar txtDireccion, txtTelefono, txtNotas con sus valores
+                // Búsqueda de texto: enseñamos dónde ha coincidido
+                String fragmento = fragmentos.get(newSel.getId());
+                if (fragmento != null) {
+                    lblFragmento.setText(fragmento);
+                }
+
+                // DetalleCliente: se toma de la caché (o se carga en segundo plano)
                 txtDireccion.clear();
                 txtTelefono.clear();
                 txtNotas.clear();
+                cacheDetalles.conValor(newSel.getId(), d -> {
+                    if (d != null && newSel == tabla.getSelectionModel().getSelectedItem()) {
+                        detalleEditado = d.copia();
+                        txtDireccion.setText(d.getDireccion());
+                        txtTelefono.setText(d.getTelefono());
+                        txtNotas.setText(d.getNotas());
+                    }
+                });
             }
         });
 
@@ -211,6 +411,8 @@ public class ClientesView {
 
         btnLimpiarBusqueda.setOnAction(e -> {
             txtBuscar.clear();
+            fragmentos.clear();
+            lblFragmento.setText("");
             recargarDatos();
         });
     }
@@ -220,28 +422,65 @@ public class ClientesView {
        ========================================================= */
 
     /**
-     * Carga todos los clientes desde la BD usando ClienteDAO.findAll()
+     * Arranque: si hay copia local válida se muestra al momento (sin ir a la BD)
+     * y después se pone al día en segundo plano.
      */
-    private void recargarDatos() {
-        try {
-            // 1) Cargar todos los clientes
-            List<Cliente> clientes = clienteDAO.findAll();
-
-            // 2) Cargar todos los detalles
-            List<DetalleCliente> detalles = detalleClienteDAO.findAll();
+    private void arrancar() {
+        datosLocales = instantaneaLocal.abrir();
+        if (datosLocales != null) {
+            mostrarInstantanea(datosLocales);
+        }
+        recargarDatos();
+    }
 
-            // 3) Rellenar la caché id -> detalle
-            cacheDetalles.clear();
-            for (DetalleCliente d : detalles) {
-                cacheDetalles.put(d.getId(), d);
+    /**
+     * Pone al día la copia local con la BD (solo lo que ha cambiado desde la
+     * última sincronización) en segundo plano y refresca la tabla al terminar.
+     */
+    private void recargarDatos() {
+        // Si ya hay una recarga en cola que aún no ha empezado, esa servirá también para esta.
+        if (!recargaPendiente.compareAndSet(false, true)) {
+            return;
+        }
+        sincronizador.execute(() -> {
+            recargaPendiente.set(false);
+            try {
+                InstantaneaLocal.Datos nuevos = instantaneaLocal.sincronizar(datosLocales);
+                Platform.runLater(() -> {
+                    datosLocales = nuevos;
+                    mostrarInstantanea(nuevos);
+                });
+            } catch (SQLException | IOException e) {
+                Platform.runLater(() -> mostrarError("Error al recargar datos", e));
             }
+        });
+    }
 
-            // 4) Refrescar la tabla  👈 AHORA SÍ
-            datos.setAll(clientes);
+    private void mostrarInstantanea(InstantaneaLocal.Datos d) {
+        // Los detalles se sirven desde la copia local; lo que falte se pide
+        // por lotes a la BD solo para las filas visibles.
+        cacheDetalles.setFuenteLocal(new CacheVisibles.FuenteLocal<>() {
+            @Override public boolean contiene(int idCliente) { return d.contiene(idCliente); }
+            @Override public DetalleCliente valor(int idCliente) { return d.detallePorId(idCliente); }
+        });
+        // Los pedidos pueden haber cambiado: los resúmenes se vuelven a pedir.
+        cacheResumenes.limpiar();
+        // Y los clientes también (quizá desde otro puesto): fuera las búsquedas cacheadas.
+        cacheBusquedas.limpiar();
 
-        } catch (SQLException e) {
-            mostrarError("Error al recargar datos", e);
+        // Si se está mostrando una búsqueda, no la pisamos.
+        if (tabla.getItems() == datos && !txtBuscar.getText().isBlank()) {
+            return;
         }
+
+        // Refrescar la tabla (respetando la ordenación elegida por el usuario)
+        EventoRefresco evento = new EventoRefresco();
+        evento.begin();
+        tabla.setItems(new ListaInstantanea(d.getClientes()));
+        tabla.sort();
+        evento.origen = "instantanea";
+        evento.filas = tabla.getItems().size();
+        evento.commit();
     }
 
 
@@ -272,7 +511,7 @@ public class ClientesView {
                     )
                     .collect(Collectors.toList());
 
-            datos.setAll(filtrados);
+            mostrarLista(filtrados, "memoria");
         } catch (SQLException e) {
             mostrarError("Error al buscar clientes", e);
         }
@@ -282,14 +521,22 @@ public class ClientesView {
     private void buscarClientesEnBBDD(){
         String filtro = txtBuscar.getText().trim();
 
+        fragmentos.clear();
+        lblFragmento.setText("");
+
         if ((filtro.isEmpty())){
             recargarDatos();
             return;
         }
 
+        if (chkTextoLibre.isSelected()) {
+            buscarTextoEnBBDD(filtro);
+            return;
+        }
+
         try {
-            List<Cliente> lista = clienteDAO.search(filtro);
-            datos.setAll(lista);
+            List<Cliente> lista = cacheBusquedas.search(filtro);
+            mostrarLista(lista, "busqueda");
 
         } catch (SQLException e){
             mostrarError("Error al buscar", e);
@@ -297,6 +544,42 @@ public class ClientesView {
 
     }
 
+    /**
+     * Búsqueda de texto completo en dirección y notas: los clientes salen
+     * ordenados por relevancia (primera página de 200).
+     */
+    private void buscarTextoEnBBDD(String filtro) {
+        try {
+            List<ResultadoBusqueda> resultados = detalleClienteDAO.buscarTexto(filtro, 200, 0);
+            int total = resultados.size() < 200 ? resultados.size() : detalleClienteDAO.contarTexto(filtro);
+
+            List<Cliente> lista = new ArrayList<>(resultados.size());
+            for (ResultadoBusqueda r : resultados) {
+                lista.add(r.getCliente());
+                fragmentos.put(r.getCliente().getId(), r.getFragmento());
+            }
+
+            mostrarLista(lista, "textoLibre");
+            lblFragmento.setText(total == lista.size()
+                    ? total + " coincidencias"
+                    : "Mostrando " + lista.size() + " de " + total + " coincidencias");
+
+        } catch (SQLException e) {
+            mostrarError("Error en la búsqueda de texto", e);
+        }
+    }
+
+    /** Pone una lista de resultados en la tabla (medido con el evento JFR lampreas.Refresco). */
+    private void mostrarLista(List<Cliente> lista, String origen) {
+        EventoRefresco evento = new EventoRefresco();
+        evento.begin();
+        datos.setAll(lista);
+        tabla.setItems(datos);
+        evento.origen = origen;
+        evento.filas = lista.size();
+        evento.commit();
+    }
+
     private void limpiarFormulario() {
         txtId.clear();
         txtNombre.clear();
@@ -306,17 +589,17 @@ public class ClientesView {
         txtNotas.clear();
         txtId.setDisable(false);
         tabla.getSelectionModel().clearSelection();
+        clienteEditado = null;
+        detalleEditado = null;
     }
 
     /**
      * Guardar cliente:
      *  - Si no existe en la BD → INSERT usando ClienteDAO.insert()
-     *  - Si existe → por ahora solo muestra un aviso.
-     *
-     * NOTA:
-     *  - Los datos de detalle (dirección, teléfono, notas) todavía NO se guardan.
-     *  - Cuando tengáis DetalleClienteDAO y/o ClienteService, aquí se podrá:
-     *      * insertar/actualizar también el detalle en una transacción.
+     *  - Si existe → UPDATE de cliente y detalle en una transacción con
+     *    ClienteDetalle.actualizarClienteCompleto, sobre copias con la versión
+     *    con la que se cargó el formulario: si otro lo ha cambiado entretanto
+     *    no se guarda y se enseña lo que hay ahora.
      */
     private void guardarCliente() {
         // Con ID manual, vuelve a ser obligatorio
@@ -352,6 +635,11 @@ public class ClientesView {
                 txtNotas.getText().trim()
         );
 
+        if (escrituraDiferida != null) {
+            guardarDiferido(c, d);
+            return;
+        }
+
         try {
             // Comprobamos en BD si ese ID ya existe
             Cliente existente = clienteDAO.findById(id);
@@ -362,11 +650,8 @@ public class ClientesView {
 
                 mostrarInfo("Insertado",
                         "Cliente y detalle creados (sin transacción).");
-            } else {
-
-                mostrarAlerta("Actualizar pendiente",
-                        "El cliente ya existe.\n" +
-                                "Más adelante aquí haremos UPDATE desde el Service.");
+            } else if (!actualizarExistente(existente, c, d)) {
+                return;
             }
 
             recargarDatos();
@@ -378,40 +663,129 @@ public class ClientesView {
     }
 
     /**
-     * Borrar cliente seleccionado.
-     * De momento solo muestra un aviso con un TODO.
-     *
-     * Cuando implementéis ClienteDAO.deleteById(int id),
-     * se puede llamar aquí a ese método.
+     * UPDATE de un cliente que ya existe: se guardan copias de la fila cargada
+     * en el formulario (o, si se ha tecleado el id a mano, de la recién leída)
+     * con los datos del formulario encima. Devuelve false si no se ha guardado
+     * (conflicto, o el cliente no tiene detalle): el formulario se deja como está.
+     */
+    private boolean actualizarExistente(Cliente existente, Cliente c, DetalleCliente d) throws SQLException {
+        boolean cargado = clienteEditado != null && clienteEditado.getId().equals(c.getId());
+
+        Cliente copiaCliente = cargado ? clienteEditado.copia() : existente.copia();
+        copiaCliente.setNombre(c.getNombre());
+        copiaCliente.setEmail(c.getEmail());
+
+        DetalleCliente base = cargado ? detalleEditado : null;
+        if (base == null) {
+            // Id tecleado a mano, o el detalle aún no había llegado al formulario.
+            base = detalleClienteDAO.findById(c.getId());
+        }
+        DetalleCliente copiaDetalle = base != null ? base.copia() : d;
+        copiaDetalle.setDireccion(d.getDireccion());
+        copiaDetalle.setTelefono(d.getTelefono());
+        copiaDetalle.setNotas(d.getNotas());
+
+        try {
+            if (clienteService.actualizarClienteCompleto(copiaCliente, copiaDetalle) == 0) {
+                mostrarAlerta("No actualizado",
+                        "El cliente " + c.getId() + " ya no existe o no tiene detalle.");
+                return false;
+            }
+        } catch (ConflictoVersionException conflicto) {
+            mostrarAlerta("Modificado por otro usuario",
+                    "El cliente " + c.getId() + " ha cambiado desde que se cargó"
+                            + " y no se ha guardado.\nAhora es: " + conflicto.getActual()
+                            + "\nVuelve a seleccionarlo para editar la versión actual.");
+            return false;
+        }
+
+        mostrarInfo("Actualizado", "Cliente y detalle actualizados.");
+        return true;
+    }
+
+    /**
+     * Guardado en modo escritura diferida: el cliente y su detalle se encolan
+     * (insert o update, según exista) y se confirman en lote en segundo plano.
+     * El formulario queda libre al momento; si la escritura falla se avisa.
+     * Si es la fila cargada en el formulario viaja la versión con la que se
+     * leyó: si otro la ha cambiado entretanto, el aviso es el conflicto.
+     */
+    private void guardarDiferido(Cliente c, DetalleCliente d) {
+        if (clienteEditado != null && clienteEditado.getId().equals(c.getId())) {
+            c.setVersion(clienteEditado.getVersion());
+            if (detalleEditado != null) {
+                d.setVersion(detalleEditado.getVersion());
+            }
+        }
+        escrituraDiferida.guardar(c, d).whenComplete((ok, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                mostrarError("Error al guardar el cliente " + c.getId(),
+                        error instanceof Exception ex ? ex : new RuntimeException(error));
+            } else {
+                recargarDatos();
+            }
+        }));
+        limpiarFormulario();
+    }
+
+    /**
+     * Borrar los clientes seleccionados (admite selección múltiple).
      *
-     * Y cuando exista DetalleClienteDAO, sería buena idea borrar primero
-     * el detalle del cliente y luego el cliente (o usar ON DELETE CASCADE
-     * + transacción en un Service).
+     * Se delega en ClienteDetalle.borrarClientesCompletos, que borra
+     * detalle y cliente en una única transacción, con una sola sentencia
+     * por tabla aunque haya miles de clientes seleccionados.
      */
     private void borrarClienteSeleccionado() {
-        Cliente sel = tabla.getSelectionModel().getSelectedItem();
-        if (sel == null) {
-            mostrarAlerta("Sin selección", "Selecciona un cliente en la tabla.");
+        List<Cliente> seleccion = List.copyOf(tabla.getSelectionModel().getSelectedItems());
+        if (seleccion.isEmpty()) {
+            mostrarAlerta("Sin selección", "Selecciona uno o varios clientes en la tabla.");
             return;
         }
 
         Alert confirm = new Alert(Alert.AlertType.CONFIRMATION);
         confirm.setTitle("Confirmar borrado");
-        confirm.setHeaderText("¿Eliminar cliente?");
-        confirm.setContentText("Se borrará el cliente con ID " + sel.getId());
+        if (seleccion.size() == 1) {
+            confirm.setHeaderText("¿Eliminar cliente?");
+            confirm.setContentText("Se borrará el cliente con ID " + seleccion.get(0).getId());
+        } else {
+            confirm.setHeaderText("¿Eliminar " + seleccion.size() + " clientes?");
+            confirm.setContentText("Se borrarán los clientes seleccionados y sus detalles.");
+        }
         if (confirm.showAndWait().orElse(ButtonType.CANCEL) != ButtonType.OK) {
             return;
         }
 
-        // TODO: implementar ClienteDAO.deleteById(int id) y llamarlo aquí.
-        // TODO futuro: cuando haya DetalleClienteDAO, borrar primero detalle,
-        //  después cliente, o delegarlo todo a ClienteService.deleteClienteCompleto(id).
+        int[] ids = seleccion.stream().mapToInt(Cliente::getId).toArray();
 
-        mostrarAlerta("Borrado pendiente",
-                "Aún no existe deleteById en ClienteDAO.\n" +
-                        "Cuando lo implementemos, aquí se llamará al método.");
+        try {
+            int borrados = clienteService.borrarClientesCompletos(ids);
+            for (int id : ids) {
+                identidad.clientes().quitar(id);
+                identidad.detalles().quitar(id);
+            }
+
+            mostrarInfo("Borrado", "Clientes borrados: " + borrados);
+
+            recargarDatos();
+            limpiarFormulario();
 
+        } catch (SQLException e) {
+            mostrarError("Error al borrar clientes", e);
+        }
+    }
 
+    /**
+     * Aviso del mapa de identidad: ha copiado valores nuevos en una instancia
+     * que puede estar en la tabla. Los avisos de una ráfaga de lecturas se
+     * juntan en un solo repintado en el hilo FX.
+     */
+    private void repintarTrasRefresco() {
+        if (repintadoPendiente.compareAndSet(false, true)) {
+            Platform.runLater(() -> {
+                repintadoPendiente.set(false);
+                tabla.refresh();
+            });
+        }
     }
 
     /* =========================================================
@@ -0,0 +1,25 @@
+package app;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR: actualización de la tabla en el hilo de JavaFX (setAll / setItems /
+ * sort). Separa el coste de pintar del de consultar, que va en los eventos
+ * de base de datos.
+ */
+@Name("lampreas.Refresco")
+@Label("Refresco de vista")
+@Category({"LampreasVioleta", "Interfaz"})
+final class EventoRefresco extends Event {
+
+    @Label("Origen")
+    @Description("Qué provocó el refresco: busqueda, textoLibre, memoria, instantanea")
+    String origen;
+
+    @Label("Filas")
+    int filas;
+}
@@ -3,18 +3,110 @@ package app;
 import javafx.application.Application;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import services.CuboVentas;
+import services.ParticionesPedido;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.text.ParseException;
 
 public class LampreasVioletaApp extends Application {
+
+    private ClientesView vistaClientes;
+    private static Recording grabacion;
+
+    // Particiones de pedido: se crean al arrancar y cada día, 3 meses por delante
+    private final ParticionesPedido particiones = new ParticionesPedido();
+
+    // Cubo de ventas: si está activado, se reconstruye desde la BD al arrancar (null mientras carga)
+    private static volatile CuboVentas ventas;
+
+    /**
+     * Cubo de ventas de la aplicación, o null si no está activado, aún se está
+     * cargando o falló la carga. Se activa con -Dlv.cuboVentas=true o
+     * LV_CUBO_VENTAS=true: recorre todo el histórico de pedidos al arrancar.
+     */
+    public static CuboVentas ventas() {
+        return ventas;
+    }
+
     @Override
     public void start(Stage stage) {
-        ClientesView vistaClientes = new ClientesView();
+        particiones.programar(3, 0);
+        if (cuboVentasActivado()) {
+            cargarVentas();
+        }
+        vistaClientes = new ClientesView();
         Scene scene = new Scene(vistaClientes.getRoot(), 900, 600);
         stage.setTitle("Gestión de Clientes - Lampreas Violeta");
         stage.setScene(scene);
         stage.show();
     }
 
-    public static void main(String[] args) {
+    @Override
+    public void stop() {
+        // Confirma las escrituras pendientes antes de salir
+        if (vistaClientes != null) {
+            vistaClientes.cerrar();
+        }
+        particiones.close();
+        CuboVentas v = ventas;
+        if (v != null) {
+            v.dejarDeSeguir();
+        }
+        // Al pararse, la grabación se vuelca en el fichero indicado
+        if (grabacion != null) {
+            grabacion.stop();
+            grabacion.close();
+        }
+    }
+
+    private static boolean cuboVentasActivado() {
+        return Boolean.getBoolean("lv.cuboVentas")
+                || "true".equalsIgnoreCase(System.getenv("LV_CUBO_VENTAS"));
+    }
+
+    /**
+     * Carga el cubo en segundo plano (recorre todo el histórico) y lo mantiene
+     * al día. La vista ya puede estar insertando pedidos: cargarYSeguir no
+     * pierde los que se confirmen durante la carga.
+     */
+    private static void cargarVentas() {
+        Thread t = new Thread(() -> {
+            try {
+                ventas = CuboVentas.cargarYSeguir();
+            } catch (SQLException e) {
+                System.err.println("Cubo de ventas: " + e.getMessage());
+            }
+        }, "carga-cubo-ventas");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public static void main(String[] args) throws IOException, ParseException {
+        // LAMPREAS_JFR=fichero.jfr → grabación JFR con el perfil jfr/lampreas.jfc
+        String destino = System.getenv("LAMPREAS_JFR");
+        if (destino != null && !destino.isBlank()) {
+            grabacion = iniciarGrabacion(Path.of(destino));
+        }
         launch(args);
     }
+
+    private static Recording iniciarGrabacion(Path destino) throws IOException, ParseException {
+        try (Reader r = new InputStreamReader(
+                LampreasVioletaApp.class.getResourceAsStream("/jfr/lampreas.jfc"), StandardCharsets.UTF_8)) {
+            Recording rec = new Recording(Configuration.create(r));
+            rec.setName("LampreasVioleta");
+            rec.setToDisk(true);
+            rec.setDestination(destino);
+            rec.start();
+            return rec;
+        }
+    }
 }
@@ -0,0 +1,95 @@
+package app;
+
+import javafx.collections.ObservableListBase;
+import model.Cliente;
+import model.InstantaneaClientes;
+
+import java.util.Comparator;
+
+/**
+ * ObservableList de solo lectura sobre una InstantaneaClientes.
+ *
+ * get(i) devuelve un Cliente flyweight creado al vuelo, de modo que la
+ * TableView solo materializa objetos para las filas que está pintando.
+ * La ordenación no mueve objetos: se guarda una permutación de filas.
+ */
+class ListaInstantanea extends ObservableListBase<Cliente> {
+
+    private final InstantaneaClientes instantanea;
+    private int[] orden;   // null = orden natural (por id)
+
+    ListaInstantanea(InstantaneaClientes instantanea) {
+        this.instantanea = instantanea;
+    }
+
+    InstantaneaClientes getInstantanea() {
+        return instantanea;
+    }
+
+    @Override
+    public Cliente get(int index) {
+        return instantanea.cliente(fila(index));
+    }
+
+    @Override
+    public int size() {
+        return instantanea.tamano();
+    }
+
+    private int fila(int index) {
+        return (orden == null) ? index : orden[index];
+    }
+
+    /**
+     * Reordena según el comparador de la tabla (null = volver al orden por id)
+     * y notifica el cambio como una permutación.
+     */
+    void ordenar(Comparator<? super Cliente> cmp) {
+        aplicarOrden((cmp == null) ? null : instantanea.ordenar(cmp));
+    }
+
+    /**
+     * Reordena siguiendo una lista de ids ya ordenada (p. ej. por la BD).
+     * Los ids que no estén en la instantánea se ignoran y las filas que no
+     * aparezcan en la lista quedan al final, en orden por id.
+     */
+    void ordenarPorIds(int[] idsOrdenados) {
+        int n = size();
+        int[] nuevo = new int[n];
+        boolean[] puesta = new boolean[n];
+        int k = 0;
+        for (int id : idsOrdenados) {
+            int f = instantanea.buscarFila(id);
+            if (f >= 0 && !puesta[f]) {
+                puesta[f] = true;
+                nuevo[k++] = f;
+            }
+        }
+        for (int f = 0; f < n; f++) {
+            if (!puesta[f]) {
+                nuevo[k++] = f;
+            }
+        }
+        aplicarOrden(nuevo);
+    }
+
+    private void aplicarOrden(int[] nuevo) {
+        int n = size();
+
+        // posición actual de cada fila → posición nueva
+        int[] posNueva = new int[n];
+        for (int i = 0; i < n; i++) {
+            posNueva[(nuevo == null) ? i : nuevo[i]] = i;
+        }
+        int[] permutacion = new int[n];
+        for (int i = 0; i < n; i++) {
+            permutacion[i] = posNueva[fila(i)];
+        }
+
+        orden = nuevo;
+
+        beginChange();
+        nextPermutation(0, n, permutacion);
+        endChange();
+    }
+}
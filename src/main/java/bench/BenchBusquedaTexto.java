@@ -0,0 +1,164 @@
+package bench;
+
+import dao.DetalleClienteDAO;
+import db.Db;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+
+/**
+ * Benchmark de la búsqueda de texto completo sobre detalle_cliente
+ * (DetalleClienteDAO.buscarTexto) frente a la alternativa ingenua con ILIKE
+ * sobre direccion y notas, que recorre la tabla entera.
+ *
+ * Para cada consulta mide la primera página con ranking + fragmentos, el
+ * recuento total y la página equivalente con ILIKE.
+ *
+ * Opciones:
+ * <pre>
+ *   --generar N        carga N clientes (con detalle) antes de medir
+ *   --semilla S
+ *   --repeticiones N   por consulta (por defecto 50)
+ *   --pagina N         tamaño de página (por defecto 50)
+ *   --salida fichero   por defecto resultados-busqueda.txt
+ * </pre>
+ */
+public class BenchBusquedaTexto {
+
+    /** Consulta de texto y patrón ILIKE aproximadamente equivalente. */
+    private static final String[][] CONSULTAS = {
+            {"marisco", "%marisco%"},
+            {"lampreas ahumadas", "%lampreas ahumadas%"},
+            {"reclamación retraso", "%reclamación%retraso%"},
+            {"zugarramurdi", "%zugarramurdi%"},
+            {"\"paseo marítimo\" malaga", "%paseo marítimo%málaga%"},
+            {"factura -transferencia", "%factura%"},
+    };
+
+    private static final String ILIKE_SQL = """
+            SELECT d.id, c.nombre, d.direccion, d.notas
+            FROM detalle_cliente d
+            JOIN cliente c ON c.id = d.id
+            WHERE d.direccion ILIKE ? OR d.notas ILIKE ?
+            ORDER BY d.id
+            LIMIT ?
+            """;
+
+    private final DetalleClienteDAO detalleDAO = new DetalleClienteDAO();
+
+    private int repeticiones = 50;
+    private int pagina = 50;
+    private Path salida = Path.of("resultados-busqueda.txt");
+
+    public static void main(String[] args) throws Exception {
+        new BenchBusquedaTexto().ejecutar(args);
+    }
+
+    private void ejecutar(String[] args) throws Exception {
+        GeneradorDatos.Config cfg = new GeneradorDatos.Config();
+        boolean generar = false;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--generar" -> {
+                    generar = true;
+                    cfg.clientes = Integer.parseInt(args[++i]);
+                }
+                case "--semilla" -> cfg.semilla = Long.parseLong(args[++i]);
+                case "--repeticiones" -> repeticiones = Integer.parseInt(args[++i]);
+                case "--pagina" -> pagina = Integer.parseInt(args[++i]);
+                case "--salida" -> salida = Path.of(args[++i]);
+                default -> throw new IllegalArgumentException("Opción desconocida: " + args[i]);
+            }
+        }
+
+        if (generar) {
+            cfg.pedidos = 0;
+            GeneradorDatos gen = new GeneradorDatos(cfg);
+            gen.continuarDespuesDeExistentes();
+            System.out.println(gen.cargar());
+            try (Connection con = Db.getConnection();
+                 Statement st = con.createStatement()) {
+                st.execute("ANALYZE detalle_cliente");
+            }
+        }
+
+        StringWriter informe = new StringWriter();
+        PrintWriter out = new PrintWriter(informe);
+        out.printf("=== Búsqueda de texto %s ===%n", LocalDateTime.now());
+        out.printf("%,d detalles, página de %d, %d repeticiones%n", contarDetalles(), pagina, repeticiones);
+        out.printf("%-28s %9s %-7s %9s %9s %9s%n", "consulta", "total", "modo", "p50 µs", "p99 µs", "máx µs");
+
+        for (String[] c : CONSULTAS) {
+            Histograma texto = new Histograma();
+            Histograma recuento = new Histograma();
+            Histograma ilike = new Histograma();
+            int total = 0;
+
+            for (int k = 0; k < 2; k++) {          // primera vuelta: calentamiento
+                boolean medir = k == 1;
+                for (int r = 0; r < repeticiones; r++) {
+                    long t0 = System.nanoTime();
+                    detalleDAO.buscarTexto(c[0], pagina, 0);
+                    if (medir) texto.registrar(System.nanoTime() - t0);
+
+                    t0 = System.nanoTime();
+                    total = detalleDAO.contarTexto(c[0]);
+                    if (medir) recuento.registrar(System.nanoTime() - t0);
+
+                    t0 = System.nanoTime();
+                    buscarIlike(c[1]);
+                    if (medir) ilike.registrar(System.nanoTime() - t0);
+                }
+            }
+
+            fila(out, c[0], total, "texto", texto);
+            fila(out, "", total, "contar", recuento);
+            fila(out, "", total, "ilike", ilike);
+        }
+
+        out.flush();
+        System.out.print(informe);
+        Files.writeString(salida, informe + System.lineSeparator(),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private static void fila(PrintWriter out, String consulta, int total, String modo, Histograma h) {
+        out.printf("%-28s %,9d %-7s %9d %9d %9d%n",
+                consulta, total, modo, h.percentil(50), h.percentil(99), h.maxMicros());
+    }
+
+    private int buscarIlike(String patron) throws SQLException {
+        try (Connection con = Db.getConnection();
+             PreparedStatement pst = con.prepareStatement(ILIKE_SQL)) {
+            pst.setString(1, patron);
+            pst.setString(2, patron);
+            pst.setInt(3, pagina);
+            int n = 0;
+            try (ResultSet rs = pst.executeQuery()) {
+                while (rs.next()) {
+                    n++;
+                }
+            }
+            return n;
+        }
+    }
+
+    private static long contarDetalles() throws SQLException {
+        try (Connection con = Db.getConnection();
+             Statement st = con.createStatement();
+             ResultSet rs = st.executeQuery("SELECT count(*) FROM detalle_cliente")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package bench;
+
+import dao.ConflictoVersionException;
+import dao.DetalleClienteDAO;
+import db.Db;
+import db.Shards;
+import model.DetalleCliente;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark de contención: varios puestos editan a la vez el detalle de unos
+ * pocos clientes "calientes". Cada edición es leer, pensar (el tiempo que
+ * el usuario tiene el formulario abierto) y guardar.
+ *
+ *  - pesimista: BEGIN; SELECT ... FOR UPDATE; pensar; UPDATE; COMMIT.
+ *    La fila y la conexión quedan ocupadas mientras el usuario piensa.
+ *  - optimista: findById; pensar sin conexión; update con la versión
+ *    leída (DetalleClienteDAO.update). Si hay conflicto se reaplica el
+ *    cambio sobre la fila actual que trae la excepción, sin volver a pensar.
+ *
+ * Las conexiones se limitan a Db.maxConexiones() con un semáforo, como un
+ * pool: así se ve también el coste de tenerlas retenidas.
+ *
+ * Opciones:
+ * <pre>
+ *   --hilos N        puestos concurrentes (por defecto 32)
+ *   --calientes N    clientes entre los que se reparten las ediciones (por defecto 20)
+ *   --pensar MS      tiempo de edición (por defecto 50)
+ *   --duracion S     segundos por modo (por defecto 20)
+ *   --salida fichero por defecto resultados-concurrencia.txt
+ * </pre>
+ */
+public class BenchConcurrenciaOptimista {
+
+    private static final String SELECT_FOR_UPDATE_SQL = """
+            SELECT direccion, telefono, notas
+            FROM detalle_cliente
+            WHERE id = ?
+            FOR UPDATE
+            """;
+
+    private static final String UPDATE_SQL = """
+            UPDATE detalle_cliente
+            SET direccion = ?, telefono = ?, notas = ?, version = version + 1
+            WHERE id = ?
+            """;
+
+    private static final String IDS_SQL = "SELECT id FROM detalle_cliente ORDER BY id LIMIT ?";
+
+    private final DetalleClienteDAO detalleDAO = new DetalleClienteDAO();
+
+    private int hilos = 32;
+    private int calientes = 20;
+    private int pensarMs = 50;
+    private int duracion = 20;
+    private Path salida = Path.of("resultados-concurrencia.txt");
+
+    private int[] ids;
+    private Semaphore conexiones;
+
+    public static void main(String[] args) throws Exception {
+        new BenchConcurrenciaOptimista().ejecutar(args);
+    }
+
+    private void ejecutar(String[] args) throws Exception {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--hilos" -> hilos = Integer.parseInt(args[++i]);
+                case "--calientes" -> calientes = Integer.parseInt(args[++i]);
+                case "--pensar" -> pensarMs = Integer.parseInt(args[++i]);
+                case "--duracion" -> duracion = Integer.parseInt(args[++i]);
+                case "--salida" -> salida = Path.of(args[++i]);
+                default -> throw new IllegalArgumentException("Opción desconocida: " + args[i]);
+            }
+        }
+
+        ids = idsCalientes();
+        conexiones = new Semaphore(Db.maxConexiones(), true);
+
+        StringWriter informe = new StringWriter();
+        PrintWriter out = new PrintWriter(informe);
+        out.printf("=== Concurrencia optimista %s ===%n", LocalDateTime.now());
+        out.printf("%d puestos, %d clientes calientes, %d ms pensando, %d conexiones, %d s por modo%n",
+                hilos, ids.length, pensarMs, Db.maxConexiones(), duracion);
+        out.printf("%-10s %8s %9s %9s %9s %9s %9s %10s%n",
+                "modo", "edic.", "edic./s", "p50 µs", "p99 µs", "máx µs", "conflic.", "errores");
+
+        for (boolean optimista : new boolean[] { false, true }) {
+            fila(out, optimista ? "optimista" : "pesimista", medir(optimista));
+        }
+
+        out.flush();
+        System.out.print(informe);
+        Files.writeString(salida, informe + System.lineSeparator(),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /** Los primeros ids de cada shard, repartidos a partes iguales hasta sumar calientes. */
+    private int[] idsCalientes() throws SQLException {
+        int porShard = (calientes + Db.numShards() - 1) / Db.numShards();
+        List<Integer> l = new ArrayList<>();
+        for (List<Integer> deUnShard : Shards.enTodos(shard -> {
+            List<Integer> ids = new ArrayList<>();
+            try (Connection con = Db.getConnection(shard);
+                 PreparedStatement pst = con.prepareStatement(IDS_SQL)) {
+                pst.setInt(1, porShard);
+                try (ResultSet rs = pst.executeQuery()) {
+                    while (rs.next()) {
+                        ids.add(rs.getInt(1));
+                    }
+                }
+            }
+            return ids;
+        })) {
+            l.addAll(deUnShard);
+        }
+        if (l.size() > calientes) {
+            l = l.subList(0, calientes);
+        }
+        if (l.isEmpty()) {
+            throw new IllegalStateException("No hay detalles de cliente: genera datos con PruebaCarga --generar");
+        }
+        return l.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // =========================================================================
+    //  MEDICIÓN
+    // =========================================================================
+
+    /** Resultados de un hilo (o de todos, fusionados). */
+    private static final class Resultados {
+        final Histograma latencias = new Histograma();
+        long conflictos;
+        long errores;
+
+        void fusionar(Resultados otro) {
+            latencias.fusionar(otro.latencias);
+            conflictos += otro.conflictos;
+            errores += otro.errores;
+        }
+    }
+
+    private Resultados medir(boolean optimista) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(hilos);
+        long fin = System.nanoTime() + TimeUnit.SECONDS.toNanos(duracion);
+
+        List<Future<Resultados>> futuros = new ArrayList<>();
+        for (int h = 0; h < hilos; h++) {
+            SplittableRandom r = new SplittableRandom(31L * h + (optimista ? 1 : 0));
+            futuros.add(pool.submit(() -> bucle(r, optimista, fin)));
+        }
+
+        Resultados total = new Resultados();
+        for (Future<Resultados> f : futuros) {
+            total.fusionar(f.get());
+        }
+        pool.shutdown();
+        return total;
+    }
+
+    private Resultados bucle(SplittableRandom r, boolean optimista, long fin) throws InterruptedException {
+        Resultados res = new Resultados();
+        while (System.nanoTime() < fin) {
+            int id = ids[r.nextInt(ids.length)];
+            String notas = "editado por " + Thread.currentThread().getName() + " #" + r.nextInt(1_000_000);
+            long t0 = System.nanoTime();
+            try {
+                boolean editado = optimista ? editarOptimista(id, notas, res) : editarPesimista(id, notas);
+                // Una fila que no se encontró no es una edición: no cuenta.
+                if (editado) {
+                    res.latencias.registrar(System.nanoTime() - t0);
+                }
+            } catch (SQLException e) {
+                res.errores++;
+            }
+        }
+        return res;
+    }
+
+    /** @return false si la fila no existe (no se ha editado nada) */
+    private boolean editarPesimista(int id, String notas) throws SQLException, InterruptedException {
+        conexiones.acquire();
+        try (Connection con = Db.getConnectionCliente(id)) {
+            con.setAutoCommit(false);
+            try {
+                String direccion;
+                String telefono;
+                try (PreparedStatement pst = con.prepareStatement(SELECT_FOR_UPDATE_SQL)) {
+                    pst.setInt(1, id);
+                    try (ResultSet rs = pst.executeQuery()) {
+                        if (!rs.next()) {
+                            con.rollback();
+                            return false;
+                        }
+                        direccion = rs.getString(1);
+                        telefono = rs.getString(2);
+                    }
+                }
+
+                Thread.sleep(pensarMs);   // con la fila bloqueada y la conexión ocupada
+
+                try (PreparedStatement pst = con.prepareStatement(UPDATE_SQL)) {
+                    pst.setString(1, direccion);
+                    pst.setString(2, telefono);
+                    pst.setString(3, notas);
+                    pst.setInt(4, id);
+                    pst.executeUpdate();
+                }
+                con.commit();
+                return true;
+            } catch (SQLException | InterruptedException e) {
+                con.rollback();
+                throw e;
+            } finally {
+                con.setAutoCommit(true);
+            }
+        } finally {
+            conexiones.release();
+        }
+    }
+
+    /** @return false si la fila no existe (no se ha editado nada) */
+    private boolean editarOptimista(int id, String notas, Resultados res) throws SQLException, InterruptedException {
+        DetalleCliente d;
+        conexiones.acquire();
+        try {
+            d = detalleDAO.findById(id);
+        } finally {
+            conexiones.release();
+        }
+        if (d == null) {
+            return false;
+        }
+
+        Thread.sleep(pensarMs);   // sin conexión ni bloqueos
+        d.setNotas(notas);
+
+        while (true) {
+            conexiones.acquire();
+            try {
+                return detalleDAO.update(d) > 0;
+            } catch (ConflictoVersionException e) {
+                // Otro puesto guardó antes: se reaplica el cambio sobre la fila actual.
+                res.conflictos++;
+                d = e.getDetalleActual();
+                d.setNotas(notas);
+            } finally {
+                conexiones.release();
+            }
+        }
+    }
+
+    private void fila(PrintWriter out, String modo, Resultados r) {
+        Histograma h = r.latencias;
+        out.printf("%-10s %8d %9.1f %9d %9d %9d %9d %10d%n",
+                modo, h.cuenta(), h.cuenta() / (double) duracion,
+                h.percentil(50), h.percentil(99), h.maxMicros(), r.conflictos, r.errores);
+    }
+}
@@ -0,0 +1,210 @@
+package bench;
+
+import dao.PedidoDAO;
+import db.Db;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.SplittableRandom;
+
+/**
+ * Benchmark de particionado: hace crecer el histórico de pedidos año a año
+ * (hacia atrás en el tiempo) y, tras cada tramo, mide la latencia de las
+ * consultas habituales sobre el último mes. Con poda de particiones la
+ * latencia debe mantenerse plana aunque el histórico se multiplique.
+ *
+ * Consultas medidas (todas de PedidoDAO):
+ *  - SEMANA:  findByRango de los últimos 7 días
+ *  - CLIENTE: findByClienteYRango de un cliente al azar en el último mes
+ *  - PEDIDO:  findById de un pedido reciente (id + fecha)
+ *
+ * También cuenta, con EXPLAIN, cuántas particiones toca la consulta SEMANA.
+ *
+ * Opciones:
+ * <pre>
+ *   --anios N          tramos de 12 meses a cargar (por defecto 5)
+ *   --pedidos-anio N   pedidos por tramo (por defecto 200000)
+ *   --clientes N       clientes nuevos para los pedidos (por defecto 10000)
+ *   --consultas N      repeticiones por consulta y tramo (por defecto 300)
+ *   --semilla S
+ *   --salida fichero   por defecto resultados-particiones.txt
+ * </pre>
+ */
+public class BenchPedidosParticionados {
+
+    private final PedidoDAO pedidoDAO = new PedidoDAO();
+
+    private int anios = 5;
+    private int pedidosAnio = 200_000;
+    private int consultas = 300;
+    private Path salida = Path.of("resultados-particiones.txt");
+
+    public static void main(String[] args) throws Exception {
+        new BenchPedidosParticionados().ejecutar(args);
+    }
+
+    private void ejecutar(String[] args) throws Exception {
+        GeneradorDatos.Config cfg = new GeneradorDatos.Config();
+        cfg.pedidos = 0;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--anios" -> anios = Integer.parseInt(args[++i]);
+                case "--pedidos-anio" -> pedidosAnio = Integer.parseInt(args[++i]);
+                case "--clientes" -> cfg.clientes = Integer.parseInt(args[++i]);
+                case "--consultas" -> consultas = Integer.parseInt(args[++i]);
+                case "--semilla" -> cfg.semilla = Long.parseLong(args[++i]);
+                case "--salida" -> salida = Path.of(args[++i]);
+                default -> throw new IllegalArgumentException("Opción desconocida: " + args[i]);
+            }
+        }
+
+        StringWriter informe = new StringWriter();
+        PrintWriter out = new PrintWriter(informe);
+        out.printf("=== Pedidos particionados %s ===%n", LocalDateTime.now());
+
+        // Clientes y productos propios (sin pedidos): los ids quedan contiguos.
+        GeneradorDatos gen = new GeneradorDatos(cfg);
+        gen.continuarDespuesDeExistentes();
+        System.out.println(gen.cargar());
+
+        LocalDate hoy = LocalDate.now();
+        SplittableRandom rnd = new SplittableRandom(cfg.semilla);
+
+        out.printf("%-5s %12s %6s %-8s %9s %9s %9s %9s%n",
+                "años", "pedidos", "parts", "consulta", "media µs", "p50 µs", "p99 µs", "máx µs");
+
+        for (int paso = 1; paso <= anios; paso++) {
+            cfg.desde = hoy.minusYears(paso).plusDays(1);
+            cfg.hasta = hoy.minusYears(paso - 1);
+            cfg.pedidos = pedidosAnio;
+
+            GeneradorDatos.Resumen r = gen.cargarPedidos();
+            cfg.primerPedido += pedidosAnio;
+            System.out.println("Tramo " + paso + ": " + r);
+
+            analizar();
+
+            long total = contar("SELECT count(*) FROM pedido");
+            int particiones = particionesTocadas(hoy.minusDays(7), hoy.plusDays(1));
+            int[] reciente = pedidoReciente(hoy.minusMonths(1));
+
+            Histograma semana = new Histograma();
+            Histograma cliente = new Histograma();
+            Histograma pedido = new Histograma();
+
+            // Calentamiento: una pasada sin medir.
+            for (int k = 0; k < 2; k++) {
+                boolean medir = k == 1;
+                for (int q = 0; q < consultas; q++) {
+                    long t0 = System.nanoTime();
+                    pedidoDAO.findByRango(hoy.minusDays(7), hoy.plusDays(1));
+                    if (medir) semana.registrar(System.nanoTime() - t0);
+
+                    int c = cfg.primerCliente + rnd.nextInt(cfg.clientes);
+                    t0 = System.nanoTime();
+                    pedidoDAO.findByClienteYRango(c, hoy.minusMonths(1), hoy.plusDays(1));
+                    if (medir) cliente.registrar(System.nanoTime() - t0);
+
+                    if (reciente != null) {
+                        t0 = System.nanoTime();
+                        pedidoDAO.findById(reciente[0], LocalDate.ofEpochDay(reciente[1]));
+                        if (medir) pedido.registrar(System.nanoTime() - t0);
+                    }
+                }
+            }
+
+            fila(out, paso, total, particiones, "SEMANA", semana);
+            fila(out, paso, total, particiones, "CLIENTE", cliente);
+            fila(out, paso, total, particiones, "PEDIDO", pedido);
+            System.out.printf("Tramo %d medido: SEMANA p50 %d µs, %d particiones%n",
+                    paso, semana.percentil(50), particiones);
+        }
+
+        out.flush();
+        System.out.print(informe);
+        Files.writeString(salida, informe + System.lineSeparator(),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private static void fila(PrintWriter out, int anios, long pedidos, int particiones, String consulta, Histograma h) {
+        out.printf("%-5d %,12d %6d %-8s %9.0f %9d %9d %9d%n",
+                anios, pedidos, particiones, consulta,
+                h.mediaMicros(), h.percentil(50), h.percentil(99), h.maxMicros());
+    }
+
+    // =========================================================================
+    //  AUXILIARES
+    // =========================================================================
+
+    private static void analizar() throws SQLException {
+        try (Connection con = Db.getConnection();
+             Statement st = con.createStatement()) {
+            st.execute("ANALYZE pedido");
+            st.execute("ANALYZE detalle_pedido");
+        }
+    }
+
+    private static long contar(String sql) throws SQLException {
+        try (Connection con = Db.getConnection();
+             Statement st = con.createStatement();
+             ResultSet rs = st.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    /** Particiones (de ambas tablas) que aparecen en el plan de un rango. */
+    private static int particionesTocadas(LocalDate desde, LocalDate hasta) throws SQLException {
+        String sql = """
+                EXPLAIN SELECT p.id, dp.producto_id
+                FROM pedido p
+                LEFT JOIN detalle_pedido dp
+                       ON dp.pedido_id = p.id AND dp.fecha = p.fecha
+                      AND dp.fecha >= ? AND dp.fecha < ?
+                WHERE p.fecha >= ? AND p.fecha < ?
+                """;
+        int n = 0;
+        try (Connection con = Db.getConnection();
+             PreparedStatement pst = con.prepareStatement(sql)) {
+            pst.setObject(1, desde);
+            pst.setObject(2, hasta);
+            pst.setObject(3, desde);
+            pst.setObject(4, hasta);
+            try (ResultSet rs = pst.executeQuery()) {
+                while (rs.next()) {
+                    String linea = rs.getString(1);
+                    if (linea.matches(".* on (detalle_)?pedido_p\\d{4}_\\d{2}\\b.*")) {
+                        n++;
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    /** Id y fecha (día epoch) de algún pedido desde la fecha indicada, o null. */
+    private static int[] pedidoReciente(LocalDate desde) throws SQLException {
+        try (Connection con = Db.getConnection();
+             PreparedStatement pst = con.prepareStatement(
+                     "SELECT id, fecha FROM pedido WHERE fecha >= ? ORDER BY fecha DESC LIMIT 1")) {
+            pst.setObject(1, desde);
+            try (ResultSet rs = pst.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                return new int[]{rs.getInt(1), (int) rs.getObject(2, LocalDate.class).toEpochDay()};
+            }
+        }
+    }
+}
@@ -0,0 +1,438 @@
+package bench;
+
+import db.Db;
+import db.Shards;
+import services.ParticionesPedido;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.Normalizer;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.SplittableRandom;
+
+/**
+ * Generador de datos sintéticos reproducibles para pruebas de carga.
+ *
+ * Con la misma semilla y configuración se generan exactamente los mismos
+ * clientes, detalles, productos, pedidos y líneas. Cada fila usa su propio
+ * generador derivado de (semilla, tabla, id), así que las tablas se pueden
+ * regenerar por separado y en cualquier orden.
+ *
+ * La carga usa COPY ... FROM STDIN en streaming: no se guarda nada en memoria
+ * salvo el precio de cada producto.
+ *
+ * Con varios shards (ver db.Db) se hace un COPY por shard, en paralelo: cada
+ * cliente, su detalle y sus pedidos van al shard de su id (Db.shardDe) y los
+ * productos se copian en todos, porque los referencian las líneas de pedido.
+ */
+public class GeneradorDatos {
+
+    /** Parámetros de la generación. */
+    public static final class Config {
+        public long semilla = 42;
+        public int clientes = 10_000;
+        public int productos = 500;
+        public int pedidos = 50_000;
+        /** Media de líneas por pedido (distribución geométrica, mínimo 1). */
+        public double lineasMedias = 3.0;
+        public int maxLineas = 20;
+        /** Proporción de clientes que son "casi duplicados" de otro. */
+        public double duplicados = 0.02;
+        public LocalDate desde = LocalDate.now().minusYears(3);
+        public LocalDate hasta = LocalDate.now();
+
+        // Primer id de cada tabla (para no pisar datos existentes).
+        public int primerCliente = 1;
+        public int primerProducto = 1;
+        public int primerPedido = 1;
+    }
+
+    /** Resumen de una carga. */
+    public static final class Resumen {
+        public long clientes, detalles, productos, pedidos, lineas;
+        public long nanos;
+
+        @Override public String toString() {
+            long filas = clientes + detalles + productos + pedidos + lineas;
+            return ("Cargados %,d clientes, %,d detalles, %,d productos, %,d pedidos, %,d líneas"
+                    + " en %.1f s (%,.0f filas/s)")
+                    .formatted(clientes, detalles, productos, pedidos, lineas,
+                            nanos / 1e9, filas * 1e9 / Math.max(1, nanos));
+        }
+    }
+
+    private static final String[] NOMBRES = {
+            "Roberto", "Andrea", "María", "José", "Lucía", "Javier", "Carmen", "Antonio", "Elena", "Manuel",
+            "Laura", "David", "Marta", "Francisco", "Paula", "Daniel", "Sara", "Pablo", "Irene", "Alejandro",
+            "Nerea", "Iñaki", "Ainhoa", "Sergio", "Cristina", "Jorge", "Raquel", "Álvaro", "Noelia", "Rubén"};
+
+    private static final String[] APELLIDOS = {
+            "García", "Rodríguez", "González", "Fernández", "López", "Martínez", "Sánchez", "Pérez", "Gómez",
+            "Martín", "Jiménez", "Ruiz", "Hernández", "Díaz", "Moreno", "Muñoz", "Álvarez", "Romero", "Alonso",
+            "Gutiérrez", "Navarro", "Torres", "Domínguez", "Vázquez", "Ramos", "Gil", "Ramírez", "Serrano",
+            "Etxeberria", "Valenti"};
+
+    private static final String[] DOMINIOS = {
+            "gmail.com", "gmail.com", "gmail.com", "hotmail.com", "hotmail.com", "yahoo.es", "outlook.com",
+            "telefonica.net", "lampreas.es", "correo.eus"};
+
+    private static final String[] CALLES = {
+            "Calle Mayor", "Avenida de la Constitución", "Plaza del Ayuntamiento", "Calle Real", "Paseo Marítimo",
+            "Calle del Carmen", "Avenida de Gasteiz", "Calle San Francisco", "Ronda de Toledo", "Calle Nueva"};
+
+    private static final String[] CIUDADES = {
+            "Madrid", "Barcelona", "Bilbao", "Valencia", "Sevilla", "Zaragoza", "Málaga", "Vitoria-Gasteiz",
+            "Pamplona", "Zugarramurdi"};
+
+    private static final String[] FRASES_NOTAS = {
+            "prefiere entrega por la mañana", "cliente mayorista", "pide factura con IVA desglosado",
+            "llamar antes de enviar", "reclamación pendiente por retraso", "pago por transferencia",
+            "interesado en lampreas ahumadas", "no dejar el paquete al vecino", "descuento por volumen",
+            "alérgico al marisco", "horario de tarde", "envío urgente a la oficina", "cliente desde hace años",
+            "devolución tramitada", "quiere catálogo de temporada"};
+
+    private static final String[] PRODUCTOS = {
+            "Lamprea a la bordelesa", "Lamprea ahumada", "Conserva de lamprea", "Empanada de lamprea",
+            "Paté de lamprea", "Lamprea fresca", "Lamprea en escabeche", "Vino tinto de Rías Baixas",
+            "Lote degustación", "Salsa de lamprea"};
+
+    private static final long TABLA_CLIENTE = 0x1L;
+    private static final long TABLA_PRODUCTO = 0x2L;
+    private static final long TABLA_PEDIDO = 0x3L;
+
+    private final Config cfg;
+    private double[] precios;
+
+    public GeneradorDatos(Config cfg) {
+        this.cfg = cfg;
+    }
+
+    /** Generador determinista para una fila concreta. */
+    private SplittableRandom rng(long tabla, long id) {
+        long s = cfg.semilla * 0x9E3779B97F4A7C15L + tabla * 0xBF58476D1CE4E5B9L + id;
+        return new SplittableRandom(s);
+    }
+
+    /**
+     * Ajusta los primeros ids al siguiente libre de cada tabla (el máximo
+     * de todos los shards), para poder cargar sobre una BD que ya tiene datos.
+     */
+    public void continuarDespuesDeExistentes() throws SQLException {
+        int[] max = new int[3];
+        for (int[] m : Shards.enTodos(shard -> {
+            try (Connection con = Db.getConnection(shard)) {
+                return new int[]{maxId(con, "cliente"), maxId(con, "producto"), maxId(con, "pedido")};
+            }
+        })) {
+            for (int k = 0; k < max.length; k++) {
+                max[k] = Math.max(max[k], m[k]);
+            }
+        }
+        cfg.primerCliente = max[0] + 1;
+        cfg.primerProducto = max[1] + 1;
+        cfg.primerPedido = max[2] + 1;
+    }
+
+    private static int maxId(Connection con, String tabla) throws SQLException {
+        try (PreparedStatement ps = con.prepareStatement("SELECT COALESCE(max(id), 0) FROM " + tabla);
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    // =========================================================================
+    //  CARGA
+    // =========================================================================
+
+    public Resumen cargar() throws SQLException {
+        Resumen r = new Resumen();
+        long t0 = System.nanoTime();
+
+        prepararPrecios();   // antes de repartir el trabajo en hilos
+        for (long[] n : Shards.enTodos(shard -> {
+            try (Connection con = Db.getConnection(shard)) {
+                CopyManager copy = con.unwrap(PGConnection.class).getCopyAPI();
+                Fila cliente = enShard(shard, this::filaCliente);
+                Fila detalle = enShard(shard, this::filaDetalle);
+
+                // Productos: copia completa en cada shard. Clientes y detalles: solo los suyos.
+                return new long[]{
+                        copiar(copy, "COPY producto (id, nombre, precio) FROM STDIN (FORMAT csv)",
+                                cfg.productos, this::filaProducto),
+                        copiar(copy, "COPY cliente (id, nombre, email) FROM STDIN (FORMAT csv)",
+                                cfg.clientes, cliente),
+                        copiar(copy, "COPY detalle_cliente (id, direccion, telefono, notas) FROM STDIN (FORMAT csv)",
+                                cfg.clientes, detalle)};
+            }
+        })) {
+            r.productos = n[0];   // el mismo catálogo en todos los shards
+            r.clientes += n[1];
+            r.detalles += n[2];
+        }
+
+        cargarPedidos(r);
+
+        r.nanos = System.nanoTime() - t0;
+        return r;
+    }
+
+    /**
+     * Carga solo pedidos y líneas, sobre clientes y productos ya existentes
+     * (los ids [primerCliente, primerCliente + clientes) y lo mismo con productos).
+     * Sirve para hacer crecer el histórico por tramos de fechas.
+     * Crea antes las particiones mensuales que hagan falta.
+     */
+    public Resumen cargarPedidos() throws SQLException {
+        Resumen r = new Resumen();
+        long t0 = System.nanoTime();
+        cargarPedidos(r);
+        r.nanos = System.nanoTime() - t0;
+        return r;
+    }
+
+    private void cargarPedidos(Resumen r) throws SQLException {
+        new ParticionesPedido().asegurarParticiones(YearMonth.from(cfg.desde), YearMonth.from(cfg.hasta));
+
+        prepararPrecios();
+        for (long[] n : Shards.enTodos(shard -> {
+            try (Connection con = Db.getConnection(shard)) {
+                CopyManager copy = con.unwrap(PGConnection.class).getCopyAPI();
+                // Cada pedido (y sus líneas) va al shard de su cliente.
+                Fila pedido = (i, sb) -> Db.shardDe(clienteDe(rngPedido(i))) == shard ? filaPedido(i, sb) : 0;
+                Fila lineas = (i, sb) -> Db.shardDe(clienteDe(rngPedido(i))) == shard ? lineasPedido(i, sb) : 0;
+
+                return new long[]{
+                        copiar(copy, "COPY pedido (id, cliente_id, fecha) FROM STDIN (FORMAT csv)",
+                                cfg.pedidos, pedido),
+                        copiar(copy,
+                                "COPY detalle_pedido (pedido_id, fecha, producto_id, cantidad, precio_unit) FROM STDIN (FORMAT csv)",
+                                cfg.pedidos, lineas)};
+            }
+        })) {
+            r.pedidos += n[0];
+            r.lineas += n[1];
+        }
+    }
+
+    /** Escribe las filas de la i-ésima entidad en el buffer y devuelve cuántas filas ha añadido. */
+    @FunctionalInterface
+    private interface Fila {
+        int escribir(int i, StringBuilder sb);
+    }
+
+    /** La fila del i-ésimo cliente (o su detalle) solo si su id cae en el shard. */
+    private Fila enShard(int shard, Fila fila) {
+        return (i, sb) -> Db.shardDe(cfg.primerCliente + i) == shard ? fila.escribir(i, sb) : 0;
+    }
+
+    private long copiar(CopyManager copy, String sql, int n, Fila fila) throws SQLException {
+        CopyIn in = copy.copyIn(sql);
+        long filas = 0;
+        StringBuilder sb = new StringBuilder(128 * 1024);
+        try {
+            for (int i = 0; i < n; i++) {
+                filas += fila.escribir(i, sb);
+                if (sb.length() > 64 * 1024) {
+                    enviar(in, sb);
+                }
+            }
+            enviar(in, sb);
+            in.endCopy();
+        } finally {
+            if (in.isActive()) {
+                in.cancelCopy();
+            }
+        }
+        return filas;
+    }
+
+    private static void enviar(CopyIn in, StringBuilder sb) throws SQLException {
+        byte[] b = sb.toString().getBytes(StandardCharsets.UTF_8);
+        in.writeToCopy(b, 0, b.length);
+        sb.setLength(0);
+    }
+
+    // =========================================================================
+    //  GENERACIÓN DE FILAS
+    // =========================================================================
+
+    private int filaProducto(int i, StringBuilder sb) {
+        int id = cfg.primerProducto + i;
+        SplittableRandom r = rng(TABLA_PRODUCTO, id);
+        String nombre = PRODUCTOS[r.nextInt(PRODUCTOS.length)] + " " + (r.nextInt(900) + 100) + "g";
+        sb.append(id).append(',');
+        csv(sb, nombre);
+        sb.append(',').append(precio(i)).append('\n');
+        return 1;
+    }
+
+    /** Precio en euros con dos decimales; se calcula una sola vez por producto. */
+    private double precio(int i) {
+        if (precios == null) {
+            prepararPrecios();
+        }
+        return precios[i];
+    }
+
+    /** Calcula la tabla de precios (los hilos de cada shard solo la leen). */
+    private void prepararPrecios() {
+        double[] p = new double[cfg.productos];
+        for (int k = 0; k < p.length; k++) {
+            SplittableRandom r = rng(TABLA_PRODUCTO, cfg.primerProducto + k).split();
+            // Log-normal: muchos productos baratos, pocos caros.
+            p[k] = Math.round(Math.exp(1.5 + r.nextDouble() * 3.0) * 100) / 100.0;
+        }
+        precios = p;
+    }
+
+    /** Datos de un cliente: nombre y email (con posibles "casi duplicados"). */
+    private String[] persona(int i) {
+        SplittableRandom r = rng(TABLA_CLIENTE, cfg.primerCliente + i);
+
+        if (i > 0 && r.nextDouble() < cfg.duplicados) {
+            // Casi duplicado de un cliente anterior: mayúsculas, puntos, +etiqueta o errata.
+            String[] base = persona(r.nextInt(i));
+            String nombre = base[0];
+            String email = base[1];
+            switch (r.nextInt(4)) {
+                case 0 -> email = email.toUpperCase();
+                case 1 -> email = email.replaceFirst("\\.", "");
+                case 2 -> email = email.replace("@", "+tienda@");
+                default -> nombre = errata(nombre, r);
+            }
+            return new String[]{nombre, email};
+        }
+
+        String nombre = NOMBRES[r.nextInt(NOMBRES.length)];
+        String ap1 = APELLIDOS[r.nextInt(APELLIDOS.length)];
+        String ap2 = APELLIDOS[r.nextInt(APELLIDOS.length)];
+        String email = (ascii(nombre) + "." + ascii(ap1) + (cfg.primerCliente + i) + "@"
+                + DOMINIOS[r.nextInt(DOMINIOS.length)]).toLowerCase();
+        return new String[]{nombre + " " + ap1 + " " + ap2, email};
+    }
+
+    private static String errata(String s, SplittableRandom r) {
+        int p = 1 + r.nextInt(Math.max(1, s.length() - 2));
+        return s.substring(0, p) + s.substring(p + 1);
+    }
+
+    private static String ascii(String s) {
+        return Normalizer.normalize(s, Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+    }
+
+    private int filaCliente(int i, StringBuilder sb) {
+        String[] p = persona(i);
+        sb.append(cfg.primerCliente + i).append(',');
+        csv(sb, p[0]);
+        sb.append(',');
+        csv(sb, p[1]);
+        sb.append('\n');
+        return 1;
+    }
+
+    private int filaDetalle(int i, StringBuilder sb) {
+        int id = cfg.primerCliente + i;
+        SplittableRandom r = rng(TABLA_CLIENTE, id).split();
+
+        String direccion = CALLES[r.nextInt(CALLES.length)] + " " + (1 + r.nextInt(200)) + ", "
+                + CIUDADES[r.nextInt(CIUDADES.length)];
+        String telefono = "6" + (10_000_000 + r.nextInt(90_000_000));
+
+        StringBuilder notas = new StringBuilder();
+        int frases = r.nextInt(4);   // 0 a 3 frases
+        for (int k = 0; k < frases; k++) {
+            if (k > 0) notas.append(". ");
+            notas.append(FRASES_NOTAS[r.nextInt(FRASES_NOTAS.length)]);
+        }
+
+        sb.append(id).append(',');
+        csv(sb, direccion);
+        sb.append(',').append(telefono).append(',');
+        csv(sb, notas.toString());
+        sb.append('\n');
+        return 1;
+    }
+
+    /** Cliente y fecha de un pedido (compartido por pedido y sus líneas). */
+    private SplittableRandom rngPedido(int i) {
+        return rng(TABLA_PEDIDO, cfg.primerPedido + i);
+    }
+
+    private int clienteDe(SplittableRandom r) {
+        // Algunos clientes compran mucho más que otros (sesgo cuadrático hacia ids bajos).
+        double u = r.nextDouble();
+        return cfg.primerCliente + (int) (u * u * cfg.clientes);
+    }
+
+    private LocalDate fechaDe(SplittableRandom r) {
+        long dias = cfg.hasta.toEpochDay() - cfg.desde.toEpochDay();
+        return cfg.desde.plusDays(r.nextLong(dias + 1));
+    }
+
+    private int filaPedido(int i, StringBuilder sb) {
+        SplittableRandom r = rngPedido(i);
+        sb.append(cfg.primerPedido + i).append(',')
+                .append(clienteDe(r)).append(',')
+                .append(fechaDe(r)).append('\n');
+        return 1;
+    }
+
+    /** Número de líneas: 1 + geométrica, con media lineasMedias y tope maxLineas. */
+    private int numLineas(SplittableRandom r) {
+        double p = 1.0 / Math.max(1.0, cfg.lineasMedias);
+        int n = 1;
+        while (n < cfg.maxLineas && n < cfg.productos && r.nextDouble() > p) {
+            n++;
+        }
+        return n;
+    }
+
+    private int lineasPedido(int i, StringBuilder sb) {
+        SplittableRandom r = rngPedido(i);
+        clienteDe(r);
+        LocalDate fecha = fechaDe(r);   // mismos sorteos que filaPedido
+
+        int pedidoId = cfg.primerPedido + i;
+        int n = numLineas(r);
+        int[] usados = new int[n];   // PK (pedido_id, producto_id): sin productos repetidos
+
+        for (int k = 0; k < n; k++) {
+            int prod;
+            boolean repetido;
+            do {
+                prod = r.nextInt(cfg.productos);
+                repetido = false;
+                for (int j = 0; j < k; j++) {
+                    repetido |= usados[j] == prod;
+                }
+            } while (repetido);
+            usados[k] = prod;
+
+            int cantidad = 1 + (int) Math.floor(-Math.log(1 - r.nextDouble()) * 2);
+            sb.append(pedidoId).append(',')
+                    .append(fecha).append(',')
+                    .append(cfg.primerProducto + prod).append(',')
+                    .append(cantidad).append(',')
+                    .append(precio(prod)).append('\n');
+        }
+        return n;
+    }
+
+    private static void csv(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"') sb.append('"');
+            sb.append(c);
+        }
+        sb.append('"');
+    }
+}
@@ -0,0 +1,80 @@
+package bench;
+
+/**
+ * Histograma de latencias en microsegundos con cubetas log-lineales
+ * (256 sub-cubetas por potencia de dos: error relativo &lt; 0,4 %).
+ *
+ * Memoria fija (~120 KB) y registro O(1). No es thread-safe: se usa uno por
+ * hilo y operación y al final se fusionan con {@link #fusionar(Histograma)}.
+ */
+public final class Histograma {
+
+    private static final int SUB = 9;
+    private static final int MITAD = 1 << (SUB - 1);
+    private static final int CUBETAS = (64 - SUB + 1) * MITAD + MITAD;
+
+    private final long[] cuentas = new long[CUBETAS];
+    private long total;
+    private long suma;
+    private long max;
+
+    /** Registra una duración en nanosegundos. */
+    public void registrar(long nanos) {
+        long micros = Math.max(0, nanos / 1_000);
+        cuentas[indice(micros)]++;
+        total++;
+        suma += micros;
+        if (micros > max) {
+            max = micros;
+        }
+    }
+
+    public void fusionar(Histograma otro) {
+        for (int i = 0; i < CUBETAS; i++) {
+            cuentas[i] += otro.cuentas[i];
+        }
+        total += otro.total;
+        suma += otro.suma;
+        max = Math.max(max, otro.max);
+    }
+
+    public long cuenta() { return total; }
+
+    public long maxMicros() { return max; }
+
+    public double mediaMicros() {
+        return total == 0 ? 0 : (double) suma / total;
+    }
+
+    /** Percentil (0-100) en microsegundos. */
+    public long percentil(double p) {
+        if (total == 0) {
+            return 0;
+        }
+        long objetivo = (long) Math.ceil(total * p / 100.0);
+        long acumulado = 0;
+        for (int i = 0; i < CUBETAS; i++) {
+            acumulado += cuentas[i];
+            if (acumulado >= Math.max(1, objetivo)) {
+                return Math.min(valor(i), max);
+            }
+        }
+        return max;
+    }
+
+    private static int indice(long v) {
+        int e = 63 - Long.numberOfLeadingZeros(v | 1);
+        int desplazamiento = Math.max(0, e - SUB + 1);
+        return (int) ((long) desplazamiento * MITAD + (v >>> desplazamiento));
+    }
+
+    /** Límite superior de la cubeta. */
+    private static long valor(int i) {
+        if (i < (1 << SUB)) {
+            return i;
+        }
+        int desplazamiento = (i >> (SUB - 1)) - 1;
+        long m = i - (long) desplazamiento * MITAD;
+        return ((m + 1) << desplazamiento) - 1;
+    }
+}
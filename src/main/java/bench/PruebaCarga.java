@@ -0,0 +1,316 @@
+package bench;
+
+import dao.ClienteDAO;
+import dao.DetalleClienteDAO;
+import db.ControlAdmision;
+import db.Db;
+import db.Shards;
+import model.Cliente;
+import model.DetalleCliente;
+import services.ClienteDetalle;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prueba de carga: genera (opcionalmente) un conjunto de datos sintético
+ * reproducible y después lanza una mezcla de lecturas y escrituras contra
+ * los DAOs y ClienteDetalle con la concurrencia indicada.
+ *
+ * Al final informa por operación de throughput, latencias (p50/p90/p99/p99.9/máx)
+ * y errores, más el uso de conexiones, y lo añade al fichero de resultados.
+ *
+ * Opciones (todas opcionales):
+ * <pre>
+ *   --generar                 carga datos sintéticos antes de la prueba
+ *   --clientes N --productos N --pedidos N --lineas-medias X --semilla S
+ *   --hilos N                 concurrencia (por defecto 8)
+ *   --duracion S              segundos de medición (por defecto 30)
+ *   --calentamiento S         segundos previos sin medir (por defecto 5)
+ *   --mezcla leer=40,lote=10,buscar=10,detalle=20,actualizar=15,alta=5
+ *   --salida fichero          por defecto resultados-carga.txt
+ * </pre>
+ */
+public class PruebaCarga {
+
+    /** Operaciones de la mezcla. */
+    enum Operacion {
+        LEER,        // ClienteDAO.findById
+        LOTE,        // ClienteDAO.findByIds (50 ids)
+        BUSCAR,      // ClienteDAO.search
+        DETALLE,     // DetalleClienteDAO.findById
+        ACTUALIZAR,  // DetalleClienteDAO.findById + update (optimista)
+        ALTA         // ClienteDetalle.guardarClienteCompleto
+    }
+
+    private static final String[] PREFIJOS_BUSQUEDA = {"rob", "and", "mar", "gar", "lop", "gmail", "lucia", "7"};
+
+    private final ClienteDAO clienteDAO = new ClienteDAO();
+    private final DetalleClienteDAO detalleDAO = new DetalleClienteDAO();
+    private final ClienteDetalle servicio = new ClienteDetalle();
+
+    private final Map<Operacion, Integer> mezcla = new EnumMap<>(Operacion.class);
+    private int hilos = 8;
+    private int duracion = 30;
+    private int calentamiento = 5;
+    private long semilla = 42;
+    private Path salida = Path.of("resultados-carga.txt");
+
+    private int minId;
+    private int maxId;
+    private AtomicInteger siguienteAlta;
+
+    public static void main(String[] args) throws Exception {
+        new PruebaCarga().ejecutar(args);
+    }
+
+    private void ejecutar(String[] args) throws Exception {
+        GeneradorDatos.Config cfg = new GeneradorDatos.Config();
+        boolean generar = false;
+
+        mezcla.put(Operacion.LEER, 40);
+        mezcla.put(Operacion.LOTE, 10);
+        mezcla.put(Operacion.BUSCAR, 10);
+        mezcla.put(Operacion.DETALLE, 20);
+        mezcla.put(Operacion.ACTUALIZAR, 15);
+        mezcla.put(Operacion.ALTA, 5);
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--generar" -> generar = true;
+                case "--clientes" -> cfg.clientes = Integer.parseInt(args[++i]);
+                case "--productos" -> cfg.productos = Integer.parseInt(args[++i]);
+                case "--pedidos" -> cfg.pedidos = Integer.parseInt(args[++i]);
+                case "--lineas-medias" -> cfg.lineasMedias = Double.parseDouble(args[++i]);
+                case "--semilla" -> cfg.semilla = semilla = Long.parseLong(args[++i]);
+                case "--hilos" -> hilos = Integer.parseInt(args[++i]);
+                case "--duracion" -> duracion = Integer.parseInt(args[++i]);
+                case "--calentamiento" -> calentamiento = Integer.parseInt(args[++i]);
+                case "--mezcla" -> leerMezcla(args[++i]);
+                case "--salida" -> salida = Path.of(args[++i]);
+                default -> throw new IllegalArgumentException("Opción desconocida: " + args[i]);
+            }
+        }
+
+        StringWriter informe = new StringWriter();
+        PrintWriter out = new PrintWriter(informe);
+        out.printf("=== Prueba de carga %s ===%n", LocalDateTime.now());
+
+        if (generar) {
+            GeneradorDatos gen = new GeneradorDatos(cfg);
+            gen.continuarDespuesDeExistentes();
+            GeneradorDatos.Resumen r = gen.cargar();
+            out.println("Semilla " + cfg.semilla + ". " + r);
+            System.out.println(r);
+        }
+
+        rangoIds();
+        out.printf("Clientes con ids %d..%d, %d hilos, %d s (+%d s calentamiento), mezcla %s%n",
+                minId, maxId, hilos, duracion, calentamiento, mezcla);
+
+        medir(out);
+
+        out.flush();
+        System.out.print(informe);
+        Files.writeString(salida, informe + System.lineSeparator(),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private void leerMezcla(String s) {
+        mezcla.clear();
+        for (String par : s.split(",")) {
+            String[] kv = par.split("=");
+            mezcla.put(Operacion.valueOf(kv[0].trim().toUpperCase()), Integer.parseInt(kv[1].trim()));
+        }
+    }
+
+    /** Rango de ids de cliente de todos los shards juntos. */
+    private void rangoIds() throws SQLException {
+        minId = Integer.MAX_VALUE;
+        maxId = 0;
+        for (int[] r : Shards.enTodos(shard -> {
+            try (Connection con = Db.getConnection(shard);
+                 PreparedStatement ps = con.prepareStatement("SELECT min(id), max(id) FROM cliente");
+                 ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return new int[]{rs.getInt(1), rs.getInt(2)};
+            }
+        })) {
+            if (r[1] != 0) {   // shard vacío: min y max son NULL (0)
+                minId = Math.min(minId, r[0]);
+                maxId = Math.max(maxId, r[1]);
+            }
+        }
+        if (maxId == 0) {
+            throw new IllegalStateException("No hay clientes: usa --generar");
+        }
+        // Las altas van muy por encima de los ids existentes para no chocar.
+        siguienteAlta = new AtomicInteger(maxId + 1_000_000);
+    }
+
+    // =========================================================================
+    //  MEDICIÓN
+    // =========================================================================
+
+    /** Resultados de un hilo: un histograma y un contador de errores por operación. */
+    private static final class Resultados {
+        final Map<Operacion, Histograma> latencias = new EnumMap<>(Operacion.class);
+        final Map<Operacion, Long> errores = new EnumMap<>(Operacion.class);
+
+        Resultados() {
+            for (Operacion op : Operacion.values()) {
+                latencias.put(op, new Histograma());
+                errores.put(op, 0L);
+            }
+        }
+    }
+
+    private void medir(PrintWriter out) throws Exception {
+        Operacion[] ruleta = construirRuleta();
+        ExecutorService pool = Executors.newFixedThreadPool(hilos);
+
+        long inicioMedida = System.nanoTime() + TimeUnit.SECONDS.toNanos(calentamiento);
+        long fin = inicioMedida + TimeUnit.SECONDS.toNanos(duracion);
+
+        // Muestreo del uso de conexiones cada 100 ms durante la medición.
+        AtomicLong muestras = new AtomicLong();
+        AtomicLong sumaAbiertas = new AtomicLong();
+        ScheduledExecutorService muestreo = Executors.newSingleThreadScheduledExecutor();
+        muestreo.scheduleAtFixedRate(() -> {
+            if (System.nanoTime() >= inicioMedida) {
+                muestras.incrementAndGet();
+                sumaAbiertas.addAndGet(Db.conexionesAbiertas());
+            }
+        }, 0, 100, TimeUnit.MILLISECONDS);
+        muestreo.schedule(() -> {
+                    Db.reiniciarEstadisticas();
+                    ControlAdmision.reiniciarEstadisticas();
+                },
+                TimeUnit.NANOSECONDS.toMillis(inicioMedida - System.nanoTime()), TimeUnit.MILLISECONDS);
+
+        List<Future<Resultados>> futuros = new ArrayList<>();
+        for (int h = 0; h < hilos; h++) {
+            SplittableRandom r = new SplittableRandom(semilla * 31 + h);
+            futuros.add(pool.submit(() -> bucle(r, ruleta, inicioMedida, fin)));
+        }
+
+        Resultados total = new Resultados();
+        for (Future<Resultados> f : futuros) {
+            Resultados r = f.get();
+            for (Operacion op : Operacion.values()) {
+                total.latencias.get(op).fusionar(r.latencias.get(op));
+                total.errores.merge(op, r.errores.get(op), Long::sum);
+            }
+        }
+        pool.shutdown();
+        muestreo.shutdownNow();
+
+        double segundos = duracion;
+        long operaciones = 0;
+        out.printf("%-11s %10s %10s %9s %9s %9s %9s %9s %9s %7s%n",
+                "operación", "ops", "ops/s", "media µs", "p50 µs", "p90 µs", "p99 µs", "p99.9 µs", "máx µs", "errores");
+        for (Operacion op : Operacion.values()) {
+            Histograma h = total.latencias.get(op);
+            operaciones += h.cuenta();
+            out.printf("%-11s %10d %10.1f %9.0f %9d %9d %9d %9d %9d %7d%n",
+                    op.name().toLowerCase(), h.cuenta(), h.cuenta() / segundos, h.mediaMicros(),
+                    h.percentil(50), h.percentil(90), h.percentil(99), h.percentil(99.9), h.maxMicros(),
+                    total.errores.get(op));
+        }
+        out.printf("TOTAL %,d ops → %,.1f ops/s%n", operaciones, operaciones / segundos);
+        out.printf("Conexiones: %,d abiertas en total (%,.1f/s), media simultáneas %.1f, máx %d, %.0f µs medios en abrir%n",
+                Db.conexionesTotales(), Db.conexionesTotales() / segundos,
+                muestras.get() == 0 ? 0 : (double) sumaAbiertas.get() / muestras.get(),
+                Db.maxConexionesAbiertas(), Db.microsMediosAdquisicion());
+        out.printf("Admisión (los rechazos por sobrecarga cuentan como errores):%n%s",
+                ControlAdmision.estadisticas());
+    }
+
+    private Operacion[] construirRuleta() {
+        List<Operacion> l = new ArrayList<>();
+        mezcla.forEach((op, peso) -> {
+            for (int i = 0; i < peso; i++) l.add(op);
+        });
+        if (l.isEmpty()) {
+            throw new IllegalArgumentException("La mezcla no tiene ninguna operación");
+        }
+        return l.toArray(new Operacion[0]);
+    }
+
+    private Resultados bucle(SplittableRandom r, Operacion[] ruleta, long inicioMedida, long fin) {
+        Resultados res = new Resultados();
+        long ahora;
+        while ((ahora = System.nanoTime()) < fin) {
+            Operacion op = ruleta[r.nextInt(ruleta.length)];
+            boolean medir = ahora >= inicioMedida;
+            long t0 = System.nanoTime();
+            try {
+                operar(op, r);
+                if (medir) {
+                    res.latencias.get(op).registrar(System.nanoTime() - t0);
+                }
+            } catch (SQLException | RuntimeException e) {
+                if (medir) {
+                    res.errores.merge(op, 1L, Long::sum);
+                }
+            }
+        }
+        return res;
+    }
+
+    private int idAleatorio(SplittableRandom r) {
+        return minId + r.nextInt(maxId - minId + 1);
+    }
+
+    private void operar(Operacion op, SplittableRandom r) throws SQLException {
+        switch (op) {
+            case LEER -> clienteDAO.findById(idAleatorio(r));
+            case LOTE -> {
+                int[] ids = new int[50];
+                for (int i = 0; i < ids.length; i++) ids[i] = idAleatorio(r);
+                clienteDAO.findByIds(ids);
+            }
+            case BUSCAR -> clienteDAO.search(PREFIJOS_BUSQUEDA[r.nextInt(PREFIJOS_BUSQUEDA.length)]);
+            case DETALLE -> detalleDAO.findById(idAleatorio(r));
+            case ACTUALIZAR -> {
+                // Leer y guardar con la versión leída (bloqueo optimista): un
+                // conflicto con otro hilo cuenta como error de la operación.
+                DetalleCliente d = detalleDAO.findById(idAleatorio(r));
+                if (d != null) {
+                    d.setDireccion("Calle Carga " + r.nextInt(1000));
+                    d.setTelefono("6" + (10_000_000 + r.nextInt(90_000_000)));
+                    d.setNotas("actualizado por prueba de carga");
+                    detalleDAO.update(d);
+                }
+            }
+            case ALTA -> {
+                int id = siguienteAlta.incrementAndGet();
+                servicio.guardarClienteCompleto(
+                        new Cliente(id, "Carga " + id, "carga" + id + "@lampreas.es"),
+                        new DetalleCliente(id, "Calle Carga " + id, "600000000", "alta de prueba de carga"));
+            }
+        }
+    }
+}
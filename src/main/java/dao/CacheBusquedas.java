@@ -0,0 +1,211 @@
+package dao;
+
+import model.Cliente;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Caché de resultados de ClienteDAO.search para la búsqueda mientras se teclea.
+ *
+ * Al escribir "rob", "robe", "rober"... cada filtro contiene al anterior, así
+ * que sus resultados son un subconjunto de los ya traídos: en lugar de repetir
+ * el ILIKE en la BD se vuelven a filtrar en memoria los de la entrada más
+ * específica que sirva (la de clave más larga contenida en el filtro nuevo).
+ *
+ *  - Clave: el filtro en minúsculas, igual que compara ILIKE.
+ *  - Filtros con %, _ o \ no se cachean ni se refinan: para ILIKE son
+ *    comodines y la comparación por subcadena daría otro resultado.
+ *  - Resultados de más de maxResultados filas no se guardan (filtros cortos
+ *    como "a"): ocuparían mucho y refinar sobre ellos apenas ahorra.
+ *  - Se guardan solo los ids, no los Cliente: la caché no retiene las
+ *    instancias del mapa de identidad (que son débiles precisamente para
+ *    que el GC las pueda recoger). Al servir una entrada, cada id se resuelve
+ *    con la instancia viva del mapa y los que ya no estén se leen por clave
+ *    primaria en una sola consulta (findByIds), mucho más barata que el ILIKE.
+ *  - Expulsión LRU por encima de maxEntradas.
+ *  - Cualquier escritura en cliente a través de ClienteDAO (o marcada con
+ *    ClienteDAO.marcarCambios) vacía la caché. Los cambios hechos por otros
+ *    procesos no se ven hasta la siguiente escritura local o {@link #limpiar()}.
+ */
+public class CacheBusquedas {
+
+    private final ClienteDAO clienteDAO;
+    private final int maxEntradas;
+    private final int maxResultados;
+
+    private final LinkedHashMap<String, int[]> entradas;   // filtro → ids, en orden
+    private long version = ClienteDAO.versionDatos();
+
+    private long aciertos;
+    private long refinadas;
+    private long fallos;
+    private long releidos;    // ids servidos desde la caché que ya no estaban vivos en el mapa
+
+    public CacheBusquedas(ClienteDAO clienteDAO, int maxEntradas, int maxResultados) {
+        if (maxEntradas <= 0) {
+            throw new IllegalArgumentException("maxEntradas debe ser > 0");
+        }
+        this.clienteDAO = clienteDAO;
+        this.maxEntradas = maxEntradas;
+        this.maxResultados = maxResultados;
+        this.entradas = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) {
+                return size() > CacheBusquedas.this.maxEntradas;
+            }
+        };
+    }
+
+    /**
+     * Mismo resultado que ClienteDAO.search(filtro), ordenado por id. La lista
+     * devuelta es nueva y se puede modificar.
+     */
+    public List<Cliente> search(String filtro) throws SQLException {
+        if (filtro == null || tieneComodines(filtro)) {
+            return clienteDAO.search(filtro);
+        }
+        String clave = filtro.toLowerCase(Locale.ROOT);
+
+        int[] exacta;
+        int[] base;
+        long versionConsulta;
+        synchronized (this) {
+            comprobarVersion();
+            versionConsulta = version;
+            exacta = entradas.get(clave);
+            base = (exacta == null) ? mejorBase(clave) : null;
+            if (exacta != null) {
+                aciertos++;
+            } else if (base != null) {
+                refinadas++;
+            } else {
+                fallos++;
+            }
+        }
+
+        // Las lecturas van fuera del cerrojo: no bloquean a otros hilos.
+        if (exacta != null) {
+            return resolver(exacta);
+        }
+
+        List<Cliente> lista;
+        if (base != null) {
+            lista = new ArrayList<>();
+            for (Cliente c : resolver(base)) {
+                if (coincide(c, clave)) {
+                    lista.add(c);
+                }
+            }
+        } else {
+            lista = clienteDAO.search(filtro);
+        }
+
+        synchronized (this) {
+            comprobarVersion();
+            // Si hubo una escritura mientras tanto, el resultado puede estar viejo: no se guarda.
+            if (version == versionConsulta && lista.size() <= maxResultados) {
+                entradas.put(clave, ids(lista));
+            }
+        }
+        return lista;
+    }
+
+    /** Vacía la caché (por ejemplo, tras recargar datos cambiados desde fuera). */
+    public synchronized void limpiar() {
+        entradas.clear();
+    }
+
+    public synchronized String estadisticas() {
+        long total = aciertos + refinadas + fallos;
+        return "CacheBusquedas{entradas=%d, aciertos=%d, refinadas=%d, fallos=%d, sin ILIKE=%.0f %%, releídos=%d}"
+                .formatted(entradas.size(), aciertos, refinadas, fallos,
+                        total == 0 ? 0.0 : (aciertos + refinadas) * 100.0 / total, releidos);
+    }
+
+    // =========================================================================
+    //  AUXILIARES
+    // =========================================================================
+
+    private void comprobarVersion() {
+        long actual = ClienteDAO.versionDatos();
+        if (actual != version) {
+            entradas.clear();
+            version = actual;
+        }
+    }
+
+    /**
+     * Los clientes de unos ids, en el mismo orden: la instancia viva del mapa
+     * de identidad si la hay y, los demás, de una consulta por clave primaria.
+     * Los que ya no existan no aparecen.
+     */
+    private List<Cliente> resolver(int[] ids) throws SQLException {
+        MapaIdentidad identidad = clienteDAO.identidad();
+        Cliente[] vivos = new Cliente[ids.length];
+        int[] faltan = new int[ids.length];
+        int n = 0;
+        for (int i = 0; i < ids.length; i++) {
+            vivos[i] = (identidad != null) ? identidad.clientes().buscar(ids[i]) : null;
+            if (vivos[i] == null) {
+                faltan[n++] = ids[i];
+            }
+        }
+
+        Map<Integer, Cliente> leidos = new HashMap<>();
+        if (n > 0) {
+            for (Cliente c : clienteDAO.findByIds(Arrays.copyOf(faltan, n))) {
+                leidos.put(c.getId(), c);
+            }
+            synchronized (this) {
+                releidos += n;
+            }
+        }
+
+        List<Cliente> out = new ArrayList<>(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            Cliente c = (vivos[i] != null) ? vivos[i] : leidos.get(ids[i]);
+            if (c != null) {
+                out.add(c);
+            }
+        }
+        return out;
+    }
+
+    private static int[] ids(List<Cliente> lista) {
+        int[] ids = new int[lista.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = lista.get(i).getId();
+        }
+        return ids;
+    }
+
+    /** La entrada guardada más específica cuya clave está contenida en la nueva. */
+    private int[] mejorBase(String clave) {
+        String mejor = null;
+        for (String k : entradas.keySet()) {
+            if (clave.contains(k) && (mejor == null || k.length() > mejor.length())) {
+                mejor = k;
+            }
+        }
+        // get() para que cuente como uso reciente en el LRU.
+        return mejor == null ? null : entradas.get(mejor);
+    }
+
+    /** Lo mismo que el WHERE de SEARCH_SQL con el patrón %clave%. */
+    private static boolean coincide(Cliente c, String clave) {
+        return String.valueOf(c.getId()).contains(clave)
+                || (c.getNombre() != null && c.getNombre().toLowerCase(Locale.ROOT).contains(clave))
+                || (c.getEmail() != null && c.getEmail().toLowerCase(Locale.ROOT).contains(clave));
+    }
+
+    private static boolean tieneComodines(String filtro) {
+        return filtro.indexOf('%') >= 0 || filtro.indexOf('_') >= 0 || filtro.indexOf('\\') >= 0;
+    }
+}
@@ -0,0 +1,183 @@
+package dao;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Cargador por lotes al estilo DataLoader.
+ *
+ * Recoge las peticiones de un único id que llegan desde varios hilos durante
+ * una ventana corta (o hasta llenar un lote) y las resuelve con UNA sola
+ * consulta multi-get. Cada llamante recibe su propio CompletableFuture,
+ * que se completa con la entidad o con null si el id no existe.
+ *
+ * Uso típico:
+ * <pre>
+ *   CargadorPorLotes&lt;Cliente&gt; cargador = clienteDAO.crearCargador(2, 256);
+ *   cargador.cargar(42).thenAccept(c -&gt; ...);
+ * </pre>
+ */
+public class CargadorPorLotes<T> implements AutoCloseable {
+
+    /** Consulta que resuelve un lote de ids de una vez (normalmente un findByIds). */
+    @FunctionalInterface
+    public interface ConsultaLote<T> {
+        Map<Integer, T> cargar(int[] ids) throws SQLException;
+    }
+
+    private final ConsultaLote<T> consulta;
+    private final long ventanaMillis;
+    private final int maxLote;
+
+    // Un hilo para programar el cierre de ventanas y otro pool para lanzar las consultas,
+    // así una consulta lenta no retrasa la ventana siguiente.
+    private final ScheduledExecutorService planificador;
+    private final ExecutorService ejecutor;
+
+    private final Object cerrojo = new Object();
+    private Map<Integer, CompletableFuture<T>> pendientes = new LinkedHashMap<>();
+    private ScheduledFuture<?> disparo;
+
+    public CargadorPorLotes(ConsultaLote<T> consulta, long ventanaMillis, int maxLote) {
+        if (maxLote <= 0) {
+            throw new IllegalArgumentException("maxLote debe ser > 0");
+        }
+        this.consulta = consulta;
+        this.ventanaMillis = Math.max(0, ventanaMillis);
+        this.maxLote = maxLote;
+        this.planificador = Executors.newSingleThreadScheduledExecutor(hilos("cargador-ventana"));
+        this.ejecutor = Executors.newFixedThreadPool(
+                Math.max(2, Runtime.getRuntime().availableProcessors() / 2), hilos("cargador-lote"));
+    }
+
+    /**
+     * Pide un id. Si ya hay una petición pendiente para ese id en la ventana actual,
+     * se reutiliza (no se consulta dos veces el mismo id).
+     */
+    public CompletableFuture<T> cargar(int id) {
+        CompletableFuture<T> futuro;
+        Map<Integer, CompletableFuture<T>> loteLleno = null;
+
+        synchronized (cerrojo) {
+            futuro = pendientes.get(id);
+            if (futuro == null) {
+                futuro = new CompletableFuture<>();
+                pendientes.put(id, futuro);
+
+                if (pendientes.size() >= maxLote) {
+                    loteLleno = extraerLote();
+                } else if (disparo == null) {
+                    disparo = planificador.schedule(this::cerrarVentana, ventanaMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        if (loteLleno != null) {
+            lanzar(loteLleno);
+        }
+
+        // Cada llamante recibe su copia: si uno cancela, no afecta al resto.
+        return futuro.copy();
+    }
+
+    private void cerrarVentana() {
+        Map<Integer, CompletableFuture<T>> lote;
+        synchronized (cerrojo) {
+            disparo = null;
+            lote = extraerLote();
+        }
+        if (lote != null) {
+            lanzar(lote);
+        }
+    }
+
+    // Debe llamarse con el cerrojo tomado.
+    private Map<Integer, CompletableFuture<T>> extraerLote() {
+        if (pendientes.isEmpty()) {
+            return null;
+        }
+        Map<Integer, CompletableFuture<T>> lote = pendientes;
+        pendientes = new LinkedHashMap<>();
+        if (disparo != null) {
+            disparo.cancel(false);
+            disparo = null;
+        }
+        return lote;
+    }
+
+    private void lanzar(Map<Integer, CompletableFuture<T>> lote) {
+        try {
+            ejecutor.execute(() -> ejecutar(lote));
+        } catch (RuntimeException e) {
+            // Cargador cerrado: no dejamos a nadie esperando para siempre.
+            lote.values().forEach(f -> f.completeExceptionally(e));
+        }
+    }
+
+    private void ejecutar(Map<Integer, CompletableFuture<T>> lote) {
+        int[] ids = new int[lote.size()];
+        int i = 0;
+        for (Integer id : lote.keySet()) {
+            ids[i++] = id;
+        }
+
+        try {
+            Map<Integer, T> encontrados = consulta.cargar(ids);
+            for (Map.Entry<Integer, CompletableFuture<T>> e : lote.entrySet()) {
+                e.getValue().complete(encontrados.get(e.getKey()));
+            }
+        } catch (Exception e) {
+            for (CompletableFuture<T> f : lote.values()) {
+                f.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Despacha inmediatamente lo que haya pendiente, sin esperar a la ventana.
+     */
+    public void despachar() {
+        cerrarVentana();
+    }
+
+    @Override
+    public void close() {
+        despachar();
+        planificador.shutdown();
+        ejecutor.shutdown();
+    }
+
+    // =========================================================================
+    //  AUXILIARES
+    // =========================================================================
+
+    /** Convierte la lista devuelta por un findByIds en un mapa id → entidad. */
+    public static <T> Map<Integer, T> indexarPorId(List<T> lista, Function<T, Integer> id) {
+        Map<Integer, T> out = new HashMap<>(lista.size() * 2);
+        for (T t : lista) {
+            out.put(id.apply(t), t);
+        }
+        return out;
+    }
+
+    private static ThreadFactory hilos(String prefijo) {
+        AtomicInteger n = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefijo + "-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
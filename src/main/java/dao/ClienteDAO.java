@@ -2,22 +2,51 @@ package dao;
 // Paquete donde vive esta clase. Normalmente 'dao' agrupa los Data Access Objects,
 // clases dedicadas exclusivamente a hablar con la base de datos.
 
+import db.ControlAdmision;
+import db.ControlAdmision.Clase;
+// Límite de operaciones a la vez por clase (búsquedas, lecturas, escrituras...).
+
 import db.Db;
 // Clase que gestiona la obtención de conexiones JDBC (probablemente un método estático getConnection()).
 
+import db.Shards;
+// Consultas repartidas entre shards (en paralelo) y mezcla ordenada de sus resultados.
+
+import model.CargaDiferida;
+// Carga diferida por lotes de las relaciones (detalle y pedidos) de los clientes leídos.
+
 import model.Cliente;
 // Modelo/entidad Cliente. Representa una fila de la tabla 'cliente'.
 
+import model.InstantaneaClientes;
+// Representación columnar y compacta de toda la tabla (para vistas de millones de filas).
+
+import model.ResumenPedidos;
+// Nº de pedidos, total y último pedido de un cliente (calculado en la BD).
+
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 // Imports necesarios para el uso del API JDBC de Java.
 
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 // Usamos listas dinámicas para devolver varios clientes cuando hacemos un SELECT *.
 
+import java.sql.Array;
+// Array JDBC: nos permite pasar un int[] completo como un único parámetro (id = ANY(?)).
+
+import java.util.concurrent.atomic.AtomicLong;
+// Contador de escrituras: las cachés de búsqueda lo consultan para saber si siguen valiendo.
+
 public class ClienteDAO {
     // Clase DAO que contiene la lógica de acceso a datos para la entidad Cliente.
     // Todo lo relacionado con INSERT, SELECT, UPDATE y DELETE de clientes se pone aquí.
@@ -32,16 +61,108 @@ public class ClienteDAO {
     // Usamos ? para parámetros → evita SQL injection y mejora rendimiento con sentencias preparadas.
 
     private static final String SELECT_BY_ID_SQL =
-            "SELECT id, nombre, email FROM cliente WHERE id = ?";
+            "SELECT id, nombre, email, version FROM cliente WHERE id = ?";
     // Consulta SQL para buscar un cliente por su ID.
 
+    private static final String SELECT_BY_IDS_SQL =
+            "SELECT id, nombre, email, version FROM cliente WHERE id = ANY(?) ORDER BY id";
+    // Consulta SQL para buscar varios clientes de golpe: un único round trip para N ids.
+
     private static final String SELECT_ALL_SQL =
-            "SELECT id, nombre, email FROM cliente ORDER BY id";
+            "SELECT id, nombre, email, version FROM cliente ORDER BY id";
     // Consulta SQL para obtener todos los clientes ordenados por id.
 
+    private static final Comparator<Cliente> POR_ID = Comparator.comparingInt(Cliente::getId);
+    // Orden de todas las consultas de listas (ORDER BY id): para mezclar lo que llega de cada shard.
+
+    private static final AtomicLong VERSION_DATOS = new AtomicLong();
+    // Sube con cada escritura en cliente; ver CacheBusquedas.
+
+
+    private static final String UPSERT_ALL_SQL = """
+            INSERT INTO cliente (id, nombre, email)
+            SELECT * FROM unnest(?::integer[], ?::text[], ?::text[])
+            ON CONFLICT (id) DO UPDATE
+                SET nombre = EXCLUDED.nombre, email = EXCLUDED.email,
+                    version = cliente.version + 1
+            """;
+    // Inserta o actualiza muchos clientes en una sola sentencia (arrays paralelos + unnest).
+    // No comprueba la versión (gana la última escritura), pero la sube: así las
+    // ediciones optimistas que hubiera en curso detectan el cambio. Solo para
+    // copiar filas tal cual (RebalanceoShards); las ediciones van por el de abajo.
+
+    private static final String UPSERT_ALL_VERSION_SQL = """
+            INSERT INTO cliente (id, nombre, email, version)
+            SELECT * FROM unnest(?::integer[], ?::text[], ?::text[], ?::integer[])
+            ON CONFLICT (id) DO UPDATE
+                SET nombre = EXCLUDED.nombre, email = EXCLUDED.email,
+                    version = cliente.version + 1
+                WHERE cliente.version = EXCLUDED.version
+            RETURNING id, version
+            """;
+    // Como UPSERT_ALL_SQL, pero con bloqueo optimista: una fila existente solo se
+    // actualiza si sigue en la versión que trae el cliente. Las que no vuelven en
+    // el RETURNING tienen conflicto. Las nuevas entran con la versión que traen.
+
+    private static final String UPDATE_SQL = """
+            UPDATE cliente
+            SET nombre = ?, email = ?, version = version + 1
+            WHERE id = ? AND version = ?
+            RETURNING version
+            """;
+    // Bloqueo optimista: solo actualiza si nadie ha tocado la fila desde que se leyó
+    // (misma versión). Si no actualiza nada, o la fila ya no existe o hay conflicto.
+
+    private static final String DELETE_BY_IDS_SQL =
+            "DELETE FROM cliente WHERE id = ANY(?)";
+    // Consulta SQL para borrar muchos clientes en una sola sentencia.
+
+
+    private static final String RESUMEN_LATERAL = """
+            LEFT JOIN LATERAL (
+                SELECT count(DISTINCT p.id)                        AS num_pedidos,
+                       coalesce(sum(dp.cantidad * dp.precio_unit), 0) AS total,
+                       max(p.fecha)                                AS ultimo_pedido
+                FROM pedido p
+                LEFT JOIN detalle_pedido dp ON dp.pedido_id = p.id AND dp.fecha = p.fecha
+                WHERE p.cliente_id = c.id
+            ) r ON true
+            """;
+    // Resumen de pedidos por cliente: un único LATERAL agrupado que usa el índice
+    // pedido(cliente_id, fecha) y la PK de detalle_pedido. Siempre devuelve una fila
+    // (un agregado sin GROUP BY), así que los clientes sin pedidos salen con 0.
+
+    private static final String SELECT_RESUMENES_SQL =
+            "SELECT c.id, r.num_pedidos, r.total, r.ultimo_pedido FROM cliente c "
+                    + RESUMEN_LATERAL + " WHERE c.id = ANY(?)";
+    // Resumen de pedidos de varios clientes (las filas visibles de la tabla).
+
+    private static final String ORDEN_RESUMEN_IDS_SQL =
+            "SELECT c.id, %1$s AS clave FROM cliente c " + RESUMEN_LATERAL
+                    + " WHERE c.id = ANY(?) ORDER BY %1$s %2$s NULLS LAST, c.id";
+    // Ids de un subconjunto de clientes ordenados por un campo del resumen
+    // (la clave también sale, para poder mezclar lo que devuelve cada shard).
+
+    private static final String ORDEN_RESUMEN_TODOS_SQL = """
+            SELECT c.id, %1$s AS clave
+            FROM cliente c
+            LEFT JOIN (
+                SELECT p.cliente_id,
+                       count(DISTINCT p.id)                        AS num_pedidos,
+                       coalesce(sum(dp.cantidad * dp.precio_unit), 0) AS total,
+                       max(p.fecha)                                AS ultimo_pedido
+                FROM pedido p
+                LEFT JOIN detalle_pedido dp ON dp.pedido_id = p.id AND dp.fecha = p.fecha
+                GROUP BY p.cliente_id
+            ) r ON r.cliente_id = c.id
+            ORDER BY %1$s %2$s NULLS LAST, c.id
+            """;
+    // Ids de TODOS los clientes ordenados por un campo del resumen. Para la tabla
+    // entera sale más barato agregar pedido una sola vez (hash aggregate) que
+    // lanzar el LATERAL cliente a cliente.
 
     private static final String SEARCH_SQL = """
-                    SELECT id, nombre, email
+                    SELECT id, nombre, email, version
                     FROM cliente
                     WHERE CAST(id AS TEXT) ILIKE ? 
                         OR nombre ILIKE ?  
@@ -49,6 +170,25 @@ public class ClienteDAO {
                     ORDER BY id                    
                     """;
 
+    // ----------------------------------------------------------
+    // MAPA DE IDENTIDAD (opcional)
+    // ----------------------------------------------------------
+
+    private final MapaIdentidad identidad;
+    // Si no es null, cada id leído se convierte siempre en la MISMA instancia de Cliente.
+
+    private final RelacionesCliente relaciones;
+    // Carga diferida de detalle y pedidos (con el mismo mapa de identidad).
+
+    public ClienteDAO() {
+        this(null);
+    }
+
+    public ClienteDAO(MapaIdentidad identidad) {
+        this.identidad = identidad;
+        this.relaciones = new RelacionesCliente(identidad);
+    }
+
 
     // ----------------------------------------------------------
     // MÉTODO: INSERTAR UN CLIENTE
@@ -58,20 +198,26 @@ public class ClienteDAO {
         // Método público que inserta un cliente en la base de datos.
         // Recibe un objeto Cliente y lanza SQLException si algo sale mal.
 
-        try (Connection con = Db.getConnection();
-             PreparedStatement ps = con.prepareStatement(INSERT_SQL)) {
+        ControlAdmision.ejecutar(Clase.ESCRITURA, () -> {
+            // Cuenta como escritura: si hay demasiadas en curso, espera o se rechaza.
 
-            // try-with-resources: la conexión y el PreparedStatement se cerrarán automáticamente
-            // al final del bloque, aunque haya errores.
+            try (Connection con = Db.getConnectionCliente(c.getId());   // el shard que le toca a su id
+                 PreparedStatement ps = con.prepareStatement(INSERT_SQL)) {
 
-            ps.setInt(1, c.getId());         // Parámetro 1 → columna id
-            ps.setString(2, c.getNombre());  // Parámetro 2 → columna nombre
-            ps.setString(3, c.getEmail());   // Parámetro 3 → columna email
+                // try-with-resources: la conexión y el PreparedStatement se cerrarán automáticamente
+                // al final del bloque, aunque haya errores.
 
-            ps.executeUpdate();
-            // Ejecuta la sentencia. Como es un INSERT, no devuelve ResultSet.
+                ps.setInt(1, c.getId());         // Parámetro 1 → columna id
+                ps.setString(2, c.getNombre());  // Parámetro 2 → columna nombre
+                ps.setString(3, c.getEmail());   // Parámetro 3 → columna email
 
-        }
+                ps.executeUpdate();
+                // Ejecuta la sentencia. Como es un INSERT, no devuelve ResultSet.
+                marcarCambios();
+
+            }
+            return null;
+        });
     }
 
     public void insert(Cliente c, Connection con) throws SQLException {
@@ -88,6 +234,7 @@ public class ClienteDAO {
             ps.setString(3, c.getEmail());   // Parámetro 3 → columna email
             ps.executeUpdate();
             // Ejecuta la sentencia. Como es un INSERT, no devuelve ResultSet.
+            marcarCambios();
 
         }
     }
@@ -103,28 +250,90 @@ public class ClienteDAO {
         // Devuelve el Cliente cuyo id coincida con el parámetro.
         // Si no existe, devuelve null.
 
-        try (Connection con = Db.getConnection();
-             PreparedStatement ps = con.prepareStatement(SELECT_BY_ID_SQL)) {
+        return ControlAdmision.ejecutar(Clase.LECTURA, () -> {
+            try (Connection con = Db.getConnectionCliente(id);   // solo se consulta su shard
+                 PreparedStatement ps = con.prepareStatement(SELECT_BY_ID_SQL)) {
 
-            ps.setInt(1, id);  // Asignamos el id al parámetro ?
+                ps.setInt(1, id);  // Asignamos el id al parámetro ?
 
-            try (ResultSet rs = ps.executeQuery()) {
-                // executeQuery() devuelve un ResultSet ↔ una tabla virtual con las filas devueltas.
+                try (ResultSet rs = ps.executeQuery()) {
+                    // executeQuery() devuelve un ResultSet ↔ una tabla virtual con las filas devueltas.
 
-                if (rs.next()) {
-                    // Si rs.next() = true → hay fila. Avanzamos a ella y leemos sus columnas.
+                    if (rs.next()) {
+                        // Si rs.next() = true → hay fila. Avanzamos a ella y leemos sus columnas.
 
-                    return new Cliente(
-                            rs.getInt("id"),          // Columna 'id'
-                            rs.getString("nombre"),   // Columna 'nombre'
-                            rs.getString("email")     // Columna 'email'
-                    );
+                        Cliente c = mapear(identidad,
+                                rs.getInt("id"),          // Columna 'id'
+                                rs.getString("nombre"),   // Columna 'nombre'
+                                rs.getString("email"),    // Columna 'email'
+                                rs.getInt("version")      // Columna 'version' (bloqueo optimista)
+                        );
+                        CargaDiferida.enlazar(List.of(c), relaciones);
+                        // Detalle y pedidos se cargan al pedirlos (ver CargaDiferida).
+                        return c;
+                    }
+
+                    return null;
+                    // Si no hay resultado, devolvemos null para indicar "no encontrado".
                 }
+            }
+        });
+    }
+
+
+    // ----------------------------------------------------------
+    // MÉTODO: BUSCAR VARIOS CLIENTES POR ID (multi-get)
+    // ----------------------------------------------------------
+
+    public List<Cliente> findByIds(int[] ids) throws SQLException {
+        // Devuelve los clientes cuyos ids estén en el array, ordenados por id.
+        // Los ids que no existan simplemente no aparecen en la lista.
+
+        if (ids == null || ids.length == 0) {
+            return new ArrayList<>();   // Nada que buscar: nos ahorramos el viaje a la BD.
+        }
+
+        // Cada shard recibe solo sus ids; las respuestas (ordenadas por id) se mezclan.
+        List<Cliente> out = ControlAdmision.ejecutar(Clase.LECTURA,
+                () -> Shards.mezclar(Shards.porShard(ids, this::findByIds), POR_ID));
+        CargaDiferida.enlazar(out, relaciones);
+        return out;
+    }
+
+    private List<Cliente> findByIds(int shard, int[] ids) throws SQLException {
+        try (Connection con = Db.getConnection(shard)) {
+            return findByIds(ids, con);
+        }
+    }
+
+    public List<Cliente> findByIds(int[] ids, Connection con) throws SQLException {
+        // Versión con conexión externa (p. ej. para leer de un shard concreto).
+        // No enlaza la carga diferida: eso lo hace findByIds(int[]).
+
+        List<Cliente> out = new ArrayList<>();
 
-                return null;
-                // Si no hay resultado, devolvemos null para indicar "no encontrado".
+        try (PreparedStatement ps = con.prepareStatement(SELECT_BY_IDS_SQL)) {
+
+            Array arr = con.createArrayOf("integer", boxear(ids));
+            ps.setArray(1, arr);   // Todo el array viaja como un solo parámetro.
+
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    out.add(mapRow(rs));
+                }
+            } finally {
+                arr.free();
             }
         }
+
+        return out;
+    }
+
+    public CargadorPorLotes<Cliente> crearCargador(long ventanaMillis, int maxLote) {
+        // Cargador que agrupa peticiones findById concurrentes en una sola llamada a findByIds.
+        return new CargadorPorLotes<>(
+                ids -> CargadorPorLotes.indexarPorId(findByIds(ids), Cliente::getId),
+                ventanaMillis, maxLote);
     }
 
 
@@ -136,9 +345,20 @@ public class ClienteDAO {
         // Devuelve una lista con todos los clientes de la tabla.
         // Nunca devuelve null; si no hay datos, devuelve lista vacía.
 
+        // Todos los shards a la vez; cada uno ya viene ORDER BY id, así que basta mezclar.
+        List<Cliente> out = ControlAdmision.ejecutar(Clase.MASIVA,
+                () -> Shards.mezclar(Shards.enTodos(this::findAll), POR_ID));
+
+        CargaDiferida.enlazar(out, relaciones);
+        // Todos comparten un cargador: el detalle o los pedidos se piden por lotes, no uno a uno.
+
+        return out;   // Devolvemos la lista completa.
+    }
+
+    private List<Cliente> findAll(int shard) throws SQLException {
         List<Cliente> out = new ArrayList<>();
 
-        try (Connection con = Db.getConnection();
+        try (Connection con = Db.getConnection(shard);
              PreparedStatement ps = con.prepareStatement(SELECT_ALL_SQL);
              ResultSet rs = ps.executeQuery()) {
 
@@ -146,24 +366,514 @@ public class ClienteDAO {
                 // Iteramos por cada fila del ResultSet.
                 // Cada fila se convierte en un objeto Cliente.
 
-                Cliente c = new Cliente(
+                Cliente c = mapear(identidad,
                         rs.getInt("id"),
                         rs.getString("nombre"),
-                        rs.getString("email")
+                        rs.getString("email"),
+                        rs.getInt("version")
                 );
 
                 out.add(c);   // Añadimos el cliente a la lista.
             }
         }
 
-        return out;   // Devolvemos la lista completa.
+        return out;
+    }
+
+    // ----------------------------------------------------------
+    // MÉTODO: ACTUALIZAR UN CLIENTE (bloqueo optimista)
+    // ----------------------------------------------------------
+
+    public int update(Cliente c) throws SQLException {
+        // Guarda nombre y email si la fila sigue en la versión con la que se leyó.
+        // Devuelve 1 si actualiza y 0 si el cliente ya no existe; si otro lo ha
+        // cambiado entretanto lanza ConflictoVersionException con la fila actual.
+
+        return ControlAdmision.ejecutar(Clase.ESCRITURA, () -> {
+            try (Connection con = Db.getConnectionCliente(c.getId())) {
+                return update(c, con);
+            }
+        });
+    }
+
+    public int update(Cliente c, Connection con) throws SQLException {
+        // Versión con conexión externa (dentro de una transacción).
+        // No se bloquea nada entre la lectura y la escritura: el WHERE version = ?
+        // es la comprobación, y solo bloquea la fila mientras dura el UPDATE.
+
+        if (identidad != null && identidad.clientes().buscar(c.getId()) == c) {
+            throw new IllegalArgumentException("Cliente " + c.getId()
+                    + ": se guarda una copia (Cliente.copia()), no la instancia del mapa de identidad");
+        }
+
+        try (PreparedStatement ps = con.prepareStatement(UPDATE_SQL)) {
+            ps.setString(1, c.getNombre());
+            ps.setString(2, c.getEmail());
+            ps.setInt(3, c.getId());
+            ps.setInt(4, c.getVersion());   // La versión que tenía cuando se leyó.
+
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    c.setVersion(rs.getInt(1));   // La nueva versión (para poder seguir editando).
+                    marcarCambios();
+                    return 1;
+                }
+            }
+        }
+
+        // No ha actualizado nada: ¿no existe, o tiene otra versión?
+        try (PreparedStatement ps = con.prepareStatement(SELECT_BY_ID_SQL)) {
+            ps.setInt(1, c.getId());
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    return 0;
+                }
+                // Objeto nuevo, fuera del mapa de identidad: la instancia compartida
+                // puede ser justo la que lleva los cambios de quien llama.
+                Cliente actual = nuevo(rs.getInt("id"), rs.getString("nombre"),
+                        rs.getString("email"), rs.getInt("version"));
+                throw new ConflictoVersionException("cliente", c.getId(), c.getVersion(),
+                        actual.getVersion(), actual);
+            }
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    // MÉTODO: INSERTAR O ACTUALIZAR VARIOS CLIENTES (upsert)
+    // ----------------------------------------------------------
+
+    public int upsertAll(Collection<Cliente> clientes, Connection con) throws SQLException {
+        // Si el id no existe lo inserta; si existe, actualiza nombre y email.
+        // Pensado para escrituras por lotes dentro de una transacción.
+
+        if (clientes == null || clientes.isEmpty()) {
+            return 0;
+        }
+
+        int n = clientes.size();
+        Integer[] ids = new Integer[n];
+        String[] nombres = new String[n];
+        String[] emails = new String[n];
+
+        int i = 0;
+        for (Cliente c : clientes) {
+            ids[i] = c.getId();
+            nombres[i] = c.getNombre();
+            emails[i] = c.getEmail();
+            i++;
+        }
+
+        try (PreparedStatement ps = con.prepareStatement(UPSERT_ALL_SQL)) {
+            Array[] arrays = {
+                    con.createArrayOf("integer", ids),
+                    con.createArrayOf("text", nombres),
+                    con.createArrayOf("text", emails)
+            };
+            try {
+                for (int p = 0; p < arrays.length; p++) {
+                    ps.setArray(p + 1, arrays[p]);
+                }
+                return ps.executeUpdate();   // Filas insertadas + actualizadas.
+            } finally {
+                marcarCambios();
+                for (Array a : arrays) {
+                    a.free();
+                }
+            }
+        }
+    }
+
+
+    public int upsertAllComprobandoVersion(Collection<Cliente> clientes, Connection con,
+                                           List<ConflictoVersionException> conflictos) throws SQLException {
+        // Upsert por lotes con bloqueo optimista (ver UPSERT_ALL_VERSION_SQL).
+        // Los que se escriben pasan a llevar la versión nueva; por cada uno que
+        // otro ha cambiado entretanto se añade a conflictos una excepción con la
+        // fila actual, y esa fila no se toca. Devuelve las filas escritas.
+        // Si se hace rollback, quien llama debe devolver las versiones.
+
+        if (clientes == null || clientes.isEmpty()) {
+            return 0;
+        }
+
+        int n = clientes.size();
+        Integer[] ids = new Integer[n];
+        String[] nombres = new String[n];
+        String[] emails = new String[n];
+        Integer[] versiones = new Integer[n];
+        Map<Integer, Cliente> porId = new HashMap<>(n * 2);
+
+        int i = 0;
+        for (Cliente c : clientes) {
+            ids[i] = c.getId();
+            nombres[i] = c.getNombre();
+            emails[i] = c.getEmail();
+            versiones[i] = c.getVersion();
+            porId.put(c.getId(), c);
+            i++;
+        }
+
+        int escritos = 0;
+        try (PreparedStatement ps = con.prepareStatement(UPSERT_ALL_VERSION_SQL)) {
+            Array[] arrays = {
+                    con.createArrayOf("integer", ids),
+                    con.createArrayOf("text", nombres),
+                    con.createArrayOf("text", emails),
+                    con.createArrayOf("integer", versiones)
+            };
+            try {
+                for (int p = 0; p < arrays.length; p++) {
+                    ps.setArray(p + 1, arrays[p]);
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        porId.remove(rs.getInt(1)).setVersion(rs.getInt(2));
+                        escritos++;
+                    }
+                }
+            } finally {
+                marcarCambios();
+                for (Array a : arrays) {
+                    a.free();
+                }
+            }
+        }
+
+        if (porId.isEmpty()) {
+            return escritos;
+        }
+
+        // Los que quedan existen con otra versión: se leen tal como están ahora,
+        // fuera del mapa de identidad (como en update).
+        try (PreparedStatement ps = con.prepareStatement(SELECT_BY_IDS_SQL)) {
+            Array arr = con.createArrayOf("integer", porId.keySet().toArray(new Integer[0]));
+            try {
+                ps.setArray(1, arr);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        Cliente actual = nuevo(rs.getInt("id"), rs.getString("nombre"),
+                                rs.getString("email"), rs.getInt("version"));
+                        conflictos.add(new ConflictoVersionException("cliente", actual.getId(),
+                                porId.get(actual.getId()).getVersion(), actual.getVersion(), actual));
+                    }
+                }
+            } finally {
+                arr.free();
+            }
+        }
+        return escritos;
+    }
+
+
+    // ----------------------------------------------------------
+    // MÉTODO: BORRAR VARIOS CLIENTES POR ID
+    // ----------------------------------------------------------
+
+    public int deleteByIds(int[] ids) throws SQLException {
+        // Borra todos los clientes del array con UNA sentencia.
+        // Ojo: si tienen detalle, hay que borrarlo antes (ver ClienteDetalle.borrarClientesCompletos).
+
+        if (ids == null || ids.length == 0) {
+            return 0;
+        }
+
+        int borrados = 0;
+        for (int n : ControlAdmision.ejecutar(Clase.ESCRITURA, () -> Shards.porShard(ids, (shard, suyos) -> {
+            try (Connection con = Db.getConnection(shard)) {
+                return deleteByIds(suyos, con);
+            }
+        }))) {
+            borrados += n;
+        }
+        return borrados;
+    }
+
+    public int deleteByIds(int[] ids, Connection con) throws SQLException {
+        // Versión que reutiliza una conexión externa (para usar dentro de una transacción).
+        // Con varios shards, los ids deben ser todos del shard de esa conexión.
+
+        if (ids == null || ids.length == 0) {
+            return 0;
+        }
+
+        try (PreparedStatement ps = con.prepareStatement(DELETE_BY_IDS_SQL)) {
+            Array arr = con.createArrayOf("integer", boxear(ids));
+            try {
+                ps.setArray(1, arr);
+                return ps.executeUpdate();   // Número de clientes borrados.
+            } finally {
+                marcarCambios();
+                arr.free();
+            }
+        }
+    }
+
+    // ----------------------------------------------------------
+    // MÉTODO: CARGAR TODA LA TABLA EN FORMATO COLUMNAR
+    // ----------------------------------------------------------
+
+    public InstantaneaClientes cargarInstantanea() throws SQLException {
+        // Igual que findAll(), pero sin crear un objeto Cliente por fila:
+        // las columnas se copian directamente a una InstantaneaClientes.
+
+        List<InstantaneaClientes> partes = ControlAdmision.ejecutar(Clase.MASIVA,
+                () -> Shards.enTodos(this::cargarInstantanea));
+        if (partes.size() == 1) {
+            return partes.get(0);
+        }
+
+        // Varios shards: mezcla k-vías por id de sus instantáneas (cada una ya va ordenada).
+        InstantaneaClientes.Builder b = new InstantaneaClientes.Builder();
+        int[] fila = new int[partes.size()];
+        PriorityQueue<Integer> cola = new PriorityQueue<>(
+                Comparator.comparingInt(sh -> partes.get(sh).id(fila[sh])));
+        for (int sh = 0; sh < partes.size(); sh++) {
+            if (partes.get(sh).tamano() > 0) cola.add(sh);
+        }
+        while (!cola.isEmpty()) {
+            int sh = cola.poll();
+            InstantaneaClientes inst = partes.get(sh);
+            int f = fila[sh]++;
+            b.agregar(inst.id(f), inst.nombre(f), inst.email(f));
+            if (fila[sh] < inst.tamano()) cola.add(sh);
+        }
+        return b.build();
+    }
+
+    private InstantaneaClientes cargarInstantanea(int shard) throws SQLException {
+        InstantaneaClientes.Builder b = new InstantaneaClientes.Builder();
+
+        try (Connection con = Db.getConnection(shard)) {
+            // Con autocommit desactivado y fetchSize > 0, PostgreSQL usa un cursor
+            // en servidor y no trae todas las filas a memoria de golpe.
+            con.setAutoCommit(false);
+
+            try (PreparedStatement ps = con.prepareStatement(SELECT_ALL_SQL)) {
+                ps.setFetchSize(10_000);
+
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        b.agregar(rs.getInt(1), rs.getString(2), rs.getString(3));
+                    }
+                }
+            } finally {
+                con.commit();   // Solo lectura: cerramos la transacción del cursor.
+                con.setAutoCommit(true);
+            }
+        }
+
+        return b.build();
+    }
+
+    // ----------------------------------------------------------
+    // MÉTODO: RESUMEN DE PEDIDOS (nº pedidos, total, último pedido)
+    // ----------------------------------------------------------
+
+    /** Campos del resumen por los que se puede ordenar (lista blanca de columnas SQL). */
+    public enum CampoResumen {
+        PEDIDOS("coalesce(r.num_pedidos, 0)"),
+        TOTAL("coalesce(r.total, 0)"),
+        ULTIMO_PEDIDO("r.ultimo_pedido");
+
+        private final String columna;
+
+        CampoResumen(String columna) {
+            this.columna = columna;
+        }
+    }
+
+    public Map<Integer, ResumenPedidos> findResumenes(int[] ids) throws SQLException {
+        // Resumen de pedidos de los clientes indicados, calculado en el servidor.
+        // Los ids que no existan no aparecen en el mapa.
+
+        Map<Integer, ResumenPedidos> out = new HashMap<>();
+        if (ids == null || ids.length == 0) {
+            return out;
+        }
+
+        // Los pedidos viven en el shard de su cliente: cada shard resume los suyos.
+        for (Map<Integer, ResumenPedidos> parte
+                : ControlAdmision.ejecutar(Clase.LECTURA, () -> Shards.porShard(ids, this::findResumenes))) {
+            out.putAll(parte);
+        }
+        return out;
+    }
+
+    private Map<Integer, ResumenPedidos> findResumenes(int shard, int[] ids) throws SQLException {
+        Map<Integer, ResumenPedidos> out = new HashMap<>();
+
+        try (Connection con = Db.getConnection(shard);
+             PreparedStatement ps = con.prepareStatement(SELECT_RESUMENES_SQL)) {
+
+            Array arr = con.createArrayOf("integer", boxear(ids));
+            ps.setArray(1, arr);
+
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    int id = rs.getInt(1);
+                    out.put(id, new ResumenPedidos(id, rs.getInt(2), rs.getBigDecimal(3).doubleValue(),
+                            rs.getObject(4, LocalDate.class)));
+                }
+            } finally {
+                arr.free();
+            }
+        }
+
+        return out;
+    }
+
+    public CargadorPorLotes<ResumenPedidos> crearCargadorResumenes(long ventanaMillis, int maxLote) {
+        // Igual que crearCargador(), pero para los resúmenes de pedidos.
+        return new CargadorPorLotes<>(this::findResumenes, ventanaMillis, maxLote);
+    }
+
+    public int[] idsOrdenadosPorResumen(CampoResumen campo, boolean descendente, int[] ids) throws SQLException {
+        // Ordena clientes por un campo del resumen SIN traer los resúmenes:
+        // la BD agrega y ordena, aquí solo llegan los ids en el orden final.
+        // ids == null → todos los clientes (operación masiva: agrega toda la tabla pedido).
+
+        return ControlAdmision.ejecutar(ids == null ? Clase.MASIVA : Clase.LECTURA,
+                () -> ordenarPorResumen(campo, descendente, ids));
+    }
+
+    private int[] ordenarPorResumen(CampoResumen campo, boolean descendente, int[] ids) throws SQLException {
+
+        String sql = ((ids == null) ? ORDEN_RESUMEN_TODOS_SQL : ORDEN_RESUMEN_IDS_SQL)
+                .formatted(campo.columna, descendente ? "DESC" : "ASC");
+
+        if (Db.numShards() > 1) {
+            return idsOrdenadosEnShards(sql, descendente, ids);
+        }
+
+        try (Connection con = Db.getConnection()) {
+            // Cursor en servidor: con millones de clientes no se trae todo de golpe.
+            con.setAutoCommit(false);
+
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                ps.setFetchSize(10_000);
+
+                Array arr = null;
+                if (ids != null) {
+                    arr = con.createArrayOf("integer", boxear(ids));
+                    ps.setArray(1, arr);
+                }
+
+                int[] out = new int[ids != null ? ids.length : 1024];
+                int n = 0;
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        if (n == out.length) {
+                            out = Arrays.copyOf(out, n * 2);
+                        }
+                        out[n++] = rs.getInt(1);
+                    }
+                } finally {
+                    if (arr != null) arr.free();
+                }
+                return Arrays.copyOf(out, n);
+
+            } finally {
+                con.commit();
+                con.setAutoCommit(true);
+            }
+        }
+    }
+
+    private int[] idsOrdenadosEnShards(String sql, boolean descendente, int[] ids) throws SQLException {
+        // Con varios shards cada uno ordena los suyos y aquí se mezclan por
+        // (clave, id), con los nulos al final como en el NULLS LAST del SQL.
+
+        Shards.ConsultaIds<List<Object[]>> consulta = (shard, suyos) -> {
+            List<Object[]> filas = new ArrayList<>();
+            try (Connection con = Db.getConnection(shard)) {
+                con.setAutoCommit(false);
+                try (PreparedStatement ps = con.prepareStatement(sql)) {
+                    ps.setFetchSize(10_000);
+                    Array arr = null;
+                    if (suyos != null) {
+                        arr = con.createArrayOf("integer", boxear(suyos));
+                        ps.setArray(1, arr);
+                    }
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            filas.add(new Object[]{rs.getInt(1), rs.getObject(2)});
+                        }
+                    } finally {
+                        if (arr != null) arr.free();
+                    }
+                } finally {
+                    con.commit();
+                    con.setAutoCommit(true);
+                }
+            }
+            return filas;
+        };
+
+        List<List<Object[]>> partes = (ids == null)
+                ? Shards.enTodos(shard -> consulta.ejecutar(shard, null))
+                : Shards.porShard(ids, consulta);
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Comparator<Object[]> porClave = (a, b) -> {
+            Comparable ca = (Comparable) a[1];
+            Comparable cb = (Comparable) b[1];
+            if (ca == null || cb == null) {
+                return ca == cb ? 0 : (ca == null ? 1 : -1);
+            }
+            return descendente ? cb.compareTo(ca) : ca.compareTo(cb);
+        };
+        List<Object[]> mezcla = Shards.mezclar(partes,
+                porClave.thenComparingInt(f -> (Integer) f[0]));
+
+        int[] out = new int[mezcla.size()];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = (Integer) mezcla.get(i)[0];
+        }
+        return out;
+    }
+
+    // ----------------------------------------------------------
+    // CONTROL DE CAMBIOS (para cachés de búsqueda)
+    // ----------------------------------------------------------
+
+    public static long versionDatos() {
+        return VERSION_DATOS.get();
+    }
+
+    public static void marcarCambios() {
+        // Las escrituras de este DAO ya lo llaman. Quien escriba en cliente dentro de
+        // una transacción debe llamarlo también tras el commit: si no, una búsqueda
+        // hecha entre la sentencia y el commit podría cachear datos viejos.
+        VERSION_DATOS.incrementAndGet();
+    }
+
+    MapaIdentidad identidad() {
+        // Mapa de identidad de este DAO (o null): CacheBusquedas resuelve con él sus ids.
+        return identidad;
+    }
+
+    public CacheBusquedas crearCacheBusquedas(int maxEntradas, int maxResultados) {
+        // Caché de search() para búsquedas incrementales (ver CacheBusquedas).
+        return new CacheBusquedas(this, maxEntradas, maxResultados);
     }
 
     public List<Cliente> search(String filtro) throws SQLException {
+        // Misma búsqueda en todos los shards en paralelo, mezclada por id.
+
+        // Clase BUSQUEDA: con '%' delante no hay índice que valga, así que se limitan
+        // aparte para que unas pocas búsquedas lentas no ocupen la BD entera.
+        List<Cliente> out = ControlAdmision.ejecutar(Clase.BUSQUEDA,
+                () -> Shards.mezclar(Shards.enTodos(shard -> search(shard, filtro)), POR_ID));
+        CargaDiferida.enlazar(out, relaciones);
+        return out;
+    }
+
+    private List<Cliente> search(int shard, String filtro) throws SQLException {
 
         String patron = "%" + filtro + "%";
 
-        try (Connection con = Db.getConnection();
+        try (Connection con = Db.getConnection(shard);
            PreparedStatement pst = con.prepareStatement(SEARCH_SQL)) {
             pst.setString(1, patron);
             pst.setString(2, patron);
@@ -183,14 +893,45 @@ public class ClienteDAO {
 
     private Cliente mapRow(ResultSet rs) throws SQLException {
 
-        Cliente c = new Cliente(
+        Cliente c = mapear(identidad,
                 rs.getInt("id"),
                 rs.getString("nombre"),
-                rs.getString("email")
+                rs.getString("email"),
+                rs.getInt("version")
         );
 
         return c;
     }
 
+    static Cliente mapear(MapaIdentidad identidad, int id, String nombre, String email, int version) {
+        // Sin mapa: un objeto nuevo por fila. Con mapa: la instancia canónica del id,
+        // refrescada con los valores recién leídos.
+        if (identidad == null) {
+            return nuevo(id, nombre, email, version);
+        }
+        return identidad.clientes().resolver(id,
+                () -> nuevo(id, nombre, email, version),
+                c -> {
+                    c.setNombre(nombre);
+                    c.setEmail(email);
+                    c.setVersion(version);
+                });
+    }
+
+    private static Cliente nuevo(int id, String nombre, String email, int version) {
+        Cliente c = new Cliente(id, nombre, email);
+        c.setVersion(version);
+        return c;
+    }
+
+    static Integer[] boxear(int[] ids) {
+        // createArrayOf necesita Object[], así que convertimos int[] → Integer[].
+        Integer[] out = new Integer[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            out[i] = ids[i];
+        }
+        return out;
+    }
+
 
 }
\ No newline at end of file
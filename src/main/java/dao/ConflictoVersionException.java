@@ -0,0 +1,54 @@
+package dao;
+
+import model.Cliente;
+import model.DetalleCliente;
+
+import java.sql.SQLException;
+
+/**
+ * Un update con bloqueo optimista no se ha aplicado porque la fila ya no
+ * está en la versión con la que se leyó: otro la ha modificado entretanto.
+ *
+ * Lleva la fila tal como está ahora en la BD, para que quien llama pueda
+ * mostrarla, mezclar los cambios o reintentar con la versión nueva.
+ * SQLState 40001 (serialization_failure), como los conflictos que detecta
+ * PostgreSQL: es un error reintentable.
+ */
+public class ConflictoVersionException extends SQLException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String tabla;
+    private final int id;
+    private final int versionEsperada;
+    private final int versionActual;
+    private final Object actual;
+
+    public ConflictoVersionException(String tabla, int id, int versionEsperada, int versionActual, Object actual) {
+        super("Conflicto de versión en %s id=%d: se leyó la versión %d y ya va por la %d"
+                .formatted(tabla, id, versionEsperada, versionActual), "40001");
+        this.tabla = tabla;
+        this.id = id;
+        this.versionEsperada = versionEsperada;
+        this.versionActual = versionActual;
+        this.actual = actual;
+    }
+
+    public String getTabla() { return tabla; }
+    public int getId() { return id; }
+    public int getVersionEsperada() { return versionEsperada; }
+    public int getVersionActual() { return versionActual; }
+
+    /** La fila actual (Cliente o DetalleCliente, según la tabla). */
+    public Object getActual() { return actual; }
+
+    /** La fila actual si el conflicto es en cliente; si no, null. */
+    public Cliente getClienteActual() {
+        return actual instanceof Cliente c ? c : null;
+    }
+
+    /** La fila actual si el conflicto es en detalle_cliente; si no, null. */
+    public DetalleCliente getDetalleActual() {
+        return actual instanceof DetalleCliente d ? d : null;
+    }
+}
@@ -1,11 +1,20 @@
 package dao;
 
+import db.ControlAdmision;
+import db.ControlAdmision.Clase;
 import db.Db;
+import db.Shards;
+import model.Cliente;
 import model.DetalleCliente;
+import model.ResultadoBusqueda;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * DAO para la tabla detalle_cliente.
@@ -27,23 +36,101 @@ public class DetalleClienteDAO {
 
     /** Consulta para obtener un detalle por su id (que coincide con id cliente). */
     private static final String SELECT_BY_ID_SQL = """
-            SELECT id, direccion, telefono, notas
+            SELECT id, direccion, telefono, notas, version
             FROM detalle_cliente
             WHERE id = ?
             """;
 
+    /** Consulta para obtener varios detalles en un único round trip. */
+    private static final String SELECT_BY_IDS_SQL = """
+            SELECT id, direccion, telefono, notas, version
+            FROM detalle_cliente
+            WHERE id = ANY(?)
+            ORDER BY id
+            """;
+
     /** Consulta para listar todos los detalles (útil para debugging). */
     private static final String SELECT_ALL_SQL = """
-            SELECT id, direccion, telefono, notas
+            SELECT id, direccion, telefono, notas, version
             FROM detalle_cliente
             ORDER BY id
             """;
 
-    /** Consulta para actualizar los datos del detalle. */
+    /**
+     * Consulta para actualizar los datos del detalle con bloqueo optimista:
+     * solo se aplica si la fila sigue en la versión con la que se leyó.
+     */
     private static final String UPDATE_SQL = """
             UPDATE detalle_cliente
-            SET direccion = ?, telefono = ?, notas = ?
-            WHERE id = ?
+            SET direccion = ?, telefono = ?, notas = ?, version = version + 1
+            WHERE id = ? AND version = ?
+            RETURNING version
+            """;
+
+    /**
+     * Actualización masiva: los datos viajan como cuatro arrays paralelos
+     * que unnest() convierte en una tabla temporal con la que se hace el join.
+     * No comprueba versiones (gana la última escritura), pero las sube.
+     * Para ediciones, UPDATE_ALL_VERSION_SQL.
+     */
+    private static final String UPDATE_ALL_SQL = """
+            UPDATE detalle_cliente AS d
+            SET direccion = u.direccion, telefono = u.telefono, notas = u.notas,
+                version = d.version + 1
+            FROM unnest(?::integer[], ?::text[], ?::text[], ?::text[])
+                 AS u(id, direccion, telefono, notas)
+            WHERE d.id = u.id
+            """;
+
+    /**
+     * Actualización masiva con bloqueo optimista: la versión viaja como quinto
+     * array y solo se actualizan las filas que siguen en ella. Las que no
+     * vuelven en el RETURNING no existen o tienen conflicto.
+     */
+    private static final String UPDATE_ALL_VERSION_SQL = """
+            UPDATE detalle_cliente AS d
+            SET direccion = u.direccion, telefono = u.telefono, notas = u.notas,
+                version = d.version + 1
+            FROM unnest(?::integer[], ?::text[], ?::text[], ?::text[], ?::integer[])
+                 AS u(id, direccion, telefono, notas, version)
+            WHERE d.id = u.id AND d.version = u.version
+            RETURNING d.id, d.version
+            """;
+
+    /**
+     * Inserta o actualiza muchos detalles en una sola sentencia. No comprueba
+     * versiones: solo para copiar filas tal cual (RebalanceoShards).
+     */
+    private static final String UPSERT_ALL_SQL = """
+            INSERT INTO detalle_cliente (id, direccion, telefono, notas)
+            SELECT * FROM unnest(?::integer[], ?::text[], ?::text[], ?::text[])
+            ON CONFLICT (id) DO UPDATE
+                SET direccion = EXCLUDED.direccion,
+                    telefono = EXCLUDED.telefono,
+                    notas = EXCLUDED.notas,
+                    version = detalle_cliente.version + 1
+            """;
+
+    /**
+     * Como UPSERT_ALL_SQL, con bloqueo optimista: un detalle existente solo se
+     * actualiza si sigue en la versión que trae. Los nuevos entran con la suya.
+     */
+    private static final String UPSERT_ALL_VERSION_SQL = """
+            INSERT INTO detalle_cliente (id, direccion, telefono, notas, version)
+            SELECT * FROM unnest(?::integer[], ?::text[], ?::text[], ?::text[], ?::integer[])
+            ON CONFLICT (id) DO UPDATE
+                SET direccion = EXCLUDED.direccion,
+                    telefono = EXCLUDED.telefono,
+                    notas = EXCLUDED.notas,
+                    version = detalle_cliente.version + 1
+                WHERE detalle_cliente.version = EXCLUDED.version
+            RETURNING id, version
+            """;
+
+    /** Consulta para borrar muchos detalles en una sola sentencia. */
+    private static final String DELETE_BY_IDS_SQL = """
+            DELETE FROM detalle_cliente
+            WHERE id = ANY(?)
             """;
 
     /** Consulta para borrar un detalle por ID. */
@@ -52,6 +139,58 @@ public class DetalleClienteDAO {
             WHERE id = ?
             """;
 
+    /**
+     * Búsqueda de texto completo en direccion + notas (sql/003_busqueda_texto.sql).
+     * Primero se ordena y se corta la página usando solo el índice GIN y el
+     * tsvector; el join con cliente y ts_headline (caro: vuelve a analizar el
+     * texto) se hacen solo con las filas de la página.
+     */
+    private static final String BUSCAR_TEXTO_SQL = """
+            WITH q AS (SELECT websearch_to_tsquery('es_sin_acentos', ?) AS q),
+            pagina AS (
+                SELECT d.id, d.direccion, d.telefono, d.notas, d.version,
+                       ts_rank_cd(d.busqueda, q.q, 32) AS relevancia
+                FROM detalle_cliente d, q
+                WHERE d.busqueda @@ q.q
+                ORDER BY relevancia DESC, d.id
+                LIMIT ? OFFSET ?
+            )
+            SELECT p.id, c.nombre, c.email, c.version AS version_cliente,
+                   p.direccion, p.telefono, p.notas, p.version, p.relevancia,
+                   ts_headline('es_sin_acentos', concat_ws(' · ', p.direccion, p.notas), q.q,
+                               'StartSel=«, StopSel=», MaxWords=18, MinWords=6, MaxFragments=2, FragmentDelimiter=" … "')
+                       AS fragmento
+            FROM pagina p
+            JOIN cliente c ON c.id = p.id
+            CROSS JOIN q
+            ORDER BY p.relevancia DESC, p.id
+            """;
+
+    /** Número total de coincidencias de una búsqueda de texto (para paginar). */
+    private static final String CONTAR_TEXTO_SQL = """
+            SELECT count(*)
+            FROM detalle_cliente
+            WHERE busqueda @@ websearch_to_tsquery('es_sin_acentos', ?)
+            """;
+
+    // =========================================================================
+    //  MAPA DE IDENTIDAD
+    // =========================================================================
+
+    /** Si no es null, cada id leído se convierte siempre en la misma instancia. */
+    private final MapaIdentidad identidad;
+
+    /** Orden de las listas (ORDER BY id), para mezclar lo que llega de cada shard. */
+    private static final Comparator<DetalleCliente> POR_ID = Comparator.comparingInt(DetalleCliente::getId);
+
+    public DetalleClienteDAO() {
+        this(null);
+    }
+
+    public DetalleClienteDAO(MapaIdentidad identidad) {
+        this.identidad = identidad;
+    }
+
     // =========================================================================
     //  MÉTODOS CRUD BÁSICOS
     // =========================================================================
@@ -61,21 +200,12 @@ public class DetalleClienteDAO {
      * IMPORTANTE: el id debe coincidir con un cliente existente (relación 1:1).
      */
     public void insert(DetalleCliente d) throws SQLException {
-        try (Connection con = Db.getConnection();
-             PreparedStatement pst = con.prepareStatement(INSERT_SQL)) {
-
-            pst.setInt(1, d.getId());
-            pst.setString(2, d.getDireccion());
-            String tel = d.getTelefono();
-            if (tel == null || tel.isBlank()) {
-                pst.setNull(3, Types.VARCHAR);   // ← fuerza NULL → rompe NOT NULL
-            } else {
-                pst.setString(3, tel.trim());
+        ControlAdmision.ejecutar(Clase.ESCRITURA, () -> {
+            try (Connection con = Db.getConnectionCliente(d.getId())) {
+                insert(d, con);
             }
-            pst.setString(4, d.getNotas());
-
-            pst.executeUpdate();
-        }
+            return null;
+        });
     }
 
     public void insert(DetalleCliente d, Connection con) throws SQLException {
@@ -100,27 +230,82 @@ public class DetalleClienteDAO {
      * Devuelve null si no existe.
      */
     public DetalleCliente findById(int id) throws SQLException {
-        try (Connection con = Db.getConnection();
-             PreparedStatement pst = con.prepareStatement(SELECT_BY_ID_SQL)) {
+        return ControlAdmision.ejecutar(Clase.LECTURA, () -> {
+            try (Connection con = Db.getConnectionCliente(id);
+                 PreparedStatement pst = con.prepareStatement(SELECT_BY_ID_SQL)) {
 
-            pst.setInt(1, id);
+                pst.setInt(1, id);
+
+                try (ResultSet rs = pst.executeQuery()) {
+                    if (rs.next()) {
+                        return mapRow(rs);
+                    }
+                    return null;
+                }
+            }
+        });
+    }
+
+    /**
+     * Obtiene los detalles de varios ids con una sola consulta (id = ANY(?)).
+     * Los ids sin detalle no aparecen en la lista; el resultado va ordenado por id.
+     */
+    public List<DetalleCliente> findByIds(int[] ids) throws SQLException {
+        if (ids == null || ids.length == 0) {
+            return new ArrayList<>();
+        }
+        return ControlAdmision.ejecutar(Clase.LECTURA,
+                () -> Shards.mezclar(Shards.porShard(ids, this::findByIds), POR_ID));
+    }
+
+    private List<DetalleCliente> findByIds(int shard, int[] ids) throws SQLException {
+        try (Connection con = Db.getConnection(shard)) {
+            return findByIds(ids, con);
+        }
+    }
+
+    /** Versión con conexión externa (p. ej. para leer de un shard concreto). */
+    public List<DetalleCliente> findByIds(int[] ids, Connection con) throws SQLException {
+        List<DetalleCliente> out = new ArrayList<>();
+
+        try (PreparedStatement pst = con.prepareStatement(SELECT_BY_IDS_SQL)) {
+
+            Array arr = con.createArrayOf("integer", ClienteDAO.boxear(ids));
+            pst.setArray(1, arr);
 
             try (ResultSet rs = pst.executeQuery()) {
-                if (rs.next()) {
-                    return mapRow(rs);
+                while (rs.next()) {
+                    out.add(mapRow(rs));
                 }
-                return null;
+            } finally {
+                arr.free();
             }
         }
+
+        return out;
+    }
+
+    /**
+     * Cargador que agrupa peticiones findById concurrentes en lotes de findByIds.
+     */
+    public CargadorPorLotes<DetalleCliente> crearCargador(long ventanaMillis, int maxLote) {
+        return new CargadorPorLotes<>(
+                ids -> CargadorPorLotes.indexarPorId(findByIds(ids), DetalleCliente::getId),
+                ventanaMillis, maxLote);
     }
 
     /**
      * Lista todos los detalles cliente.
      */
     public List<DetalleCliente> findAll() throws SQLException {
+        return ControlAdmision.ejecutar(Clase.MASIVA,
+                () -> Shards.mezclar(Shards.enTodos(this::findAll), POR_ID));
+    }
+
+    private List<DetalleCliente> findAll(int shard) throws SQLException {
         List<DetalleCliente> out = new ArrayList<>();
 
-        try (Connection con = Db.getConnection();
+        try (Connection con = Db.getConnection(shard);
              PreparedStatement pst = con.prepareStatement(SELECT_ALL_SQL);
              ResultSet rs = pst.executeQuery()) {
 
@@ -133,19 +318,274 @@ public class DetalleClienteDAO {
     }
 
     /**
-     * Actualiza los datos del detalle.
-     * Si id no existe, devuelve 0.
+     * Actualiza los datos del detalle si nadie lo ha cambiado desde que se
+     * leyó (misma versión); al actualizar, d pasa a llevar la versión nueva.
+     * Si id no existe, devuelve 0. Si la versión no coincide lanza
+     * ConflictoVersionException con el detalle tal como está ahora.
      */
     public int update(DetalleCliente d) throws SQLException {
-        try (Connection con = Db.getConnection();
-             PreparedStatement pst = con.prepareStatement(UPDATE_SQL)) {
+        return ControlAdmision.ejecutar(Clase.ESCRITURA, () -> {
+            try (Connection con = Db.getConnectionCliente(d.getId())) {
+                return update(d, con);
+            }
+        });
+    }
+
+    /** Versión con conexión externa (la transacción la gestiona quien llama). */
+    public int update(DetalleCliente d, Connection con) throws SQLException {
+        if (identidad != null && identidad.detalles().buscar(d.getId()) == d) {
+            throw new IllegalArgumentException("Detalle " + d.getId()
+                    + ": se guarda una copia (DetalleCliente.copia()), no la instancia del mapa de identidad");
+        }
+
+        try (PreparedStatement pst = con.prepareStatement(UPDATE_SQL)) {
 
             pst.setString(1, d.getDireccion());
             pst.setString(2, d.getTelefono());
             pst.setString(3, d.getNotas());
             pst.setInt(4, d.getId());
+            pst.setInt(5, d.getVersion());
 
-            return pst.executeUpdate(); // número de filas afectadas
+            try (ResultSet rs = pst.executeQuery()) {
+                if (rs.next()) {
+                    d.setVersion(rs.getInt(1));
+                    return 1;
+                }
+            }
+        }
+
+        // Sin filas: o ya no existe o va por otra versión.
+        try (PreparedStatement pst = con.prepareStatement(SELECT_BY_ID_SQL)) {
+            pst.setInt(1, d.getId());
+            try (ResultSet rs = pst.executeQuery()) {
+                if (!rs.next()) {
+                    return 0;
+                }
+                // Fuera del mapa de identidad, para no pisar los cambios de quien llama.
+                DetalleCliente actual = nuevo(rs.getInt("id"), rs.getString("direccion"),
+                        rs.getString("telefono"), rs.getString("notas"), rs.getInt("version"));
+                throw new ConflictoVersionException("detalle_cliente", d.getId(), d.getVersion(),
+                        actual.getVersion(), actual);
+            }
+        }
+    }
+
+    /**
+     * Actualiza muchos detalles con UNA sentencia (UPDATE ... FROM unnest).
+     * Devuelve el número de filas afectadas; los ids que no existan se ignoran.
+     */
+    public int updateAll(Collection<DetalleCliente> detalles) throws SQLException {
+        if (detalles == null || detalles.isEmpty()) {
+            return 0;
+        }
+
+        // Una sentencia por shard, todas a la vez.
+        List<List<DetalleCliente>> grupos = Shards.agrupar(detalles, DetalleCliente::getId);
+        int total = 0;
+        for (int n : ControlAdmision.ejecutar(Clase.ESCRITURA, () -> Shards.enTodos(shard -> {
+            if (grupos.get(shard).isEmpty()) {
+                return 0;
+            }
+            try (Connection con = Db.getConnection(shard)) {
+                return updateAll(grupos.get(shard), con);
+            }
+        }))) {
+            total += n;
+        }
+        return total;
+    }
+
+    /** Con varios shards, todos los detalles deben ser del shard de la conexión. */
+    public int updateAll(Collection<DetalleCliente> detalles, Connection con) throws SQLException {
+        return ejecutarConArrays(UPDATE_ALL_SQL, detalles, con);
+    }
+
+    /**
+     * updateAll con bloqueo optimista. Devuelve los ids actualizados (que
+     * pasan a llevar la versión nueva). Por cada detalle que otro ha cambiado
+     * entretanto se añade a conflictos una excepción con la fila actual; los
+     * que no están ni en un sitio ni en otro no tienen fila de detalle.
+     * Si se hace rollback, quien llama debe devolver las versiones.
+     */
+    public List<Integer> updateAllComprobandoVersion(Collection<DetalleCliente> detalles, Connection con,
+                                                     List<ConflictoVersionException> conflictos)
+            throws SQLException {
+        List<Integer> actualizados = new ArrayList<>();
+        escribirComprobandoVersion(UPDATE_ALL_VERSION_SQL, detalles, con, actualizados, conflictos);
+        return actualizados;
+    }
+
+    /**
+     * Inserta los detalles que no existen y actualiza los que sí (ON CONFLICT).
+     * Devuelve el número de filas insertadas + actualizadas.
+     */
+    public int upsertAll(Collection<DetalleCliente> detalles, Connection con) throws SQLException {
+        return ejecutarConArrays(UPSERT_ALL_SQL, detalles, con);
+    }
+
+    /**
+     * upsertAll con bloqueo optimista (ver updateAllComprobandoVersion).
+     * Devuelve el número de filas insertadas + actualizadas.
+     */
+    public int upsertAllComprobandoVersion(Collection<DetalleCliente> detalles, Connection con,
+                                           List<ConflictoVersionException> conflictos) throws SQLException {
+        return escribirComprobandoVersion(UPSERT_ALL_VERSION_SQL, detalles, con, new ArrayList<>(), conflictos);
+    }
+
+    /**
+     * Ejecuta una de las sentencias *_VERSION_SQL (cinco arrays paralelos, el
+     * último la versión; RETURNING id, version). Lo que no vuelve se lee tal
+     * como está ahora, fuera del mapa de identidad: si existe, es un conflicto.
+     */
+    private int escribirComprobandoVersion(String sql, Collection<DetalleCliente> detalles, Connection con,
+                                           List<Integer> escritos, List<ConflictoVersionException> conflictos)
+            throws SQLException {
+        if (detalles == null || detalles.isEmpty()) {
+            return 0;
+        }
+
+        int n = detalles.size();
+        Integer[] ids = new Integer[n];
+        String[] direcciones = new String[n];
+        String[] telefonos = new String[n];
+        String[] notas = new String[n];
+        Integer[] versiones = new Integer[n];
+        Map<Integer, DetalleCliente> porId = new HashMap<>(n * 2);
+
+        int i = 0;
+        for (DetalleCliente d : detalles) {
+            ids[i] = d.getId();
+            direcciones[i] = d.getDireccion();
+            telefonos[i] = d.getTelefono();
+            notas[i] = d.getNotas();
+            versiones[i] = d.getVersion();
+            porId.put(d.getId(), d);
+            i++;
+        }
+
+        try (PreparedStatement pst = con.prepareStatement(sql)) {
+            Array[] arrays = {
+                    con.createArrayOf("integer", ids),
+                    con.createArrayOf("text", direcciones),
+                    con.createArrayOf("text", telefonos),
+                    con.createArrayOf("text", notas),
+                    con.createArrayOf("integer", versiones)
+            };
+            try {
+                for (int p = 0; p < arrays.length; p++) {
+                    pst.setArray(p + 1, arrays[p]);
+                }
+                try (ResultSet rs = pst.executeQuery()) {
+                    while (rs.next()) {
+                        porId.remove(rs.getInt(1)).setVersion(rs.getInt(2));
+                        escritos.add(rs.getInt(1));
+                    }
+                }
+            } finally {
+                for (Array a : arrays) {
+                    a.free();
+                }
+            }
+        }
+
+        if (!porId.isEmpty()) {
+            try (PreparedStatement pst = con.prepareStatement(SELECT_BY_IDS_SQL)) {
+                Array arr = con.createArrayOf("integer", porId.keySet().toArray(new Integer[0]));
+                try {
+                    pst.setArray(1, arr);
+                    try (ResultSet rs = pst.executeQuery()) {
+                        while (rs.next()) {
+                            DetalleCliente actual = nuevo(rs.getInt("id"), rs.getString("direccion"),
+                                    rs.getString("telefono"), rs.getString("notas"), rs.getInt("version"));
+                            conflictos.add(new ConflictoVersionException("detalle_cliente", actual.getId(),
+                                    porId.get(actual.getId()).getVersion(), actual.getVersion(), actual));
+                        }
+                    }
+                } finally {
+                    arr.free();
+                }
+            }
+        }
+        return escritos.size();
+    }
+
+    /**
+     * Pasa los detalles como cuatro arrays paralelos (id, direccion, telefono, notas)
+     * a una sentencia basada en unnest.
+     */
+    private int ejecutarConArrays(String sql, Collection<DetalleCliente> detalles, Connection con)
+            throws SQLException {
+        if (detalles == null || detalles.isEmpty()) {
+            return 0;
+        }
+
+        int n = detalles.size();
+        Integer[] ids = new Integer[n];
+        String[] direcciones = new String[n];
+        String[] telefonos = new String[n];
+        String[] notas = new String[n];
+
+        int i = 0;
+        for (DetalleCliente d : detalles) {
+            ids[i] = d.getId();
+            direcciones[i] = d.getDireccion();
+            telefonos[i] = d.getTelefono();
+            notas[i] = d.getNotas();
+            i++;
+        }
+
+        try (PreparedStatement pst = con.prepareStatement(sql)) {
+            Array[] arrays = {
+                    con.createArrayOf("integer", ids),
+                    con.createArrayOf("text", direcciones),
+                    con.createArrayOf("text", telefonos),
+                    con.createArrayOf("text", notas)
+            };
+            try {
+                for (int p = 0; p < arrays.length; p++) {
+                    pst.setArray(p + 1, arrays[p]);
+                }
+                return pst.executeUpdate();
+            } finally {
+                for (Array a : arrays) {
+                    a.free();
+                }
+            }
+        }
+    }
+
+    /**
+     * Borra los detalles de todos los ids indicados con una sola sentencia.
+     */
+    public int deleteByIds(int[] ids) throws SQLException {
+        if (ids == null || ids.length == 0) {
+            return 0;
+        }
+
+        int borrados = 0;
+        for (int n : ControlAdmision.ejecutar(Clase.ESCRITURA, () -> Shards.porShard(ids, (shard, suyos) -> {
+            try (Connection con = Db.getConnection(shard)) {
+                return deleteByIds(suyos, con);
+            }
+        }))) {
+            borrados += n;
+        }
+        return borrados;
+    }
+
+    public int deleteByIds(int[] ids, Connection con) throws SQLException {
+        if (ids == null || ids.length == 0) {
+            return 0;
+        }
+
+        try (PreparedStatement pst = con.prepareStatement(DELETE_BY_IDS_SQL)) {
+            Array arr = con.createArrayOf("integer", ClienteDAO.boxear(ids));
+            try {
+                pst.setArray(1, arr);
+                return pst.executeUpdate();
+            } finally {
+                arr.free();
+            }
         }
     }
 
@@ -153,11 +593,100 @@ public class DetalleClienteDAO {
      * Borra un detalle concreto.
      */
     public int deleteById(int id) throws SQLException {
-        try (Connection con = Db.getConnection();
-             PreparedStatement pst = con.prepareStatement(DELETE_SQL)) {
+        return ControlAdmision.ejecutar(Clase.ESCRITURA, () -> {
+            try (Connection con = Db.getConnectionCliente(id);
+                 PreparedStatement pst = con.prepareStatement(DELETE_SQL)) {
+
+                pst.setInt(1, id);
+                return pst.executeUpdate();
+            }
+        });
+    }
+
+    // =========================================================================
+    //  BÚSQUEDA DE TEXTO COMPLETO
+    // =========================================================================
+
+    /**
+     * Busca clientes por palabras de su dirección o notas, ordenados por
+     * relevancia (la dirección pesa más que las notas).
+     *
+     * La consulta admite la sintaxis de websearch_to_tsquery: palabras sueltas
+     * (todas deben aparecer), "frases entre comillas", "or" y -exclusiones.
+     * Ignora acentos y mayúsculas y reduce las palabras a su raíz
+     * ("panaderías" encuentra "panadería").
+     *
+     * Con varios shards, cada uno devuelve sus desplazamiento + limite
+     * mejores y la página se corta tras mezclarlos por relevancia.
+     *
+     * @param limite        tamaño de página
+     * @param desplazamiento filas a saltar (página * limite)
+     */
+    public List<ResultadoBusqueda> buscarTexto(String consulta, int limite, int desplazamiento) throws SQLException {
+        if (consulta == null || consulta.isBlank()) {
+            return new ArrayList<>();
+        }
+        if (Db.numShards() == 1) {
+            return ControlAdmision.ejecutar(Clase.BUSQUEDA, () -> buscarTexto(0, consulta, limite, desplazamiento));
+        }
+
+        List<ResultadoBusqueda> todos = ControlAdmision.ejecutar(Clase.BUSQUEDA, () -> Shards.mezclar(
+                Shards.enTodos(shard -> buscarTexto(shard, consulta, desplazamiento + limite, 0)),
+                Comparator.comparingDouble(ResultadoBusqueda::getRelevancia).reversed()
+                        .thenComparingInt(r -> r.getDetalle().getId())));
+        int desde = Math.min(desplazamiento, todos.size());
+        return new ArrayList<>(todos.subList(desde, Math.min(desde + limite, todos.size())));
+    }
 
-            pst.setInt(1, id);
-            return pst.executeUpdate();
+    private List<ResultadoBusqueda> buscarTexto(int shard, String consulta, int limite, int desplazamiento)
+            throws SQLException {
+        List<ResultadoBusqueda> out = new ArrayList<>();
+
+        try (Connection con = Db.getConnection(shard);
+             PreparedStatement pst = con.prepareStatement(BUSCAR_TEXTO_SQL)) {
+
+            pst.setString(1, consulta);
+            pst.setInt(2, limite);
+            pst.setInt(3, desplazamiento);
+
+            try (ResultSet rs = pst.executeQuery()) {
+                while (rs.next()) {
+                    DetalleCliente d = mapRow(rs);
+                    Cliente c = ClienteDAO.mapear(identidad, d.getId(), rs.getString("nombre"), rs.getString("email"),
+                            rs.getInt("version_cliente"));
+                    out.add(new ResultadoBusqueda(c, d, rs.getDouble("relevancia"), rs.getString("fragmento")));
+                }
+            }
+        }
+
+        return out;
+    }
+
+    /**
+     * Cuántos detalles coinciden con la búsqueda (para mostrar "n de m").
+     */
+    public int contarTexto(String consulta) throws SQLException {
+        if (consulta == null || consulta.isBlank()) {
+            return 0;
+        }
+
+        int total = 0;
+        for (int n : ControlAdmision.ejecutar(Clase.BUSQUEDA, () -> Shards.enTodos(shard -> contarTexto(shard, consulta)))) {
+            total += n;
+        }
+        return total;
+    }
+
+    private int contarTexto(int shard, String consulta) throws SQLException {
+        try (Connection con = Db.getConnection(shard);
+             PreparedStatement pst = con.prepareStatement(CONTAR_TEXTO_SQL)) {
+
+            pst.setString(1, consulta);
+
+            try (ResultSet rs = pst.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
         }
     }
 
@@ -173,7 +702,24 @@ public class DetalleClienteDAO {
         String direccion = rs.getString("direccion");
         String telefono = rs.getString("telefono");
         String notas = rs.getString("notas");
+        int version = rs.getInt("version");
+
+        if (identidad == null) {
+            return nuevo(id, direccion, telefono, notas, version);
+        }
+        return identidad.detalles().resolver(id,
+                () -> nuevo(id, direccion, telefono, notas, version),
+                d -> {
+                    d.setDireccion(direccion);
+                    d.setTelefono(telefono);
+                    d.setNotas(notas);
+                    d.setVersion(version);
+                });
+    }
 
-        return new DetalleCliente(id, direccion, telefono, notas);
+    private static DetalleCliente nuevo(int id, String direccion, String telefono, String notas, int version) {
+        DetalleCliente d = new DetalleCliente(id, direccion, telefono, notas);
+        d.setVersion(version);
+        return d;
     }
 }
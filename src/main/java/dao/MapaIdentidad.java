@@ -0,0 +1,173 @@
+package dao;
+
+import model.Cliente;
+import model.DetalleCliente;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Mapa de identidad para una sesión (una vista, una unidad de trabajo):
+ * dentro de él, cada id corresponde a UNA sola instancia de Cliente y de
+ * DetalleCliente, la salga de la consulta que salga.
+ *
+ * Los DAO creados con un MapaIdentidad pasan por aquí al mapear cada fila:
+ * si ya hay instancia viva para ese id se le copian los valores recién
+ * leídos y se devuelve esa, así un cambio hecho en una copia se ve desde
+ * todas las listas y no se acumulan duplicados en memoria.
+ *
+ * Guarda referencias débiles: una instancia que ya nadie usa la recoge el GC
+ * y su entrada se purga en la siguiente operación.
+ *
+ * Los valores nuevos se copian en el hilo que lee, antes de devolver la
+ * instancia: quien consulta desde cualquier hilo recibe lo que acaba de
+ * leer. Las instancias canónicas suelen estar además a la vista (en una
+ * TableView), y la vista no vuelve a leer sus campos por sí sola: por eso,
+ * tras refrescar una existente se llama a alCambiar (en la vista, programa
+ * un repintado en el hilo FX). Mientras llega, una fila puede enseñar a la
+ * vez campos de antes y de después; el repintado la deja bien.
+ *
+ * Como cada lectura pisa los campos y la versión de la instancia canónica,
+ * esta no debe llevar cambios sin guardar: con la versión nueva, el update
+ * pasaría la comprobación optimista y borraría lo que guardó otro puesto.
+ * Para editar se usa una copia (Cliente.copia(), DetalleCliente.copia());
+ * los update de los DAO con mapa rechazan la instancia canónica.
+ */
+public final class MapaIdentidad {
+
+    private final Tabla<Cliente> clientes;
+    private final Tabla<DetalleCliente> detalles;
+
+    /** Sin nadie a quien avisar de los refrescos. */
+    public MapaIdentidad() {
+        this(() -> {});
+    }
+
+    /**
+     * @param alCambiar se llama (en el hilo que lee) cada vez que se copian
+     *                  valores nuevos en una instancia existente
+     */
+    public MapaIdentidad(Runnable alCambiar) {
+        this.clientes = new Tabla<>(alCambiar);
+        this.detalles = new Tabla<>(alCambiar);
+    }
+
+    public Tabla<Cliente> clientes() {
+        return clientes;
+    }
+
+    public Tabla<DetalleCliente> detalles() {
+        return detalles;
+    }
+
+    /** Olvida todas las instancias (al empezar otra unidad de trabajo, por ejemplo). */
+    public void limpiar() {
+        clientes.limpiar();
+        detalles.limpiar();
+    }
+
+    public String estadisticas() {
+        return "MapaIdentidad{clientes: " + clientes.estadisticas() + "; detalles: " + detalles.estadisticas() + "}";
+    }
+
+    // =========================================================================
+    //  UNA TABLA (id → instancia) POR TIPO DE ENTIDAD
+    // =========================================================================
+
+    public static final class Tabla<T> {
+
+        /** Referencia débil que recuerda su id para poder quitarla del mapa. */
+        private static final class Ref<T> extends WeakReference<T> {
+            final int id;
+
+            Ref(int id, T valor, ReferenceQueue<T> cola) {
+                super(valor, cola);
+                this.id = id;
+            }
+        }
+
+        private final Map<Integer, Ref<T>> instancias = new HashMap<>();
+        private final ReferenceQueue<T> recogidas = new ReferenceQueue<>();
+        private final Runnable alCambiar;
+
+        private long consultas;
+        private long reutilizadas;
+        private long recolectadas;
+
+        private Tabla(Runnable alCambiar) {
+            this.alCambiar = alCambiar;
+        }
+
+        /**
+         * Instancia canónica para el id: la existente o una nueva creada con
+         * crear. A la existente se le pasan los valores leídos con actualizar
+         * antes de devolverla, y se avisa con alCambiar.
+         */
+        public synchronized T resolver(int id, Supplier<T> crear, Consumer<T> actualizar) {
+            purgar();
+            consultas++;
+
+            Ref<T> ref = instancias.get(id);
+            T t = ref != null ? ref.get() : null;
+            if (t != null) {
+                reutilizadas++;
+                actualizar.accept(t);
+                alCambiar.run();
+                return t;
+            }
+
+            t = crear.get();
+            instancias.put(id, new Ref<>(id, t, recogidas));
+            return t;
+        }
+
+        /** La instancia viva para el id, o null (sin ir a la BD). */
+        public synchronized T buscar(int id) {
+            purgar();
+            Ref<T> ref = instancias.get(id);
+            return ref != null ? ref.get() : null;
+        }
+
+        /** Quita un id (por ejemplo, tras borrarlo). */
+        public synchronized void quitar(int id) {
+            instancias.remove(id);
+        }
+
+        public synchronized void limpiar() {
+            purgar();
+            instancias.clear();
+        }
+
+        /** Instancias vivas (o aún no purgadas) en el mapa. */
+        public synchronized int tamanio() {
+            purgar();
+            return instancias.size();
+        }
+
+        public synchronized long getConsultas() { return consultas; }
+        public synchronized long getReutilizadas() { return reutilizadas; }
+        public synchronized long getRecolectadas() { return recolectadas; }
+
+        public synchronized String estadisticas() {
+            purgar();
+            return "vivas=%d, filas=%d, reutilizadas=%d (%.0f %%), recogidas por GC=%d"
+                    .formatted(instancias.size(), consultas, reutilizadas,
+                            consultas == 0 ? 0.0 : reutilizadas * 100.0 / consultas, recolectadas);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void purgar() {
+            Ref<T> ref;
+            while ((ref = (Ref<T>) recogidas.poll()) != null) {
+                // Solo si la entrada sigue siendo esa referencia (el id pudo volver a ocuparse).
+                if (instancias.remove(ref.id, ref)) {
+                    recolectadas++;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,411 @@
+package dao;
+
+import db.ControlAdmision;
+import db.ControlAdmision.Clase;
+import db.Db;
+import db.Shards;
+import model.DetallePedido;
+import model.Pedido;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * DAO para pedido + detalle_pedido, particionadas por mes según fecha
+ * (ver sql/002_pedido_particionado.sql).
+ *
+ * Todas las consultas por rango de fechas filtran fecha en AMBAS tablas y
+ * hacen el join por (pedido_id, fecha): así PostgreSQL poda particiones en
+ * los dos lados y el coste depende del rango pedido, no del histórico total.
+ * Los rangos son semiabiertos: [desde, hasta).
+ *
+ * Los pedidos viven en el shard de su cliente (ver db.Db): las consultas de
+ * un cliente van a un solo shard y las de rango se lanzan en todos y se mezclan.
+ */
+public class PedidoDAO {
+
+    // =========================================================================
+    //  SQL COMO CONSTANTES
+    // =========================================================================
+
+    /**
+     * Avisados tras confirmar cada inserción (insert / insertAll sin conexión
+     * externa), con los pedidos de esa transacción. Ver services.CuboVentas.
+     */
+    private static final List<Consumer<List<Pedido>>> OYENTES = new CopyOnWriteArrayList<>();
+
+    /**
+     * Hilo de los avisos: quien inserta no espera a los oyentes. Uno solo,
+     * para que cada oyente reciba las inserciones en el orden de confirmación.
+     */
+    private static final ExecutorService AVISOS = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "avisos-pedidos");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Orden de findByRango, para mezclar lo que llega de cada shard. */
+    private static final Comparator<Pedido> POR_FECHA_E_ID =
+            Comparator.comparing(Pedido::getFecha).thenComparingInt(Pedido::getId);
+
+    /** Inserta muchos pedidos de golpe (arrays paralelos + unnest). */
+    private static final String INSERT_PEDIDOS_SQL = """
+            INSERT INTO pedido (id, cliente_id, fecha)
+            SELECT * FROM unnest(?::integer[], ?::integer[], ?::date[])
+            """;
+
+    /** Inserta muchas líneas de golpe; la fecha es la de su pedido. */
+    private static final String INSERT_LINEAS_SQL = """
+            INSERT INTO detalle_pedido (pedido_id, fecha, producto_id, cantidad, precio_unit)
+            SELECT * FROM unnest(?::integer[], ?::date[], ?::integer[], ?::integer[], ?::numeric[])
+            """;
+
+    /** Pedidos + líneas de un rango de fechas. */
+    private static final String SELECT_RANGO_SQL = """
+            SELECT p.id, p.cliente_id, p.fecha, dp.producto_id, dp.cantidad, dp.precio_unit
+            FROM pedido p
+            LEFT JOIN detalle_pedido dp
+                   ON dp.pedido_id = p.id AND dp.fecha = p.fecha
+                  AND dp.fecha >= ? AND dp.fecha < ?
+            WHERE p.fecha >= ? AND p.fecha < ?
+            ORDER BY p.fecha, p.id
+            """;
+
+    /** Pedidos + líneas de un cliente en un rango de fechas. */
+    private static final String SELECT_CLIENTE_RANGO_SQL = """
+            SELECT p.id, p.cliente_id, p.fecha, dp.producto_id, dp.cantidad, dp.precio_unit
+            FROM pedido p
+            LEFT JOIN detalle_pedido dp
+                   ON dp.pedido_id = p.id AND dp.fecha = p.fecha
+                  AND dp.fecha >= ? AND dp.fecha < ?
+            WHERE p.cliente_id = ? AND p.fecha >= ? AND p.fecha < ?
+            ORDER BY p.fecha, p.id
+            """;
+
+    /**
+     * Todos los pedidos + líneas de varios clientes. Sin fecha no hay poda:
+     * recorre pedido_cliente_fecha_idx en cada partición.
+     */
+    private static final String SELECT_CLIENTES_SQL = """
+            SELECT p.id, p.cliente_id, p.fecha, dp.producto_id, dp.cantidad, dp.precio_unit
+            FROM pedido p
+            LEFT JOIN detalle_pedido dp
+                   ON dp.pedido_id = p.id AND dp.fecha = p.fecha
+            WHERE p.cliente_id = ANY(?)
+            ORDER BY p.cliente_id, p.fecha, p.id
+            """;
+
+    /** Un pedido concreto: con la fecha solo se toca una partición. */
+    private static final String SELECT_BY_ID_SQL = """
+            SELECT p.id, p.cliente_id, p.fecha, dp.producto_id, dp.cantidad, dp.precio_unit
+            FROM pedido p
+            LEFT JOIN detalle_pedido dp
+                   ON dp.pedido_id = p.id AND dp.fecha = p.fecha AND dp.fecha = ?
+            WHERE p.id = ? AND p.fecha = ?
+            """;
+
+    // =========================================================================
+    //  INSERCIÓN
+    // =========================================================================
+
+    /**
+     * Inserta un pedido con todas sus líneas en una transacción.
+     */
+    public void insert(Pedido p) throws SQLException {
+        insertAll(List.of(p));
+    }
+
+    /**
+     * Inserta muchos pedidos con sus líneas en UNA transacción:
+     * una sentencia para todos los pedidos y otra para todas las líneas.
+     *
+     * Con varios shards cada pedido va al shard de su cliente, con una
+     * transacción por shard (en paralelo); no es atómico entre shards.
+     */
+    public void insertAll(Collection<Pedido> pedidos) throws SQLException {
+        if (pedidos == null || pedidos.isEmpty()) {
+            return;
+        }
+        List<List<Pedido>> grupos = Shards.agrupar(pedidos, Pedido::getClienteId);
+        ControlAdmision.ejecutar(Clase.ESCRITURA, () -> Shards.enTodos(shard -> {
+            if (!grupos.get(shard).isEmpty()) {
+                insertAll(shard, grupos.get(shard));
+            }
+            return null;
+        }));
+    }
+
+    private void insertAll(int shard, Collection<Pedido> pedidos) throws SQLException {
+        try (Connection con = Db.getConnection(shard)) {
+
+            con.setAutoCommit(false);
+
+            try {
+                insertAll(pedidos, con);
+                con.commit();
+            } catch (SQLException e) {
+                con.rollback();
+                throw e;
+            } finally {
+                con.setAutoCommit(true);
+            }
+        }
+
+        if (!OYENTES.isEmpty()) {
+            List<Pedido> confirmados = List.copyOf(pedidos);
+            AVISOS.execute(() -> {
+                for (Consumer<List<Pedido>> oyente : OYENTES) {
+                    try {
+                        oyente.accept(confirmados);
+                    } catch (RuntimeException e) {
+                        System.err.println("Aviso de pedidos insertados: " + e);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Registra un oyente de pedidos insertados (en todas las instancias del DAO).
+     * Se le avisa en el hilo "avisos-pedidos", poco después de cada commit.
+     */
+    public static void escuchar(Consumer<List<Pedido>> oyente) {
+        OYENTES.add(oyente);
+    }
+
+    public static void dejarDeEscuchar(Consumer<List<Pedido>> oyente) {
+        OYENTES.remove(oyente);
+    }
+
+    /**
+     * Versión que usa una conexión externa (la transacción la gestiona quien llama).
+     * Con varios shards, todos los pedidos deben ser de clientes de ese shard.
+     */
+    public void insertAll(Collection<Pedido> pedidos, Connection con) throws SQLException {
+        if (pedidos == null || pedidos.isEmpty()) {
+            return;
+        }
+
+        int n = pedidos.size();
+        Integer[] ids = new Integer[n];
+        Integer[] clientes = new Integer[n];
+        Date[] fechas = new Date[n];
+
+        int lineas = 0;
+        int i = 0;
+        for (Pedido p : pedidos) {
+            ids[i] = p.getId();
+            clientes[i] = p.getClienteId();
+            fechas[i] = Date.valueOf(p.getFecha());
+            lineas += p.getLineas().size();
+            i++;
+        }
+
+        ejecutar(con, INSERT_PEDIDOS_SQL,
+                con.createArrayOf("integer", ids),
+                con.createArrayOf("integer", clientes),
+                con.createArrayOf("date", fechas));
+
+        if (lineas == 0) {
+            return;
+        }
+
+        Integer[] pedidoIds = new Integer[lineas];
+        Date[] lineaFechas = new Date[lineas];
+        Integer[] productos = new Integer[lineas];
+        Integer[] cantidades = new Integer[lineas];
+        Double[] precios = new Double[lineas];
+
+        int k = 0;
+        for (Pedido p : pedidos) {
+            Date f = Date.valueOf(p.getFecha());
+            for (DetallePedido d : p.getLineas()) {
+                pedidoIds[k] = p.getId();
+                lineaFechas[k] = f;
+                productos[k] = d.getProductoId();
+                cantidades[k] = d.getCantidad();
+                precios[k] = d.getPrecioUnit();
+                k++;
+            }
+        }
+
+        ejecutar(con, INSERT_LINEAS_SQL,
+                con.createArrayOf("integer", pedidoIds),
+                con.createArrayOf("date", lineaFechas),
+                con.createArrayOf("integer", productos),
+                con.createArrayOf("integer", cantidades),
+                con.createArrayOf("numeric", precios));
+    }
+
+    private static void ejecutar(Connection con, String sql, Array... arrays) throws SQLException {
+        try (PreparedStatement pst = con.prepareStatement(sql)) {
+            for (int p = 0; p < arrays.length; p++) {
+                pst.setArray(p + 1, arrays[p]);
+            }
+            pst.executeUpdate();
+        } finally {
+            for (Array a : arrays) {
+                a.free();
+            }
+        }
+    }
+
+    // =========================================================================
+    //  CONSULTAS (con poda de particiones)
+    // =========================================================================
+
+    /**
+     * Obtiene un pedido con sus líneas. Hace falta la fecha para ir directo a
+     * su partición; devuelve null si no existe.
+     */
+    public Pedido findById(int id, LocalDate fecha) throws SQLException {
+        // Sin el cliente no se sabe el shard: se pregunta a todos (solo uno lo tendrá).
+        for (Pedido p : ControlAdmision.ejecutar(Clase.LECTURA,
+                () -> Shards.enTodos(shard -> findById(shard, id, fecha)))) {
+            if (p != null) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    private Pedido findById(int shard, int id, LocalDate fecha) throws SQLException {
+        try (Connection con = Db.getConnection(shard);
+             PreparedStatement pst = con.prepareStatement(SELECT_BY_ID_SQL)) {
+
+            pst.setObject(1, fecha);
+            pst.setInt(2, id);
+            pst.setObject(3, fecha);
+
+            List<Pedido> out = leer(pst);
+            return out.isEmpty() ? null : out.get(0);
+        }
+    }
+
+    /**
+     * Pedidos (con líneas) con fecha en [desde, hasta), ordenados por fecha e id.
+     */
+    public List<Pedido> findByRango(LocalDate desde, LocalDate hasta) throws SQLException {
+        return ControlAdmision.ejecutar(Clase.LECTURA,
+                () -> Shards.mezclar(Shards.enTodos(shard -> findByRango(shard, desde, hasta)), POR_FECHA_E_ID));
+    }
+
+    private List<Pedido> findByRango(int shard, LocalDate desde, LocalDate hasta) throws SQLException {
+        try (Connection con = Db.getConnection(shard);
+             PreparedStatement pst = con.prepareStatement(SELECT_RANGO_SQL)) {
+
+            pst.setObject(1, desde);
+            pst.setObject(2, hasta);
+            pst.setObject(3, desde);
+            pst.setObject(4, hasta);
+
+            return leer(pst);
+        }
+    }
+
+    /**
+     * Pedidos (con líneas) de un cliente con fecha en [desde, hasta).
+     */
+    public List<Pedido> findByClienteYRango(int clienteId, LocalDate desde, LocalDate hasta) throws SQLException {
+        return ControlAdmision.ejecutar(Clase.LECTURA, () -> {
+            try (Connection con = Db.getConnectionCliente(clienteId);
+                 PreparedStatement pst = con.prepareStatement(SELECT_CLIENTE_RANGO_SQL)) {
+
+                pst.setObject(1, desde);
+                pst.setObject(2, hasta);
+                pst.setInt(3, clienteId);
+                pst.setObject(4, desde);
+                pst.setObject(5, hasta);
+
+                return leer(pst);
+            }
+        });
+    }
+
+    /**
+     * Todos los pedidos (con líneas) de varios clientes en una consulta,
+     * agrupados por cliente y ordenados por fecha. Los clientes sin pedidos
+     * no aparecen en el mapa.
+     */
+    public Map<Integer, List<Pedido>> findByClientes(int[] ids) throws SQLException {
+        Map<Integer, List<Pedido>> out = new HashMap<>();
+        if (ids == null || ids.length == 0) {
+            return out;
+        }
+
+        for (Map<Integer, List<Pedido>> parte
+                : ControlAdmision.ejecutar(Clase.LECTURA, () -> Shards.porShard(ids, this::findByClientes))) {
+            out.putAll(parte);
+        }
+        return out;
+    }
+
+    private Map<Integer, List<Pedido>> findByClientes(int shard, int[] ids) throws SQLException {
+        try (Connection con = Db.getConnection(shard)) {
+            return findByClientes(ids, con);
+        }
+    }
+
+    /** Versión con conexión externa (p. ej. para leer de un shard concreto). */
+    public Map<Integer, List<Pedido>> findByClientes(int[] ids, Connection con) throws SQLException {
+        Map<Integer, List<Pedido>> out = new HashMap<>();
+
+        try (PreparedStatement pst = con.prepareStatement(SELECT_CLIENTES_SQL)) {
+
+            Array arr = con.createArrayOf("integer", ClienteDAO.boxear(ids));
+            try {
+                pst.setArray(1, arr);
+                for (Pedido p : leer(pst)) {
+                    out.computeIfAbsent(p.getClienteId(), k -> new ArrayList<>()).add(p);
+                }
+            } finally {
+                arr.free();
+            }
+        }
+
+        return out;
+    }
+
+    // =========================================================================
+    //  MAPEO ResultSet → Pedido (una fila por línea)
+    // =========================================================================
+
+    /**
+     * Agrupa las filas consecutivas del mismo pedido en un Pedido con sus líneas.
+     * Las consultas vienen ordenadas por pedido, así que basta con mirar el anterior.
+     */
+    private List<Pedido> leer(PreparedStatement pst) throws SQLException {
+        List<Pedido> out = new ArrayList<>();
+
+        try (ResultSet rs = pst.executeQuery()) {
+            Pedido actual = null;
+            while (rs.next()) {
+                int id = rs.getInt(1);
+                LocalDate fecha = rs.getObject(3, LocalDate.class);
+
+                if (actual == null || actual.getId() != id || !actual.getFecha().equals(fecha)) {
+                    actual = new Pedido(id, rs.getInt(2), fecha);
+                    out.add(actual);
+                }
+
+                int productoId = rs.getInt(4);
+                if (!rs.wasNull()) {
+                    actual.getLineas().add(new DetallePedido(id, productoId,
+                            rs.getInt(5), rs.getBigDecimal(6).doubleValue()));
+                }
+            }
+        }
+
+        return out;
+    }
+}
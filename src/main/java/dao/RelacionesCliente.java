@@ -0,0 +1,35 @@
+package dao;
+
+import model.CargaDiferida;
+import model.DetalleCliente;
+import model.Pedido;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fuente de las relaciones diferidas de Cliente: detalle con
+ * DetalleClienteDAO.findByIds y pedidos con PedidoDAO.findByClientes,
+ * una consulta por lote de hermanos.
+ */
+final class RelacionesCliente implements CargaDiferida.Fuente {
+
+    private final DetalleClienteDAO detalleClienteDAO;
+    private final PedidoDAO pedidoDAO = new PedidoDAO();
+
+    /** @param identidad mapa de identidad de la sesión (o null) para los detalles */
+    RelacionesCliente(MapaIdentidad identidad) {
+        this.detalleClienteDAO = new DetalleClienteDAO(identidad);
+    }
+
+    @Override
+    public Map<Integer, DetalleCliente> detalles(int[] ids) throws SQLException {
+        return CargadorPorLotes.indexarPorId(detalleClienteDAO.findByIds(ids), DetalleCliente::getId);
+    }
+
+    @Override
+    public Map<Integer, List<Pedido>> pedidos(int[] ids) throws SQLException {
+        return pedidoDAO.findByClientes(ids);
+    }
+}
@@ -0,0 +1,102 @@
+package db;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Anillo de hash consistente: decide en qué shard vive cada cliente.
+ *
+ * Cada shard pone {@code virtuales} puntos en un anillo de 64 bits (hash de
+ * su nombre + número de punto) y un id pertenece al primer punto que hay a
+ * partir de su propio hash. Como los puntos dependen del NOMBRE del shard y
+ * no de su posición en la lista, añadir o quitar un shard solo mueve
+ * alrededor de 1/N de los clientes (los que caen en sus tramos), no casi
+ * todos como con id % N.
+ */
+public final class AnilloHash {
+
+    public static final int VIRTUALES_POR_DEFECTO = 256;
+
+    private final List<String> shards;
+    private final long[] puntos;    // ordenados
+    private final int[] duenos;     // duenos[i] = índice del shard del punto i
+
+    public AnilloHash(List<String> shards) {
+        this(shards, VIRTUALES_POR_DEFECTO);
+    }
+
+    public AnilloHash(List<String> shards, int virtuales) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("Hace falta al menos un shard");
+        }
+        if (shards.stream().distinct().count() != shards.size()) {
+            throw new IllegalArgumentException("Shards repetidos: " + shards);
+        }
+        this.shards = List.copyOf(shards);
+
+        int n = shards.size() * virtuales;
+        long[] claves = new long[n];
+        int k = 0;
+        for (int s = 0; s < shards.size(); s++) {
+            for (int v = 0; v < virtuales; v++) {
+                // Punto en los 48 bits altos, shard en los 16 bajos: así se ordenan juntos.
+                claves[k++] = (hashTexto(shards.get(s) + "#" + v) & ~0xFFFFL) | s;
+            }
+        }
+        Arrays.sort(claves);
+
+        puntos = new long[n];
+        duenos = new int[n];
+        for (int i = 0; i < n; i++) {
+            puntos[i] = claves[i] & ~0xFFFFL;
+            duenos[i] = (int) (claves[i] & 0xFFFF);
+        }
+    }
+
+    /** Índice (en la lista del constructor) del shard al que pertenece el cliente. */
+    public int shardDe(int clienteId) {
+        long h = mezclar(clienteId) & ~0xFFFFL;
+        int i = Arrays.binarySearch(puntos, h);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return duenos[i == puntos.length ? 0 : i];
+    }
+
+    public String nombreShardDe(int clienteId) {
+        return shards.get(shardDe(clienteId));
+    }
+
+    public List<String> getShards() {
+        return shards;
+    }
+
+    public int numShards() {
+        return shards.size();
+    }
+
+    // =========================================================================
+    //  HASH
+    // =========================================================================
+
+    /** Finalizador de MurmurHash3 (64 bits): ids consecutivos quedan bien repartidos. */
+    private static long mezclar(long x) {
+        x ^= x >>> 33;
+        x *= 0xff51afd7ed558ccdL;
+        x ^= x >>> 33;
+        x *= 0xc4ceb9fe1a85ec53L;
+        x ^= x >>> 33;
+        return x;
+    }
+
+    /** FNV-1a de 64 bits sobre UTF-8, mezclado al final. */
+    private static long hashTexto(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        return mezclar(h);
+    }
+}
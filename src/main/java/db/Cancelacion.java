@@ -0,0 +1,120 @@
+package db;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Testigo de cancelación para una operación de BD.
+ *
+ * Mientras un hilo ejecuta código dentro de {@link #ejecutar(Llamada)}, cada
+ * Statement que se crea con una conexión de Db queda registrado aquí. Al
+ * llamar a {@link #cancelar()} (desde cualquier hilo) se hace
+ * Statement.cancel() sobre todos ellos, así que la consulta se corta también
+ * en el servidor y no solo en el lado Java.
+ *
+ * Si se cancela antes de crear un Statement, al crearlo falla directamente
+ * con SQLState 57014 (query_canceled), igual que si lo hubiera cortado PostgreSQL.
+ */
+public final class Cancelacion {
+
+    /** Código SQLState de PostgreSQL para consulta cancelada. */
+    public static final String SQLSTATE_CANCELADA = "57014";
+
+    private static final ThreadLocal<Cancelacion> ACTUAL = new ThreadLocal<>();
+
+    /** Código a ejecutar bajo un testigo de cancelación. */
+    @FunctionalInterface
+    public interface Llamada<T> {
+        T ejecutar() throws Exception;
+    }
+
+    private final List<Statement> sentencias = new ArrayList<>();
+    private boolean cancelada;
+
+    /**
+     * Ejecuta la llamada en el hilo actual con este testigo activo.
+     */
+    public <T> T ejecutar(Llamada<T> llamada) throws Exception {
+        Cancelacion anterior = ACTUAL.get();
+        ACTUAL.set(this);
+        try {
+            if (isCancelada()) {
+                throw cancelada();
+            }
+            return llamada.ejecutar();
+        } finally {
+            ACTUAL.set(anterior);
+            synchronized (this) {
+                sentencias.clear();
+            }
+        }
+    }
+
+    /**
+     * Marca la operación como cancelada y corta las sentencias en curso.
+     * Se puede llamar varias veces y desde cualquier hilo.
+     */
+    public void cancelar() {
+        List<Statement> aCortar;
+        synchronized (this) {
+            if (cancelada) {
+                return;
+            }
+            cancelada = true;
+            aCortar = new ArrayList<>(sentencias);
+        }
+        for (Statement st : aCortar) {
+            try {
+                if (!st.isClosed()) {
+                    st.cancel();
+                }
+            } catch (SQLException ignorada) {
+                // La sentencia ya había terminado o la conexión se ha cerrado.
+            }
+        }
+    }
+
+    public synchronized boolean isCancelada() {
+        return cancelada;
+    }
+
+    // =========================================================================
+    //  USO INTERNO (ConexionInstrumentada)
+    // =========================================================================
+
+    static Cancelacion actual() {
+        return ACTUAL.get();
+    }
+
+    /**
+     * Ejecuta en el hilo actual con el testigo c activo (o ninguno si es null),
+     * para trabajo que una operación reparte entre hilos (ver Shards).
+     */
+    static <T> T heredar(Cancelacion c, Llamada<T> llamada) throws Exception {
+        Cancelacion anterior = ACTUAL.get();
+        ACTUAL.set(c);
+        try {
+            return llamada.ejecutar();
+        } finally {
+            ACTUAL.set(anterior);
+        }
+    }
+
+    /** Registra una sentencia recién creada; si ya está cancelada, la cierra y falla. */
+    void registrar(Statement st) throws SQLException {
+        synchronized (this) {
+            if (!cancelada) {
+                sentencias.add(st);
+                return;
+            }
+        }
+        st.close();
+        throw cancelada();
+    }
+
+    private static SQLException cancelada() {
+        return new SQLException("Operación cancelada", SQLSTATE_CANCELADA);
+    }
+}
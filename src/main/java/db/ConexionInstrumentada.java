@@ -0,0 +1,73 @@
+package db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Envoltorio de Connection que avisa a Db cuando la conexión se cierra,
+ * para poder contar cuántas hay abiertas en cada momento.
+ *
+ * Además, si el hilo trabaja bajo una {@link Cancelacion}, le registra cada
+ * Statement que se crea para que pueda cortarlo con Statement.cancel().
+ * Dentro de una operación de {@link ControlAdmision}, cada Statement lleva
+ * el setQueryTimeout de su clase.
+ * Y si hay una grabación JFR con los eventos de sentencias activos, las
+ * envuelve para medirlas (ver {@link SentenciaInstrumentada}).
+ *
+ * Se implementa con un Proxy dinámico: todo lo demás se delega tal cual
+ * en la conexión real (unwrap incluido, así PGConnection sigue accesible).
+ */
+final class ConexionInstrumentada implements InvocationHandler {
+
+    private final Connection real;
+    private final AtomicBoolean cerrada = new AtomicBoolean();
+
+    private ConexionInstrumentada(Connection real) {
+        this.real = real;
+    }
+
+    static Connection envolver(Connection real) {
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                new ConexionInstrumentada(real));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+        String nombre = m.getName();
+
+        if (nombre.equals("close") && cerrada.compareAndSet(false, true)) {
+            Db.conexionCerrada();
+        }
+
+        Object resultado;
+        try {
+            resultado = m.invoke(real, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+
+        if (resultado instanceof Statement st) {
+            int timeout = ControlAdmision.timeoutActual();
+            if (timeout > 0) {
+                st.setQueryTimeout(timeout);
+            }
+            Cancelacion c = Cancelacion.actual();
+            if (c != null) {
+                c.registrar(st);
+            }
+            if (SentenciaInstrumentada.activa()) {
+                String sql = nombre.startsWith("prepare") ? (String) args[0] : null;
+                return SentenciaInstrumentada.envolver(st, sql);
+            }
+        }
+
+        return resultado;
+    }
+}
@@ -0,0 +1,271 @@
+package db;
+
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Control de admisión de las operaciones de BD por clase.
+ *
+ * Cada clase de operación tiene su propio límite de operaciones a la vez
+ * (un Semaphore justo), así unas pocas búsquedas lentas con ILIKE '%...%'
+ * no pueden ocupar la BD y arrastrar a las escrituras. Si no hay permiso:
+ *
+ *  - con la cola de la clase llena (4 × permisos) se rechaza al momento;
+ *  - si no, se espera como mucho el presupuesto de espera de la clase y,
+ *    si se agota, también se rechaza.
+ *
+ * El rechazo es una {@link SobrecargaException}, antes de tocar la BD.
+ * Además, cada Statement creado dentro de una operación admitida lleva el
+ * setQueryTimeout de su clase (ver ConexionInstrumentada); si salta,
+ * PostgreSQL corta la consulta con SQLState 57014 y cuenta como expirada.
+ *
+ * Límites por defecto. Una operación admitida puede abrir una conexión en
+ * cada shard a la vez (ver Shards), así que el reparto es de
+ * C = PG_MAX_CONEXIONES / numShards permisos en total:
+ * <pre>
+ *   BUSQUEDA   C/5    permisos, 250 ms de espera,  5 s por sentencia
+ *   LECTURA    3C/10  permisos, 500 ms de espera, 10 s por sentencia
+ *   ESCRITURA  3C/10  permisos,   2 s de espera,  30 s por sentencia
+ *   MASIVA     C/5    permisos,  30 s de espera, sin límite por sentencia
+ * </pre>
+ * Cada clase tiene al menos 1 permiso: con C &lt; 4 la suma pasa de C.
+ * Se cambian con PG_ADMISION_&lt;CLASE&gt;=permisos,esperaMs,timeoutS
+ * (p. ej. PG_ADMISION_BUSQUEDA=2,100,3; timeout 0 = sin límite).
+ *
+ * Las llamadas anidadas (un servicio admitido que llama a un DAO) no vuelven
+ * a pedir permiso: cuentan dentro de la operación de fuera.
+ */
+public final class ControlAdmision {
+
+    /** Clases de operación, cada una con su límite. */
+    public enum Clase {
+        BUSQUEDA,    // ClienteDAO.search, búsqueda de texto
+        LECTURA,     // lecturas por id
+        ESCRITURA,   // altas, cambios y borrados (ClienteDetalle, EscrituraDiferida)
+        MASIVA       // tablas enteras: findAll, instantáneas, ordenaciones
+    }
+
+    /** Código a ejecutar como operación admitida. */
+    @FunctionalInterface
+    public interface Operacion<T> {
+        T ejecutar() throws SQLException;
+    }
+
+    private static final Map<Clase, Limite> LIMITES = new EnumMap<>(Clase.class);
+
+    static {
+        // Conexiones por operación en el peor caso: una por shard.
+        int c = Db.maxConexiones() / Db.numShards();
+        LIMITES.put(Clase.BUSQUEDA, limite(Clase.BUSQUEDA, c / 5, 250, 5));
+        LIMITES.put(Clase.LECTURA, limite(Clase.LECTURA, c * 3 / 10, 500, 10));
+        LIMITES.put(Clase.ESCRITURA, limite(Clase.ESCRITURA, c * 3 / 10, 2_000, 30));
+        LIMITES.put(Clase.MASIVA, limite(Clase.MASIVA, c / 5, 30_000, 0));
+    }
+
+    /** Operación admitida en curso en este hilo (null si ninguna). */
+    private static final ThreadLocal<Limite> ACTUAL = new ThreadLocal<>();
+
+    private ControlAdmision() {}
+
+    /**
+     * Ejecuta la operación si su clase la admite; si no, lanza
+     * SobrecargaException sin haberla empezado.
+     */
+    public static <T> T ejecutar(Clase clase, Operacion<T> operacion) throws SQLException {
+        if (ACTUAL.get() != null) {
+            return operacion.ejecutar();
+        }
+
+        Limite l = LIMITES.get(clase);
+        l.admitir();
+        ACTUAL.set(l);
+        try {
+            return operacion.ejecutar();
+        } catch (SQLException e) {
+            Cancelacion c = Cancelacion.actual();
+            if (Cancelacion.SQLSTATE_CANCELADA.equals(e.getSQLState()) && (c == null || !c.isCancelada())) {
+                l.expiradas.increment();   // la ha cortado el setQueryTimeout, no el usuario
+            }
+            throw e;
+        } finally {
+            ACTUAL.remove();
+            l.liberar();
+        }
+    }
+
+    // =========================================================================
+    //  ESTADÍSTICAS
+    // =========================================================================
+
+    /** Operaciones de la clase rechazadas (cola llena + espera agotada). */
+    public static long rechazadas(Clase clase) {
+        Limite l = LIMITES.get(clase);
+        return l.rechazadasCola.sum() + l.rechazadasEspera.sum();
+    }
+
+    public static long rechazadasTotales() {
+        long n = 0;
+        for (Clase c : Clase.values()) {
+            n += rechazadas(c);
+        }
+        return n;
+    }
+
+    /** Sentencias de la clase cortadas por su setQueryTimeout. */
+    public static long expiradas(Clase clase) {
+        return LIMITES.get(clase).expiradas.sum();
+    }
+
+    /** Operaciones de la clase en curso ahora mismo. */
+    public static int enCurso(Clase clase) {
+        return LIMITES.get(clase).enCurso.get();
+    }
+
+    /** Tabla con límites y contadores de cada clase. */
+    public static String estadisticas() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("%-10s %8s %8s %10s %9s %9s %9s %9s %10s%n".formatted(
+                "clase", "permisos", "en curso", "admitidas", "r. cola", "r. espera", "expiradas",
+                "espera µs", "máx esp ms"));
+        for (Limite l : LIMITES.values()) {
+            long admitidas = l.admitidas.sum();
+            sb.append("%-10s %8d %8d %10d %9d %9d %9d %9.0f %10d%n".formatted(
+                    l.clase.name().toLowerCase(Locale.ROOT), l.permisos, l.enCurso.get(), admitidas,
+                    l.rechazadasCola.sum(), l.rechazadasEspera.sum(), l.expiradas.sum(),
+                    admitidas == 0 ? 0.0 : l.nanosEspera.sum() / 1_000.0 / admitidas,
+                    l.maxEsperaNanos.get() / 1_000_000));
+        }
+        return sb.toString();
+    }
+
+    /** Pone a cero los contadores (no las operaciones en curso). */
+    public static void reiniciarEstadisticas() {
+        for (Limite l : LIMITES.values()) {
+            l.admitidas.reset();
+            l.rechazadasCola.reset();
+            l.rechazadasEspera.reset();
+            l.expiradas.reset();
+            l.nanosEspera.reset();
+            l.maxEsperaNanos.set(0);
+        }
+    }
+
+    // =========================================================================
+    //  USO INTERNO (ConexionInstrumentada, Shards)
+    // =========================================================================
+
+    /** setQueryTimeout (segundos) de la operación en curso en este hilo; 0 = sin límite. */
+    static int timeoutActual() {
+        Limite l = ACTUAL.get();
+        return l == null ? 0 : l.timeoutSegundos;
+    }
+
+    /** Operación en curso en este hilo, para pasarla a los hilos de Shards. */
+    static Limite actual() {
+        return ACTUAL.get();
+    }
+
+    /** Ejecuta en el hilo actual dentro de la operación a (de otro hilo), sin pedir permiso. */
+    static <T> T heredar(Limite a, Cancelacion.Llamada<T> llamada) throws Exception {
+        Limite anterior = ACTUAL.get();
+        ACTUAL.set(a);
+        try {
+            return llamada.ejecutar();
+        } finally {
+            ACTUAL.set(anterior);
+        }
+    }
+
+    // =========================================================================
+    //  LÍMITE DE UNA CLASE
+    // =========================================================================
+
+    private static Limite limite(Clase clase, int permisos, long esperaMs, int timeoutSegundos) {
+        String conf = System.getenv("PG_ADMISION_" + clase.name());
+        if (conf != null && !conf.isBlank()) {
+            String[] p = conf.split(",");
+            permisos = Integer.parseInt(p[0].trim());
+            if (p.length > 1) esperaMs = Long.parseLong(p[1].trim());
+            if (p.length > 2) timeoutSegundos = Integer.parseInt(p[2].trim());
+        }
+        return new Limite(clase, Math.max(1, permisos), esperaMs, timeoutSegundos);
+    }
+
+    static final class Limite {
+        final Clase clase;
+        final int permisos;
+        final Semaphore semaforo;
+        final long esperaNanos;
+        final int maxCola;
+        final int timeoutSegundos;
+
+        final AtomicInteger enCola = new AtomicInteger();
+        final AtomicInteger enCurso = new AtomicInteger();
+        final LongAdder admitidas = new LongAdder();
+        final LongAdder rechazadasCola = new LongAdder();
+        final LongAdder rechazadasEspera = new LongAdder();
+        final LongAdder expiradas = new LongAdder();
+        final LongAdder nanosEspera = new LongAdder();
+        final AtomicLong maxEsperaNanos = new AtomicLong();
+
+        Limite(Clase clase, int permisos, long esperaMs, int timeoutSegundos) {
+            this.clase = clase;
+            this.permisos = permisos;
+            this.semaforo = new Semaphore(permisos, true);
+            this.esperaNanos = TimeUnit.MILLISECONDS.toNanos(esperaMs);
+            this.maxCola = 4 * permisos;
+            this.timeoutSegundos = timeoutSegundos;
+        }
+
+        void admitir() throws SQLException {
+            boolean libre;
+            try {
+                // Con tiempo 0 y no tryAcquire(): ese se salta la cola aunque el
+                // semáforo sea justo, y adelantaría a los que ya esperan.
+                libre = semaforo.tryAcquire(0, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Espera de admisión interrumpida", Cancelacion.SQLSTATE_CANCELADA, e);
+            }
+            if (!libre) {
+                // Sin permiso libre: a la cola, si cabe, y como mucho el presupuesto de espera.
+                if (enCola.incrementAndGet() > maxCola) {
+                    enCola.decrementAndGet();
+                    rechazadasCola.increment();
+                    throw new SobrecargaException(clase, true, 0);
+                }
+                long t0 = System.nanoTime();
+                boolean ok;
+                try {
+                    ok = semaforo.tryAcquire(esperaNanos, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Espera de admisión interrumpida", Cancelacion.SQLSTATE_CANCELADA, e);
+                } finally {
+                    enCola.decrementAndGet();
+                }
+                long espera = System.nanoTime() - t0;
+                maxEsperaNanos.accumulateAndGet(espera, Math::max);
+                if (!ok) {
+                    rechazadasEspera.increment();
+                    throw new SobrecargaException(clase, false, espera / 1_000_000);
+                }
+                nanosEspera.add(espera);
+            }
+            admitidas.increment();
+            enCurso.incrementAndGet();
+        }
+
+        void liberar() {
+            enCurso.decrementAndGet();
+            semaforo.release();
+        }
+    }
+}
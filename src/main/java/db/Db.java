@@ -3,8 +3,27 @@ package db;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Conexiones a PostgreSQL (variables de entorno PG_*).
+ *
+ * Reparto en shards: si PG_SHARDS tiene una lista separada por comas, los
+ * clientes (cliente, detalle_cliente y sus pedidos) se reparten entre esas
+ * bases de datos con un hash consistente del id de cliente (ver AnilloHash).
+ * Cada entrada es un nombre de BD en PG_HOST:PG_PORT o "host:puerto/bd".
+ * Sin PG_SHARDS hay un único shard, PG_DB, y todo funciona como siempre.
+ *
+ *  - getConnection(): el shard 0, que guarda además las tablas no
+ *    repartidas (producto se copia en todos los shards: lo referencian las
+ *    líneas de pedido).
+ *  - getConnection(shard) / shardDe(clienteId): acceso a un shard concreto.
+ *  - Shards: consultas en paralelo sobre todos los shards y mezcla.
+ */
 public final class Db {
 
     private static final String HOST = System.getenv().getOrDefault("PG_HOST", "localhost");
@@ -13,17 +32,137 @@ public final class Db {
     private static final String USER = System.getenv().getOrDefault("PG_USER", "postgres");
     private static final String PASS = System.getenv().getOrDefault("PG_PASS", "adminPopo4.");
 
-    private static final String URL = "jdbc:postgresql://" + HOST + ":" + PORT + "/" + DB;
+    // Shards de clientes (PG_SHARDS); por defecto solo PG_DB
+    private static final AnilloHash ANILLO = new AnilloHash(listaShards(System.getenv("PG_SHARDS")));
+    private static final String[] URLS = ANILLO.getShards().stream().map(Db::url).toArray(String[]::new);
+
+    // Conexiones simultáneas que admite la BD para esta aplicación
+    private static final int MAX_CONEXIONES =
+            Integer.parseInt(System.getenv().getOrDefault("PG_MAX_CONEXIONES", "10"));
+
+    // Uso de conexiones (para pruebas de carga y diagnóstico)
+    private static final AtomicInteger ABIERTAS = new AtomicInteger();
+    private static final AtomicInteger MAX_ABIERTAS = new AtomicInteger();
+    private static final AtomicLong TOTAL = new AtomicLong();
+    private static final AtomicLong NANOS_ADQUISICION = new AtomicLong();
 
     private Db() {}
 
+    /** Conexión al shard 0 (con un único shard, la BD de siempre). */
     public static Connection getConnection() throws SQLException {
+        return conectar(URLS[0]);
+    }
+
+    /** Conexión a un shard por su índice (0 .. numShards()-1). */
+    public static Connection getConnection(int shard) throws SQLException {
+        return conectar(URLS[shard]);
+    }
+
+    /**
+     * Conexión a un shard por su nombre ("bd" o "host:puerto/bd"), esté o no
+     * en PG_SHARDS. Para herramientas como RebalanceoShards.
+     */
+    public static Connection getConnection(String shard) throws SQLException {
+        return conectar(url(shard));
+    }
+
+    /** Conexión al shard en el que vive el cliente. */
+    public static Connection getConnectionCliente(int clienteId) throws SQLException {
+        return getConnection(shardDe(clienteId));
+    }
+
+    public static int numShards() {
+        return URLS.length;
+    }
+
+    public static int shardDe(int clienteId) {
+        return URLS.length == 1 ? 0 : ANILLO.shardDe(clienteId);
+    }
+
+    /** El anillo actual (nombres de los shards en el orden de sus índices). */
+    public static AnilloHash anillo() {
+        return ANILLO;
+    }
+
+    /** Convierte "bd,host:puerto/bd,..." en la lista de shards; null o vacío → solo PG_DB. */
+    public static List<String> listaShards(String lista) {
+        List<String> out = new ArrayList<>();
+        if (lista != null) {
+            for (String s : lista.split(",")) {
+                if (!s.isBlank()) out.add(s.trim());
+            }
+        }
+        if (out.isEmpty()) {
+            out.add(DB);
+        }
+        return out;
+    }
+
+    private static String url(String shard) {
+        return shard.contains("/")
+                ? "jdbc:postgresql://" + shard
+                : "jdbc:postgresql://" + HOST + ":" + PORT + "/" + shard;
+    }
+
+    private static Connection conectar(String url) throws SQLException {
         Properties p = new Properties();
         p.setProperty("user", USER);
         p.setProperty("password", PASS);
-        return DriverManager.getConnection(URL, p );
 
+        EventoConexion evento = new EventoConexion();
+        evento.begin();
+        long t0 = System.nanoTime();
+        Connection con = DriverManager.getConnection(url, p );
+        NANOS_ADQUISICION.addAndGet(System.nanoTime() - t0);
+        TOTAL.incrementAndGet();
+        int abiertas = ABIERTAS.incrementAndGet();
+        MAX_ABIERTAS.accumulateAndGet(abiertas, Math::max);
+
+        evento.abiertas = abiertas;
+        evento.commit();
+
+        return ConexionInstrumentada.envolver(con);
+    }
+
+    static void conexionCerrada() {
+        ABIERTAS.decrementAndGet();
+    }
+
+    /**
+     * Conexiones simultáneas que debería usar la aplicación como mucho
+     * (PG_MAX_CONEXIONES, 10 por defecto). Sirve para dimensionar los
+     * ejecutores que trabajan contra la BD.
+     */
+    public static int maxConexiones() {
+        return MAX_CONEXIONES;
+    }
+
+    /** Conexiones abiertas ahora mismo. */
+    public static int conexionesAbiertas() {
+        return ABIERTAS.get();
+    }
+
+    /** Máximo de conexiones abiertas a la vez desde el arranque (o el último reinicio). */
+    public static int maxConexionesAbiertas() {
+        return MAX_ABIERTAS.get();
+    }
+
+    /** Conexiones abiertas en total desde el arranque (o el último reinicio). */
+    public static long conexionesTotales() {
+        return TOTAL.get();
+    }
+
+    /** Tiempo medio en abrir una conexión, en microsegundos. */
+    public static double microsMediosAdquisicion() {
+        long n = TOTAL.get();
+        return n == 0 ? 0 : NANOS_ADQUISICION.get() / 1_000.0 / n;
+    }
 
+    /** Reinicia los contadores acumulados (no las conexiones abiertas). */
+    public static void reiniciarEstadisticas() {
+        MAX_ABIERTAS.set(ABIERTAS.get());
+        TOTAL.set(0);
+        NANOS_ADQUISICION.set(0);
     }
 
 
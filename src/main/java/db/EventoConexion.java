@@ -0,0 +1,21 @@
+package db;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** JFR: tiempo en obtener una conexión con Db.getConnection(). */
+@Name("lampreas.Conexion")
+@Label("Obtener conexión")
+@Description("Apertura de una conexión JDBC en Db.getConnection()")
+@Category({"LampreasVioleta", "Base de datos"})
+@StackTrace(false)
+final class EventoConexion extends Event {
+
+    @Label("Abiertas")
+    @Description("Conexiones abiertas tras obtener esta")
+    int abiertas;
+}
@@ -0,0 +1,33 @@
+package db;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR: recorrido de un ResultSet, desde que se devuelve hasta que se cierra.
+ * Incluye el mapeo a objetos (mapRow y similares) y la descarga de los
+ * siguientes bloques de un cursor.
+ *
+ * Desactivado salvo que el perfil lo active (ver jfr/lampreas.jfc).
+ */
+@Name("lampreas.Lectura")
+@Label("Lectura de resultados")
+@Category({"LampreasVioleta", "Base de datos"})
+@Enabled(false)
+final class EventoLectura extends Event {
+
+    @Label("SQL")
+    String sql;
+
+    @Label("Filas leídas")
+    @Description("Llamadas a next() que devolvieron true")
+    long filas;
+
+    @Label("Error")
+    @Description("SQLState y mensaje si el recorrido falló; null si terminó bien")
+    String error;
+}
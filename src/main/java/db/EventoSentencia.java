@@ -0,0 +1,37 @@
+package db;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR: ejecución de una sentencia (execute, executeQuery, executeUpdate,
+ * executeBatch). Para las consultas, la duración es hasta tener el primer
+ * bloque de filas; el recorrido del ResultSet va en {@link EventoLectura}.
+ *
+ * Desactivado salvo que el perfil lo active (ver jfr/lampreas.jfc).
+ */
+@Name("lampreas.Sentencia")
+@Label("Sentencia SQL")
+@Category({"LampreasVioleta", "Base de datos"})
+@Enabled(false)
+final class EventoSentencia extends Event {
+
+    @Label("SQL")
+    @Description("Forma de la sentencia: espacios colapsados y literales sustituidos por ?")
+    String sql;
+
+    @Label("Método")
+    String metodo;
+
+    @Label("Filas afectadas")
+    @Description("Filas modificadas; -1 en las consultas o si falló")
+    long filas;
+
+    @Label("Error")
+    @Description("SQLState y mensaje si la sentencia falló (cancelada, tiempo agotado...); null si terminó bien")
+    String error;
+}
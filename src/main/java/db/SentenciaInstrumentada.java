@@ -0,0 +1,183 @@
+package db;
+
+import jdk.jfr.EventType;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.regex.Pattern;
+
+/**
+ * Envoltorio de Statement (y de sus ResultSet) que emite los eventos JFR
+ * {@link EventoSentencia} y {@link EventoLectura}.
+ *
+ * Solo se envuelve si alguno de los dos eventos está activo al crear la
+ * sentencia: sin grabación en marcha las sentencias son las del driver tal
+ * cual y no hay ningún coste añadido.
+ */
+final class SentenciaInstrumentada implements InvocationHandler {
+
+    private static final EventType TIPO_SENTENCIA = EventType.getEventType(EventoSentencia.class);
+    private static final EventType TIPO_LECTURA = EventType.getEventType(EventoLectura.class);
+
+    private static final int MAX_SQL = 500;
+    private static final Pattern ESPACIOS = Pattern.compile("\\s+");
+    private static final Pattern LITERALES = Pattern.compile("'(?:[^']|'')*'|\\b\\d+(?:\\.\\d+)?\\b");
+
+    private final Statement real;
+    private final String sql;   // forma de la sentencia preparada; null en un Statement normal
+
+    private SentenciaInstrumentada(Statement real, String sql) {
+        this.real = real;
+        this.sql = sql;
+    }
+
+    static boolean activa() {
+        return TIPO_SENTENCIA.isEnabled() || TIPO_LECTURA.isEnabled();
+    }
+
+    /** @param sql el SQL de prepareStatement/prepareCall, o null para createStatement */
+    static Statement envolver(Statement real, String sql) {
+        Class<?> tipo = real instanceof CallableStatement ? CallableStatement.class
+                : real instanceof PreparedStatement ? PreparedStatement.class
+                : Statement.class;
+        return (Statement) Proxy.newProxyInstance(
+                Statement.class.getClassLoader(),
+                new Class<?>[]{tipo},
+                new SentenciaInstrumentada(real, sql == null ? null : forma(sql)));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+        String nombre = m.getName();
+        boolean ejecuta = nombre.startsWith("execute");
+
+        EventoSentencia evento = null;
+        if (ejecuta) {
+            evento = new EventoSentencia();
+            evento.begin();
+        }
+
+        String forma = sql;
+        if (forma == null && args != null && args.length > 0 && args[0] instanceof String s) {
+            forma = forma(s);
+        }
+
+        // Las sentencias que fallan (canceladas, tiempo agotado...) también se registran.
+        Object resultado = null;
+        Throwable error = null;
+        try {
+            resultado = m.invoke(real, args);
+        } catch (InvocationTargetException e) {
+            error = e.getCause();
+            throw error;
+        } finally {
+            if (evento != null && evento.shouldCommit()) {
+                evento.sql = forma;
+                evento.metodo = nombre;
+                evento.filas = error == null ? filas(resultado) : -1;
+                evento.error = describir(error);
+                evento.commit();
+            }
+        }
+
+        if (resultado instanceof ResultSet rs) {
+            return Lectura.envolver(rs, forma);
+        }
+        return resultado;
+    }
+
+    private static long filas(Object resultado) {
+        if (resultado instanceof Integer n) return n;
+        if (resultado instanceof Long n) return n;
+        if (resultado instanceof int[] lote) {
+            long total = 0;
+            for (int n : lote) total += Math.max(0, n);
+            return total;
+        }
+        return -1;
+    }
+
+    /** "SQLState: mensaje" del error, o null si no lo hubo. */
+    static String describir(Throwable error) {
+        if (error == null) {
+            return null;
+        }
+        String estado = error instanceof SQLException e ? e.getSQLState() : null;
+        return (estado != null ? estado : error.getClass().getSimpleName()) + ": " + error.getMessage();
+    }
+
+    /** SQL sin saltos ni literales: agrupa en la grabación las sentencias iguales. */
+    static String forma(String sql) {
+        String s = LITERALES.matcher(ESPACIOS.matcher(sql).replaceAll(" ").trim()).replaceAll("?");
+        return s.length() <= MAX_SQL ? s : s.substring(0, MAX_SQL) + "…";
+    }
+
+    // =========================================================================
+    //  RESULTSET
+    // =========================================================================
+
+    /** Cuenta las filas recorridas y emite el evento al cerrar el ResultSet. */
+    private static final class Lectura implements InvocationHandler {
+
+        private final ResultSet real;
+        private final EventoLectura evento = new EventoLectura();
+        private long filas;
+        private boolean cerrado;
+
+        private Lectura(ResultSet real, String sql) {
+            this.real = real;
+            evento.sql = sql;
+            evento.begin();
+        }
+
+        static ResultSet envolver(ResultSet real, String sql) {
+            if (!TIPO_LECTURA.isEnabled()) {
+                return real;
+            }
+            return (ResultSet) Proxy.newProxyInstance(
+                    ResultSet.class.getClassLoader(),
+                    new Class<?>[]{ResultSet.class},
+                    new Lectura(real, sql));
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+            String nombre = m.getName();
+            Object resultado;
+            try {
+                resultado = m.invoke(real, args);
+            } catch (InvocationTargetException e) {
+                // Un fallo a mitad del recorrido (cursor cancelado, conexión caída)
+                // cierra la lectura: el close posterior, si llega, ya no emite nada.
+                terminar(e.getCause());
+                throw e.getCause();
+            } finally {
+                if (nombre.equals("close")) {
+                    terminar(null);
+                }
+            }
+
+            if (nombre.equals("next") && Boolean.TRUE.equals(resultado)) {
+                filas++;
+            }
+            return resultado;
+        }
+
+        private void terminar(Throwable error) {
+            if (cerrado) {
+                return;
+            }
+            cerrado = true;
+            evento.filas = filas;
+            evento.error = describir(error);
+            evento.commit();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package db;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+/**
+ * Consultas repartidas entre los shards de Db (scatter-gather).
+ *
+ *  - {@link #enTodos(Consulta)}: la misma consulta en todos los shards a la vez.
+ *  - {@link #porShard(int[], ConsultaIds)}: reparte unos ids de cliente por
+ *    shard y lanza una consulta por shard con los suyos.
+ *  - {@link #mezclar(List, Comparator)}: mezcla k-vías de resultados ya
+ *    ordenados en cada shard, para conservar el ORDER BY global.
+ *
+ * Con un único shard todo corre en el hilo que llama, sin ejecutor.
+ */
+public final class Shards {
+
+    /** Consulta sobre un shard. */
+    @FunctionalInterface
+    public interface Consulta<T> {
+        T ejecutar(int shard) throws SQLException;
+    }
+
+    /** Consulta sobre un shard con los ids de cliente que le tocan. */
+    @FunctionalInterface
+    public interface ConsultaIds<T> {
+        T ejecutar(int shard, int[] ids) throws SQLException;
+    }
+
+    private static final ExecutorService EJECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger n = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "shard-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private Shards() {}
+
+    /** Ejecuta la consulta en todos los shards en paralelo; resultados en orden de shard. */
+    public static <T> List<T> enTodos(Consulta<T> consulta) throws SQLException {
+        int n = Db.numShards();
+        int[] todos = new int[n];
+        Arrays.setAll(todos, i -> i);
+        return ejecutar(todos, consulta);
+    }
+
+    /**
+     * Reparte los ids por shard (conservando su orden relativo) y ejecuta la
+     * consulta solo en los shards que reciben alguno. Los resultados vienen
+     * en orden de shard.
+     */
+    public static <T> List<T> porShard(int[] ids, ConsultaIds<T> consulta) throws SQLException {
+        int[][] reparto = repartir(ids);
+        int[] usados = new int[reparto.length];
+        int k = 0;
+        for (int s = 0; s < reparto.length; s++) {
+            if (reparto[s].length > 0) usados[k++] = s;
+        }
+        return ejecutar(Arrays.copyOf(usados, k), s -> consulta.ejecutar(s, reparto[s]));
+    }
+
+    /** ids de cliente agrupados por shard: out[s] son los del shard s. */
+    public static int[][] repartir(int[] ids) {
+        int n = Db.numShards();
+        if (n == 1) {
+            return new int[][]{ids};
+        }
+        int[] cuenta = new int[n];
+        int[] destino = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            destino[i] = Db.shardDe(ids[i]);
+            cuenta[destino[i]]++;
+        }
+        int[][] out = new int[n][];
+        for (int s = 0; s < n; s++) {
+            out[s] = new int[cuenta[s]];
+            cuenta[s] = 0;
+        }
+        for (int i = 0; i < ids.length; i++) {
+            int s = destino[i];
+            out[s][cuenta[s]++] = ids[i];
+        }
+        return out;
+    }
+
+    /** Elementos agrupados por el shard de su cliente: out.get(s) son los del shard s. */
+    public static <T> List<List<T>> agrupar(Collection<T> elementos, ToIntFunction<T> clienteId) {
+        int n = Db.numShards();
+        List<List<T>> out = new ArrayList<>(n);
+        for (int s = 0; s < n; s++) {
+            out.add(new ArrayList<>());
+        }
+        for (T t : elementos) {
+            out.get(Db.shardDe(clienteId.applyAsInt(t))).add(t);
+        }
+        return out;
+    }
+
+    /**
+     * Mezcla k-vías: cada lista ya viene ordenada por cmp (el ORDER BY de
+     * su shard) y el resultado queda ordenado igual. O(total · log k).
+     */
+    public static <T> List<T> mezclar(List<List<T>> partes, Comparator<? super T> cmp) {
+        if (partes.size() == 1) {
+            return partes.get(0);
+        }
+        int total = 0;
+        for (List<T> p : partes) total += p.size();
+
+        // Cada entrada de la cola: {índice de la parte, posición dentro de ella}
+        PriorityQueue<int[]> cola = new PriorityQueue<>(Math.max(1, partes.size()),
+                (a, b) -> cmp.compare(partes.get(a[0]).get(a[1]), partes.get(b[0]).get(b[1])));
+        for (int i = 0; i < partes.size(); i++) {
+            if (!partes.get(i).isEmpty()) cola.add(new int[]{i, 0});
+        }
+
+        List<T> out = new ArrayList<>(total);
+        while (!cola.isEmpty()) {
+            int[] c = cola.poll();
+            List<T> parte = partes.get(c[0]);
+            out.add(parte.get(c[1]));
+            if (++c[1] < parte.size()) {
+                cola.add(c);
+            }
+        }
+        return out;
+    }
+
+    // =========================================================================
+    //  EJECUCIÓN EN PARALELO
+    // =========================================================================
+
+    private static <T> List<T> ejecutar(int[] shards, Consulta<T> consulta) throws SQLException {
+        List<T> out = new ArrayList<>(shards.length);
+        if (shards.length == 1) {
+            out.add(consulta.ejecutar(shards[0]));
+            return out;
+        }
+
+        // Los hilos del ejecutor heredan la cancelación del que llama (ClientesAsync)
+        // y su operación admitida (para el timeout por sentencia, ver ControlAdmision).
+        Cancelacion cancelacion = Cancelacion.actual();
+        ControlAdmision.Limite admitida = ControlAdmision.actual();
+        List<Future<T>> futuros = new ArrayList<>(shards.length);
+        for (int s : shards) {
+            futuros.add(EJECUTOR.submit(() -> Cancelacion.heredar(cancelacion,
+                    () -> ControlAdmision.heredar(admitida, () -> consulta.ejecutar(s)))));
+        }
+        try {
+            for (Future<T> f : futuros) {
+                out.add(f.get());
+            }
+            return out;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Consulta en shards interrumpida", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException sql) throw sql;
+            throw new SQLException("Fallo en un shard", e.getCause());
+        } finally {
+            for (Future<T> f : futuros) {
+                f.cancel(true);   // si uno falla, no esperamos a los demás
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package db;
+
+import java.sql.SQLException;
+
+/**
+ * La operación no se ha admitido: su clase (ver {@link ControlAdmision})
+ * ya tiene todos sus permisos ocupados y, o bien la cola de espera está
+ * llena, o bien no ha quedado sitio dentro del presupuesto de espera.
+ *
+ * Se lanza antes de tocar la BD, así que no ha hecho nada y se puede
+ * reintentar más tarde. SQLState 53000 (insufficient_resources).
+ */
+public class SobrecargaException extends SQLException {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String SQLSTATE_SOBRECARGA = "53000";
+
+    private final ControlAdmision.Clase clase;
+    private final boolean colaLlena;
+    private final long esperaMs;
+
+    SobrecargaException(ControlAdmision.Clase clase, boolean colaLlena, long esperaMs) {
+        super(colaLlena
+                ? "Sobrecarga en %s: cola de espera llena".formatted(clase)
+                : "Sobrecarga en %s: sin permiso tras %d ms de espera".formatted(clase, esperaMs),
+                SQLSTATE_SOBRECARGA);
+        this.clase = clase;
+        this.colaLlena = colaLlena;
+        this.esperaMs = esperaMs;
+    }
+
+    public ControlAdmision.Clase getClase() { return clase; }
+
+    /** true si se rechazó sin esperar porque ya había demasiadas en cola. */
+    public boolean isColaLlena() { return colaLlena; }
+
+    /** Lo que llegó a esperar antes del rechazo (0 si la cola estaba llena). */
+    public long getEsperaMs() { return esperaMs; }
+}
@@ -0,0 +1,179 @@
+package model;
+
+import java.lang.ref.WeakReference;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Carga diferida de las relaciones de Cliente (detalle y pedidos).
+ *
+ * Los clientes que salen de una misma consulta comparten un CargaDiferida
+ * ("hermanos"). La primera vez que uno pide getDetalle() o getPedidos(), se
+ * cargan de una sola consulta esa relación para él y para los hermanos que
+ * le siguen en la lista y aún no la tienen, hasta maxLote: recorrer una
+ * lista pidiendo el detalle de cada cliente hace una consulta por lote, no
+ * una por cliente (N+1).
+ *
+ * Un cliente que nunca toca sus relaciones no consulta nada ni crea listas:
+ * solo guarda una referencia a este objeto compartido y su posición.
+ *
+ * Los hermanos se guardan como referencias débiles: tener vivo un cliente
+ * (en el mapa de identidad, en una caché) no retiene el resto del resultado
+ * de su consulta. Un hermano con las dos relaciones ya cargadas, o recogido
+ * por el GC, sale del grupo; cuando no queda ninguno se suelta el array.
+ */
+public final class CargaDiferida {
+
+    /** De dónde salen las relaciones (lo implementa la capa dao). */
+    public interface Fuente {
+        /** Detalles de los ids indicados; los que no tienen detalle no aparecen. */
+        Map<Integer, DetalleCliente> detalles(int[] ids) throws SQLException;
+
+        /** Pedidos (con líneas) de los clientes indicados; los que no tienen no aparecen. */
+        Map<Integer, List<Pedido>> pedidos(int[] ids) throws SQLException;
+    }
+
+    public static final int LOTE_POR_DEFECTO = 500;
+
+    private WeakReference<Cliente>[] hermanos;   // null cuando ya no queda ninguno pendiente
+    private int quedan;                          // posiciones de hermanos aún no vaciadas
+    private final Fuente fuente;
+    private final int maxLote;
+
+    @SuppressWarnings("unchecked")
+    private CargaDiferida(List<Cliente> clientes, Fuente fuente, int maxLote) {
+        this.hermanos = (WeakReference<Cliente>[]) new WeakReference<?>[clientes.size()];
+        for (int i = 0; i < hermanos.length; i++) {
+            hermanos[i] = new WeakReference<>(clientes.get(i));
+        }
+        this.quedan = hermanos.length;
+        this.fuente = fuente;
+        this.maxLote = maxLote;
+    }
+
+    /**
+     * Marca los clientes de una consulta como hermanos con carga diferida.
+     * La lista no debe cambiar de orden después (se guarda la posición).
+     */
+    public static void enlazar(List<Cliente> clientes, Fuente fuente) {
+        enlazar(clientes, fuente, LOTE_POR_DEFECTO);
+    }
+
+    public static void enlazar(List<Cliente> clientes, Fuente fuente, int maxLote) {
+        if (clientes.isEmpty()) {
+            return;
+        }
+        CargaDiferida grupo = new CargaDiferida(clientes, fuente, maxLote);
+        for (int i = 0; i < clientes.size(); i++) {
+            clientes.get(i).enlazar(grupo, i);
+        }
+    }
+
+    // =========================================================================
+    //  CARGA POR LOTES (la llama Cliente)
+    // =========================================================================
+
+    synchronized void cargarDetalles(int desde) {
+        List<Cliente> lote = pendientes(desde, true);
+        if (lote.isEmpty()) {
+            return;
+        }
+        try {
+            Map<Integer, DetalleCliente> porId = fuente.detalles(ids(lote));
+            for (Cliente c : lote) {
+                c.detalleCargado(porId.get(c.getId()), this);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("No se pudo cargar el detalle del cliente " + lote.get(0).getId(), e);
+        }
+    }
+
+    synchronized void cargarPedidos(int desde) {
+        List<Cliente> lote = pendientes(desde, false);
+        if (lote.isEmpty()) {
+            return;
+        }
+        try {
+            Map<Integer, List<Pedido>> porId = fuente.pedidos(ids(lote));
+            for (Cliente c : lote) {
+                List<Pedido> pedidos = porId.get(c.getId());
+                c.pedidosCargados(pedidos != null ? pedidos : new ArrayList<>(), this);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("No se pudieron cargar los pedidos del cliente " + lote.get(0).getId(), e);
+        }
+    }
+
+    /**
+     * Solo el detalle de c, sin lote ni cerrojo: para cuando el grupo ya no lo
+     * tenía pendiente (ver Cliente.getDetalle). Lo devuelve aunque otra
+     * consulta vuelva a enlazar c mientras tanto.
+     */
+    DetalleCliente cargarDetalle(Cliente c) {
+        try {
+            DetalleCliente d = fuente.detalles(new int[] { c.getId() }).get(c.getId());
+            c.detalleCargado(d, this);
+            return d;
+        } catch (SQLException e) {
+            throw new IllegalStateException("No se pudo cargar el detalle del cliente " + c.getId(), e);
+        }
+    }
+
+    /** Solo los pedidos de c (ver cargarDetalle(Cliente)). */
+    List<Pedido> cargarPedidos(Cliente c) {
+        try {
+            List<Pedido> pedidos = fuente.pedidos(new int[] { c.getId() }).get(c.getId());
+            if (pedidos == null) {
+                pedidos = new ArrayList<>();
+            }
+            c.pedidosCargados(pedidos, this);
+            return pedidos;
+        } catch (SQLException e) {
+            throw new IllegalStateException("No se pudieron cargar los pedidos del cliente " + c.getId(), e);
+        }
+    }
+
+    /**
+     * El cliente pedido y los siguientes hermanos sin la relación cargada,
+     * hasta maxLote. De paso vacía las posiciones de los hermanos recogidos
+     * o que ya lo tienen todo.
+     */
+    private List<Cliente> pendientes(int desde, boolean detalle) {
+        if (hermanos == null) {
+            return List.of();
+        }
+        List<Cliente> lote = new ArrayList<>(Math.min(maxLote, hermanos.length - desde));
+        for (int i = desde; i < hermanos.length && lote.size() < maxLote; i++) {
+            WeakReference<Cliente> ref = hermanos[i];
+            Cliente c = ref != null ? ref.get() : null;
+            if (c == null || c.getId() == null || (c.isDetalleCargado() && c.isPedidosCargados())) {
+                vaciar(i);
+                if (hermanos == null) {
+                    break;
+                }
+            } else if (!(detalle ? c.isDetalleCargado() : c.isPedidosCargados())) {
+                lote.add(c);
+            }
+        }
+        return lote;
+    }
+
+    private void vaciar(int i) {
+        if (hermanos[i] != null) {
+            hermanos[i] = null;
+            if (--quedan == 0) {
+                hermanos = null;
+            }
+        }
+    }
+
+    private static int[] ids(List<Cliente> lote) {
+        int[] ids = new int[lote.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = lote.get(i).getId();
+        }
+        return ids;
+    }
+}
@@ -2,23 +2,51 @@ package model;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * Entidad principal "Cliente".
  * Relaciones:
  *  - 1:1 con DetalleCliente (detalle opcional ampliado).
  *  - 1:N con Pedido (un cliente hace muchos pedidos).
+ *
+ * Si el cliente viene de ClienteDAO, las relaciones se cargan la primera vez
+ * que se piden, por lotes con sus hermanos de consulta (ver CargaDiferida).
+ * Si se ha creado a mano, getDetalle() devuelve lo que se haya puesto con
+ * setDetalle y getPedidos() una lista vacía que se crea al pedirla.
  */
 public class Cliente {
     private Integer id;            // PK
     private String nombre;
     private String email;
+    private int version;         // bloqueo optimista: sube con cada UPDATE
 
     // 1:1
     private DetalleCliente detalle; // puede ser null si aún no hay detalle
+    private volatile boolean detalleCargado;   // se escribe después de detalle: lo publica
 
-    // 1:N
-    private List<Pedido> pedidos = new ArrayList<>();
+    // 1:N (null hasta que se pide)
+    private volatile List<Pedido> pedidos;
+
+    // Carga diferida: grupo de la consulta de la que salió y posición en él,
+    // juntos en un objeto inmutable para que un enlazar concurrente no deje
+    // leer el grupo de una consulta con la posición de otra. Lo carga otro
+    // hilo bajo el cerrojo del grupo; los volatile publican el resultado a
+    // quien lo lee aquí sin cerrojo. Se suelta al tenerlo todo.
+    private volatile Enlace enlace;
+
+    private static final class Enlace {
+        final CargaDiferida grupo;
+        final int posicion;
+
+        Enlace(CargaDiferida grupo, int posicion) {
+            this.grupo = grupo;
+            this.posicion = posicion;
+        }
+    }
+
+    private static final AtomicReferenceFieldUpdater<Cliente, Enlace> ENLACE =
+            AtomicReferenceFieldUpdater.newUpdater(Cliente.class, Enlace.class, "enlace");
 
     public Cliente() {}
     public Cliente(Integer id, String nombre, String email) {
@@ -34,13 +62,109 @@ public class Cliente {
     public String getEmail() { return email; }
     public void setEmail(String email) { this.email = email; }
 
-    public DetalleCliente getDetalle() { return detalle; }
-    public void setDetalle(DetalleCliente detalle) { this.detalle = detalle; }
+    /** Versión de la fila cuando se leyó; ClienteDAO.update la comprueba. */
+    public int getVersion() { return version; }
+    public void setVersion(int version) { this.version = version; }
+
+    /**
+     * Si el lote del grupo no lo ha traído (otra consulta lo ha vuelto a
+     * enlazar entretanto, o el grupo ya lo había soltado), se carga solo este.
+     */
+    public DetalleCliente getDetalle() {
+        if (!detalleCargado) {
+            Enlace e = enlace;
+            if (e != null) {
+                e.grupo.cargarDetalles(e.posicion);
+                if (!detalleCargado) {
+                    return e.grupo.cargarDetalle(this);
+                }
+            }
+        }
+        return detalle;
+    }
+    public void setDetalle(DetalleCliente detalle) { detalleCargado(detalle, null); }
+
+    /** Como getDetalle: si el lote no lo trae, se cargan los de este cliente. */
+    public List<Pedido> getPedidos() {
+        List<Pedido> p = pedidos;
+        if (p == null) {
+            Enlace e = enlace;
+            if (e == null) {
+                // Creado a mano: empieza sin pedidos.
+                p = new ArrayList<>();
+                pedidos = p;
+            } else {
+                e.grupo.cargarPedidos(e.posicion);
+                p = pedidos;
+                if (p == null) {
+                    p = e.grupo.cargarPedidos(this);
+                }
+            }
+        }
+        return p;
+    }
+    public void setPedidos(List<Pedido> pedidos) { pedidosCargados(pedidos, null); }
+
+    /**
+     * Copia para editar: id, nombre, email y versión, sin relaciones. Las
+     * instancias de un MapaIdentidad no se editan (cada lectura las refresca);
+     * se edita y se guarda una copia.
+     *
+     * Lee con los getters: las subclases que sacan los datos de otro sitio
+     * (InstantaneaClientes.ClienteInstantanea) también se copian bien.
+     */
+    public Cliente copia() {
+        Cliente c = new Cliente(getId(), getNombre(), getEmail());
+        c.version = getVersion();
+        return c;
+    }
 
-    public List<Pedido> getPedidos() { return pedidos; }
-    public void setPedidos(List<Pedido> pedidos) { this.pedidos = pedidos; }
+    /** true si el detalle ya está en memoria (getDetalle no irá a la BD). */
+    public boolean isDetalleCargado() { return detalleCargado || enlace == null; }
+
+    /** true si los pedidos ya están en memoria (getPedidos no irá a la BD). */
+    public boolean isPedidosCargados() { return pedidos != null || enlace == null; }
+
+    // ----- uso interno de CargaDiferida -----
+
+    /**
+     * Otra consulta ha vuelto a devolver este cliente: sus relaciones se
+     * olvidan y se cargarán con el grupo nuevo. detalle se deja hasta que se
+     * recargue para que un lector concurrente que ya vio detalleCargado no
+     * reciba null; con detalleCargado a false nadie más lo devuelve.
+     */
+    void enlazar(CargaDiferida grupo, int posicion) {
+        this.enlace = new Enlace(grupo, posicion);
+        this.detalleCargado = false;
+        this.pedidos = null;
+    }
+
+    /** grupo: el que lo ha cargado (null si se pone a mano). */
+    void detalleCargado(DetalleCliente detalle, CargaDiferida grupo) {
+        this.detalle = detalle;
+        this.detalleCargado = true;
+        soltarEnlaceSiCompleto(grupo);
+    }
+
+    void pedidosCargados(List<Pedido> pedidos, CargaDiferida grupo) {
+        this.pedidos = pedidos;
+        soltarEnlaceSiCompleto(grupo);
+    }
+
+    /**
+     * Con las dos relaciones en memoria el grupo ya no hace falta: no se
+     * retiene. Solo se suelta el enlace del grupo que ha cargado (con
+     * compareAndSet): si entretanto otra consulta lo ha vuelto a enlazar, el
+     * enlace nuevo se queda.
+     */
+    private void soltarEnlaceSiCompleto(CargaDiferida grupo) {
+        Enlace e = enlace;
+        if (e != null && (grupo == null || e.grupo == grupo) && detalleCargado && pedidos != null) {
+            ENLACE.compareAndSet(this, e, null);
+        }
+    }
 
     @Override public String toString() {
-        return "Cliente{id=%d, nombre='%s', email='%s'}".formatted(id, nombre, email);
+        return "Cliente{id=%d, nombre='%s', email='%s'}".formatted(getId(), getNombre(), getEmail());
     }
 }
@@ -0,0 +1,146 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Columna de cadenas guardadas en UTF-8 una detrás de otra en un único buffer,
+ * con un buffer de offsets (n + 1 posiciones): la cadena i ocupa
+ * datos[off[i] .. off[i + 1]).
+ *
+ * También sabe escribirse y leerse de un ByteBuffer para las instantáneas en
+ * disco. Al leer no se copia nada: los buffers son vistas del ByteBuffer de
+ * origen, así que si es un fichero mapeado los datos se quedan fuera del heap
+ * y el sistema operativo carga solo las páginas que se leen. Las construidas
+ * con el Builder van sobre arrays del heap.
+ *
+ * Solo se usan lecturas absolutas (get(i)), así que se puede leer desde
+ * varios hilos a la vez.
+ */
+final class ColumnaTexto {
+
+    private final ByteBuffer datos;
+    private final IntBuffer off;
+
+    ColumnaTexto(ByteBuffer datos, IntBuffer off) {
+        this.datos = datos;
+        this.off = off;
+    }
+
+    int tamano() { return off.limit() - 1; }
+
+    String texto(int i) {
+        int ini = off.get(i);
+        int largo = off.get(i + 1) - ini;
+        if (datos.hasArray()) {
+            return new String(datos.array(), datos.arrayOffset() + ini, largo, StandardCharsets.UTF_8);
+        }
+        byte[] b = new byte[largo];
+        datos.get(ini, b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    int longitud(int i) { return off.get(i + 1) - off.get(i); }
+
+    /** Bytes de heap (una columna mapeada desde disco no ocupa heap). */
+    long bytesHeap() {
+        return bytesHeap(datos) + bytesHeap(off);
+    }
+
+    // =========================================================================
+    //  SERIALIZACIÓN
+    // =========================================================================
+
+    void escribir(SalidaColumnas s) throws IOException {
+        s.putInts(off);
+        s.putBytes(datos);
+    }
+
+    static ColumnaTexto leer(ByteBuffer b) {
+        IntBuffer off = leerInts(b);
+        ByteBuffer datos = leerBytes(b);
+        if (off.limit() == 0 || off.get(off.limit() - 1) != datos.limit()) {
+            throw new IllegalStateException("Columna de texto inconsistente");
+        }
+        return new ColumnaTexto(datos, off);
+    }
+
+    /** Vista (sin copia) de los ints que empiezan en la posición actual de b. */
+    static IntBuffer leerInts(ByteBuffer b) {
+        int n = b.getInt();
+        IntBuffer a = b.slice(b.position(), n * 4).asIntBuffer();
+        b.position(b.position() + n * 4);
+        return a;
+    }
+
+    /** Vista (sin copia) de los bytes que empiezan en la posición actual de b. */
+    static ByteBuffer leerBytes(ByteBuffer b) {
+        int n = b.getInt();
+        ByteBuffer a = b.slice(b.position(), n);
+        b.position(b.position() + n);
+        return a;
+    }
+
+    static long bytesArray(int longitud, int tamElemento) {
+        return (16 + (long) longitud * tamElemento + 7) & ~7L;
+    }
+
+    static long bytesHeap(ByteBuffer a) {
+        return a.isDirect() ? 0 : bytesArray(a.capacity(), 1);
+    }
+
+    static long bytesHeap(IntBuffer a) {
+        return a.isDirect() ? 0 : bytesArray(a.capacity(), 4);
+    }
+
+    /** Búsqueda binaria en un buffer de ints ordenado (mismo contrato que Arrays.binarySearch). */
+    static int buscar(IntBuffer a, int clave) {
+        int lo = 0, hi = a.limit() - 1;
+        while (lo <= hi) {
+            int medio = (lo + hi) >>> 1;
+            int v = a.get(medio);
+            if (v < clave) {
+                lo = medio + 1;
+            } else if (v > clave) {
+                hi = medio - 1;
+            } else {
+                return medio;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    // =========================================================================
+    //  CONSTRUCCIÓN
+    // =========================================================================
+
+    /** Acumula cadenas en un byte[] que crece según hace falta. */
+    static final class Builder {
+        private byte[] datos = new byte[16 * 1024];
+        private int[] off = new int[1025];
+        private int n;
+
+        void agregar(String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            int fin = off[n];
+            if (fin + b.length > datos.length) {
+                datos = Arrays.copyOf(datos, Math.max(datos.length * 2, fin + b.length));
+            }
+            if (n + 1 == off.length) {
+                off = Arrays.copyOf(off, off.length * 2);
+            }
+            System.arraycopy(b, 0, datos, fin, b.length);
+            off[++n] = fin + b.length;
+        }
+
+        int tamano() { return n; }
+
+        ColumnaTexto build() {
+            return new ColumnaTexto(ByteBuffer.wrap(Arrays.copyOf(datos, off[n])),
+                    IntBuffer.wrap(Arrays.copyOf(off, n + 1)));
+        }
+    }
+}
@@ -9,6 +9,7 @@ public class DetalleCliente {
     private String direccion;
     private String telefono;
     private String notas;
+    private int version;         // bloqueo optimista: sube con cada UPDATE
 
     // NO guardamos Cliente aquí para evitar ciclos fuertes en toString/equals
 
@@ -26,6 +27,17 @@ public class DetalleCliente {
     public String getNotas() { return notas; }
     public void setNotas(String notas) { this.notas = notas; }
 
+    /** Versión de la fila cuando se leyó; DetalleClienteDAO.update la comprueba. */
+    public int getVersion() { return version; }
+    public void setVersion(int version) { this.version = version; }
+
+    /** Copia para editar (ver Cliente.copia()). */
+    public DetalleCliente copia() {
+        DetalleCliente d = new DetalleCliente(getId(), getDireccion(), getTelefono(), getNotas());
+        d.version = getVersion();
+        return d;
+    }
+
     @Override public String toString() {
         return "DetalleCliente{id=%d, dir='%s', tel='%s', notas='%s'}"
                 .formatted(id, direccion, telefono, notas);
@@ -0,0 +1,329 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Instantánea de solo lectura de la tabla cliente en formato columnar.
+ *
+ * En lugar de un objeto Cliente por fila (con su Integer, sus dos String y
+ * su ArrayList de pedidos) se guardan:
+ *  - un int[] con los ids, ordenado (búsqueda binaria por id),
+ *  - los nombres en UTF-8 concatenados en un byte[] + offsets,
+ *  - los emails partidos en parte local (byte[] + offsets) y un índice a una
+ *    tabla de dominios sin repetir (gmail.com se guarda una sola vez).
+ *
+ * Para la TableView se ofrece una vista {@link #comoLista()} que crea objetos
+ * Cliente "flyweight" bajo demanda: solo existen los de las filas que se pintan.
+ *
+ * Los valores null de nombre se guardan como cadena vacía.
+ */
+public final class InstantaneaClientes {
+
+    /** Índice de dominio para emails null. */
+    static final int EMAIL_NULL = -2;
+    /** Índice de dominio para emails sin '@' (toda la cadena va en la parte local). */
+    static final int SIN_DOMINIO = -1;
+
+    // Buffers sobre arrays del heap, o vistas de la copia local mapeada en memoria
+    private final IntBuffer ids;
+    private final ColumnaTexto nombres;
+    private final ColumnaTexto locales;
+    private final IntBuffer dominioDe;   // índice en la tabla de dominios
+    private final ColumnaTexto dominios;
+
+    InstantaneaClientes(IntBuffer ids, ColumnaTexto nombres, ColumnaTexto locales,
+                        IntBuffer dominioDe, ColumnaTexto dominios) {
+        this.ids = ids;
+        this.nombres = nombres;
+        this.locales = locales;
+        this.dominioDe = dominioDe;
+        this.dominios = dominios;
+    }
+
+    // =========================================================================
+    //  ACCESO POR FILA
+    // =========================================================================
+
+    public int tamano() { return ids.limit(); }
+
+    public int id(int fila) { return ids.get(fila); }
+
+    public String nombre(int fila) {
+        return nombres.texto(fila);
+    }
+
+    public String email(int fila) {
+        int d = dominioDe.get(fila);
+        if (d == EMAIL_NULL) {
+            return null;
+        }
+        String local = locales.texto(fila);
+        return (d == SIN_DOMINIO) ? local : local + "@" + dominios.texto(d);
+    }
+
+    /** Fila del id indicado, o un valor negativo si no está (Arrays.binarySearch). */
+    public int buscarFila(int id) {
+        return ColumnaTexto.buscar(ids, id);
+    }
+
+    /** Cliente flyweight para una fila; no copia datos, los lee de las columnas. */
+    public Cliente cliente(int fila) {
+        return new ClienteInstantanea(this, fila);
+    }
+
+    public int numDominios() { return dominios.tamano(); }
+
+    // =========================================================================
+    //  VISTAS COMO LISTA
+    // =========================================================================
+
+    /** Lista de solo lectura en orden de id. */
+    public List<Cliente> comoLista() {
+        return comoLista(null);
+    }
+
+    /** Lista de solo lectura siguiendo una permutación de filas (null = orden de id). */
+    public List<Cliente> comoLista(int[] orden) {
+        return new Vista(this, orden);
+    }
+
+    /**
+     * Devuelve la permutación de filas que ordena la instantánea según el comparador.
+     * Ordena un int[] de filas (sin Integer por fila) y compara con dos
+     * flyweights reutilizables, sin crear un Cliente por fila.
+     */
+    public int[] ordenar(Comparator<? super Cliente> cmp) {
+        int n = tamano();
+        int[] filas = new int[n];
+        for (int i = 0; i < n; i++) {
+            filas[i] = i;
+        }
+        ClienteInstantanea a = new ClienteInstantanea(this, 0);
+        ClienteInstantanea b = new ClienteInstantanea(this, 0);
+        OrdenFilas.ordenar(filas, (x, y) -> {
+            a.fila = x;
+            b.fila = y;
+            return cmp.compare(a, b);
+        });
+        return filas;
+    }
+
+    private static final class Vista extends AbstractList<Cliente> implements RandomAccess {
+        private final InstantaneaClientes inst;
+        private final int[] orden;
+
+        Vista(InstantaneaClientes inst, int[] orden) {
+            this.inst = inst;
+            this.orden = orden;
+        }
+
+        @Override public Cliente get(int i) {
+            return inst.cliente(orden == null ? i : orden[i]);
+        }
+
+        @Override public int size() { return inst.tamano(); }
+    }
+
+    /**
+     * Cliente que lee sus datos de la instantánea. Es de solo lectura:
+     * los setters lanzan UnsupportedOperationException.
+     */
+    public static final class ClienteInstantanea extends Cliente {
+        private final InstantaneaClientes inst;
+        private int fila;
+
+        ClienteInstantanea(InstantaneaClientes inst, int fila) {
+            this.inst = inst;
+            this.fila = fila;
+        }
+
+        public InstantaneaClientes getInstantanea() { return inst; }
+        public int getFila() { return fila; }
+
+        @Override public Integer getId() { return inst.id(fila); }
+        @Override public String getNombre() { return inst.nombre(fila); }
+        @Override public String getEmail() { return inst.email(fila); }
+
+        @Override public void setId(Integer id) { throw soloLectura(); }
+        @Override public void setNombre(String nombre) { throw soloLectura(); }
+        @Override public void setEmail(String email) { throw soloLectura(); }
+
+        private static UnsupportedOperationException soloLectura() {
+            return new UnsupportedOperationException("Cliente de una instantánea: solo lectura");
+        }
+
+        @Override public boolean equals(Object o) {
+            return o instanceof ClienteInstantanea other && other.inst == inst && other.fila == fila;
+        }
+
+        @Override public int hashCode() { return inst.id(fila); }
+    }
+
+    // =========================================================================
+    //  HUELLA DE MEMORIA
+    // =========================================================================
+
+    /**
+     * Bytes aproximados de heap que ocupa la instantánea (arrays + cabeceras).
+     * Leída de la copia local mapeada, las columnas están fuera del heap y no cuentan.
+     */
+    public long bytesEstimados() {
+        return 64                                   // el propio objeto + referencias
+                + ColumnaTexto.bytesHeap(ids)
+                + nombres.bytesHeap()
+                + locales.bytesHeap()
+                + ColumnaTexto.bytesHeap(dominioDe)
+                + dominios.bytesHeap();
+    }
+
+    /**
+     * Bytes aproximados de la representación actual de ClientesView para los
+     * mismos datos: un Cliente por fila con Integer, dos String (compactas,
+     * LATIN1), ArrayList vacío de pedidos, más el hueco en la lista de la tabla.
+     * Supone JVM de 64 bits con oops comprimidos.
+     *
+     * Solo suma longitudes de las columnas (no decodifica ningún texto), pero
+     * recorre todas las filas: es para informes bajo demanda, no para cada recarga.
+     */
+    public long bytesRepresentacionObjetos() {
+        int n = tamano();
+        long total = bytesArray(n, 4);              // Object[] de la ObservableList
+        for (int i = 0; i < n; i++) {
+            total += 32;                            // Cliente: cabecera + 5 referencias
+            total += 16;                            // Integer id
+            total += 24;                            // ArrayList vacío de pedidos
+            total += bytesString(nombres.longitud(i));
+            int d = dominioDe.get(i);
+            if (d != EMAIL_NULL) {
+                int largo = locales.longitud(i) + (d == SIN_DOMINIO ? 0 : 1 + dominios.longitud(d));
+                total += bytesString(largo);
+            }
+        }
+        return total;
+    }
+
+    /** Informe legible con ambas huellas, para mostrar en consola (recorre todas las filas). */
+    public String informeMemoria() {
+        long col = bytesEstimados();
+        long obj = bytesRepresentacionObjetos();
+        int n = Math.max(1, tamano());
+        return ("Instantánea de %d clientes (%d dominios distintos): columnar ≈ %,d bytes (%d B/cliente)"
+                + " vs objetos ≈ %,d bytes (%d B/cliente)")
+                .formatted(tamano(), numDominios(), col, col / n, obj, obj / n);
+    }
+
+    private static long bytesArray(int longitud, int tamElemento) {
+        return ColumnaTexto.bytesArray(longitud, tamElemento);
+    }
+
+    private static long bytesString(int longitud) {
+        return 24 + bytesArray(longitud, 1);
+    }
+
+    // =========================================================================
+    //  SERIALIZACIÓN (instantánea local en disco)
+    // =========================================================================
+
+    /** Escribe las columnas una tras otra, por bloques (ver SalidaColumnas). */
+    public void escribir(SalidaColumnas s) throws IOException {
+        s.putInts(ids);
+        nombres.escribir(s);
+        locales.escribir(s);
+        s.putInts(dominioDe);
+        dominios.escribir(s);
+    }
+
+    /**
+     * Lee una instantánea escrita con escribir(). No copia: las columnas son
+     * vistas de b, que debe seguir sin cambios mientras se use la instantánea
+     * (p. ej. el fichero mapeado de la copia local).
+     */
+    public static InstantaneaClientes leer(ByteBuffer b) {
+        IntBuffer ids = ColumnaTexto.leerInts(b);
+        ColumnaTexto nombres = ColumnaTexto.leer(b);
+        ColumnaTexto locales = ColumnaTexto.leer(b);
+        IntBuffer dominioDe = ColumnaTexto.leerInts(b);
+        ColumnaTexto dominios = ColumnaTexto.leer(b);
+        int n = ids.limit();
+        if (nombres.tamano() != n || locales.tamano() != n || dominioDe.limit() != n) {
+            throw new IllegalStateException("Instantánea de clientes inconsistente");
+        }
+        return new InstantaneaClientes(ids, nombres, locales, dominioDe, dominios);
+    }
+
+    // =========================================================================
+    //  CONSTRUCCIÓN
+    // =========================================================================
+
+    /**
+     * Acumula filas en orden ascendente de id (el de "ORDER BY id") y genera
+     * la instantánea con build().
+     */
+    public static final class Builder {
+        private int n;
+        private int[] ids = new int[1024];
+        private final ColumnaTexto.Builder nombres = new ColumnaTexto.Builder();
+        private final ColumnaTexto.Builder locales = new ColumnaTexto.Builder();
+        private int[] dominioDe = new int[1024];
+
+        private final Map<String, Integer> indiceDominios = new HashMap<>();
+        private final ColumnaTexto.Builder dominios = new ColumnaTexto.Builder();
+
+        public Builder agregar(int id, String nombre, String email) {
+            if (n > 0 && id <= ids[n - 1]) {
+                throw new IllegalArgumentException("Los ids deben llegar en orden ascendente: " + id);
+            }
+            if (n == ids.length) {
+                ids = Arrays.copyOf(ids, n * 2);
+                dominioDe = Arrays.copyOf(dominioDe, n * 2);
+            }
+
+            ids[n] = id;
+            nombres.agregar(nombre == null ? "" : nombre);
+
+            if (email == null) {
+                locales.agregar("");
+                dominioDe[n] = EMAIL_NULL;
+            } else {
+                int arroba = email.lastIndexOf('@');
+                if (arroba < 0) {
+                    locales.agregar(email);
+                    dominioDe[n] = SIN_DOMINIO;
+                } else {
+                    locales.agregar(email.substring(0, arroba));
+                    dominioDe[n] = dominio(email.substring(arroba + 1));
+                }
+            }
+
+            n++;
+            return this;
+        }
+
+        public int tamano() { return n; }
+
+        private int dominio(String d) {
+            Integer idx = indiceDominios.get(d);
+            if (idx == null) {
+                idx = dominios.tamano();
+                dominios.agregar(d);
+                indiceDominios.put(d, idx);
+            }
+            return idx;
+        }
+
+        public InstantaneaClientes build() {
+            return new InstantaneaClientes(
+                    IntBuffer.wrap(Arrays.copyOf(ids, n)), nombres.build(), locales.build(),
+                    IntBuffer.wrap(Arrays.copyOf(dominioDe, n)), dominios.build());
+        }
+    }
+}
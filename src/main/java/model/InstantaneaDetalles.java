@@ -0,0 +1,121 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Columnas de detalle_cliente alineadas fila a fila con una InstantaneaClientes
+ * (la fila i de aquí es el detalle del cliente de la fila i de allí).
+ *
+ * Cada fila lleva un byte de flags: si existe detalle y qué campos son null.
+ */
+public final class InstantaneaDetalles {
+
+    private static final byte EXISTE = 1;
+    private static final byte DIRECCION_NULL = 2;
+    private static final byte TELEFONO_NULL = 4;
+    private static final byte NOTAS_NULL = 8;
+
+    private final ByteBuffer flags;
+    private final ColumnaTexto direcciones;
+    private final ColumnaTexto telefonos;
+    private final ColumnaTexto notas;
+
+    private InstantaneaDetalles(ByteBuffer flags, ColumnaTexto direcciones,
+                                ColumnaTexto telefonos, ColumnaTexto notas) {
+        this.flags = flags;
+        this.direcciones = direcciones;
+        this.telefonos = telefonos;
+        this.notas = notas;
+    }
+
+    public int tamano() { return flags.limit(); }
+
+    public boolean existe(int fila) {
+        return (flags.get(fila) & EXISTE) != 0;
+    }
+
+    /** Detalle de la fila (con el id del cliente), o null si ese cliente no tiene detalle. */
+    public DetalleCliente detalle(int fila, int id) {
+        if (!existe(fila)) {
+            return null;
+        }
+        byte f = flags.get(fila);
+        return new DetalleCliente(id,
+                (f & DIRECCION_NULL) != 0 ? null : direcciones.texto(fila),
+                (f & TELEFONO_NULL) != 0 ? null : telefonos.texto(fila),
+                (f & NOTAS_NULL) != 0 ? null : notas.texto(fila));
+    }
+
+    public long bytesEstimados() {
+        return 48 + ColumnaTexto.bytesHeap(flags)
+                + direcciones.bytesHeap() + telefonos.bytesHeap() + notas.bytesHeap();
+    }
+
+    // =========================================================================
+    //  SERIALIZACIÓN
+    // =========================================================================
+
+    public void escribir(SalidaColumnas s) throws IOException {
+        s.putBytes(flags);
+        direcciones.escribir(s);
+        telefonos.escribir(s);
+        notas.escribir(s);
+    }
+
+    /** Lee las columnas escritas con escribir(), como vistas de b (sin copiar). */
+    public static InstantaneaDetalles leer(ByteBuffer b) {
+        ByteBuffer flags = ColumnaTexto.leerBytes(b);
+        ColumnaTexto dir = ColumnaTexto.leer(b);
+        ColumnaTexto tel = ColumnaTexto.leer(b);
+        ColumnaTexto notas = ColumnaTexto.leer(b);
+        int n = flags.limit();
+        if (dir.tamano() != n || tel.tamano() != n || notas.tamano() != n) {
+            throw new IllegalStateException("Instantánea de detalles inconsistente");
+        }
+        return new InstantaneaDetalles(flags, dir, tel, notas);
+    }
+
+    // =========================================================================
+    //  CONSTRUCCIÓN
+    // =========================================================================
+
+    /** Se debe llamar a agregar() una vez por cada fila de la InstantaneaClientes. */
+    public static final class Builder {
+        private byte[] flags = new byte[1024];
+        private int n;
+        private final ColumnaTexto.Builder direcciones = new ColumnaTexto.Builder();
+        private final ColumnaTexto.Builder telefonos = new ColumnaTexto.Builder();
+        private final ColumnaTexto.Builder notas = new ColumnaTexto.Builder();
+
+        /** Añade el detalle de la siguiente fila (d == null si el cliente no tiene detalle). */
+        public Builder agregar(DetalleCliente d) {
+            if (d == null) {
+                return agregar(false, null, null, null);
+            }
+            return agregar(true, d.getDireccion(), d.getTelefono(), d.getNotas());
+        }
+
+        public Builder agregar(boolean existe, String direccion, String telefono, String nota) {
+            if (n == flags.length) {
+                flags = Arrays.copyOf(flags, n * 2);
+            }
+            byte f = existe ? EXISTE : 0;
+            if (direccion == null) f |= DIRECCION_NULL;
+            if (telefono == null) f |= TELEFONO_NULL;
+            if (nota == null) f |= NOTAS_NULL;
+            flags[n++] = f;
+
+            direcciones.agregar(direccion == null ? "" : direccion);
+            telefonos.agregar(telefono == null ? "" : telefono);
+            notas.agregar(nota == null ? "" : nota);
+            return this;
+        }
+
+        public InstantaneaDetalles build() {
+            return new InstantaneaDetalles(ByteBuffer.wrap(Arrays.copyOf(flags, n)),
+                    direcciones.build(), telefonos.build(), notas.build());
+        }
+    }
+}
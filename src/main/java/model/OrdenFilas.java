@@ -0,0 +1,113 @@
+package model;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Ordenación de arrays de índices (filas, posiciones) con un comparador de
+ * int, sin pasar por Integer[]: con millones de filas el boxing multiplica
+ * la memoria y la presión sobre el GC.
+ *
+ * Es un merge sort estable (como Arrays.sort de objetos), así que se puede
+ * usar para la ordenación de la TableView sin cambiar el orden de los iguales.
+ */
+public final class OrdenFilas {
+
+    /** Compara dos índices (negativo, 0 o positivo, como Comparator). */
+    @FunctionalInterface
+    public interface Comparador {
+        int comparar(int a, int b);
+    }
+
+    /** Por debajo de este tamaño se ordena por inserción. */
+    private static final int INSERCION = 32;
+
+    /** Por debajo de este tamaño un tramo ya no se divide entre hilos. */
+    private static final int TRAMO_PARALELO = 8_192;
+
+    private OrdenFilas() {}
+
+    /** Ordena el array de índices según el comparador (estable). */
+    public static void ordenar(int[] a, Comparador cmp) {
+        if (a.length < 2) {
+            return;
+        }
+        ordenar(a, new int[a.length], 0, a.length, cmp);
+    }
+
+    /**
+     * Como ordenar(), pero las dos mitades de cada tramo grande se ordenan en
+     * paralelo en el pool (fork/join) y luego se mezclan. El comparador se
+     * llama desde varios hilos a la vez: no puede tener estado mutable.
+     */
+    public static void ordenarEnParalelo(int[] a, Comparador cmp, ForkJoinPool pool) {
+        if (a.length < 2) {
+            return;
+        }
+        pool.invoke(new OrdenarTramo(a, new int[a.length], 0, a.length, cmp));
+    }
+
+    private static final class OrdenarTramo extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] a, aux;
+        private final int desde, hasta;
+        private final Comparador cmp;
+
+        OrdenarTramo(int[] a, int[] aux, int desde, int hasta, Comparador cmp) {
+            this.a = a; this.aux = aux; this.desde = desde; this.hasta = hasta; this.cmp = cmp;
+        }
+
+        @Override
+        protected void compute() {
+            if (hasta - desde <= TRAMO_PARALELO) {
+                ordenar(a, aux, desde, hasta, cmp);
+                return;
+            }
+            int medio = (desde + hasta) >>> 1;
+            invokeAll(new OrdenarTramo(a, aux, desde, medio, cmp),
+                    new OrdenarTramo(a, aux, medio, hasta, cmp));
+            mezclar(a, aux, desde, medio, hasta, cmp);
+        }
+    }
+
+    /** Ordena a[desde, hasta) usando aux (del mismo tamaño) como espacio de mezcla. */
+    static void ordenar(int[] a, int[] aux, int desde, int hasta, Comparador cmp) {
+        if (hasta - desde <= INSERCION) {
+            insercion(a, desde, hasta, cmp);
+            return;
+        }
+        int medio = (desde + hasta) >>> 1;
+        ordenar(a, aux, desde, medio, cmp);
+        ordenar(a, aux, medio, hasta, cmp);
+        mezclar(a, aux, desde, medio, hasta, cmp);
+    }
+
+    /** Mezcla a[desde, medio) y a[medio, hasta), ya ordenados. */
+    static void mezclar(int[] a, int[] aux, int desde, int medio, int hasta, Comparador cmp) {
+        if (cmp.comparar(a[medio - 1], a[medio]) <= 0) {
+            return;   // ya están en orden
+        }
+        System.arraycopy(a, desde, aux, desde, hasta - desde);
+        int i = desde, j = medio;
+        for (int k = desde; k < hasta; k++) {
+            if (i < medio && (j >= hasta || cmp.comparar(aux[i], aux[j]) <= 0)) {
+                a[k] = aux[i++];
+            } else {
+                a[k] = aux[j++];
+            }
+        }
+    }
+
+    private static void insercion(int[] a, int desde, int hasta, Comparador cmp) {
+        for (int i = desde + 1; i < hasta; i++) {
+            int v = a[i];
+            int j = i - 1;
+            while (j >= desde && cmp.comparar(a[j], v) > 0) {
+                a[j + 1] = a[j];
+                j--;
+            }
+            a[j + 1] = v;
+        }
+    }
+}
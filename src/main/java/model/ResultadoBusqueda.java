@@ -0,0 +1,27 @@
+package model;
+
+/**
+ * Un resultado de la búsqueda de texto completo: el cliente, su detalle,
+ * la relevancia (ts_rank) y un fragmento del texto con las coincidencias
+ * marcadas entre « ».
+ */
+public class ResultadoBusqueda {
+    private final Cliente cliente;
+    private final DetalleCliente detalle;
+    private final double relevancia;
+    private final String fragmento;
+
+    public ResultadoBusqueda(Cliente cliente, DetalleCliente detalle, double relevancia, String fragmento) {
+        this.cliente = cliente; this.detalle = detalle; this.relevancia = relevancia; this.fragmento = fragmento;
+    }
+
+    public Cliente getCliente() { return cliente; }
+    public DetalleCliente getDetalle() { return detalle; }
+    public double getRelevancia() { return relevancia; }
+    public String getFragmento() { return fragmento; }
+
+    @Override public String toString() {
+        return "ResultadoBusqueda{id=%d, relevancia=%.4f, fragmento='%s'}"
+                .formatted(cliente.getId(), relevancia, fragmento);
+    }
+}
@@ -0,0 +1,29 @@
+package model;
+
+import java.time.LocalDate;
+
+/**
+ * Resumen de compras de un cliente calculado en la BD: número de pedidos,
+ * importe total de todas sus líneas y fecha del último pedido (null si no
+ * tiene ninguno).
+ */
+public class ResumenPedidos {
+    private final int clienteId;
+    private final int numPedidos;
+    private final double total;
+    private final LocalDate ultimoPedido;
+
+    public ResumenPedidos(int clienteId, int numPedidos, double total, LocalDate ultimoPedido) {
+        this.clienteId = clienteId; this.numPedidos = numPedidos; this.total = total; this.ultimoPedido = ultimoPedido;
+    }
+
+    public int getClienteId() { return clienteId; }
+    public int getNumPedidos() { return numPedidos; }
+    public double getTotal() { return total; }
+    public LocalDate getUltimoPedido() { return ultimoPedido; }
+
+    @Override public String toString() {
+        return "ResumenPedidos{cliente=%d, pedidos=%d, total=%.2f, ultimo=%s}"
+                .formatted(clienteId, numPedidos, total, ultimoPedido);
+    }
+}
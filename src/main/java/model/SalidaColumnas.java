@@ -0,0 +1,86 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32C;
+
+/**
+ * Destino de InstantaneaClientes.escribir / InstantaneaDetalles.escribir:
+ * las columnas pasan por un bloque de tamaño fijo que se vuelca al canal
+ * cada vez que se llena, así que el contenido nunca está entero en memoria
+ * (y puede pasar de 2 GB). Lleva la cuenta de bytes y el CRC32C de lo
+ * escrito, para la cabecera de la copia local.
+ *
+ * Big-endian, como el ByteBuffer del que se leen las columnas.
+ */
+public final class SalidaColumnas {
+
+    private final WritableByteChannel canal;
+    private final ByteBuffer bloque;
+    private final CRC32C crc = new CRC32C();
+    private long bytes;
+
+    public SalidaColumnas(WritableByteChannel canal, int tamBloque) {
+        this.canal = canal;
+        this.bloque = ByteBuffer.allocateDirect(Math.max(64, tamBloque & ~3));
+    }
+
+    void putInt(int v) throws IOException {
+        if (bloque.remaining() < 4) {
+            volcar();
+        }
+        bloque.putInt(v);
+    }
+
+    /** El número de ints y luego los ints (el formato de ColumnaTexto.leerInts). */
+    void putInts(IntBuffer a) throws IOException {
+        putInt(a.limit());
+        IntBuffer src = a.duplicate().position(0);
+        while (src.hasRemaining()) {
+            if (bloque.remaining() < 4) {
+                volcar();
+            }
+            int n = Math.min(src.remaining(), bloque.remaining() / 4);
+            bloque.asIntBuffer().put(src.slice(src.position(), n));
+            src.position(src.position() + n);
+            bloque.position(bloque.position() + n * 4);
+        }
+    }
+
+    /** El número de bytes y luego los bytes (el formato de ColumnaTexto.leerBytes). */
+    void putBytes(ByteBuffer a) throws IOException {
+        putInt(a.limit());
+        ByteBuffer src = a.duplicate().position(0);
+        while (src.hasRemaining()) {
+            if (!bloque.hasRemaining()) {
+                volcar();
+            }
+            int n = Math.min(src.remaining(), bloque.remaining());
+            bloque.put(src.slice(src.position(), n));
+            src.position(src.position() + n);
+        }
+    }
+
+    /** Escribe en el canal lo que quede en el bloque. */
+    public void vaciar() throws IOException {
+        volcar();
+    }
+
+    /** Bytes escritos hasta ahora (los del bloque aún sin volcar no cuentan). */
+    public long getBytes() { return bytes; }
+
+    /** CRC32C de lo escrito hasta ahora. */
+    public int getCrc() { return (int) crc.getValue(); }
+
+    private void volcar() throws IOException {
+        bloque.flip();
+        crc.update(bloque.duplicate());
+        bytes += bloque.remaining();
+        while (bloque.hasRemaining()) {
+            canal.write(bloque);
+        }
+        bloque.clear();
+    }
+}
@@ -2,7 +2,10 @@ package services;
 
 import dao.ClienteDAO;
 import dao.DetalleClienteDAO;
+import db.ControlAdmision;
+import db.ControlAdmision.Clase;
 import db.Db;
+import db.Shards;
 import model.Cliente;
 import model.DetalleCliente;
 
@@ -15,25 +18,141 @@ public class ClienteDetalle {
     private final DetalleClienteDAO detalleClienteDAO= new DetalleClienteDAO();
 
     public void guardarClienteCompleto(Cliente c, DetalleCliente d) throws SQLException {
+        // Escritura crítica: va con su propio cupo, aparte de búsquedas y lecturas.
+        ControlAdmision.ejecutar(Clase.ESCRITURA, () -> {
+            EventoTransaccion evento = new EventoTransaccion();
+            evento.operacion = "guardarClienteCompleto";
+            evento.elementos = 1;
+            evento.begin();
 
-        try (Connection con = Db.getConnection()){
+            // Cliente y detalle comparten id, así que viven en el mismo shard: una sola transacción.
+            try (Connection con = Db.getConnectionCliente(c.getId())){
 
-                    con.setAutoCommit(false);
+                        con.setAutoCommit(false);
 
-                    try {
+                        try {
 
-                        clienteDAO.insert(c, con);
-                        detalleClienteDAO.insert(d, con);
+                            clienteDAO.insert(c, con);
+                            detalleClienteDAO.insert(d, con);
 
-                        con.commit();
+                            con.commit();
+                            ClienteDAO.marcarCambios();
+                            evento.confirmada = true;
 
-                    }catch (SQLException e) {
-                            con.rollback();
-                            throw e;
-                    } finally {
-                        con.setAutoCommit(true);
+                        }catch (SQLException e) {
+                                con.rollback();
+                                throw e;
+                        } finally {
+                            con.setAutoCommit(true);
+                        }
+            } finally {
+                evento.commit();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Actualiza cliente y detalle en UNA transacción, con bloqueo optimista:
+     * si otro ha modificado cualquiera de los dos desde que se leyeron, no se
+     * guarda nada y se lanza ConflictoVersionException con la fila actual.
+     * Devuelve el número de filas actualizadas: 2, o 0 si el cliente o su
+     * detalle ya no existen (entonces tampoco se guarda nada).
+     */
+    public int actualizarClienteCompleto(Cliente c, DetalleCliente d) throws SQLException {
+        return ControlAdmision.ejecutar(Clase.ESCRITURA, () -> {
+            EventoTransaccion evento = new EventoTransaccion();
+            evento.operacion = "actualizarClienteCompleto";
+            evento.elementos = 1;
+            evento.begin();
+
+            // Si hay rollback, los objetos vuelven a la versión con la que se leyeron.
+            int versionCliente = c.getVersion();
+            int versionDetalle = d.getVersion();
+
+            try (Connection con = Db.getConnectionCliente(c.getId())) {
+
+                con.setAutoCommit(false);
+
+                try {
+                    int n = clienteDAO.update(c, con);
+                    if (n > 0) {
+                        n += detalleClienteDAO.update(d, con);
+                    }
+                    if (n < 2) {
+                        // Sin cliente o sin detalle: nada de guardar solo la mitad.
+                        con.rollback();
+                        c.setVersion(versionCliente);
+                        d.setVersion(versionDetalle);
+                        return 0;
                     }
+
+                    con.commit();
+                    ClienteDAO.marcarCambios();
+                    evento.confirmada = true;
+                    return n;
+
+                } catch (SQLException e) {
+                    con.rollback();
+                    c.setVersion(versionCliente);
+                    d.setVersion(versionDetalle);
+                    throw e;
+                } finally {
+                    con.setAutoCommit(true);
+                }
+            } finally {
+                evento.commit();
+            }
+        });
+    }
+
+    /**
+     * Borra varios clientes con su detalle en UNA transacción:
+     * primero detalle_cliente y luego cliente, una sentencia por tabla.
+     * Devuelve el número de clientes borrados.
+     *
+     * Con varios shards hay una transacción por shard (en paralelo): si
+     * falla una, las de los demás shards pueden haberse confirmado ya.
+     */
+    public int borrarClientesCompletos(int[] ids) throws SQLException {
+        if (ids == null || ids.length == 0) {
+            return 0;
+        }
+
+        int borrados = 0;
+        for (int n : ControlAdmision.ejecutar(Clase.ESCRITURA, () -> Shards.porShard(ids, this::borrarClientesCompletos))) {
+            borrados += n;
         }
+        return borrados;
+    }
+
+    private int borrarClientesCompletos(int shard, int[] ids) throws SQLException {
+        EventoTransaccion evento = new EventoTransaccion();
+        evento.operacion = "borrarClientesCompletos";
+        evento.elementos = ids.length;
+        evento.begin();
 
+        try (Connection con = Db.getConnection(shard)) {
+
+            con.setAutoCommit(false);
+
+            try {
+                detalleClienteDAO.deleteByIds(ids, con);
+                int borrados = clienteDAO.deleteByIds(ids, con);
+
+                con.commit();
+                ClienteDAO.marcarCambios();
+                evento.confirmada = true;
+                return borrados;
+
+            } catch (SQLException e) {
+                con.rollback();
+                throw e;
+            } finally {
+                con.setAutoCommit(true);
+            }
+        } finally {
+            evento.commit();
+        }
     }
 }
@@ -0,0 +1,224 @@
+package services;
+
+import dao.ClienteDAO;
+import dao.DetalleClienteDAO;
+import dao.PedidoDAO;
+import db.Cancelacion;
+import db.Db;
+import model.Cliente;
+import model.DetalleCliente;
+import model.Pedido;
+import model.ResultadoBusqueda;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fachada asíncrona sobre ClienteDAO, DetalleClienteDAO, PedidoDAO y
+ * ClienteDetalle: cada método devuelve un CompletableFuture en lugar de
+ * bloquear, así se pueden lanzar varias consultas a la vez y combinarlas
+ * (ver {@link #ficha(int, LocalDate, LocalDate, Duration)}).
+ *
+ *  - Las llamadas corren en un ejecutor acotado a Db.maxConexiones() hilos:
+ *    nunca hay más consultas simultáneas que conexiones permitidas; el
+ *    resto espera en cola.
+ *  - Cada llamada admite un timeout propio (null = el de por defecto).
+ *  - Cancelar el futuro (cancel, o que venza el timeout) corta la consulta
+ *    en el servidor con Statement.cancel() (ver db.Cancelacion). Si aún no
+ *    había empezado, ya no se ejecuta.
+ */
+public class ClientesAsync implements AutoCloseable {
+
+    /** Cliente + detalle + pedidos de un rango, cargados en paralelo. */
+    public static final class Ficha {
+        private final Cliente cliente;
+        private final DetalleCliente detalle;
+        private final List<Pedido> pedidos;
+
+        Ficha(Cliente cliente, DetalleCliente detalle, List<Pedido> pedidos) {
+            this.cliente = cliente; this.detalle = detalle; this.pedidos = pedidos;
+        }
+
+        public Cliente getCliente() { return cliente; }
+        public DetalleCliente getDetalle() { return detalle; }
+        public List<Pedido> getPedidos() { return pedidos; }
+    }
+
+    private final ClienteDAO clienteDAO = new ClienteDAO();
+    private final DetalleClienteDAO detalleClienteDAO = new DetalleClienteDAO();
+    private final PedidoDAO pedidoDAO = new PedidoDAO();
+    private final ClienteDetalle clienteDetalle = new ClienteDetalle();
+
+    private final ExecutorService ejecutor;
+    private final Duration timeoutPorDefecto;
+
+    public ClientesAsync(int hilos, Duration timeoutPorDefecto) {
+        AtomicInteger n = new AtomicInteger();
+        this.ejecutor = Executors.newFixedThreadPool(hilos, r -> {
+            Thread t = new Thread(r, "bd-async-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.timeoutPorDefecto = timeoutPorDefecto;
+    }
+
+    /** Tantos hilos como conexiones permitidas y 30 s de timeout. */
+    public ClientesAsync() {
+        this(Db.maxConexiones(), Duration.ofSeconds(30));
+    }
+
+    // =========================================================================
+    //  CLIENTES
+    // =========================================================================
+
+    public CompletableFuture<Cliente> findCliente(int id, Duration timeout) {
+        return enviar(() -> clienteDAO.findById(id), timeout);
+    }
+
+    public CompletableFuture<List<Cliente>> findClientes(int[] ids, Duration timeout) {
+        return enviar(() -> clienteDAO.findByIds(ids), timeout);
+    }
+
+    public CompletableFuture<List<Cliente>> search(String filtro, Duration timeout) {
+        return enviar(() -> clienteDAO.search(filtro), timeout);
+    }
+
+    // =========================================================================
+    //  DETALLES
+    // =========================================================================
+
+    public CompletableFuture<DetalleCliente> findDetalle(int id, Duration timeout) {
+        return enviar(() -> detalleClienteDAO.findById(id), timeout);
+    }
+
+    public CompletableFuture<List<DetalleCliente>> findDetalles(int[] ids, Duration timeout) {
+        return enviar(() -> detalleClienteDAO.findByIds(ids), timeout);
+    }
+
+    public CompletableFuture<Integer> updateDetalle(DetalleCliente d, Duration timeout) {
+        return enviar(() -> detalleClienteDAO.update(d), timeout);
+    }
+
+    public CompletableFuture<List<ResultadoBusqueda>> buscarTexto(String consulta, int limite, int desplazamiento,
+                                                                 Duration timeout) {
+        return enviar(() -> detalleClienteDAO.buscarTexto(consulta, limite, desplazamiento), timeout);
+    }
+
+    // =========================================================================
+    //  PEDIDOS
+    // =========================================================================
+
+    public CompletableFuture<List<Pedido>> findPedidos(int clienteId, LocalDate desde, LocalDate hasta,
+                                                       Duration timeout) {
+        return enviar(() -> pedidoDAO.findByClienteYRango(clienteId, desde, hasta), timeout);
+    }
+
+    // =========================================================================
+    //  OPERACIONES COMPUESTAS (ClienteDetalle)
+    // =========================================================================
+
+    public CompletableFuture<Void> guardarClienteCompleto(Cliente c, DetalleCliente d, Duration timeout) {
+        return enviar(() -> {
+            clienteDetalle.guardarClienteCompleto(c, d);
+            return null;
+        }, timeout);
+    }
+
+    public CompletableFuture<Integer> borrarClientesCompletos(int[] ids, Duration timeout) {
+        return enviar(() -> clienteDetalle.borrarClientesCompletos(ids), timeout);
+    }
+
+    /**
+     * Cliente, detalle y pedidos de [desde, hasta) en paralelo: tres viajes a
+     * la BD a la vez en lugar de uno detrás de otro.
+     *
+     * Si cualquiera de las tres falla, o se cancela o vence el futuro
+     * devuelto, se cancelan las demás.
+     */
+    public CompletableFuture<Ficha> ficha(int id, LocalDate desde, LocalDate hasta, Duration timeout) {
+        CompletableFuture<Cliente> cliente = findCliente(id, timeout);
+        CompletableFuture<DetalleCliente> detalle = findDetalle(id, timeout);
+        CompletableFuture<List<Pedido>> pedidos = findPedidos(id, desde, hasta, timeout);
+
+        CompletableFuture<Ficha> ficha = CompletableFuture.allOf(cliente, detalle, pedidos)
+                .thenApply(v -> new Ficha(cliente.join(), detalle.join(), pedidos.join()));
+
+        cancelarJuntos(ficha, cliente, detalle, pedidos);
+        return ficha;
+    }
+
+    /**
+     * Enlaza un futuro compuesto con sus partes: si una parte falla, o el
+     * compuesto termina con error o cancelado, se cancelan todas las partes.
+     */
+    public static void cancelarJuntos(CompletableFuture<?> compuesto, CompletableFuture<?>... partes) {
+        Runnable cancelarTodo = () -> {
+            for (CompletableFuture<?> p : partes) {
+                p.cancel(true);
+            }
+        };
+        for (CompletableFuture<?> p : partes) {
+            p.whenComplete((v, e) -> {
+                if (e != null) cancelarTodo.run();
+            });
+        }
+        compuesto.whenComplete((v, e) -> {
+            if (e != null) cancelarTodo.run();
+        });
+    }
+
+    // =========================================================================
+    //  NÚCLEO
+    // =========================================================================
+
+    /**
+     * Ejecuta cualquier llamada bloqueante a la BD en el ejecutor y devuelve
+     * su futuro, con timeout y cancelación hasta el servidor.
+     *
+     * @param timeout null = timeout por defecto; Duration.ZERO = sin timeout
+     */
+    public <T> CompletableFuture<T> enviar(Cancelacion.Llamada<T> llamada, Duration timeout) {
+        Cancelacion cancelacion = new Cancelacion();
+        CompletableFuture<T> futuro = new CompletableFuture<>();
+
+        Future<?> tarea = ejecutor.submit(() -> {
+            if (futuro.isDone()) {
+                return;   // cancelado o vencido mientras esperaba en cola
+            }
+            try {
+                futuro.complete(cancelacion.ejecutar(llamada));
+            } catch (Throwable e) {
+                futuro.completeExceptionally(e);
+            }
+        });
+
+        futuro.whenComplete((v, e) -> {
+            if (e instanceof CancellationException || e instanceof TimeoutException) {
+                cancelacion.cancelar();
+                tarea.cancel(false);
+            }
+        });
+
+        Duration t = timeout != null ? timeout : timeoutPorDefecto;
+        if (t != null && !t.isZero()) {
+            futuro.orTimeout(t.toMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        return futuro;
+    }
+
+    /** Deja de aceptar llamadas; las que están en curso terminan. */
+    @Override
+    public void close() {
+        ejecutor.shutdown();
+    }
+}
@@ -0,0 +1,638 @@
+package services;
+
+import dao.PedidoDAO;
+import db.Db;
+import db.Shards;
+import model.DetallePedido;
+import model.Pedido;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Cubo de ventas en memoria: importe y unidades vendidas por producto y por
+ * cliente en cualquier rango de fechas [desde, hasta), sin ir a la BD.
+ *
+ *  - Por producto: un árbol de Fenwick (sumas prefijas) con un cubo por día.
+ *    Consulta y alta en O(log días). Ocupa 2 longs por día y producto
+ *    (unos 64 KB por producto con 11 años de histórico).
+ *  - Por cliente: solo los días con compras, ordenados, con sus sumas
+ *    acumuladas. Consulta por búsqueda binaria; un alta al final (lo normal:
+ *    pedidos de hoy) es O(1), una fecha atrasada desplaza los días posteriores.
+ *
+ * Los importes se guardan en céntimos (long) para que las sumas sean exactas;
+ * la línea vale round(precio_unit * 100) * cantidad, igual que en la carga.
+ *
+ * {@link #cargar()} lo reconstruye desde la BD (dos GROUP BY por shard, con
+ * la misma foto de la BD) y {@link #seguirInserciones()} lo mantiene al día
+ * con los pedidos que se insertan por PedidoDAO (los avisos llegan en otro
+ * hilo, justo después de cada commit).
+ *
+ * Para cargar con la aplicación en marcha, {@link #cargarYSeguir()}: escucha
+ * antes de leer y guarda los avisos que llegan durante la carga; al acabar
+ * cada shard mira cuáles ya estaban en su foto, y al final suma el resto. Así
+ * no se pierde ni se cuenta dos veces lo que se confirme mientras tanto.
+ * Las bajas y ediciones de pedidos no se reflejan, ni lo que inserten otros
+ * procesos.
+ */
+public class CuboVentas {
+
+    /** Primer y último día con pedidos. */
+    private static final String LIMITES_SQL = "SELECT min(fecha), max(fecha) FROM pedido";
+
+    /** De unos pedidos (id, fecha), los que existen: los que ve la foto de la carga. */
+    private static final String VISIBLES_SQL = """
+            SELECT p.id, p.fecha
+            FROM pedido p
+            JOIN unnest(?::integer[], ?::date[]) AS u(id, fecha)
+              ON p.id = u.id AND p.fecha = u.fecha
+            """;
+
+    /** Ventas por producto y día. */
+    private static final String POR_PRODUCTO_SQL = """
+            SELECT producto_id, fecha,
+                   sum(round(precio_unit * 100)::bigint * cantidad),
+                   sum(cantidad)
+            FROM detalle_pedido
+            GROUP BY producto_id, fecha
+            """;
+
+    /** Ventas por cliente y día, en orden para poder añadir siempre al final. */
+    private static final String POR_CLIENTE_SQL = """
+            SELECT p.cliente_id, p.fecha,
+                   sum(round(dp.precio_unit * 100)::bigint * dp.cantidad),
+                   sum(dp.cantidad)
+            FROM pedido p
+            JOIN detalle_pedido dp ON dp.pedido_id = p.id AND dp.fecha = p.fecha
+            GROUP BY p.cliente_id, p.fecha
+            ORDER BY p.cliente_id, p.fecha
+            """;
+
+    /** Días de margen tras el último pedido, para que las altas de hoy no tengan que crecer. */
+    private static final int MARGEN_DIAS = 366;
+
+    /** Importe y unidades de una consulta. */
+    public static final class Ventas {
+        private final long centimos;
+        private final long cantidad;
+
+        public Ventas(long centimos, long cantidad) {
+            this.centimos = centimos;
+            this.cantidad = cantidad;
+        }
+
+        public long getCentimos() { return centimos; }
+        public long getCantidad() { return cantidad; }
+        public double getImporte() { return centimos / 100.0; }
+
+        @Override public String toString() {
+            return "Ventas{importe=%d.%02d, cantidad=%d}"
+                    .formatted(centimos / 100, Math.abs(centimos % 100), cantidad);
+        }
+    }
+
+    private final ReentrantReadWriteLock cerrojo = new ReentrantReadWriteLock();
+
+    /** Día 0 de los árboles de producto (epochDay). */
+    private long origen;
+    private final int capacidadInicial;
+
+    private final Map<Integer, Fenwick> porProducto = new HashMap<>();
+    private final Map<Integer, SerieDispersa> porCliente = new HashMap<>();
+
+    // Lo que se registra en PedidoDAO (en cargarYSeguir, el Seguimiento que lo ha cargado).
+    private Consumer<List<Pedido>> oyente = this::registrar;
+
+    private CuboVentas(LocalDate primerDia, LocalDate ultimoDia) {
+        this.origen = primerDia.toEpochDay();
+        this.capacidadInicial = potenciaDeDos(ultimoDia.toEpochDay() - origen + 1 + MARGEN_DIAS);
+    }
+
+    /** Cubo vacío que empieza en la fecha dada (crece si llegan fechas fuera). */
+    public static CuboVentas vacio(LocalDate desde) {
+        return new CuboVentas(desde, desde);
+    }
+
+    // =========================================================================
+    //  CARGA DESDE LA BD
+    // =========================================================================
+
+    /** Reconstruye el cubo con todo el histórico de pedidos de todos los shards. */
+    public static CuboVentas cargar() throws SQLException {
+        return cargar(null);
+    }
+
+    /**
+     * Reconstruye el cubo y lo deja siguiendo las inserciones, sin perder ni
+     * contar dos veces los pedidos que se confirmen mientras carga.
+     */
+    public static CuboVentas cargarYSeguir() throws SQLException {
+        Seguimiento seguimiento = new Seguimiento();
+        PedidoDAO.escuchar(seguimiento);
+        try {
+            CuboVentas cubo = cargar(seguimiento);
+            cubo.oyente = seguimiento;
+            seguimiento.empezar(cubo);
+            return cubo;
+        } catch (SQLException | RuntimeException e) {
+            PedidoDAO.dejarDeEscuchar(seguimiento);
+            throw e;
+        }
+    }
+
+    /** seguimiento: si no es null, se le dice qué pedidos ya están en la foto de cada shard. */
+    private static CuboVentas cargar(Seguimiento seguimiento) throws SQLException {
+        LocalDate primero = null;
+        LocalDate ultimo = null;
+        for (LocalDate[] l : Shards.enTodos(CuboVentas::limites)) {
+            if (l[0] != null && (primero == null || l[0].isBefore(primero))) primero = l[0];
+            if (l[1] != null && (ultimo == null || l[1].isAfter(ultimo))) ultimo = l[1];
+        }
+        if (primero == null) {
+            // Lo que llegue mientras tanto es posterior a esta consulta: se sumará entero.
+            return vacio(LocalDate.now());
+        }
+
+        LocalDate p = primero;
+        LocalDate u = ultimo;
+        List<CuboVentas> partes = Shards.enTodos(shard -> {
+            CuboVentas parte = new CuboVentas(p, u);
+            parte.cargar(shard, seguimiento);
+            return parte;
+        });
+
+        // Cada cliente está en un solo shard; los productos se venden en todos.
+        CuboVentas cubo = partes.get(0);
+        for (int i = 1; i < partes.size(); i++) {
+            CuboVentas otra = partes.get(i);
+            cubo.porCliente.putAll(otra.porCliente);
+            otra.porProducto.forEach((id, f) -> cubo.porProducto.merge(id, f, Fenwick::sumarPuntos));
+        }
+        for (Fenwick f : cubo.porProducto.values()) {
+            f.construir();
+        }
+        return cubo;
+    }
+
+    private static LocalDate[] limites(int shard) throws SQLException {
+        try (Connection con = Db.getConnection(shard);
+             PreparedStatement pst = con.prepareStatement(LIMITES_SQL);
+             ResultSet rs = pst.executeQuery()) {
+            rs.next();
+            return new LocalDate[] { rs.getObject(1, LocalDate.class), rs.getObject(2, LocalDate.class) };
+        }
+    }
+
+    /**
+     * Carga un shard. Los árboles quedan con valores por día (sin construir):
+     * se suman entre shards y se construyen al final, en O(días) cada uno.
+     */
+    private void cargar(int shard, Seguimiento seguimiento) throws SQLException {
+        try (Connection con = Db.getConnection(shard)) {
+            // Sin autocommit el driver respeta el fetchSize y lee por bloques.
+            con.setAutoCommit(false);
+            // Las dos consultas (y la de los avisos de después) ven la misma foto de la BD.
+            con.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            try {
+                try (PreparedStatement pst = con.prepareStatement(POR_PRODUCTO_SQL)) {
+                    pst.setFetchSize(10_000);
+                    try (ResultSet rs = pst.executeQuery()) {
+                        while (rs.next()) {
+                            int dia = (int) (rs.getObject(2, LocalDate.class).toEpochDay() - origen);
+                            porProducto.computeIfAbsent(rs.getInt(1), k -> new Fenwick(capacidadInicial))
+                                    .sumarPunto(dia, rs.getLong(3), rs.getLong(4));
+                        }
+                    }
+                }
+
+                try (PreparedStatement pst = con.prepareStatement(POR_CLIENTE_SQL)) {
+                    pst.setFetchSize(10_000);
+                    try (ResultSet rs = pst.executeQuery()) {
+                        int idActual = -1;
+                        SerieDispersa serie = null;
+                        while (rs.next()) {
+                            int id = rs.getInt(1);
+                            if (serie == null || id != idActual) {
+                                idActual = id;
+                                serie = porCliente.computeIfAbsent(id, k -> new SerieDispersa());
+                            }
+                            serie.sumar(rs.getObject(2, LocalDate.class).toEpochDay(), rs.getLong(3), rs.getLong(4));
+                        }
+                    }
+                }
+
+                if (seguimiento != null) {
+                    seguimiento.yaContados(visibles(con, seguimiento.pendientesDe(shard)));
+                }
+
+                con.commit();
+            } finally {
+                con.setAutoCommit(true);
+            }
+        }
+    }
+
+    /** Claves (ver clave) de los pedidos que ve la transacción de con. */
+    private static List<Long> visibles(Connection con, List<Pedido> pedidos) throws SQLException {
+        List<Long> out = new ArrayList<>();
+        if (pedidos.isEmpty()) {
+            return out;
+        }
+        Integer[] ids = new Integer[pedidos.size()];
+        LocalDate[] fechas = new LocalDate[pedidos.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = pedidos.get(i).getId();
+            fechas[i] = pedidos.get(i).getFecha();
+        }
+        try (PreparedStatement pst = con.prepareStatement(VISIBLES_SQL)) {
+            Array a = con.createArrayOf("integer", ids);
+            Array f = con.createArrayOf("date", fechas);
+            try {
+                pst.setArray(1, a);
+                pst.setArray(2, f);
+                try (ResultSet rs = pst.executeQuery()) {
+                    while (rs.next()) {
+                        out.add(clave(rs.getInt(1), rs.getObject(2, LocalDate.class)));
+                    }
+                }
+            } finally {
+                a.free();
+                f.free();
+            }
+        }
+        return out;
+    }
+
+    private static long clave(int id, LocalDate fecha) {
+        return ((long) id << 32) | (fecha.toEpochDay() & 0xFFFF_FFFFL);
+    }
+
+    /**
+     * Oyente de cargarYSeguir. Mientras carga, guarda los avisos; cada shard,
+     * al acabar de leer y aún dentro de su transacción, apunta cuáles de los
+     * suyos ya estaban en su foto. Al empezar se suman los demás y desde ahí
+     * cada aviso va directo al cubo.
+     *
+     * Un aviso que llegase después de que su shard haya mirado se suma aunque
+     * el pedido estuviera en la foto; no pasa en la práctica, porque PedidoDAO
+     * avisa justo tras el commit y la carga de un shard dura mucho más.
+     */
+    private static final class Seguimiento implements Consumer<List<Pedido>> {
+        private final List<Pedido> pendientes = new ArrayList<>();
+        private final Set<Long> contados = new HashSet<>();
+        private CuboVentas cubo;
+
+        @Override
+        public synchronized void accept(List<Pedido> pedidos) {
+            if (cubo != null) {
+                cubo.registrar(pedidos);
+            } else {
+                pendientes.addAll(pedidos);
+            }
+        }
+
+        synchronized List<Pedido> pendientesDe(int shard) {
+            List<Pedido> out = new ArrayList<>();
+            for (Pedido p : pendientes) {
+                if (Db.shardDe(p.getClienteId()) == shard) {
+                    out.add(p);
+                }
+            }
+            return out;
+        }
+
+        synchronized void yaContados(Collection<Long> claves) {
+            contados.addAll(claves);
+        }
+
+        synchronized void empezar(CuboVentas cubo) {
+            List<Pedido> nuevos = new ArrayList<>(pendientes.size());
+            for (Pedido p : pendientes) {
+                if (!contados.contains(clave(p.getId(), p.getFecha()))) {
+                    nuevos.add(p);
+                }
+            }
+            cubo.registrar(nuevos);
+            pendientes.clear();
+            contados.clear();
+            this.cubo = cubo;
+        }
+    }
+
+    // =========================================================================
+    //  ALTAS INCREMENTALES
+    // =========================================================================
+
+    /** Suma al cubo los pedidos que se confirmen a partir de ahora en PedidoDAO. */
+    public void seguirInserciones() {
+        PedidoDAO.escuchar(oyente);
+    }
+
+    public void dejarDeSeguir() {
+        PedidoDAO.dejarDeEscuchar(oyente);
+    }
+
+    /** Suma unos pedidos al cubo (los pedidos deben ser nuevos, no re-altas). */
+    public void registrar(Collection<Pedido> pedidos) {
+        cerrojo.writeLock().lock();
+        try {
+            for (Pedido p : pedidos) {
+                long epochDia = p.getFecha().toEpochDay();
+                long centimosPedido = 0;
+                long cantidadPedido = 0;
+
+                for (DetallePedido d : p.getLineas()) {
+                    long centimos = Math.round(d.getPrecioUnit() * 100) * d.getCantidad();
+                    centimosPedido += centimos;
+                    cantidadPedido += d.getCantidad();
+
+                    if (epochDia < origen) {
+                        adelantarOrigen(epochDia);
+                    }
+                    porProducto.computeIfAbsent(d.getProductoId(), k -> new Fenwick(capacidadInicial))
+                            .sumar((int) (epochDia - origen), centimos, d.getCantidad());
+                }
+
+                if (cantidadPedido > 0) {
+                    porCliente.computeIfAbsent(p.getClienteId(), k -> new SerieDispersa())
+                            .sumar(epochDia, centimosPedido, cantidadPedido);
+                }
+            }
+        } finally {
+            cerrojo.writeLock().unlock();
+        }
+    }
+
+    /** Fecha anterior al día 0: se mueve el origen (con margen) y se rehacen los árboles. */
+    private void adelantarOrigen(long epochDia) {
+        long nuevo = epochDia - MARGEN_DIAS;
+        int desplazamiento = (int) (origen - nuevo);
+        for (Fenwick f : porProducto.values()) {
+            f.desplazar(desplazamiento);
+        }
+        origen = nuevo;
+    }
+
+    // =========================================================================
+    //  CONSULTAS
+    // =========================================================================
+
+    /** Ventas de un producto con fecha en [desde, hasta). */
+    public Ventas producto(int productoId, LocalDate desde, LocalDate hasta) {
+        cerrojo.readLock().lock();
+        try {
+            Fenwick f = porProducto.get(productoId);
+            if (f == null) {
+                return new Ventas(0, 0);
+            }
+            int a = dia(desde);
+            int b = dia(hasta);
+            return new Ventas(f.prefijo(f.centimos, b) - f.prefijo(f.centimos, a),
+                              f.prefijo(f.cantidad, b) - f.prefijo(f.cantidad, a));
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    /** Ventas a un cliente con fecha en [desde, hasta). */
+    public Ventas cliente(int clienteId, LocalDate desde, LocalDate hasta) {
+        cerrojo.readLock().lock();
+        try {
+            SerieDispersa s = porCliente.get(clienteId);
+            if (s == null) {
+                return new Ventas(0, 0);
+            }
+            int a = s.antesDe(desde.toEpochDay());
+            int b = s.antesDe(hasta.toEpochDay());
+            return new Ventas(s.acumulado(s.centimos, b) - s.acumulado(s.centimos, a),
+                              s.acumulado(s.cantidad, b) - s.acumulado(s.cantidad, a));
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    public int numProductos() {
+        cerrojo.readLock().lock();
+        try {
+            return porProducto.size();
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    public int numClientes() {
+        cerrojo.readLock().lock();
+        try {
+            return porCliente.size();
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    /** Día relativo al origen, recortado a >= 0 (antes del origen no hay ventas). */
+    private int dia(LocalDate fecha) {
+        long d = fecha.toEpochDay() - origen;
+        return (int) Math.max(0, Math.min(d, Integer.MAX_VALUE));
+    }
+
+    private static int potenciaDeDos(long n) {
+        int p = 64;
+        while (p < n) {
+            p <<= 1;
+        }
+        return p;
+    }
+
+    // =========================================================================
+    //  ÁRBOL DE FENWICK (un producto)
+    // =========================================================================
+
+    /**
+     * Sumas prefijas por día (índices 1..n, n potencia de dos). Mientras se
+     * carga guarda el valor de cada día tal cual; construir() lo convierte.
+     */
+    private static final class Fenwick {
+        private long[] centimos;
+        private long[] cantidad;
+
+        Fenwick(int n) {
+            centimos = new long[n + 1];
+            cantidad = new long[n + 1];
+        }
+
+        int capacidad() {
+            return centimos.length - 1;
+        }
+
+        /** Solo antes de construir(). */
+        void sumarPunto(int dia, long c, long u) {
+            centimos[dia + 1] += c;
+            cantidad[dia + 1] += u;
+        }
+
+        /** Solo antes de construir(): suma los valores por día de otro árbol. */
+        Fenwick sumarPuntos(Fenwick otro) {
+            for (int i = 1; i < centimos.length; i++) {
+                centimos[i] += otro.centimos[i];
+                cantidad[i] += otro.cantidad[i];
+            }
+            return this;
+        }
+
+        /** Valores por día → árbol, en O(n). */
+        void construir() {
+            construir(centimos);
+            construir(cantidad);
+        }
+
+        private static void construir(long[] t) {
+            for (int i = 1; i < t.length; i++) {
+                int j = i + (i & -i);
+                if (j < t.length) t[j] += t[i];
+            }
+        }
+
+        /** Árbol → valores por día (lo inverso de construir). */
+        private static void deshacer(long[] t) {
+            for (int i = t.length - 1; i >= 1; i--) {
+                int j = i + (i & -i);
+                if (j < t.length) t[j] -= t[i];
+            }
+        }
+
+        void sumar(int dia, long c, long u) {
+            while (dia >= capacidad()) {
+                crecer();
+            }
+            for (int i = dia + 1; i < centimos.length; i += i & -i) {
+                centimos[i] += c;
+                cantidad[i] += u;
+            }
+        }
+
+        /** Suma de los días [0, dias). */
+        long prefijo(long[] t, int dias) {
+            long s = 0;
+            for (int i = Math.min(dias, t.length - 1); i > 0; i -= i & -i) {
+                s += t[i];
+            }
+            return s;
+        }
+
+        /**
+         * Duplica la capacidad sin recalcular: con n potencia de dos, el nodo
+         * 2n cubre [1, 2n], que es el nodo n; los nuevos intermedios valen 0.
+         */
+        private void crecer() {
+            int n = capacidad();
+            centimos = Arrays.copyOf(centimos, 2 * n + 1);
+            cantidad = Arrays.copyOf(cantidad, 2 * n + 1);
+            centimos[2 * n] = centimos[n];
+            cantidad[2 * n] = cantidad[n];
+        }
+
+        /** Mueve todos los días k posiciones a la derecha (nuevo origen más antiguo). */
+        void desplazar(int k) {
+            centimos = desplazar(centimos, k);
+            cantidad = desplazar(cantidad, k);
+        }
+
+        private static long[] desplazar(long[] t, int k) {
+            deshacer(t);
+            long[] nuevo = new long[potenciaDeDos(t.length - 1 + (long) k) + 1];
+            System.arraycopy(t, 1, nuevo, 1 + k, t.length - 1);
+            construir(nuevo);
+            return nuevo;
+        }
+    }
+
+    // =========================================================================
+    //  SERIE DISPERSA (un cliente)
+    // =========================================================================
+
+    /** Días con compras (epochDay, ascendentes) y sumas acumuladas hasta cada uno. */
+    private static final class SerieDispersa {
+        private long[] dias = new long[4];
+        private long[] centimos = new long[4];
+        private long[] cantidad = new long[4];
+        private int n;
+
+        /** Número de días con compras anteriores a epochDia. */
+        int antesDe(long epochDia) {
+            int i = Arrays.binarySearch(dias, 0, n, epochDia);
+            return i >= 0 ? i : -i - 1;
+        }
+
+        /** Acumulado de los k primeros días. */
+        long acumulado(long[] acum, int k) {
+            return k == 0 ? 0 : acum[k - 1];
+        }
+
+        void sumar(long epochDia, long c, long u) {
+            int i = antesDe(epochDia);
+            if (i == n || dias[i] != epochDia) {
+                if (n == dias.length) {
+                    int cap = n * 2;
+                    dias = Arrays.copyOf(dias, cap);
+                    centimos = Arrays.copyOf(centimos, cap);
+                    cantidad = Arrays.copyOf(cantidad, cap);
+                }
+                // Hueco para el día nuevo; hereda el acumulado del anterior.
+                System.arraycopy(dias, i, dias, i + 1, n - i);
+                System.arraycopy(centimos, i, centimos, i + 1, n - i);
+                System.arraycopy(cantidad, i, cantidad, i + 1, n - i);
+                dias[i] = epochDia;
+                centimos[i] = acumulado(centimos, i);
+                cantidad[i] = acumulado(cantidad, i);
+                n++;
+            }
+            for (int j = i; j < n; j++) {
+                centimos[j] += c;
+                cantidad[j] += u;
+            }
+        }
+    }
+
+    // =========================================================================
+    //  LÍNEA DE COMANDOS
+    // =========================================================================
+
+    /**
+     * CuboVentas (producto|cliente) &lt;id&gt; &lt;desde AAAA-MM-DD&gt; &lt;hasta AAAA-MM-DD&gt;
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4 || !(args[0].equals("producto") || args[0].equals("cliente"))) {
+            System.err.println("Uso: CuboVentas (producto|cliente) <id> <desde> <hasta>");
+            System.exit(2);
+        }
+
+        long t0 = System.nanoTime();
+        CuboVentas cubo = cargar();
+        long ms = (System.nanoTime() - t0) / 1_000_000;
+        System.out.printf("Cubo cargado en %d ms: %d productos, %d clientes%n",
+                ms, cubo.numProductos(), cubo.numClientes());
+
+        int id = Integer.parseInt(args[1]);
+        LocalDate desde = LocalDate.parse(args[2]);
+        LocalDate hasta = LocalDate.parse(args[3]);
+
+        t0 = System.nanoTime();
+        Ventas v = args[0].equals("producto") ? cubo.producto(id, desde, hasta) : cubo.cliente(id, desde, hasta);
+        long micros = (System.nanoTime() - t0) / 1_000;
+        System.out.printf("%s %d [%s, %s): %s en %d µs%n", args[0], id, desde, hasta, v, micros);
+    }
+}
@@ -0,0 +1,572 @@
+package services;
+
+import dao.ClienteDAO;
+import model.InstantaneaClientes;
+import model.OrdenFilas;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.text.Normalizer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * Proceso por lotes que busca clientes duplicados (misma persona con el
+ * email en otras mayúsculas, con puntos o +etiquetas, o con el nombre mal
+ * escrito) y escribe un informe CSV de candidatos a fusionar.
+ *
+ * Comparar todos con todos es O(n²). En su lugar:
+ *  1. Se normalizan emails y nombres (en paralelo).
+ *  2. Se hacen varias pasadas, cada una con su clave:
+ *     - EMAIL: bloqueo por email normalizado; se comparan todos los del
+ *       mismo bloque (hasta maxBloque, después solo la ventana).
+ *     - NOMBRE y NOMBRE_INVERSO: vecindad ordenada (sorted neighbourhood):
+ *       se ordena por la clave y cada fila se compara con las ventana
+ *       siguientes. La clave invertida encuentra erratas al principio.
+ *  3. Las comparaciones de cada pasada se reparten con fork/join por tramos
+ *     del orden; cada par se puntúa (Jaro-Winkler de nombre y email).
+ *  4. Los pares por encima del umbral se agrupan (union-find) en grupos de
+ *     posibles duplicados; se propone conservar el id más bajo.
+ *
+ * Trabaja sobre la instantánea columnar de clientes, así que no necesita un
+ * objeto Cliente por fila aunque haya millones.
+ *
+ * Uso: DeteccionDuplicados &lt;informe.csv&gt; [--ventana N] [--umbral X] [--hilos N]
+ */
+public class DeteccionDuplicados {
+
+    private enum Pasada { EMAIL, NOMBRE, NOMBRE_INVERSO }
+
+    private static final Pattern MARCAS = Pattern.compile("\\p{M}+");
+    private static final Pattern NO_LETRAS = Pattern.compile("[^a-z0-9 ]+");
+    private static final Pattern ESPACIOS = Pattern.compile(" {2,}");
+
+    /** Tramo de posiciones por debajo del cual una tarea fork/join ya no se divide. */
+    private static final int TRAMO_MINIMO = 8_192;
+
+    private final ClienteDAO clienteDAO = new ClienteDAO();
+
+    private final int ventana;
+    private final double umbral;
+    private final int maxBloque;
+    private final ForkJoinPool pool;
+
+    // Datos normalizados (por fila de la instantánea)
+    private InstantaneaClientes clientes;
+    private String[] emails;      // email normalizado ("" si no tiene)
+    private String[] nombres;     // nombre normalizado
+    private final LongAdder comparaciones = new LongAdder();
+
+    public DeteccionDuplicados(int ventana, double umbral, int maxBloque, int hilos) {
+        this.ventana = ventana;
+        this.umbral = umbral;
+        this.maxBloque = maxBloque;
+        this.pool = new ForkJoinPool(hilos);
+    }
+
+    /** Ventana 8, umbral 0,88, bloques de hasta 200, todos los núcleos. */
+    public DeteccionDuplicados() {
+        this(8, 0.88, 200, Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Resumen de una ejecución, con tiempos por fase y throughput. */
+    public static final class Resultado {
+        private long clientes;
+        private long comparaciones;
+        private long pares;
+        private long grupos;
+        private long clientesEnGrupos;
+        private long nanosCarga, nanosNormalizar, nanosComparar, nanosInforme;
+        private int hilos;
+
+        public long getClientes() { return clientes; }
+        public long getComparaciones() { return comparaciones; }
+        public long getPares() { return pares; }
+        public long getGrupos() { return grupos; }
+
+        public long nanosTotales() {
+            return nanosCarga + nanosNormalizar + nanosComparar + nanosInforme;
+        }
+
+        @Override public String toString() {
+            return ("""
+                    %,d clientes, %d hilos → %,d grupos de posibles duplicados (%,d clientes, %,d pares)
+                      carga        %6.1f s (%,.0f clientes/s)
+                      normalizar   %6.1f s (%,.0f clientes/s)
+                      comparar     %6.1f s (%,d comparaciones, %,.0f comparaciones/s)
+                      informe      %6.1f s
+                      total        %6.1f s (%,.0f clientes/s)""")
+                    .formatted(clientes, hilos, grupos, clientesEnGrupos, pares,
+                            nanosCarga / 1e9, porSegundo(clientes, nanosCarga),
+                            nanosNormalizar / 1e9, porSegundo(clientes, nanosNormalizar),
+                            nanosComparar / 1e9, comparaciones, porSegundo(comparaciones, nanosComparar),
+                            nanosInforme / 1e9,
+                            nanosTotales() / 1e9, porSegundo(clientes, nanosTotales()));
+        }
+
+        private static double porSegundo(long n, long nanos) {
+            return nanos == 0 ? 0 : n * 1e9 / nanos;
+        }
+    }
+
+    // =========================================================================
+    //  PROCESO COMPLETO
+    // =========================================================================
+
+    /**
+     * Carga todos los clientes, busca duplicados y escribe el informe.
+     */
+    public Resultado ejecutar(Path informe) throws SQLException, IOException {
+        Resultado r = new Resultado();
+        r.hilos = pool.getParallelism();
+
+        long t0 = System.nanoTime();
+        clientes = clienteDAO.cargarInstantanea();
+        r.clientes = clientes.tamano();
+        long t1 = System.nanoTime();
+        r.nanosCarga = t1 - t0;
+
+        normalizar();
+        long t2 = System.nanoTime();
+        r.nanosNormalizar = t2 - t1;
+
+        comparaciones.reset();
+        Pares pares = new Pares();
+        for (Pasada p : Pasada.values()) {
+            pares.agregar(pasada(p));
+        }
+        pares.quitarRepetidos();
+        r.comparaciones = comparaciones.sum();
+        r.pares = pares.n;
+        long t3 = System.nanoTime();
+        r.nanosComparar = t3 - t2;
+
+        List<int[]> grupos = agrupar(pares);
+        r.grupos = grupos.size();
+        r.clientesEnGrupos = grupos.stream().mapToLong(g -> g.length).sum();
+        escribirInforme(informe, grupos, pares);
+        r.nanosInforme = System.nanoTime() - t3;
+
+        return r;
+    }
+
+    // =========================================================================
+    //  NORMALIZACIÓN
+    // =========================================================================
+
+    private void normalizar() {
+        int n = clientes.tamano();
+        emails = new String[n];
+        nombres = new String[n];
+        pool.submit(() -> IntStream.range(0, n).parallel().forEach(f -> {
+            emails[f] = normalizarEmail(clientes.email(f));
+            nombres[f] = normalizarNombre(clientes.nombre(f));
+        })).join();
+    }
+
+    /**
+     * minúsculas, sin espacios, sin "+etiqueta" y sin puntos en la parte local
+     * (como hace Gmail): "Ana.Lopez+tienda@Gmail.com" → "analopez@gmail.com".
+     */
+    static String normalizarEmail(String email) {
+        if (email == null) {
+            return "";
+        }
+        String e = email.trim().toLowerCase(Locale.ROOT);
+        int arroba = e.lastIndexOf('@');
+        if (arroba < 0) {
+            return e;
+        }
+        String local = e.substring(0, arroba);
+        int mas = local.indexOf('+');
+        if (mas >= 0) {
+            local = local.substring(0, mas);
+        }
+        return local.replace(".", "") + e.substring(arroba);
+    }
+
+    /** minúsculas, sin acentos ni signos, espacios simples: "José  Gª-Pérez" → "jose g perez". */
+    static String normalizarNombre(String nombre) {
+        if (nombre == null) {
+            return "";
+        }
+        String s = Normalizer.normalize(nombre.toLowerCase(Locale.ROOT), Normalizer.Form.NFD);
+        s = MARCAS.matcher(s).replaceAll("");
+        s = NO_LETRAS.matcher(s).replaceAll(" ");
+        return ESPACIOS.matcher(s).replaceAll(" ").trim();
+    }
+
+    // =========================================================================
+    //  PASADAS (bloqueo + vecindad ordenada) CON FORK/JOIN
+    // =========================================================================
+
+    private Pares pasada(Pasada p) {
+        int n = clientes.tamano();
+        String[] claves = switch (p) {
+            case EMAIL -> emails;
+            case NOMBRE -> nombres;
+            case NOMBRE_INVERSO -> invertidas(nombres);
+        };
+
+        // Orden de filas por clave sobre un int[] (sin un Integer por fila).
+        int[] filas = new int[n];
+        for (int i = 0; i < n; i++) {
+            filas[i] = i;
+        }
+        OrdenFilas.ordenarEnParalelo(filas, (a, b) -> claves[a].compareTo(claves[b]), pool);
+
+        return pool.invoke(new Comparar(p, filas, claves, 0, n));
+    }
+
+    private String[] invertidas(String[] s) {
+        String[] out = new String[s.length];
+        pool.submit(() -> IntStream.range(0, s.length).parallel()
+                .forEach(i -> out[i] = new StringBuilder(s[i]).reverse().toString())).join();
+        return out;
+    }
+
+    /** Compara las posiciones [desde, hasta) del orden con sus vecinas. */
+    private final class Comparar extends RecursiveTask<Pares> {
+        private static final long serialVersionUID = 1L;
+
+        private final Pasada pasada;
+        private final int[] filas;
+        private final String[] claves;
+        private final int desde, hasta;
+
+        Comparar(Pasada pasada, int[] filas, String[] claves, int desde, int hasta) {
+            this.pasada = pasada; this.filas = filas; this.claves = claves;
+            this.desde = desde; this.hasta = hasta;
+        }
+
+        @Override
+        protected Pares compute() {
+            if (hasta - desde > TRAMO_MINIMO) {
+                int medio = (desde + hasta) >>> 1;
+                Comparar izq = new Comparar(pasada, filas, claves, desde, medio);
+                izq.fork();
+                Pares der = new Comparar(pasada, filas, claves, medio, hasta).compute();
+                Pares out = izq.join();
+                out.agregar(der);
+                return out;
+            }
+
+            Pares out = new Pares();
+            long hechas = 0;
+            int n = filas.length;
+            for (int i = desde; i < hasta; i++) {
+                int a = filas[i];
+                if (claves[a].isEmpty()) {
+                    continue;
+                }
+                int limite = Math.min(n, i + 1 + ventana);
+                if (pasada == Pasada.EMAIL) {
+                    // Bloque: todos los que comparten email normalizado (con tope).
+                    int finBloque = i + 1;
+                    while (finBloque < n && finBloque - i <= maxBloque
+                            && claves[filas[finBloque]].equals(claves[a])) {
+                        finBloque++;
+                    }
+                    limite = Math.max(limite, finBloque);
+                }
+                for (int j = i + 1; j < limite; j++) {
+                    int b = filas[j];
+                    double s = puntuar(a, b);
+                    hechas++;
+                    if (s >= umbral) {
+                        out.agregar(a, b, (float) s);
+                    }
+                }
+            }
+            comparaciones.add(hechas);
+            return out;
+        }
+    }
+
+    // =========================================================================
+    //  PUNTUACIÓN
+    // =========================================================================
+
+    /** Similitud 0..1 entre dos filas. */
+    double puntuar(int a, int b) {
+        double nombre = jaroWinkler(nombres[a], nombres[b]);
+        String ea = emails[a], eb = emails[b];
+
+        if (!ea.isEmpty() && ea.equals(eb)) {
+            // Mismo email normalizado: casi seguro la misma persona.
+            return Math.max(0.9, 0.5 + 0.5 * nombre);
+        }
+
+        double email = similitudEmail(ea, eb);
+        return 0.5 * email + 0.5 * nombre;
+    }
+
+    private static double similitudEmail(String a, String b) {
+        if (a.isEmpty() || b.isEmpty()) {
+            return 0;
+        }
+        int aa = a.lastIndexOf('@'), ab = b.lastIndexOf('@');
+        String la = aa < 0 ? a : a.substring(0, aa);
+        String lb = ab < 0 ? b : b.substring(0, ab);
+        double s = jaroWinkler(la, lb);
+        // Números distintos en la parte local ("ana.lopez12" / "ana.lopez873")
+        // suelen ser personas distintas con el mismo nombre.
+        if (!digitos(la).equals(digitos(lb))) {
+            s *= 0.5;
+        }
+        boolean mismoDominio = aa >= 0 && ab >= 0 && a.substring(aa).equals(b.substring(ab));
+        return mismoDominio ? s : 0.9 * s;
+    }
+
+    private static String digitos(String s) {
+        StringBuilder sb = new StringBuilder(4);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /** Similitud de Jaro-Winkler (0..1), con prefijo común de hasta 4. */
+    static double jaroWinkler(String s, String t) {
+        int ls = s.length(), lt = t.length();
+        if (ls == 0 || lt == 0) {
+            return (ls == lt) ? 1 : 0;
+        }
+        if (s.equals(t)) {
+            return 1;
+        }
+
+        int rango = Math.max(0, Math.max(ls, lt) / 2 - 1);
+        boolean[] us = new boolean[ls];
+        boolean[] ut = new boolean[lt];
+        int coinciden = 0;
+        for (int i = 0; i < ls; i++) {
+            int ini = Math.max(0, i - rango), fin = Math.min(lt, i + rango + 1);
+            for (int j = ini; j < fin; j++) {
+                if (!ut[j] && s.charAt(i) == t.charAt(j)) {
+                    us[i] = ut[j] = true;
+                    coinciden++;
+                    break;
+                }
+            }
+        }
+        if (coinciden == 0) {
+            return 0;
+        }
+
+        int trasp = 0;
+        for (int i = 0, j = 0; i < ls; i++) {
+            if (!us[i]) continue;
+            while (!ut[j]) j++;
+            if (s.charAt(i) != t.charAt(j)) trasp++;
+            j++;
+        }
+        double m = coinciden;
+        double jaro = (m / ls + m / lt + (m - trasp / 2.0) / m) / 3.0;
+
+        int prefijo = 0;
+        while (prefijo < Math.min(4, Math.min(ls, lt)) && s.charAt(prefijo) == t.charAt(prefijo)) {
+            prefijo++;
+        }
+        return jaro + prefijo * 0.1 * (1 - jaro);
+    }
+
+    // =========================================================================
+    //  PARES Y GRUPOS
+    // =========================================================================
+
+    /** Lista creciente de pares (filaMenor, filaMayor) con su puntuación. */
+    private static final class Pares {
+        long[] par = new long[64];
+        float[] puntos = new float[64];
+        int n;
+
+        void agregar(int a, int b, float s) {
+            if (n == par.length) {
+                par = Arrays.copyOf(par, n * 2);
+                puntos = Arrays.copyOf(puntos, n * 2);
+            }
+            par[n] = ((long) Math.min(a, b) << 32) | Math.max(a, b);
+            puntos[n] = s;
+            n++;
+        }
+
+        void agregar(Pares otros) {
+            for (int i = 0; i < otros.n; i++) {
+                if (n == par.length) {
+                    par = Arrays.copyOf(par, Math.max(n * 2, n + otros.n));
+                    puntos = Arrays.copyOf(puntos, par.length);
+                }
+                par[n] = otros.par[i];
+                puntos[n] = otros.puntos[i];
+                n++;
+            }
+        }
+
+        /** Ordena por par y deja uno solo (el de mayor puntuación) de cada. */
+        void quitarRepetidos() {
+            int[] idx = new int[n];
+            for (int i = 0; i < n; i++) idx[i] = i;
+            OrdenFilas.ordenar(idx, (x, y) -> {
+                int c = Long.compare(par[x], par[y]);
+                return (c != 0) ? c : Float.compare(puntos[y], puntos[x]);   // mayor puntuación primero
+            });
+            long[] p2 = new long[n];
+            float[] s2 = new float[n];
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                long v = par[idx[i]];
+                if (k > 0 && p2[k - 1] == v) continue;
+                p2[k] = v;
+                s2[k] = puntos[idx[i]];
+                k++;
+            }
+            par = p2;
+            puntos = s2;
+            n = k;
+        }
+
+        int a(int i) { return (int) (par[i] >>> 32); }
+        int b(int i) { return (int) par[i]; }
+    }
+
+    /** Union-find sobre los pares: cada grupo es una lista de filas ordenada. */
+    private List<int[]> agrupar(Pares pares) {
+        int n = clientes.tamano();
+        int[] padre = new int[n];
+        for (int i = 0; i < n; i++) padre[i] = i;
+
+        for (int i = 0; i < pares.n; i++) {
+            int ra = raiz(padre, pares.a(i)), rb = raiz(padre, pares.b(i));
+            if (ra != rb) padre[Math.max(ra, rb)] = Math.min(ra, rb);
+        }
+
+        // Agrupa las filas por raíz (solo las que tienen algún par).
+        int[] tam = new int[n];
+        for (int i = 0; i < pares.n; i++) {
+            tam[raiz(padre, pares.a(i))] = -1;   // marca raíces con pares
+        }
+        List<int[]> grupos = new ArrayList<>();
+        int[] grupoDe = new int[n];
+        Arrays.fill(grupoDe, -1);
+        int[] cuenta = new int[n];
+        for (int f = 0; f < n; f++) {
+            int r = raiz(padre, f);
+            if (tam[r] == -1) cuenta[r]++;
+        }
+        for (int f = 0; f < n; f++) {
+            if (tam[f] == -1) {
+                grupoDe[f] = grupos.size();
+                grupos.add(new int[cuenta[f]]);
+                cuenta[f] = 0;
+            }
+        }
+        for (int f = 0; f < n; f++) {
+            int r = raiz(padre, f);
+            if (grupoDe[r] >= 0) {
+                grupos.get(grupoDe[r])[cuenta[r]++] = f;
+            }
+        }
+        return grupos;
+    }
+
+    private static int raiz(int[] padre, int x) {
+        while (padre[x] != x) {
+            padre[x] = padre[padre[x]];
+            x = padre[x];
+        }
+        return x;
+    }
+
+    // =========================================================================
+    //  INFORME
+    // =========================================================================
+
+    /**
+     * CSV con una línea por cliente implicado:
+     * grupo, id, superviviente (id más bajo del grupo), mejor puntuación del
+     * cliente dentro del grupo, nombre y email originales.
+     */
+    private void escribirInforme(Path destino, List<int[]> grupos, Pares pares) throws IOException {
+        float[] mejor = new float[clientes.tamano()];
+        for (int i = 0; i < pares.n; i++) {
+            mejor[pares.a(i)] = Math.max(mejor[pares.a(i)], pares.puntos[i]);
+            mejor[pares.b(i)] = Math.max(mejor[pares.b(i)], pares.puntos[i]);
+        }
+
+        Path tmp = destino.resolveSibling(destino.getFileName() + ".tmp");
+        try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            w.write("grupo,id,superviviente,puntuacion,nombre,email\n");
+            int g = 0;
+            for (int[] grupo : grupos) {
+                g++;
+                int superviviente = clientes.id(grupo[0]);   // filas en orden de id
+                for (int f : grupo) {
+                    w.write(g + "," + clientes.id(f) + "," + superviviente + ","
+                            + String.format(Locale.ROOT, "%.3f", mejor[f]) + ",");
+                    w.write(csv(clientes.nombre(f)));
+                    w.write(',');
+                    w.write(csv(clientes.email(f)));
+                    w.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String csv(String s) {
+        if (s == null) {
+            return "";
+        }
+        return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+
+    // =========================================================================
+    //  LÍNEA DE COMANDOS
+    // =========================================================================
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Uso: DeteccionDuplicados <informe.csv> [--ventana N] [--umbral X] [--hilos N]");
+            System.exit(2);
+        }
+
+        Path informe = Path.of(args[0]);
+        int ventana = 8;
+        double umbral = 0.88;
+        int hilos = Runtime.getRuntime().availableProcessors();
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--ventana" -> ventana = Integer.parseInt(args[++i]);
+                case "--umbral" -> umbral = Double.parseDouble(args[++i]);
+                case "--hilos" -> hilos = Integer.parseInt(args[++i]);
+                default -> throw new IllegalArgumentException("Opción desconocida: " + args[i]);
+            }
+        }
+
+        Resultado r = new DeteccionDuplicados(ventana, umbral, 200, hilos).ejecutar(informe);
+        String resumen = "=== Detección de duplicados %s (ventana %d, umbral %.2f) ===%n%s%n"
+                .formatted(LocalDateTime.now(), ventana, umbral, r);
+        System.out.print(resumen);
+        Files.writeString(Path.of("resultados-duplicados.txt"), resumen + System.lineSeparator(),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+}
@@ -0,0 +1,455 @@
+package services;
+
+import dao.ClienteDAO;
+import dao.ConflictoVersionException;
+import dao.DetalleClienteDAO;
+import db.ControlAdmision;
+import db.ControlAdmision.Clase;
+import db.Db;
+import db.Shards;
+import db.SobrecargaException;
+import model.Cliente;
+import model.DetalleCliente;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Modo "write-behind": las escrituras se encolan en memoria y un hilo de fondo
+ * las confirma en lotes, en una transacción por lote.
+ *
+ *  - Cola acotada por número de ids pendientes. Si está llena, quien escribe
+ *    espera (backpressure) hasta esperaMaxima; después la escritura se rechaza.
+ *    Con esperaMaxima 0 se rechaza al momento, sin bloquear (para llamar
+ *    desde el hilo de JavaFX).
+ *  - Varias escrituras sobre el mismo id se fusionan: solo viaja la última.
+ *  - El lote se vacía al llegar a tamLote o cuando la escritura más antigua
+ *    lleva intervalo esperando.
+ *  - Cada escritura devuelve un CompletableFuture que se completa cuando su
+ *    lote se confirma (o falla con la excepción de la BD). Un
+ *    actualizarDetalle de un cliente sin detalle falla con SQLException.
+ *  - Bloqueo optimista, como ClienteDetalle.actualizarClienteCompleto: cada
+ *    fila solo se escribe si sigue en la versión que traen el cliente y el
+ *    detalle (0 si son nuevos). Si otro la ha cambiado, ese futuro falla con
+ *    ConflictoVersionException (con la fila actual) y no se guarda nada de ese
+ *    id; el resto del lote sí. Los objetos confirmados quedan con la versión nueva.
+ *  - close() (y un shutdown hook de respaldo) vacía la cola antes de salir.
+ *
+ * Si un lote falla, se reintenta cliente a cliente para que el error llegue
+ * solo a las escrituras culpables.
+ */
+public class EscrituraDiferida implements AutoCloseable {
+
+    /** Escrituras pendientes de un mismo id, ya fusionadas. */
+    private static final class Pendiente {
+        final int id;
+        final long desde = System.nanoTime();
+        Cliente cliente;          // null = no se toca la fila de cliente
+        DetalleCliente detalle;   // null = no se toca el detalle
+        boolean sinDetalle;       // update de solo detalle que no ha encontrado la fila
+        ConflictoVersionException conflicto;   // otro ha cambiado la fila: no se escribe
+        final List<CompletableFuture<Void>> futuros = new ArrayList<>(1);
+
+        Pendiente(int id) {
+            this.id = id;
+        }
+    }
+
+    private final ClienteDAO clienteDAO = new ClienteDAO();
+    private final DetalleClienteDAO detalleClienteDAO = new DetalleClienteDAO();
+
+    private final int capacidad;
+    private final int tamLote;
+    private final long intervaloNanos;
+    private final long esperaMaximaNanos;
+
+    private final ReentrantLock cerrojo = new ReentrantLock();
+    private final Condition hayTrabajo = cerrojo.newCondition();
+    private final Condition hayHueco = cerrojo.newCondition();
+    private final Condition vacia = cerrojo.newCondition();
+
+    // Orden de llegada: el primero es el más antiguo.
+    private final LinkedHashMap<Integer, Pendiente> pendientes = new LinkedHashMap<>();
+    private boolean escribiendo;
+    private boolean forzar;       // vaciar(): no esperar al intervalo
+    private boolean cerrada;
+
+    private final Thread volcador;
+    private final Thread ganchoApagado;
+
+    // Estadísticas
+    private long escrituras;
+    private long fusionadas;
+    private long lotes;
+
+    public EscrituraDiferida(int capacidad, int tamLote, long intervaloMillis, long esperaMaximaMillis) {
+        this.capacidad = capacidad;
+        this.tamLote = tamLote;
+        this.intervaloNanos = TimeUnit.MILLISECONDS.toNanos(intervaloMillis);
+        this.esperaMaximaNanos = TimeUnit.MILLISECONDS.toNanos(esperaMaximaMillis);
+
+        this.volcador = new Thread(this::bucle, "escritura-diferida");
+        this.volcador.setDaemon(true);
+        this.volcador.start();
+
+        this.ganchoApagado = new Thread(this::close, "escritura-diferida-apagado");
+        Runtime.getRuntime().addShutdownHook(ganchoApagado);
+    }
+
+    /** Configuración por defecto: 10.000 ids en cola, lotes de 500, cada 200 ms. */
+    public EscrituraDiferida() {
+        this(10_000, 500, 200, 5_000);
+    }
+
+    // =========================================================================
+    //  API PÚBLICA
+    // =========================================================================
+
+    /** Inserta o actualiza cliente + detalle (upsert). */
+    public CompletableFuture<Void> guardar(Cliente c, DetalleCliente d) {
+        return encolar(c.getId(), c, d);
+    }
+
+    /**
+     * Actualiza solo el detalle (equivalente diferido de DetalleClienteDAO.update).
+     * Si el cliente no tiene fila de detalle, el futuro falla: no se crea.
+     */
+    public CompletableFuture<Void> actualizarDetalle(DetalleCliente d) {
+        return encolar(d.getId(), null, d);
+    }
+
+    public int pendientes() {
+        cerrojo.lock();
+        try {
+            return pendientes.size();
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    public String estadisticas() {
+        cerrojo.lock();
+        try {
+            return "Escritura diferida: %d escrituras, %d fusionadas, %d lotes, %d pendientes"
+                    .formatted(escrituras, fusionadas, lotes, pendientes.size());
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    /** Espera a que se confirme todo lo encolado hasta ahora. */
+    public void vaciar() throws InterruptedException {
+        cerrojo.lock();
+        try {
+            forzar = true;
+            hayTrabajo.signal();
+            while (!pendientes.isEmpty() || escribiendo) {
+                vacia.await();
+            }
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Deja de aceptar escrituras y confirma todas las pendientes antes de volver.
+     */
+    @Override
+    public void close() {
+        cerrojo.lock();
+        try {
+            if (cerrada) {
+                return;
+            }
+            cerrada = true;
+            hayTrabajo.signal();
+            hayHueco.signalAll();
+        } finally {
+            cerrojo.unlock();
+        }
+
+        try {
+            volcador.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (Thread.currentThread() != ganchoApagado) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(ganchoApagado);
+            } catch (IllegalStateException yaApagando) {
+                // La JVM ya se está cerrando: no hay nada que quitar.
+            }
+        }
+    }
+
+    // =========================================================================
+    //  COLA
+    // =========================================================================
+
+    private CompletableFuture<Void> encolar(Integer id, Cliente c, DetalleCliente d) {
+        CompletableFuture<Void> futuro = new CompletableFuture<>();
+
+        cerrojo.lock();
+        try {
+            long limite = System.nanoTime() + esperaMaximaNanos;
+            while (!cerrada && !pendientes.containsKey(id) && pendientes.size() >= capacidad) {
+                long resta = limite - System.nanoTime();
+                if (resta <= 0) {
+                    futuro.completeExceptionally(new RejectedExecutionException(
+                            "Cola de escritura llena (" + capacidad + " pendientes)"));
+                    return futuro;
+                }
+                try {
+                    hayHueco.awaitNanos(resta);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    futuro.completeExceptionally(e);
+                    return futuro;
+                }
+            }
+            if (cerrada) {
+                futuro.completeExceptionally(new RejectedExecutionException("Escritura diferida cerrada"));
+                return futuro;
+            }
+
+            Pendiente p = pendientes.get(id);
+            if (p == null) {
+                p = new Pendiente(id);
+                pendientes.put(id, p);
+            } else {
+                fusionadas++;
+            }
+            if (c != null) p.cliente = c;
+            if (d != null) p.detalle = d;
+            p.futuros.add(futuro);
+            escrituras++;
+
+            // Despertamos al volcador con la primera escritura (arranca el reloj
+            // del intervalo) y al completar un lote.
+            if (pendientes.size() == 1 || pendientes.size() >= tamLote) {
+                hayTrabajo.signal();
+            }
+        } finally {
+            cerrojo.unlock();
+        }
+
+        return futuro;
+    }
+
+    /** Hilo de fondo: espera a que toque vaciar un lote y lo escribe. */
+    private void bucle() {
+        while (true) {
+            List<Pendiente> lote;
+
+            cerrojo.lock();
+            try {
+                while (true) {
+                    if (pendientes.isEmpty()) {
+                        escribiendo = false;
+                        forzar = false;
+                        vacia.signalAll();
+                        if (cerrada) {
+                            return;
+                        }
+                        hayTrabajo.awaitUninterruptibly();
+                        continue;
+                    }
+                    if (cerrada || forzar || pendientes.size() >= tamLote) {
+                        break;
+                    }
+                    long edad = System.nanoTime() - pendientes.values().iterator().next().desde;
+                    if (edad >= intervaloNanos) {
+                        break;
+                    }
+                    try {
+                        hayTrabajo.awaitNanos(intervaloNanos - edad);
+                    } catch (InterruptedException ignorada) {
+                        // Seguimos: solo se sale al cerrar y con la cola vacía.
+                    }
+                }
+
+                lote = new ArrayList<>(Math.min(tamLote, pendientes.size()));
+                Iterator<Pendiente> it = pendientes.values().iterator();
+                while (it.hasNext() && lote.size() < tamLote) {
+                    lote.add(it.next());
+                    it.remove();
+                }
+                escribiendo = true;
+                lotes++;
+                hayHueco.signalAll();
+            } finally {
+                cerrojo.unlock();
+            }
+
+            escribirLote(lote);
+        }
+    }
+
+    // =========================================================================
+    //  ESCRITURA EN BD
+    // =========================================================================
+
+    private void escribirLote(List<Pendiente> lote) {
+        try {
+            escribir(lote);
+            for (Pendiente p : lote) {
+                if (p.conflicto != null) {
+                    p.futuros.forEach(f -> f.completeExceptionally(p.conflicto));
+                } else if (p.sinDetalle) {
+                    SQLException e = new SQLException("El cliente " + p.id + " no tiene detalle que actualizar");
+                    p.futuros.forEach(f -> f.completeExceptionally(e));
+                } else {
+                    p.futuros.forEach(f -> f.complete(null));
+                }
+            }
+        } catch (SQLException e) {
+            // Con la BD sobrecargada no se reintenta uno a uno: también se rechazaría.
+            if (lote.size() == 1 || e instanceof SobrecargaException) {
+                lote.forEach(p -> p.futuros.forEach(f -> f.completeExceptionally(e)));
+                return;
+            }
+            // Reintento uno a uno: el error solo llega a quien lo ha provocado.
+            for (Pendiente p : lote) {
+                escribirLote(List.of(p));
+            }
+        } catch (RuntimeException e) {
+            lote.forEach(p -> p.futuros.forEach(f -> f.completeExceptionally(e)));
+        }
+    }
+
+    private void escribir(List<Pendiente> lote) throws SQLException {
+        // Una transacción por shard. Si alguna falla, el lote entero se reintenta
+        // uno a uno: lo ya confirmado vuelve con la versión nueva y no choca
+        // consigo mismo (su Pendiente ya lleva esa versión).
+        List<List<Pendiente>> grupos = Shards.agrupar(lote, p -> p.id);
+        ControlAdmision.ejecutar(Clase.ESCRITURA, () -> Shards.enTodos(shard -> {
+            if (!grupos.get(shard).isEmpty()) {
+                escribir(shard, grupos.get(shard));
+            }
+            return null;
+        }));
+    }
+
+    /**
+     * Escribe el grupo de un shard en una transacción. Si alguna fila tiene
+     * conflicto de versión se deshace todo, se apartan los ids en conflicto
+     * (para no guardar la mitad de ninguno) y se repite con el resto.
+     */
+    private void escribir(int shard, List<Pendiente> lote) throws SQLException {
+        List<Pendiente> quedan = new ArrayList<>(lote);
+        for (Pendiente p : lote) {
+            p.conflicto = null;
+            p.sinDetalle = false;
+        }
+
+        EventoTransaccion evento = new EventoTransaccion();
+        evento.operacion = "escrituraDiferida";
+        evento.elementos = lote.size();
+        evento.begin();
+
+        try (Connection con = Db.getConnection(shard)) {
+
+            con.setAutoCommit(false);
+
+            try {
+                while (!quedan.isEmpty()) {
+                    List<ConflictoVersionException> conflictos = new ArrayList<>();
+                    List<Integer> versiones = versiones(quedan);
+                    Set<Integer> actualizados;
+                    try {
+                        actualizados = escribirVersionado(quedan, con, conflictos);
+                    } catch (SQLException e) {
+                        restaurarVersiones(quedan, versiones);
+                        throw e;
+                    }
+
+                    if (conflictos.isEmpty()) {
+                        con.commit();
+                        for (Pendiente p : quedan) {
+                            p.sinDetalle = p.cliente == null && !actualizados.contains(p.id);
+                        }
+                        ClienteDAO.marcarCambios();
+                        evento.confirmada = true;
+                        break;
+                    }
+
+                    con.rollback();
+                    restaurarVersiones(quedan, versiones);
+                    for (ConflictoVersionException c : conflictos) {
+                        for (Iterator<Pendiente> it = quedan.iterator(); it.hasNext(); ) {
+                            Pendiente p = it.next();
+                            if (p.id == c.getId()) {
+                                if (p.conflicto == null) p.conflicto = c;
+                                it.remove();
+                            }
+                        }
+                    }
+                }
+
+            } catch (SQLException e) {
+                con.rollback();
+                throw e;
+            } finally {
+                con.setAutoCommit(true);
+            }
+        } finally {
+            evento.commit();
+        }
+    }
+
+    /**
+     * Las sentencias del grupo, con la versión de cada fila. Devuelve los ids
+     * de solo detalle que se han actualizado (los demás no tienen detalle).
+     */
+    private Set<Integer> escribirVersionado(List<Pendiente> lote, Connection con,
+                                            List<ConflictoVersionException> conflictos) throws SQLException {
+        List<Cliente> clientes = new ArrayList<>();
+        List<DetalleCliente> detallesNuevos = new ArrayList<>();    // junto a su cliente → upsert
+        List<DetalleCliente> detallesEditados = new ArrayList<>();  // solo detalle → update
+
+        for (Pendiente p : lote) {
+            if (p.cliente != null) {
+                clientes.add(p.cliente);
+                if (p.detalle != null) detallesNuevos.add(p.detalle);
+            } else if (p.detalle != null) {
+                detallesEditados.add(p.detalle);
+            }
+        }
+
+        clienteDAO.upsertAllComprobandoVersion(clientes, con, conflictos);
+        detalleClienteDAO.upsertAllComprobandoVersion(detallesNuevos, con, conflictos);
+        return new HashSet<>(detalleClienteDAO.updateAllComprobandoVersion(detallesEditados, con, conflictos));
+    }
+
+    /** Versiones de cliente y detalle de cada pendiente, en orden (-1 = no hay). */
+    private static List<Integer> versiones(List<Pendiente> lote) {
+        List<Integer> out = new ArrayList<>(lote.size() * 2);
+        for (Pendiente p : lote) {
+            out.add(p.cliente != null ? p.cliente.getVersion() : -1);
+            out.add(p.detalle != null ? p.detalle.getVersion() : -1);
+        }
+        return out;
+    }
+
+    /** Tras un rollback los objetos vuelven a la versión que traían. */
+    private static void restaurarVersiones(List<Pendiente> lote, List<Integer> versiones) {
+        int i = 0;
+        for (Pendiente p : lote) {
+            if (p.cliente != null) p.cliente.setVersion(versiones.get(i));
+            if (p.detalle != null) p.detalle.setVersion(versiones.get(i + 1));
+            i += 2;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package services;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR: transacción de negocio completa (de abrir la conexión al commit o
+ * rollback). Las sentencias que la forman salen como lampreas.Sentencia en
+ * el mismo hilo y dentro de su intervalo.
+ */
+@Name("lampreas.Transaccion")
+@Label("Transacción")
+@Category({"LampreasVioleta", "Servicios"})
+final class EventoTransaccion extends Event {
+
+    @Label("Operación")
+    String operacion;
+
+    @Label("Elementos")
+    @Description("Clientes (o entradas) que abarca la transacción")
+    int elementos;
+
+    @Label("Confirmada")
+    @Description("true si terminó en commit, false si en rollback o error")
+    boolean confirmada;
+}
@@ -0,0 +1,440 @@
+package services;
+
+import db.Db;
+import db.Shards;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exportación diaria de clientes + detalles a CSV o JSON.
+ *
+ * Todo va en streaming y con memoria constante:
+ *  - las filas llegan de un cursor en servidor (autocommit off + fetchSize)
+ *    por shard, abiertos a la vez con Shards.enTodos y mezclados por id,
+ *  - cada campo se codifica directamente a UTF-8 en un ByteBuffer directo reutilizable,
+ *  - el buffer se vuelca a un FileChannel (opcionalmente a través de gzip).
+ *
+ * El fichero se escribe primero como ".tmp" y se renombra al terminar,
+ * así nunca queda a medias un fichero con el nombre definitivo.
+ *
+ * Uso: ExportadorClientes &lt;fichero&gt; [csv|json] [--gzip]
+ */
+public class ExportadorClientes {
+
+    public enum Formato { CSV, JSON }
+
+    private static final String SELECT_EXPORT_SQL = """
+            SELECT c.id, c.nombre, c.email, d.direccion, d.telefono, d.notas
+            FROM cliente c
+            LEFT JOIN detalle_cliente d ON d.id = c.id
+            ORDER BY c.id
+            """;
+
+    private static final String[] COLUMNAS = {"id", "nombre", "email", "direccion", "telefono", "notas"};
+
+    private static final int FETCH_SIZE = 10_000;
+    private static final int TAM_BUFFER = 256 * 1024;
+    private static final long AVISO_CADA = 1_000_000;
+
+    /** Resumen de una exportación. */
+    public static final class Resultado {
+        private final long filas;
+        private final long bytes;
+        private final long nanos;
+
+        Resultado(long filas, long bytes, long nanos) {
+            this.filas = filas; this.bytes = bytes; this.nanos = nanos;
+        }
+
+        public long getFilas() { return filas; }
+        public long getBytes() { return bytes; }
+        public long getNanos() { return nanos; }
+
+        public double getFilasPorSegundo() {
+            return nanos == 0 ? 0 : filas * 1e9 / nanos;
+        }
+
+        @Override public String toString() {
+            return "Exportadas %,d filas (%,d bytes sin comprimir) en %.1f s → %,.0f filas/s"
+                    .formatted(filas, bytes, nanos / 1e9, getFilasPorSegundo());
+        }
+    }
+
+    /** Aviso de progreso, cada AVISO_CADA filas (en el hilo que exporta). */
+    @FunctionalInterface
+    public interface Progreso {
+        void avance(long filas, double filasPorSegundo);
+    }
+
+    /**
+     * Exporta toda la base de clientes al fichero indicado.
+     */
+    public Resultado exportar(Path destino, Formato formato, boolean gzip) throws SQLException, IOException {
+        return exportar(destino, formato, gzip, null);
+    }
+
+    /**
+     * Exporta toda la base de clientes al fichero indicado, avisando del
+     * avance a progreso (o a nadie, si es null).
+     */
+    public Resultado exportar(Path destino, Formato formato, boolean gzip, Progreso progreso)
+            throws SQLException, IOException {
+        Path tmp = destino.resolveSibling(destino.getFileName() + ".tmp");
+        long inicio = System.nanoTime();
+        long filas = 0;
+        long bytes;
+
+        // Los cursores se apuntan aquí al abrirse: si falla un shard, se cierran los de los demás.
+        List<Cursor> cursores = Collections.synchronizedList(new ArrayList<>());
+        try (FileChannel fc = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             Salida out = new Salida(abrirCanal(fc, gzip))) {
+
+            try {
+                Shards.enTodos(shard -> Cursor.abrir(shard, cursores));
+
+                // Mezcla k-vías por id: cada shard ya viene ORDER BY c.id.
+                PriorityQueue<Cursor> cola = new PriorityQueue<>(Math.max(1, cursores.size()),
+                        Comparator.comparingInt((Cursor c) -> c.id));
+                for (Cursor c : cursores) {
+                    if (c.avanzar()) cola.add(c);
+                }
+
+                cabecera(out, formato);
+                while (!cola.isEmpty()) {
+                    Cursor c = cola.poll();
+                    fila(out, formato, c.rs, filas == 0);
+                    filas++;
+                    if (progreso != null && filas % AVISO_CADA == 0) {
+                        progreso.avance(filas, filas * 1e9 / (System.nanoTime() - inicio));
+                    }
+                    if (c.avanzar()) {
+                        cola.add(c);
+                    }
+                }
+                pie(out, formato);
+            } finally {
+                cerrar(cursores);
+            }
+
+            out.vaciar();
+            bytes = out.escritos;
+
+        } catch (SQLException | IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);   // No dejamos ficheros temporales a medias.
+            throw e;
+        }
+
+        Files.move(tmp, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new Resultado(filas, bytes, System.nanoTime() - inicio);
+    }
+
+    /** Cierra todos los cursores; si alguno falla, lanza el primer error tras cerrar el resto. */
+    private static void cerrar(List<Cursor> cursores) throws SQLException {
+        SQLException primero = null;
+        synchronized (cursores) {
+            for (Cursor c : cursores) {
+                try {
+                    c.close();
+                } catch (SQLException e) {
+                    if (primero == null) primero = e;
+                }
+            }
+        }
+        if (primero != null) {
+            throw primero;
+        }
+    }
+
+    /** Consulta de exportación abierta en un shard, con la fila actual. */
+    private static final class Cursor implements AutoCloseable {
+        final Connection con;
+        PreparedStatement ps;
+        ResultSet rs;
+        int id;
+
+        private Cursor(Connection con) {
+            this.con = con;
+        }
+
+        static Cursor abrir(int shard, List<Cursor> abiertos) throws SQLException {
+            Cursor c = new Cursor(Db.getConnection(shard));
+            abiertos.add(c);
+            c.con.setAutoCommit(false);   // Necesario para que fetchSize use cursor en servidor.
+            c.ps = c.con.prepareStatement(SELECT_EXPORT_SQL);
+            c.ps.setFetchSize(FETCH_SIZE);
+            c.rs = c.ps.executeQuery();
+            return c;
+        }
+
+        boolean avanzar() throws SQLException {
+            if (!rs.next()) {
+                return false;
+            }
+            id = rs.getInt(1);
+            return true;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            try {
+                if (rs != null) rs.close();
+                if (ps != null) ps.close();
+                con.commit();
+                con.setAutoCommit(true);
+            } finally {
+                con.close();
+            }
+        }
+    }
+
+    private static WritableByteChannel abrirCanal(FileChannel fc, boolean gzip) throws IOException {
+        if (!gzip) {
+            return fc;
+        }
+        OutputStream os = new GZIPOutputStream(Channels.newOutputStream(fc), 64 * 1024);
+        return Channels.newChannel(os);
+    }
+
+    // =========================================================================
+    //  FORMATOS
+    // =========================================================================
+
+    private void cabecera(Salida out, Formato formato) throws IOException {
+        if (formato == Formato.CSV) {
+            for (int i = 0; i < COLUMNAS.length; i++) {
+                if (i > 0) out.caracter(',');
+                out.literal(COLUMNAS[i]);
+            }
+            out.caracter('\n');
+        } else {
+            out.caracter('[');
+        }
+    }
+
+    private void fila(Salida out, Formato formato, ResultSet rs, boolean primera) throws SQLException, IOException {
+        if (formato == Formato.CSV) {
+            out.entero(rs.getInt(1));
+            for (int c = 2; c <= COLUMNAS.length; c++) {
+                out.caracter(',');
+                out.csv(rs.getString(c));
+            }
+            out.caracter('\n');
+        } else {
+            out.literal(primera ? "\n{\"id\":" : ",\n{\"id\":");
+            out.entero(rs.getInt(1));
+            for (int c = 2; c <= COLUMNAS.length; c++) {
+                out.literal(",\"");
+                out.literal(COLUMNAS[c - 1]);
+                out.literal("\":");
+                out.json(rs.getString(c));
+            }
+            out.caracter('}');
+        }
+    }
+
+    private void pie(Salida out, Formato formato) throws IOException {
+        if (formato == Formato.JSON) {
+            out.literal("\n]\n");
+        }
+    }
+
+    // =========================================================================
+    //  SALIDA: CharBuffer → UTF-8 → ByteBuffer directo → canal
+    // =========================================================================
+
+    /**
+     * Escritor con buffers reutilizables. Los caracteres se acumulan en un
+     * CharBuffer, se codifican por bloques al ByteBuffer directo y éste se
+     * escribe en el canal cuando se llena. Nunca crece.
+     */
+    private static final class Salida implements AutoCloseable {
+        private final WritableByteChannel canal;
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        private final CharBuffer caracteres = CharBuffer.allocate(8 * 1024);
+        private final ByteBuffer bytes = ByteBuffer.allocateDirect(TAM_BUFFER);
+        private final char[] digitos = new char[11];
+        long escritos;
+
+        Salida(WritableByteChannel canal) {
+            this.canal = canal;
+        }
+
+        void caracter(char c) throws IOException {
+            if (!caracteres.hasRemaining()) {
+                codificar();
+            }
+            caracteres.put(c);
+        }
+
+        void literal(String s) throws IOException {
+            for (int i = 0; i < s.length(); i++) {
+                caracter(s.charAt(i));
+            }
+        }
+
+        void entero(int v) throws IOException {
+            // Sin Integer.toString: los dígitos se escriben desde un char[] reutilizable.
+            if (v == Integer.MIN_VALUE) {
+                literal("-2147483648");
+                return;
+            }
+            if (v < 0) {
+                caracter('-');
+                v = -v;
+            }
+            int p = digitos.length;
+            do {
+                digitos[--p] = (char) ('0' + v % 10);
+                v /= 10;
+            } while (v != 0);
+            while (p < digitos.length) {
+                caracter(digitos[p++]);
+            }
+        }
+
+        void csv(String s) throws IOException {
+            if (s == null) {
+                return;   // campo vacío
+            }
+            boolean comillas = false;
+            for (int i = 0; i < s.length() && !comillas; i++) {
+                char c = s.charAt(i);
+                comillas = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!comillas) {
+                literal(s);
+                return;
+            }
+            caracter('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '"') caracter('"');
+                caracter(c);
+            }
+            caracter('"');
+        }
+
+        void json(String s) throws IOException {
+            if (s == null) {
+                literal("null");
+                return;
+            }
+            caracter('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"' -> literal("\\\"");
+                    case '\\' -> literal("\\\\");
+                    case '\n' -> literal("\\n");
+                    case '\r' -> literal("\\r");
+                    case '\t' -> literal("\\t");
+                    default -> {
+                        if (c < 0x20) {
+                            literal("\\u00");
+                            caracter(Character.forDigit(c >> 4, 16));
+                            caracter(Character.forDigit(c & 0xF, 16));
+                        } else {
+                            caracter(c);
+                        }
+                    }
+                }
+            }
+            caracter('"');
+        }
+
+        /** Pasa los caracteres acumulados al buffer de bytes (volcando si se llena). */
+        private void codificar() throws IOException {
+            caracteres.flip();
+            while (true) {
+                CoderResult r = encoder.encode(caracteres, bytes, false);
+                if (r.isOverflow()) {
+                    volcar();
+                } else if (r.isError()) {
+                    r.throwException();
+                } else {
+                    break;
+                }
+            }
+            // Puede quedar medio par sustituto pendiente: compact lo conserva.
+            caracteres.compact();
+        }
+
+        private void volcar() throws IOException {
+            bytes.flip();
+            escritos += bytes.remaining();
+            while (bytes.hasRemaining()) {
+                canal.write(bytes);
+            }
+            bytes.clear();
+        }
+
+        void vaciar() throws IOException {
+            codificar();
+            caracteres.flip();
+            while (encoder.encode(caracteres, bytes, true).isOverflow()) {
+                volcar();
+            }
+            while (encoder.flush(bytes).isOverflow()) {
+                volcar();
+            }
+            caracteres.clear();
+            encoder.reset();
+            volcar();
+        }
+
+        @Override
+        public void close() throws IOException {
+            canal.close();
+        }
+    }
+
+    // =========================================================================
+    //  LÍNEA DE COMANDOS
+    // =========================================================================
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Uso: ExportadorClientes <fichero> [csv|json] [--gzip]");
+            System.exit(2);
+        }
+
+        Path destino = Path.of(args[0]);
+        Formato formato = Formato.CSV;
+        boolean gzip = false;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equalsIgnoreCase("--gzip")) {
+                gzip = true;
+            } else {
+                formato = Formato.valueOf(args[i].toUpperCase());
+            }
+        }
+
+        Resultado r = new ExportadorClientes().exportar(destino, formato, gzip,
+                (filas, porSegundo) -> System.out.printf("... %,d filas (%,.0f filas/s)%n", filas, porSegundo));
+        System.out.println(r);
+    }
+}
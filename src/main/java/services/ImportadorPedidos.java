@@ -0,0 +1,601 @@
+package services;
+
+import dao.PedidoDAO;
+import db.ControlAdmision;
+import db.ControlAdmision.Clase;
+import db.Cancelacion;
+import db.Db;
+import db.Shards;
+import db.SobrecargaException;
+import model.DetallePedido;
+import model.Pedido;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Importación masiva de pedidos con sus líneas desde un fichero de texto.
+ *
+ * Formato (UTF-8, una línea por registro; las L pertenecen a la P anterior):
+ * <pre>
+ *   P,&lt;id&gt;,&lt;cliente_id&gt;,&lt;fecha AAAA-MM-DD&gt;
+ *   L,&lt;producto_id&gt;,&lt;cantidad&gt;,&lt;precio_unit&gt;
+ * </pre>
+ * Las líneas vacías y las que empiezan por # se ignoran.
+ *
+ * Es una tubería por etapas unidas con colas acotadas (backpressure: si la BD
+ * va lenta, las etapas anteriores se frenan en lugar de llenar la memoria):
+ * <pre>
+ *   leer (1 hilo) → analizar (N) → validar (N) → mapear (N) → escribir (M conexiones)
+ * </pre>
+ * Por las colas viajan bloques de pedidos, no pedidos sueltos. La validación
+ * usa los ids de cliente y producto cargados al empezar en dos BitSet, sin
+ * consultar la BD por cada pedido. Cada bloque se escribe con PedidoDAO.insertAll
+ * en una transacción por shard; si la de un shard falla, se reintentan sus
+ * pedidos uno a uno para que solo se rechacen los culpables.
+ *
+ * Uso: ImportadorPedidos &lt;fichero&gt; [--hilos N] [--escritores M] [--bloque N]
+ */
+public class ImportadorPedidos {
+
+    /** Un pedido tal como viene en el fichero (texto sin validar). */
+    private static final class Registro {
+        final long linea;
+        final List<String> textos = new ArrayList<>(4);   // cabecera + líneas
+        String[] cabecera;
+        List<String[]> lineas;
+        String error;
+        Pedido pedido;
+
+        Registro(long linea) {
+            this.linea = linea;
+        }
+    }
+
+    /** Reintentos de un bloque rechazado por sobrecarga: pausa 50 ms, 100, 200... hasta 2 s. */
+    private static final int MAX_INTENTOS = 10;
+    private static final long PAUSA_INICIAL_MS = 50;
+    private static final long PAUSA_MAXIMA_MS = 2_000;
+
+    /** Marca de fin de datos en las colas. */
+    private static final List<Registro> FIN = new ArrayList<>();
+
+    private final PedidoDAO pedidoDAO = new PedidoDAO();
+    private final ParticionesPedido particiones = new ParticionesPedido();
+
+    private final int hilos;
+    private final int escritores;
+    private final int tamBloque;
+    private final int capacidadColas;
+
+    private BitSet clientes;
+    private BitSet productos;
+    private final Set<YearMonth> mesesConParticion = ConcurrentHashMap.newKeySet();
+
+    private final ConcurrentLinkedQueue<String> rechazos = new ConcurrentLinkedQueue<>();
+    private final AtomicLong numRechazos = new AtomicLong();
+    private final AtomicReference<Throwable> fallo = new AtomicReference<>();
+
+    public ImportadorPedidos(int hilos, int escritores, int tamBloque, int capacidadColas) {
+        this.hilos = hilos;
+        this.escritores = escritores;
+        this.tamBloque = tamBloque;
+        this.capacidadColas = capacidadColas;
+    }
+
+    /** Un hilo por núcleo en cada etapa de CPU, la mitad de las conexiones para escribir. */
+    public ImportadorPedidos() {
+        this(Runtime.getRuntime().availableProcessors(), Math.max(1, Db.maxConexiones() / 2), 500, 8);
+    }
+
+    // =========================================================================
+    //  MÉTRICAS
+    // =========================================================================
+
+    /** Contadores de una etapa: pedidos que salen, tiempo trabajando y profundidad de su cola de entrada. */
+    public static final class Metricas {
+        final String nombre;
+        final int trabajadores;
+        final AtomicLong pedidos = new AtomicLong();
+        final AtomicLong nanosOcupado = new AtomicLong();
+        long muestras;
+        long sumaCola;
+        int maxCola;
+
+        Metricas(String nombre, int trabajadores) {
+            this.nombre = nombre;
+            this.trabajadores = trabajadores;
+        }
+
+        synchronized void muestrear(int enCola) {
+            muestras++;
+            sumaCola += enCola;
+            maxCola = Math.max(maxCola, enCola);
+        }
+
+        synchronized String informe(long nanosTotales, int capacidad) {
+            double segundos = nanosTotales / 1e9;
+            double ocupacion = nanosOcupado.get() / (double) Math.max(1, nanosTotales * trabajadores);
+            return "%-9s %2d hilos %,12d pedidos %,10.0f ped/s  ocupación %3.0f %%  cola media %4.1f máx %2d/%d"
+                    .formatted(nombre, trabajadores, pedidos.get(), pedidos.get() / Math.max(1e-9, segundos),
+                            ocupacion * 100, muestras == 0 ? 0 : (double) sumaCola / muestras, maxCola, capacidad);
+        }
+    }
+
+    /** Resumen de una importación. */
+    public static final class Resultado {
+        private final long importados;
+        private final long rechazados;
+        private final long nanos;
+        private final List<String> etapas;
+        private final List<String> primerosRechazos;
+
+        Resultado(long importados, long rechazados, long nanos, List<String> etapas, List<String> primerosRechazos) {
+            this.importados = importados; this.rechazados = rechazados; this.nanos = nanos;
+            this.etapas = etapas; this.primerosRechazos = primerosRechazos;
+        }
+
+        public long getImportados() { return importados; }
+        public long getRechazados() { return rechazados; }
+        public List<String> getPrimerosRechazos() { return primerosRechazos; }
+
+        @Override public String toString() {
+            StringBuilder sb = new StringBuilder("Importados %,d pedidos (%,d rechazados) en %.1f s → %,.0f pedidos/s%n"
+                    .formatted(importados, rechazados, nanos / 1e9, importados * 1e9 / Math.max(1, nanos)));
+            etapas.forEach(e -> sb.append("  ").append(e).append(System.lineSeparator()));
+            if (!primerosRechazos.isEmpty()) {
+                sb.append("Primeros rechazos:").append(System.lineSeparator());
+                primerosRechazos.forEach(r -> sb.append("  ").append(r).append(System.lineSeparator()));
+            }
+            return sb.toString();
+        }
+    }
+
+    // =========================================================================
+    //  IMPORTACIÓN
+    // =========================================================================
+
+    public Resultado importar(Path fichero) throws IOException, SQLException, InterruptedException {
+        long t0 = System.nanoTime();
+
+        // Clientes repartidos entre shards: la unión de todos. Producto está copiado en cada shard.
+        clientes = new BitSet();
+        for (BitSet ids : Shards.enTodos(shard -> idsExistentes(shard, "SELECT id FROM cliente"))) {
+            clientes.or(ids);
+        }
+        productos = idsExistentes(0, "SELECT id FROM producto");
+
+        BlockingQueue<List<Registro>> crudos = new ArrayBlockingQueue<>(capacidadColas);
+        BlockingQueue<List<Registro>> analizados = new ArrayBlockingQueue<>(capacidadColas);
+        BlockingQueue<List<Registro>> validados = new ArrayBlockingQueue<>(capacidadColas);
+        BlockingQueue<List<Registro>> mapeados = new ArrayBlockingQueue<>(capacidadColas);
+
+        Metricas mLeer = new Metricas("leer", 1);
+        Metricas mAnalizar = new Metricas("analizar", hilos);
+        Metricas mValidar = new Metricas("validar", hilos);
+        Metricas mMapear = new Metricas("mapear", hilos);
+        Metricas mEscribir = new Metricas("escribir", escritores);
+
+        List<Thread> todos = new ArrayList<>();
+        Thread lector = new Thread(() -> leer(fichero, crudos, mLeer), "importar-leer");
+        todos.add(lector);
+        todos.addAll(etapa(mAnalizar, crudos, analizados, this::analizar));
+        todos.addAll(etapa(mValidar, analizados, validados, this::validar));
+        todos.addAll(etapa(mMapear, validados, mapeados, this::mapear));
+        todos.addAll(etapa(mEscribir, mapeados, null, this::escribir));
+
+        // Muestreo de la profundidad de cada cola de entrada.
+        Thread monitor = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    mAnalizar.muestrear(crudos.size());
+                    mValidar.muestrear(analizados.size());
+                    mMapear.muestrear(validados.size());
+                    mEscribir.muestrear(mapeados.size());
+                    Thread.sleep(100);
+                }
+            } catch (InterruptedException fin) {
+                // Terminado.
+            }
+        }, "importar-monitor");
+        monitor.setDaemon(true);
+        monitor.start();
+
+        todos.forEach(Thread::start);
+        for (Thread t : todos) {
+            t.join();
+        }
+        monitor.interrupt();
+
+        Throwable f = fallo.get();
+        if (f instanceof IOException e) throw e;
+        if (f instanceof SQLException e) throw e;
+        if (f != null) throw new IllegalStateException("Fallo en la importación", f);
+
+        long nanos = System.nanoTime() - t0;
+        List<String> etapas = List.of(
+                mLeer.informe(nanos, 0),
+                mAnalizar.informe(nanos, capacidadColas),
+                mValidar.informe(nanos, capacidadColas),
+                mMapear.informe(nanos, capacidadColas),
+                mEscribir.informe(nanos, capacidadColas));
+        List<String> primeros = rechazos.stream().limit(20).toList();
+        return new Resultado(mEscribir.pedidos.get(), numRechazos.get(), nanos, etapas, primeros);
+    }
+
+    /**
+     * Arranca los trabajadores de una etapa. Cada uno toma bloques de la
+     * entrada, los procesa y deja el resultado en la salida. El último en
+     * ver el FIN lo pasa a la siguiente etapa.
+     */
+    private List<Thread> etapa(Metricas m, BlockingQueue<List<Registro>> entrada,
+                               BlockingQueue<List<Registro>> salida,
+                               Function<List<Registro>, List<Registro>> trabajo) {
+        AtomicInteger vivos = new AtomicInteger(m.trabajadores);
+        List<Thread> hilosEtapa = new ArrayList<>();
+
+        for (int i = 0; i < m.trabajadores; i++) {
+            hilosEtapa.add(new Thread(() -> {
+                try {
+                    while (true) {
+                        List<Registro> bloque = entrada.take();
+                        if (bloque == FIN) {
+                            entrada.put(FIN);   // para los compañeros de etapa
+                            break;
+                        }
+                        if (fallo.get() != null) {
+                            continue;           // vaciar la cola sin trabajar
+                        }
+                        long t0 = System.nanoTime();
+                        List<Registro> out;
+                        try {
+                            out = trabajo.apply(bloque);
+                        } catch (RuntimeException e) {
+                            fallo.compareAndSet(null, e.getCause() != null ? e.getCause() : e);
+                            continue;
+                        }
+                        m.nanosOcupado.addAndGet(System.nanoTime() - t0);
+                        m.pedidos.addAndGet(out.size());
+                        if (salida != null && !out.isEmpty()) {
+                            salida.put(out);
+                        }
+                    }
+                    if (vivos.decrementAndGet() == 0 && salida != null) {
+                        salida.put(FIN);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    fallo.compareAndSet(null, e);
+                }
+            }, "importar-" + m.nombre + "-" + (i + 1)));
+        }
+        return hilosEtapa;
+    }
+
+    // =========================================================================
+    //  ETAPAS
+    // =========================================================================
+
+    /** Lee el fichero y lo corta en bloques de tamBloque pedidos (texto sin analizar). */
+    private void leer(Path fichero, BlockingQueue<List<Registro>> salida, Metricas m) {
+        try (BufferedReader r = Files.newBufferedReader(fichero, StandardCharsets.UTF_8)) {
+            List<Registro> bloque = new ArrayList<>(tamBloque);
+            Registro actual = null;
+            String linea;
+            long n = 0;
+            long t0 = System.nanoTime();
+
+            while ((linea = r.readLine()) != null && fallo.get() == null) {
+                n++;
+                if (linea.isBlank() || linea.startsWith("#")) {
+                    continue;
+                }
+                if (linea.startsWith("P")) {
+                    if (bloque.size() == tamBloque) {
+                        m.nanosOcupado.addAndGet(System.nanoTime() - t0);
+                        m.pedidos.addAndGet(bloque.size());
+                        salida.put(bloque);
+                        t0 = System.nanoTime();
+                        bloque = new ArrayList<>(tamBloque);
+                    }
+                    actual = new Registro(n);
+                    bloque.add(actual);
+                } else if (actual == null) {
+                    rechazar(n, "línea de detalle sin pedido");
+                    continue;
+                }
+                actual.textos.add(linea);
+            }
+            m.nanosOcupado.addAndGet(System.nanoTime() - t0);
+            m.pedidos.addAndGet(bloque.size());
+            if (!bloque.isEmpty()) {
+                salida.put(bloque);
+            }
+        } catch (IOException e) {
+            fallo.compareAndSet(null, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fallo.compareAndSet(null, e);
+        } finally {
+            try {
+                salida.put(FIN);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** Trocea cada registro en campos y comprueba el número de campos. */
+    private List<Registro> analizar(List<Registro> bloque) {
+        List<Registro> out = new ArrayList<>(bloque.size());
+        for (Registro reg : bloque) {
+            reg.cabecera = reg.textos.get(0).split(",", -1);
+            reg.lineas = new ArrayList<>(reg.textos.size() - 1);
+            if (reg.cabecera.length != 4 || !reg.cabecera[0].equals("P")) {
+                reg.error = "cabecera mal formada";
+            }
+            for (int i = 1; i < reg.textos.size() && reg.error == null; i++) {
+                String[] l = reg.textos.get(i).split(",", -1);
+                if (l.length != 4 || !l[0].equals("L")) {
+                    reg.error = "línea " + (reg.linea + i) + " mal formada";
+                }
+                reg.lineas.add(l);
+            }
+            if (reg.error == null && reg.lineas.isEmpty()) {
+                reg.error = "pedido sin líneas";
+            }
+            if (reg.error != null) {
+                rechazar(reg.linea, reg.error);
+                continue;
+            }
+            reg.textos.clear();
+            out.add(reg);
+        }
+        return out;
+    }
+
+    /** Tipos, rangos e integridad referencial (contra los BitSet de ids). */
+    private List<Registro> validar(List<Registro> bloque) {
+        List<Registro> out = new ArrayList<>(bloque.size());
+        for (Registro reg : bloque) {
+            try {
+                Integer.parseInt(reg.cabecera[1].trim());
+                int cliente = Integer.parseInt(reg.cabecera[2].trim());
+                LocalDate.parse(reg.cabecera[3].trim());
+                if (cliente < 0 || !clientes.get(cliente)) {
+                    reg.error = "cliente " + cliente + " no existe";
+                }
+
+                BitSet vistos = new BitSet();
+                for (String[] l : reg.lineas) {
+                    if (reg.error != null) break;
+                    int producto = Integer.parseInt(l[1].trim());
+                    int cantidad = Integer.parseInt(l[2].trim());
+                    double precio = Double.parseDouble(l[3].trim());
+                    if (producto < 0 || !productos.get(producto)) {
+                        reg.error = "producto " + producto + " no existe";
+                    } else if (vistos.get(producto)) {
+                        reg.error = "producto " + producto + " repetido en el pedido";
+                    } else if (cantidad <= 0) {
+                        reg.error = "cantidad no positiva";
+                    } else if (precio < 0) {
+                        reg.error = "precio negativo";
+                    }
+                    vistos.set(producto);
+                }
+            } catch (NumberFormatException | DateTimeParseException e) {
+                reg.error = "valor no válido: " + e.getMessage();
+            }
+
+            if (reg.error != null) {
+                rechazar(reg.linea, reg.error);
+            } else {
+                out.add(reg);
+            }
+        }
+        return out;
+    }
+
+    /** Convierte los registros válidos en Pedido + DetallePedido. */
+    private List<Registro> mapear(List<Registro> bloque) {
+        for (Registro reg : bloque) {
+            int id = Integer.parseInt(reg.cabecera[1].trim());
+            Pedido p = new Pedido(id, Integer.parseInt(reg.cabecera[2].trim()), LocalDate.parse(reg.cabecera[3].trim()));
+            for (String[] l : reg.lineas) {
+                p.getLineas().add(new DetallePedido(id, Integer.parseInt(l[1].trim()),
+                        Integer.parseInt(l[2].trim()), Double.parseDouble(l[3].trim())));
+            }
+            reg.pedido = p;
+            reg.cabecera = null;
+            reg.lineas = null;
+        }
+        return bloque;
+    }
+
+    /**
+     * Escribe el bloque con una transacción por shard (insertAll no es
+     * atómico entre shards: cada grupo debe ir solo, para que un fallo en un
+     * shard no deje a medias lo de otro). Si un grupo falla por los datos de
+     * algún pedido, ese grupo se reintenta pedido a pedido. Cualquier otro
+     * error de BD (conexión perdida, partición que falta...) no es culpa de
+     * las filas: para la importación.
+     */
+    private List<Registro> escribir(List<Registro> bloque) {
+        List<Registro> escritos = new ArrayList<>(bloque.size());
+        for (List<Registro> grupo : Shards.agrupar(bloque, reg -> reg.pedido.getClienteId())) {
+            if (!grupo.isEmpty()) {
+                escribirEnShard(grupo, escritos);
+            }
+        }
+        return escritos;
+    }
+
+    /** Un grupo de pedidos de un mismo shard: una transacción y, si falla, pedido a pedido. */
+    private void escribirEnShard(List<Registro> grupo, List<Registro> escritos) {
+        List<Pedido> pedidos = new ArrayList<>(grupo.size());
+        for (Registro reg : grupo) {
+            pedidos.add(reg.pedido);
+        }
+
+        try {
+            asegurarParticiones(pedidos);
+            insertarMasivo(pedidos);
+            escritos.addAll(grupo);
+        } catch (SQLException lote) {
+            if (!esErrorDeDatos(lote)) {
+                throw new IllegalStateException(lote.getMessage(), lote);
+            }
+            for (Registro reg : grupo) {
+                try {
+                    insertarMasivo(List.of(reg.pedido));
+                    escritos.add(reg);
+                } catch (SQLException e) {
+                    if (!esErrorDeDatos(e)) {
+                        throw new IllegalStateException(e.getMessage(), e);
+                    }
+                    rechazar(reg.linea, "BD: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * true si el error es de los datos de la fila: SQLState de clase 22
+     * (valor no válido) o 23 (restricción de integridad). Se miran también
+     * las excepciones encadenadas, porque un lote JDBC envuelve la de la fila.
+     */
+    private static boolean esErrorDeDatos(SQLException e) {
+        for (SQLException x = e; x != null; x = x.getNextException()) {
+            String estado = x.getSQLState();
+            if (estado != null && (estado.startsWith("22") || estado.startsWith("23"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * insertAll por el cupo MASIVA de ControlAdmision, para no quitar sitio a
+     * las escrituras de los usuarios. Una importación no debe perder pedidos
+     * por una sobrecarga pasajera: si se rechaza, se reintenta tras una pausa
+     * que se duplica cada vez (con la cola llena el rechazo es inmediato y sin
+     * pausa sería un bucle activo). Tras MAX_INTENTOS se da por fallida.
+     */
+    private void insertarMasivo(List<Pedido> pedidos) throws SQLException {
+        long pausaMs = PAUSA_INICIAL_MS;
+        for (int intento = 1; ; intento++) {
+            try {
+                ControlAdmision.ejecutar(Clase.MASIVA, () -> {
+                    pedidoDAO.insertAll(pedidos);
+                    return null;
+                });
+                return;
+            } catch (SobrecargaException ocupado) {
+                if (intento == MAX_INTENTOS) {
+                    throw ocupado;
+                }
+            }
+            try {
+                Thread.sleep(pausaMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Importación interrumpida", Cancelacion.SQLSTATE_CANCELADA, e);
+            }
+            pausaMs = Math.min(2 * pausaMs, PAUSA_MAXIMA_MS);
+        }
+    }
+
+    /**
+     * Crea las particiones de los meses que aún no se han visto. Sincronizado:
+     * dos CREATE TABLE IF NOT EXISTS simultáneos de la misma partición chocan
+     * en el catálogo de PostgreSQL.
+     */
+    private synchronized void asegurarParticiones(List<Pedido> pedidos) throws SQLException {
+        for (Pedido p : pedidos) {
+            YearMonth m = YearMonth.from(p.getFecha());
+            if (!mesesConParticion.contains(m)) {
+                particiones.asegurarParticiones(m, m);
+                mesesConParticion.add(m);
+            }
+        }
+    }
+
+    // =========================================================================
+    //  AUXILIARES
+    // =========================================================================
+
+    private void rechazar(long linea, String motivo) {
+        // size() de ConcurrentLinkedQueue recorre la cola: se cuenta con el contador
+        if (numRechazos.incrementAndGet() <= 1_000) {
+            rechazos.add("línea " + linea + ": " + motivo);
+        }
+    }
+
+    private static BitSet idsExistentes(int shard, String sql) throws SQLException {
+        BitSet ids = new BitSet();
+        try (Connection con = Db.getConnection(shard)) {
+            con.setAutoCommit(false);
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                ps.setFetchSize(10_000);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        int id = rs.getInt(1);
+                        if (id >= 0) ids.set(id);
+                    }
+                }
+            } finally {
+                con.commit();
+                con.setAutoCommit(true);
+            }
+        }
+        return ids;
+    }
+
+    // =========================================================================
+    //  LÍNEA DE COMANDOS
+    // =========================================================================
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Uso: ImportadorPedidos <fichero> [--hilos N] [--escritores M] [--bloque N]");
+            System.exit(2);
+        }
+
+        Path fichero = Path.of(args[0]);
+        int hilos = Runtime.getRuntime().availableProcessors();
+        int escritores = Math.max(1, Db.maxConexiones() / 2);
+        int bloque = 500;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--hilos" -> hilos = Integer.parseInt(args[++i]);
+                case "--escritores" -> escritores = Integer.parseInt(args[++i]);
+                case "--bloque" -> bloque = Integer.parseInt(args[++i]);
+                default -> throw new IllegalArgumentException("Opción desconocida: " + args[i]);
+            }
+        }
+
+        System.out.print(new ImportadorPedidos(hilos, escritores, bloque, 8).importar(fichero));
+    }
+}
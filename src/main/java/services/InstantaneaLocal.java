@@ -0,0 +1,519 @@
+package services;
+
+import db.Db;
+import db.Shards;
+import model.DetalleCliente;
+import model.InstantaneaClientes;
+import model.InstantaneaDetalles;
+import model.SalidaColumnas;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.zip.CRC32C;
+
+/**
+ * Copia local en disco de cliente + detalle_cliente para arrancar al instante.
+ *
+ * Al arrancar se mapea el fichero en memoria (FileChannel.map) y las
+ * instantáneas columnares se leen directamente del mapeo, sin copiarlas al
+ * heap ni tocar la BD: solo se cargan las páginas que se leen. Después, en
+ * segundo plano, {@link #sincronizar(Datos)} trae solo lo que ha cambiado
+ * desde la marca de agua (updated_at + lápidas de cliente_borrado, ver
+ * sql/001_marca_actualizacion.sql) y reescribe el fichero; si no ha
+ * cambiado nada, solo pone al día la marca y la fecha de la cabecera.
+ *
+ * Formato (big-endian):
+ * <pre>
+ *   0  int   magia "LVIC"
+ *   4  int   versión del formato
+ *   8  long  marca de agua (µs epoch) o SIN_MARCA si la BD no tiene updated_at
+ *  16  long  creada (ms epoch)
+ *  24  int   número de filas
+ *  28  int   CRC32C del contenido
+ *  32  long  longitud del contenido
+ *  64  ...   InstantaneaClientes + InstantaneaDetalles
+ * </pre>
+ * Si el fichero no existe, está corrupto, es de otra versión o demasiado
+ * antiguo, abrir() devuelve null y la siguiente sincronización lo reconstruye.
+ *
+ * El contenido del fichero mapeado no se modifica nunca (la cabecera no se
+ * lee después de abrir): guardar() escribe uno nuevo, columna a columna por
+ * bloques y sin montarlo en memoria, y lo renombra encima. Si el sistema no deja sustituir un fichero mapeado
+ * (Windows), la copia nueva se deja como "*.nuevo" y abrir() la pone en su
+ * sitio en el siguiente arranque, antes de mapear.
+ */
+public class InstantaneaLocal {
+
+    private static final int MAGIA = 0x4C564943;            // "LVIC"
+    public static final int VERSION_FORMATO = 1;
+    private static final int TAM_CABECERA = 64;
+
+    /** Marca para BD sin columnas updated_at: siempre se recarga entera. */
+    public static final long SIN_MARCA = Long.MIN_VALUE;
+
+    // Las transacciones que confirman tarde pueden llevar un updated_at anterior a la marca:
+    // repasamos un margen hacia atrás (reaplicar filas es idempotente).
+    private static final Duration SOLAPE = Duration.ofMinutes(5);
+
+    // Las lápidas se pueden purgar; una copia muy vieja se reconstruye entera.
+    private static final Duration EDAD_MAXIMA = Duration.ofDays(7);
+
+    private static final String SELECT_COMPLETO_SQL = """
+            SELECT c.id, c.nombre, c.email, d.id IS NOT NULL, d.direccion, d.telefono, d.notas
+            FROM cliente c
+            LEFT JOIN detalle_cliente d ON d.id = c.id
+            ORDER BY c.id
+            """;
+
+    // Clientes tocados en cualquiera de las dos tablas (un cambio solo en el
+    // detalle también cuenta); la UNION deja usar el índice de updated_at de cada una.
+    private static final String SELECT_DELTA_SQL = """
+            SELECT c.id, c.nombre, c.email, d.id IS NOT NULL, d.direccion, d.telefono, d.notas
+            FROM cliente c
+            LEFT JOIN detalle_cliente d ON d.id = c.id
+            WHERE c.id IN (SELECT id FROM cliente WHERE updated_at > ?
+                           UNION
+                           SELECT id FROM detalle_cliente WHERE updated_at > ?)
+            ORDER BY c.id
+            """;
+
+    private static final String SELECT_BORRADOS_SQL =
+            "SELECT id FROM cliente_borrado WHERE borrado_en > ? ORDER BY id";
+
+    // Solo hay delta si las dos tablas tienen updated_at (y hay lápidas); si
+    // falta en detalle_cliente, sus cambios no se verían y se recarga entera.
+    private static final String SELECT_AHORA_SQL = """
+            SELECT now(),
+                   (SELECT count(DISTINCT table_name) FROM information_schema.columns
+                    WHERE table_name IN ('cliente', 'detalle_cliente') AND column_name = 'updated_at') = 2
+                   AND to_regclass('cliente_borrado') IS NOT NULL
+            """;
+
+    /** Contenido de la instantánea. */
+    public static final class Datos {
+        private final InstantaneaClientes clientes;
+        private final InstantaneaDetalles detalles;
+        private final long marca;
+        private final long creada;
+
+        Datos(InstantaneaClientes clientes, InstantaneaDetalles detalles, long marca, long creada) {
+            this.clientes = clientes;
+            this.detalles = detalles;
+            this.marca = marca;
+            this.creada = creada;
+        }
+
+        public InstantaneaClientes getClientes() { return clientes; }
+        public InstantaneaDetalles getDetalles() { return detalles; }
+        public long getMarca() { return marca; }
+        public long getCreada() { return creada; }
+
+        public boolean contiene(int id) {
+            return clientes.buscarFila(id) >= 0;
+        }
+
+        /** Detalle del cliente, o null si no tiene (o si el cliente no está en la copia). */
+        public DetalleCliente detallePorId(int id) {
+            int fila = clientes.buscarFila(id);
+            return (fila < 0) ? null : detalles.detalle(fila, id);
+        }
+    }
+
+    private final Path ruta;
+
+    public InstantaneaLocal(Path ruta) {
+        this.ruta = ruta;
+    }
+
+    /** Ruta por defecto: $LV_INSTANTANEA o ~/.lampreas/clientes.lvi */
+    public static Path rutaPorDefecto() {
+        String env = System.getenv("LV_INSTANTANEA");
+        if (env != null && !env.isBlank()) {
+            return Path.of(env);
+        }
+        return Path.of(System.getProperty("user.home"), ".lampreas", "clientes.lvi");
+    }
+
+    public Path getRuta() {
+        return ruta;
+    }
+
+    // =========================================================================
+    //  LECTURA (mapeada en memoria)
+    // =========================================================================
+
+    /**
+     * Abre la copia local. Devuelve null si no existe o si no es válida;
+     * en ese último caso el fichero se borra para que se reconstruya.
+     *
+     * Los Datos devueltos leen del fichero mapeado (sin copiarlo al heap); el
+     * mapeo sigue vivo mientras lo estén ellos.
+     */
+    public Datos abrir() {
+        Path nuevo = rutaNueva();
+        if (Files.isRegularFile(nuevo)) {
+            try {
+                Files.move(nuevo, ruta, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // Nos quedamos con la anterior; la próxima sincronización la pone al día.
+            }
+        }
+
+        if (!Files.isRegularFile(ruta)) {
+            return null;
+        }
+
+        try (FileChannel fc = FileChannel.open(ruta, StandardOpenOption.READ)) {
+            long tam = fc.size();
+            if (tam < TAM_CABECERA) {
+                throw new IllegalStateException("fichero truncado");
+            }
+
+            MappedByteBuffer map = fc.map(FileChannel.MapMode.READ_ONLY, 0, tam);
+
+            if (map.getInt(0) != MAGIA) {
+                throw new IllegalStateException("no es una instantánea de clientes");
+            }
+            int version = map.getInt(4);
+            if (version != VERSION_FORMATO) {
+                throw new IllegalStateException("versión de formato " + version + " (esperada " + VERSION_FORMATO + ")");
+            }
+            long marca = map.getLong(8);
+            long creada = map.getLong(16);
+            int filas = map.getInt(24);
+            int crc = map.getInt(28);
+            long longitud = map.getLong(32);
+
+            if (longitud != tam - TAM_CABECERA) {
+                throw new IllegalStateException("longitud inconsistente");
+            }
+            if (Instant.ofEpochMilli(creada).plus(EDAD_MAXIMA).isBefore(Instant.now())) {
+                throw new IllegalStateException("copia demasiado antigua");
+            }
+
+            ByteBuffer contenido = map.slice(TAM_CABECERA, (int) longitud);
+            CRC32C c = new CRC32C();
+            c.update(contenido.duplicate());
+            if ((int) c.getValue() != crc) {
+                throw new IllegalStateException("checksum incorrecto");
+            }
+
+            InstantaneaClientes clientes = InstantaneaClientes.leer(contenido);
+            InstantaneaDetalles detalles = InstantaneaDetalles.leer(contenido);
+            if (clientes.tamano() != filas || detalles.tamano() != filas) {
+                throw new IllegalStateException("número de filas inconsistente");
+            }
+            return new Datos(clientes, detalles, marca, creada);
+
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Instantánea local descartada (" + ruta + "): " + e.getMessage());
+            try {
+                Files.deleteIfExists(ruta);
+            } catch (IOException ignorada) {
+                // Se sobrescribirá en la próxima sincronización.
+            }
+            return null;
+        }
+    }
+
+    // =========================================================================
+    //  SINCRONIZACIÓN CON LA BD
+    // =========================================================================
+
+    /**
+     * Pone al día la copia: incremental si hay marca de agua, completa si no
+     * (o si actual es null). Guarda el resultado en disco y lo devuelve.
+     */
+    public Datos sincronizar(Datos actual) throws SQLException, IOException {
+        if (Db.numShards() > 1) {
+            Datos nuevos = cargarShards();
+            guardar(nuevos);
+            return nuevos;
+        }
+
+        Datos nuevos;
+
+        try (Connection con = Db.getConnection()) {
+            con.setAutoCommit(false);
+            // Todas las lecturas ven la misma foto de la BD.
+            con.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+
+            try {
+                long ahora;
+                boolean conMarca;
+                try (PreparedStatement ps = con.prepareStatement(SELECT_AHORA_SQL);
+                     ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    ahora = aMicros(rs.getObject(1, OffsetDateTime.class));
+                    conMarca = rs.getBoolean(2);
+                }
+                long marca = conMarca ? ahora : SIN_MARCA;
+
+                if (actual == null || actual.marca == SIN_MARCA || !conMarca) {
+                    nuevos = cargarCompleto(con, marca);
+                } else {
+                    nuevos = cargarDelta(con, actual, marca);
+                }
+            } finally {
+                con.commit();
+                con.setAutoCommit(true);
+            }
+        }
+
+        if (actual != null && nuevos.clientes == actual.clientes) {
+            actualizarCabecera(nuevos);   // delta vacío: el contenido en disco ya es este
+        } else {
+            guardar(nuevos);
+        }
+        return nuevos;
+    }
+
+    private Datos cargarCompleto(Connection con, long marca) throws SQLException {
+        InstantaneaClientes.Builder bc = new InstantaneaClientes.Builder();
+        InstantaneaDetalles.Builder bd = new InstantaneaDetalles.Builder();
+
+        try (PreparedStatement ps = con.prepareStatement(SELECT_COMPLETO_SQL)) {
+            ps.setFetchSize(10_000);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    bc.agregar(rs.getInt(1), rs.getString(2), rs.getString(3));
+                    bd.agregar(rs.getBoolean(4), rs.getString(5), rs.getString(6), rs.getString(7));
+                }
+            }
+        }
+
+        return new Datos(bc.build(), bd.build(), marca, System.currentTimeMillis());
+    }
+
+    /**
+     * Con varios shards no hay una marca de agua común (cada BD tiene su
+     * reloj y sus lápidas): se recarga entera, en paralelo por shard, y se
+     * mezclan las partes por id.
+     */
+    private Datos cargarShards() throws SQLException {
+        List<Datos> partes = Shards.enTodos(shard -> {
+            try (Connection con = Db.getConnection(shard)) {
+                con.setAutoCommit(false);
+                try {
+                    return cargarCompleto(con, SIN_MARCA);
+                } finally {
+                    con.commit();
+                    con.setAutoCommit(true);
+                }
+            }
+        });
+
+        InstantaneaClientes.Builder bc = new InstantaneaClientes.Builder();
+        InstantaneaDetalles.Builder bd = new InstantaneaDetalles.Builder();
+        int[] fila = new int[partes.size()];
+        PriorityQueue<Integer> cola = new PriorityQueue<>(
+                Comparator.comparingInt(sh -> partes.get(sh).clientes.id(fila[sh])));
+        for (int sh = 0; sh < partes.size(); sh++) {
+            if (partes.get(sh).clientes.tamano() > 0) cola.add(sh);
+        }
+        while (!cola.isEmpty()) {
+            int sh = cola.poll();
+            Datos d = partes.get(sh);
+            int f = fila[sh]++;
+            int id = d.clientes.id(f);
+            bc.agregar(id, d.clientes.nombre(f), d.clientes.email(f));
+            bd.agregar(d.detalles.detalle(f, id));
+            if (fila[sh] < d.clientes.tamano()) cola.add(sh);
+        }
+
+        return new Datos(bc.build(), bd.build(), SIN_MARCA, System.currentTimeMillis());
+    }
+
+    /** Fila cambiada desde la última marca. */
+    private static final class Fila {
+        int id;
+        String nombre, email, direccion, telefono, notas;
+        boolean tieneDetalle;
+    }
+
+    private Datos cargarDelta(Connection con, Datos actual, long marca) throws SQLException {
+        OffsetDateTime desde = aFecha(actual.marca).minus(SOLAPE);
+
+        List<Fila> cambiadas = new ArrayList<>();
+        try (PreparedStatement ps = con.prepareStatement(SELECT_DELTA_SQL)) {
+            ps.setObject(1, desde);
+            ps.setObject(2, desde);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Fila f = new Fila();
+                    f.id = rs.getInt(1);
+                    f.nombre = rs.getString(2);
+                    f.email = rs.getString(3);
+                    f.tieneDetalle = rs.getBoolean(4);
+                    f.direccion = rs.getString(5);
+                    f.telefono = rs.getString(6);
+                    f.notas = rs.getString(7);
+                    cambiadas.add(f);
+                }
+            }
+        }
+
+        int[] borrados;
+        try (PreparedStatement ps = con.prepareStatement(SELECT_BORRADOS_SQL)) {
+            ps.setObject(1, desde);
+            try (ResultSet rs = ps.executeQuery()) {
+                int[] buf = new int[64];
+                int n = 0;
+                while (rs.next()) {
+                    if (n == buf.length) buf = Arrays.copyOf(buf, n * 2);
+                    buf[n++] = rs.getInt(1);
+                }
+                borrados = Arrays.copyOf(buf, n);
+            }
+        }
+
+        if (cambiadas.isEmpty() && borrados.length == 0) {
+            return new Datos(actual.clientes, actual.detalles, marca, System.currentTimeMillis());
+        }
+
+        return fusionar(actual, cambiadas, borrados, marca);
+    }
+
+    /**
+     * Mezcla ordenada por id: filas antiguas (salvo borradas) + filas cambiadas,
+     * que ganan cuando coinciden. Los borrados se aplican solo a las antiguas:
+     * si un id aparece en el delta es que vuelve a existir.
+     */
+    private Datos fusionar(Datos actual, List<Fila> cambiadas, int[] borrados, long marca) {
+        InstantaneaClientes viejos = actual.clientes;
+        InstantaneaClientes.Builder bc = new InstantaneaClientes.Builder();
+        InstantaneaDetalles.Builder bd = new InstantaneaDetalles.Builder();
+
+        int i = 0, j = 0, n = viejos.tamano();
+        while (i < n || j < cambiadas.size()) {
+            int idViejo = (i < n) ? viejos.id(i) : Integer.MAX_VALUE;
+            Fila f = (j < cambiadas.size()) ? cambiadas.get(j) : null;
+
+            if (f != null && (i >= n || f.id <= idViejo)) {
+                bc.agregar(f.id, f.nombre, f.email);
+                bd.agregar(f.tieneDetalle, f.direccion, f.telefono, f.notas);
+                if (i < n && f.id == idViejo) {
+                    i++;
+                }
+                j++;
+            } else {
+                if (Arrays.binarySearch(borrados, idViejo) < 0) {
+                    bc.agregar(idViejo, viejos.nombre(i), viejos.email(i));
+                    bd.agregar(actual.detalles.detalle(i, idViejo));
+                }
+                i++;
+            }
+        }
+
+        return new Datos(bc.build(), bd.build(), marca, System.currentTimeMillis());
+    }
+
+    // =========================================================================
+    //  ESCRITURA
+    // =========================================================================
+
+    /** Bloque con el que se vuelcan las columnas al fichero. */
+    private static final int TAM_BLOQUE = 1 << 20;
+
+    /**
+     * Escribe la copia en un temporal y lo renombra de forma atómica. Las
+     * columnas se vuelcan por bloques de TAM_BLOQUE con el CRC calculado sobre
+     * la marcha; la cabecera, que depende de ambos, se escribe al final.
+     */
+    public void guardar(Datos d) throws IOException {
+        Files.createDirectories(ruta.toAbsolutePath().getParent());
+        Path tmp = ruta.resolveSibling(ruta.getFileName() + ".tmp");
+
+        try (FileChannel fc = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            fc.position(TAM_CABECERA);
+            SalidaColumnas salida = new SalidaColumnas(fc, TAM_BLOQUE);
+            d.clientes.escribir(salida);
+            d.detalles.escribir(salida);
+            salida.vaciar();
+
+            ByteBuffer cab = ByteBuffer.allocate(TAM_CABECERA);
+            cab.putInt(0, MAGIA);
+            cab.putInt(4, VERSION_FORMATO);
+            cab.putLong(8, d.marca);
+            cab.putLong(16, d.creada);
+            cab.putInt(24, d.clientes.tamano());
+            cab.putInt(28, salida.getCrc());
+            cab.putLong(32, salida.getBytes());
+            escribir(fc, cab, 0);
+            fc.force(true);
+        }
+
+        try {
+            Files.move(tmp, ruta, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AccessDeniedException e) {
+            // La copia actual está mapeada y el sistema no deja sustituirla (Windows):
+            // se deja al lado y abrir() la pone en su sitio en el próximo arranque.
+            Files.move(tmp, rutaNueva(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Sincronización sin cambios: el contenido en disco sigue valiendo y solo
+     * se ponen la marca de agua y la fecha nuevas (16 bytes seguidos, fuera
+     * del CRC), en la copia pendiente de poner en su sitio si la hay.
+     */
+    private void actualizarCabecera(Datos d) throws IOException {
+        Path destino = Files.isRegularFile(rutaNueva()) ? rutaNueva() : ruta;
+        if (!Files.isRegularFile(destino)) {
+            guardar(d);
+            return;
+        }
+        try (FileChannel fc = FileChannel.open(destino, StandardOpenOption.WRITE)) {
+            ByteBuffer marcas = ByteBuffer.allocate(16);
+            marcas.putLong(0, d.marca);
+            marcas.putLong(8, d.creada);
+            escribir(fc, marcas, 8);
+            fc.force(false);
+        }
+    }
+
+    private static void escribir(FileChannel fc, ByteBuffer buf, long posicion) throws IOException {
+        while (buf.hasRemaining()) {
+            posicion += fc.write(buf, posicion);
+        }
+    }
+
+    private Path rutaNueva() {
+        return ruta.resolveSibling(ruta.getFileName() + ".nuevo");
+    }
+
+    // =========================================================================
+    //  AUXILIARES
+    // =========================================================================
+
+    private static long aMicros(OffsetDateTime t) {
+        Instant i = t.toInstant();
+        return ChronoUnit.MICROS.between(Instant.EPOCH, i);
+    }
+
+    private static OffsetDateTime aFecha(long micros) {
+        return OffsetDateTime.ofInstant(Instant.EPOCH.plus(micros, ChronoUnit.MICROS), ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,453 @@
+package services;
+
+import db.Db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Mantenimiento de las particiones mensuales de pedido / detalle_pedido
+ * (ver sql/002_pedido_particionado.sql).
+ *
+ *  - asegurarParticiones(): crea las particiones que falten hasta N meses
+ *    en el futuro. Si mientras tanto han caído filas de ese mes en la
+ *    partición DEFAULT (*_pdefecto), las mueve a la partición nueva.
+ *  - programar(): lo anterior una vez al día en segundo plano (la aplicación
+ *    lo arranca al iniciarse, ver app.LampreasVioletaApp).
+ *  - archivarAnterioresA(): desengancha (DETACH) las particiones antiguas y
+ *    las mueve al esquema "archivo" o las borra. Desenganchar es solo
+ *    metadatos: no reescribe filas ni bloquea los meses recientes.
+ *  - migrarTablasPlanas(): copia los datos de las tablas antiguas sin
+ *    particionar (*_plano) a las nuevas.
+ *
+ * Las particiones se llaman pedido_pAAAA_MM y detalle_pedido_pAAAA_MM.
+ *
+ * Con varios shards (ver db.Db) cada uno tiene sus propias particiones: por
+ * defecto todas las operaciones se hacen en todos los shards.
+ */
+public class ParticionesPedido implements AutoCloseable {
+
+    private static final Pattern NOMBRE_PARTICION = Pattern.compile("_p(\\d{4})_(\\d{2})$");
+
+    /** Particiones DEFAULT (sql/002_pedido_particionado.sql): filas de meses sin partición. */
+    static final String DEFECTO_PEDIDO = "pedido_pdefecto";
+    static final String DEFECTO_DETALLE = "detalle_pedido_pdefecto";
+
+    /** Listado de particiones de una tabla padre. */
+    private static final String PARTICIONES_SQL = """
+            SELECT c.relname
+            FROM pg_inherits i
+            JOIN pg_class c ON c.oid = i.inhrelid
+            JOIN pg_class p ON p.oid = i.inhparent
+            WHERE p.relname = ?
+            """;
+
+    /** Claves ajenas de una tabla (tras DETACH, la FK heredada queda suelta). */
+    private static final String FKS_SQL = """
+            SELECT conname FROM pg_constraint
+            WHERE conrelid = ?::regclass AND contype = 'f'
+            """;
+
+    private ScheduledExecutorService programador;
+
+    private final int[] shards;
+
+    /** Mantenimiento en todos los shards. */
+    public ParticionesPedido() {
+        this.shards = new int[Db.numShards()];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = i;
+        }
+    }
+
+    /** Mantenimiento solo en el shard indicado. */
+    public ParticionesPedido(int shard) {
+        this.shards = new int[]{shard};
+    }
+
+    // =========================================================================
+    //  CREACIÓN
+    // =========================================================================
+
+    /**
+     * Crea (si no existen) las particiones de pedido y detalle_pedido desde el
+     * mes indicado hasta mesesFuturos meses después del actual.
+     *
+     * @return número de meses revisados
+     */
+    public int asegurarParticiones(YearMonth desde, int mesesFuturos) throws SQLException {
+        return asegurarParticiones(desde, YearMonth.now().plusMonths(mesesFuturos));
+    }
+
+    /** Crea (si no existen) las particiones de los meses [desde, hasta]. */
+    public int asegurarParticiones(YearMonth desde, YearMonth hasta) throws SQLException {
+        for (int shard : shards) {
+            try (Connection con = Db.getConnection(shard);
+                 Statement st = con.createStatement()) {
+
+                boolean hayDefecto = existe(con, DEFECTO_PEDIDO);
+                for (YearMonth m = desde; !m.isAfter(hasta); m = m.plusMonths(1)) {
+                    if (hayDefecto && !existe(con, nombre("pedido", m)) && hayFilasEnDefecto(con, m)) {
+                        crearSacandoDeDefecto(con, m);
+                    } else {
+                        st.execute(crearParticion("pedido", m));
+                        st.execute(crearParticion("detalle_pedido", m));
+                    }
+                }
+            }
+        }
+
+        return hasta.isBefore(desde) ? 0 : (int) desde.until(hasta, ChronoUnit.MONTHS) + 1;
+    }
+
+    private static boolean hayFilasEnDefecto(Connection con, YearMonth m) throws SQLException {
+        try (PreparedStatement pst = con.prepareStatement(
+                "SELECT EXISTS (SELECT 1 FROM " + DEFECTO_PEDIDO + " WHERE fecha >= ? AND fecha < ?)")) {
+            pst.setObject(1, m.atDay(1));
+            pst.setObject(2, m.plusMonths(1).atDay(1));
+            try (ResultSet rs = pst.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    /**
+     * Crea el mes m cuando la partición DEFAULT ya tiene filas suyas (PostgreSQL
+     * no deja crearla así). En una transacción: se desenganchan las DEFAULT
+     * (detalle primero, quitándole la FK que queda suelta), se crea el mes,
+     * se mueven sus filas (pedidos antes que detalles, por la FK) y se vuelven
+     * a enganchar; al hacerlo, PostgreSQL les vuelve a poner la FK.
+     */
+    private void crearSacandoDeDefecto(Connection con, YearMonth m) throws SQLException {
+        String rango = "fecha >= '%s' AND fecha < '%s'".formatted(m.atDay(1), m.plusMonths(1).atDay(1));
+
+        con.setAutoCommit(false);
+        try (Statement st = con.createStatement()) {
+            st.execute("ALTER TABLE detalle_pedido DETACH PARTITION " + DEFECTO_DETALLE);
+            for (String fk : clavesAjenas(con, DEFECTO_DETALLE)) {
+                st.execute("ALTER TABLE " + DEFECTO_DETALLE + " DROP CONSTRAINT \"" + fk + "\"");
+            }
+            st.execute("ALTER TABLE pedido DETACH PARTITION " + DEFECTO_PEDIDO);
+
+            st.execute(crearParticion("pedido", m));
+            st.execute(crearParticion("detalle_pedido", m));
+
+            st.execute("INSERT INTO pedido SELECT * FROM " + DEFECTO_PEDIDO + " WHERE " + rango);
+            st.execute("INSERT INTO detalle_pedido SELECT * FROM " + DEFECTO_DETALLE + " WHERE " + rango);
+            st.execute("DELETE FROM " + DEFECTO_DETALLE + " WHERE " + rango);
+            st.execute("DELETE FROM " + DEFECTO_PEDIDO + " WHERE " + rango);
+
+            st.execute("ALTER TABLE pedido ATTACH PARTITION " + DEFECTO_PEDIDO + " DEFAULT");
+            st.execute("ALTER TABLE detalle_pedido ATTACH PARTITION " + DEFECTO_DETALLE + " DEFAULT");
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            con.setAutoCommit(true);
+        }
+    }
+
+    private static String crearParticion(String tabla, YearMonth m) {
+        return "CREATE TABLE IF NOT EXISTS %s PARTITION OF %s FOR VALUES FROM ('%s') TO ('%s')"
+                .formatted(nombre(tabla, m), tabla, m.atDay(1), m.plusMonths(1).atDay(1));
+    }
+
+    static String nombre(String tabla, YearMonth m) {
+        return "%s_p%04d_%02d".formatted(tabla, m.getYear(), m.getMonthValue());
+    }
+
+    // =========================================================================
+    //  ARCHIVADO
+    // =========================================================================
+
+    /** Meses que tienen partición en la tabla padre indicada, ordenados. */
+    public TreeSet<YearMonth> meses(String tabla) throws SQLException {
+        TreeSet<YearMonth> out = new TreeSet<>();
+        for (int shard : shards) {
+            out.addAll(meses(shard, tabla));
+        }
+        return out;
+    }
+
+    private TreeSet<YearMonth> meses(int shard, String tabla) throws SQLException {
+        TreeSet<YearMonth> out = new TreeSet<>();
+
+        try (Connection con = Db.getConnection(shard);
+             PreparedStatement pst = con.prepareStatement(PARTICIONES_SQL)) {
+
+            pst.setString(1, tabla);
+
+            try (ResultSet rs = pst.executeQuery()) {
+                while (rs.next()) {
+                    Matcher m = NOMBRE_PARTICION.matcher(rs.getString(1));
+                    if (m.find()) {
+                        out.add(YearMonth.of(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2))));
+                    }
+                }
+            }
+        }
+
+        return out;
+    }
+
+    /**
+     * Desengancha todas las particiones de meses anteriores a limite.
+     * Con borrar=false se mueven al esquema "archivo" (consultables, fuera de
+     * las consultas normales); con borrar=true se eliminan.
+     *
+     * Cada mes va en su propia transacción: primero detalle_pedido (que
+     * referencia a pedido), se le quita la FK que queda suelta, y luego pedido.
+     *
+     * @return meses archivados
+     */
+    public List<YearMonth> archivarAnterioresA(YearMonth limite, boolean borrar) throws SQLException {
+        TreeSet<YearMonth> archivados = new TreeSet<>();
+        for (int shard : shards) {
+            archivados.addAll(archivarAnterioresA(shard, limite, borrar));
+        }
+        return new ArrayList<>(archivados);
+    }
+
+    private List<YearMonth> archivarAnterioresA(int shard, YearMonth limite, boolean borrar) throws SQLException {
+        TreeSet<YearMonth> todos = meses(shard, "pedido");
+        todos.addAll(meses(shard, "detalle_pedido"));
+
+        List<YearMonth> archivados = new ArrayList<>();
+
+        try (Connection con = Db.getConnection(shard)) {
+
+            con.setAutoCommit(false);
+
+            try {
+                for (YearMonth m : todos.headSet(limite)) {
+                    archivarMes(con, m, borrar);
+                    con.commit();
+                    archivados.add(m);
+                }
+            } catch (SQLException e) {
+                con.rollback();
+                throw e;
+            } finally {
+                con.setAutoCommit(true);
+            }
+        }
+
+        return archivados;
+    }
+
+    private void archivarMes(Connection con, YearMonth m, boolean borrar) throws SQLException {
+        String detalle = nombre("detalle_pedido", m);
+        String pedido = nombre("pedido", m);
+
+        try (Statement st = con.createStatement()) {
+
+            if (existe(con, detalle)) {
+                if (esParticion(con, detalle)) {
+                    st.execute("ALTER TABLE detalle_pedido DETACH PARTITION " + detalle);
+                }
+                for (String fk : clavesAjenas(con, detalle)) {
+                    st.execute("ALTER TABLE " + detalle + " DROP CONSTRAINT \"" + fk + "\"");
+                }
+                st.execute(borrar
+                        ? "DROP TABLE " + detalle
+                        : "ALTER TABLE " + detalle + " SET SCHEMA archivo");
+            }
+
+            if (existe(con, pedido)) {
+                if (esParticion(con, pedido)) {
+                    st.execute("ALTER TABLE pedido DETACH PARTITION " + pedido);
+                }
+                st.execute(borrar
+                        ? "DROP TABLE " + pedido
+                        : "ALTER TABLE " + pedido + " SET SCHEMA archivo");
+            }
+        }
+    }
+
+    private static boolean existe(Connection con, String tabla) throws SQLException {
+        try (PreparedStatement pst = con.prepareStatement("SELECT to_regclass(?) IS NOT NULL")) {
+            pst.setString(1, "public." + tabla);
+            try (ResultSet rs = pst.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    private static boolean esParticion(Connection con, String tabla) throws SQLException {
+        try (PreparedStatement pst = con.prepareStatement(
+                "SELECT 1 FROM pg_inherits WHERE inhrelid = ?::regclass")) {
+            pst.setString(1, "public." + tabla);
+            try (ResultSet rs = pst.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    private static List<String> clavesAjenas(Connection con, String tabla) throws SQLException {
+        List<String> out = new ArrayList<>();
+        try (PreparedStatement pst = con.prepareStatement(FKS_SQL)) {
+            pst.setString(1, "public." + tabla);
+            try (ResultSet rs = pst.executeQuery()) {
+                while (rs.next()) {
+                    out.add(rs.getString(1));
+                }
+            }
+        }
+        return out;
+    }
+
+    // =========================================================================
+    //  MIGRACIÓN DESDE TABLAS SIN PARTICIONAR
+    // =========================================================================
+
+    /**
+     * Copia pedido_plano / detalle_pedido_plano a las tablas particionadas,
+     * creando antes las particiones necesarias. Las tablas *_plano no se
+     * borran: se dejan para comprobar la migración a mano.
+     *
+     * @return pedidos copiados (0 si no hay tablas planas)
+     */
+    public int migrarTablasPlanas() throws SQLException {
+        int pedidos = 0;
+        for (int shard : shards) {
+            pedidos += migrarTablasPlanas(shard);
+        }
+        return pedidos;
+    }
+
+    private int migrarTablasPlanas(int shard) throws SQLException {
+        LocalDate primera;
+
+        try (Connection con = Db.getConnection(shard)) {
+            if (!existe(con, "pedido_plano")) {
+                return 0;
+            }
+            try (Statement st = con.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT min(fecha) FROM pedido_plano")) {
+                rs.next();
+                primera = rs.getObject(1, LocalDate.class);
+            }
+        }
+
+        if (primera == null) {
+            return 0;
+        }
+        new ParticionesPedido(shard).asegurarParticiones(YearMonth.from(primera), 3);
+
+        try (Connection con = Db.getConnection(shard)) {
+
+            con.setAutoCommit(false);
+
+            try (Statement st = con.createStatement()) {
+                int pedidos = st.executeUpdate("""
+                        INSERT INTO pedido (id, cliente_id, fecha)
+                        SELECT id, cliente_id, fecha FROM pedido_plano
+                        ON CONFLICT DO NOTHING
+                        """);
+                if (existe(con, "detalle_pedido_plano")) {
+                    st.executeUpdate("""
+                            INSERT INTO detalle_pedido (pedido_id, fecha, producto_id, cantidad, precio_unit)
+                            SELECT dp.pedido_id, p.fecha, dp.producto_id, dp.cantidad, dp.precio_unit
+                            FROM detalle_pedido_plano dp
+                            JOIN pedido_plano p ON p.id = dp.pedido_id
+                            ON CONFLICT DO NOTHING
+                            """);
+                }
+                con.commit();
+                return pedidos;
+
+            } catch (SQLException e) {
+                con.rollback();
+                throw e;
+            } finally {
+                con.setAutoCommit(true);
+            }
+        }
+    }
+
+    // =========================================================================
+    //  MANTENIMIENTO PERIÓDICO
+    // =========================================================================
+
+    /**
+     * Arranca una tarea diaria (hilo daemon) que crea las particiones de los
+     * próximos mesesFuturos meses y, si mesesRetencion &gt; 0, archiva las que
+     * se salen de la retención.
+     */
+    public synchronized void programar(int mesesFuturos, int mesesRetencion) {
+        if (programador != null) {
+            return;
+        }
+        programador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "particiones-pedido");
+            t.setDaemon(true);
+            return t;
+        });
+        programador.scheduleWithFixedDelay(() -> {
+            try {
+                YearMonth actual = YearMonth.now();
+                asegurarParticiones(actual, mesesFuturos);
+                if (mesesRetencion > 0) {
+                    archivarAnterioresA(actual.minusMonths(mesesRetencion), false);
+                }
+            } catch (SQLException e) {
+                System.err.println("Mantenimiento de particiones: " + e.getMessage());
+            }
+        }, 0, 1, TimeUnit.DAYS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (programador != null) {
+            programador.shutdownNow();
+            programador = null;
+        }
+    }
+
+    // =========================================================================
+    //  LÍNEA DE COMANDOS
+    // =========================================================================
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("""
+                    Uso: ParticionesPedido asegurar [mesesFuturos]
+                         ParticionesPedido archivar <AAAA-MM> [--borrar]
+                         ParticionesPedido migrar""");
+            System.exit(2);
+        }
+
+        ParticionesPedido p = new ParticionesPedido();
+
+        switch (args[0]) {
+            case "asegurar" -> {
+                int futuros = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+                System.out.println("Meses revisados: " + p.asegurarParticiones(YearMonth.now(), futuros));
+            }
+            case "archivar" -> {
+                boolean borrar = args.length > 2 && args[2].equals("--borrar");
+                System.out.println("Archivados: " + p.archivarAnterioresA(YearMonth.parse(args[1]), borrar));
+            }
+            case "migrar" -> System.out.println("Pedidos migrados: " + p.migrarTablasPlanas());
+            default -> {
+                System.err.println("Orden desconocida: " + args[0]);
+                System.exit(2);
+            }
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package services;
+
+import dao.ClienteDAO;
+import dao.DetalleClienteDAO;
+import dao.PedidoDAO;
+import db.AnilloHash;
+import db.Db;
+import model.Cliente;
+import model.DetalleCliente;
+import model.Pedido;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Mueve cada cliente (con su detalle y sus pedidos) al shard que le toca
+ * según el anillo de db.Db. Se usa tras cambiar PG_SHARDS:
+ *
+ *  - al AÑADIR un shard, basta con ejecutarlo con la nueva lista: el anillo
+ *    solo reasigna ~1/N de los clientes y el resto no se toca.
+ *  - al RETIRAR un shard, se quita de PG_SHARDS y se pasa con --retirar para
+ *    que también se lea de él.
+ *
+ * Por cada lote se copia primero al destino (una transacción) y luego se
+ * borra del origen (otra). Si falla entre ambas, el cliente queda duplicado
+ * pero en el destino ya es el bueno: volver a ejecutarlo lo termina, porque
+ * la copia es idempotente (upsert + reemplazo de pedidos).
+ *
+ * Debe ejecutarse con la aplicación parada: los clientes de un lote no son
+ * visibles mientras se mueven.
+ */
+public class RebalanceoShards {
+
+    /** Ids del shard, en orden, con cursor para no cargarlos todos de golpe. */
+    private static final String IDS_SQL = "SELECT id FROM cliente ORDER BY id";
+
+    /** Pedidos de varios clientes (las líneas primero, por la FK). */
+    private static final String DELETE_LINEAS_SQL = """
+            DELETE FROM detalle_pedido dp
+            USING pedido p
+            WHERE dp.pedido_id = p.id AND dp.fecha = p.fecha
+              AND p.cliente_id = ANY(?)
+            """;
+    private static final String DELETE_PEDIDOS_SQL = "DELETE FROM pedido WHERE cliente_id = ANY(?)";
+
+    public static final int LOTE_POR_DEFECTO = 500;
+
+    private final ClienteDAO clienteDAO = new ClienteDAO();
+    private final DetalleClienteDAO detalleClienteDAO = new DetalleClienteDAO();
+    private final PedidoDAO pedidoDAO = new PedidoDAO();
+
+    private final AnilloHash anillo = Db.anillo();
+    private final int lote;
+    private final boolean simular;
+
+    /** Meses con partición ya asegurada, por shard destino. */
+    private final Map<Integer, Set<YearMonth>> mesesAsegurados = new LinkedHashMap<>();
+
+    public RebalanceoShards(int lote, boolean simular) {
+        this.lote = Math.max(1, lote);
+        this.simular = simular;
+    }
+
+    // =========================================================================
+    //  REBALANCEO
+    // =========================================================================
+
+    /**
+     * Revisa los shards actuales y los retirados; devuelve, por "origen → destino",
+     * cuántos clientes se han movido (o se moverían, si es una simulación).
+     */
+    public Map<String, Integer> rebalancear(List<String> retirados) throws SQLException {
+        Set<String> origenes = new LinkedHashSet<>(anillo.getShards());
+        origenes.addAll(retirados);
+
+        Map<String, Integer> movidos = new LinkedHashMap<>();
+        for (String origen : origenes) {
+            Map<String, List<Integer>> aMover = clientesFueraDeSitio(origen);
+
+            for (Map.Entry<String, List<Integer>> e : aMover.entrySet()) {
+                String destino = e.getKey();
+                List<Integer> ids = e.getValue();
+
+                if (!simular) {
+                    for (int i = 0; i < ids.size(); i += lote) {
+                        List<Integer> parte = ids.subList(i, Math.min(i + lote, ids.size()));
+                        mover(origen, destino, parte.stream().mapToInt(Integer::intValue).toArray());
+                    }
+                }
+                movidos.put(origen + " → " + destino, ids.size());
+            }
+        }
+
+        if (!simular && !movidos.isEmpty()) {
+            ClienteDAO.marcarCambios();
+        }
+        return movidos;
+    }
+
+    /** Clientes del shard origen que según el anillo deberían estar en otro, agrupados por destino. */
+    private Map<String, List<Integer>> clientesFueraDeSitio(String origen) throws SQLException {
+        Map<String, List<Integer>> out = new LinkedHashMap<>();
+
+        try (Connection con = Db.getConnection(origen)) {
+            // Sin autocommit el driver respeta el fetchSize y lee por bloques.
+            con.setAutoCommit(false);
+            try (PreparedStatement pst = con.prepareStatement(IDS_SQL)) {
+                pst.setFetchSize(10_000);
+                try (ResultSet rs = pst.executeQuery()) {
+                    while (rs.next()) {
+                        int id = rs.getInt(1);
+                        String destino = anillo.nombreShardDe(id);
+                        if (!destino.equals(origen)) {
+                            out.computeIfAbsent(destino, k -> new ArrayList<>()).add(id);
+                        }
+                    }
+                }
+                con.commit();
+            } finally {
+                con.setAutoCommit(true);
+            }
+        }
+
+        return out;
+    }
+
+    /** Copia un lote de clientes al destino y, confirmado eso, lo borra del origen. */
+    private void mover(String origen, String destino, int[] ids) throws SQLException {
+        int shardDestino = anillo.getShards().indexOf(destino);
+
+        List<Cliente> clientes;
+        List<DetalleCliente> detalles;
+        List<Pedido> pedidos = new ArrayList<>();
+
+        try (Connection con = Db.getConnection(origen)) {
+            clientes = clienteDAO.findByIds(ids, con);
+            detalles = detalleClienteDAO.findByIds(ids, con);
+            for (List<Pedido> ps : pedidoDAO.findByClientes(ids, con).values()) {
+                pedidos.addAll(ps);
+            }
+        }
+
+        asegurarParticiones(shardDestino, pedidos);
+
+        try (Connection con = Db.getConnection(shardDestino)) {
+            con.setAutoCommit(false);
+            try {
+                // Si una ejecución anterior se cortó a medias, sus pedidos se sustituyen.
+                borrarPedidos(con, ids);
+                clienteDAO.upsertAll(clientes, con);
+                detalleClienteDAO.upsertAll(detalles, con);
+                pedidoDAO.insertAll(pedidos, con);
+
+                con.commit();
+            } catch (SQLException e) {
+                con.rollback();
+                throw e;
+            } finally {
+                con.setAutoCommit(true);
+            }
+        }
+
+        try (Connection con = Db.getConnection(origen)) {
+            con.setAutoCommit(false);
+            try {
+                borrarPedidos(con, ids);
+                detalleClienteDAO.deleteByIds(ids, con);
+                clienteDAO.deleteByIds(ids, con);
+
+                con.commit();
+            } catch (SQLException e) {
+                con.rollback();
+                throw e;
+            } finally {
+                con.setAutoCommit(true);
+            }
+        }
+    }
+
+    private void asegurarParticiones(int shard, List<Pedido> pedidos) throws SQLException {
+        Set<YearMonth> hechos = mesesAsegurados.computeIfAbsent(shard, k -> new HashSet<>());
+
+        YearMonth min = null;
+        YearMonth max = null;
+        for (Pedido p : pedidos) {
+            YearMonth m = YearMonth.from(p.getFecha());
+            if (hechos.contains(m)) {
+                continue;
+            }
+            if (min == null || m.isBefore(min)) min = m;
+            if (max == null || m.isAfter(max)) max = m;
+        }
+        if (min == null) {
+            return;
+        }
+
+        try (ParticionesPedido particiones = new ParticionesPedido(shard)) {
+            particiones.asegurarParticiones(min, max);
+        }
+        for (YearMonth m = min; !m.isAfter(max); m = m.plusMonths(1)) {
+            hechos.add(m);
+        }
+    }
+
+    private static void borrarPedidos(Connection con, int[] ids) throws SQLException {
+        for (String sql : new String[] { DELETE_LINEAS_SQL, DELETE_PEDIDOS_SQL }) {
+            try (PreparedStatement pst = con.prepareStatement(sql)) {
+                Array arr = con.createArrayOf("integer", Arrays.stream(ids).boxed().toArray(Integer[]::new));
+                try {
+                    pst.setArray(1, arr);
+                    pst.executeUpdate();
+                } finally {
+                    arr.free();
+                }
+            }
+        }
+    }
+
+    // =========================================================================
+    //  LÍNEA DE COMANDOS
+    // =========================================================================
+
+    /**
+     * RebalanceoShards [--retirar a,b] [--lote N] [--simular]
+     *
+     * Para probarlo en local con varias bases de datos:
+     *   PG_SHARDS=lampreas_0,lampreas_1,lampreas_2 java ... services.RebalanceoShards --simular
+     */
+    public static void main(String[] args) throws Exception {
+        List<String> retirados = List.of();
+        int lote = LOTE_POR_DEFECTO;
+        boolean simular = false;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--retirar" -> retirados = Db.listaShards(args[++i]);
+                case "--lote" -> lote = Integer.parseInt(args[++i]);
+                case "--simular" -> simular = true;
+                default -> {
+                    System.err.println("Uso: RebalanceoShards [--retirar a,b] [--lote N] [--simular]");
+                    System.exit(2);
+                }
+            }
+        }
+
+        long t0 = System.nanoTime();
+        Map<String, Integer> movidos = new RebalanceoShards(lote, simular).rebalancear(retirados);
+        long ms = (System.nanoTime() - t0) / 1_000_000;
+
+        System.out.println((simular ? "Clientes a mover" : "Clientes movidos") + " (shards: " + Db.anillo().getShards() + ")");
+        if (movidos.isEmpty()) {
+            System.out.println("  ninguno: todos están en su shard");
+        }
+        int total = 0;
+        for (Map.Entry<String, Integer> e : movidos.entrySet()) {
+            System.out.printf("  %-40s %8d%n", e.getKey(), e.getValue());
+            total += e.getValue();
+        }
+        System.out.printf("Total: %d en %d ms%n", total, ms);
+    }
+}
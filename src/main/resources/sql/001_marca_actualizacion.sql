@@ -0,0 +1,73 @@
+-- =========================================================================
+--  Marca de agua para la sincronización incremental de la instantánea local
+--  (services.InstantaneaLocal).
+--
+--  - updated_at en cliente y detalle_cliente, mantenido por trigger.
+--  - cliente_borrado: lápidas de los clientes borrados, para que el delta
+--    también elimine filas de la instantánea.
+--  - Borrar un detalle "toca" a su cliente para que el delta lo recoja.
+--
+--  Script idempotente: se puede ejecutar varias veces.
+-- =========================================================================
+
+ALTER TABLE cliente
+    ADD COLUMN IF NOT EXISTS updated_at timestamptz NOT NULL DEFAULT clock_timestamp();
+
+ALTER TABLE detalle_cliente
+    ADD COLUMN IF NOT EXISTS updated_at timestamptz NOT NULL DEFAULT clock_timestamp();
+
+CREATE INDEX IF NOT EXISTS cliente_updated_at_idx ON cliente (updated_at);
+CREATE INDEX IF NOT EXISTS detalle_cliente_updated_at_idx ON detalle_cliente (updated_at);
+
+CREATE TABLE IF NOT EXISTS cliente_borrado (
+    id         integer     PRIMARY KEY,
+    borrado_en timestamptz NOT NULL DEFAULT clock_timestamp()
+);
+
+CREATE INDEX IF NOT EXISTS cliente_borrado_en_idx ON cliente_borrado (borrado_en);
+
+-- updated_at = momento real de la modificación
+CREATE OR REPLACE FUNCTION tocar_updated_at() RETURNS trigger AS $$
+BEGIN
+    NEW.updated_at := clock_timestamp();
+    RETURN NEW;
+END
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS cliente_tocar_updated_at ON cliente;
+CREATE TRIGGER cliente_tocar_updated_at
+    BEFORE UPDATE ON cliente
+    FOR EACH ROW EXECUTE FUNCTION tocar_updated_at();
+
+DROP TRIGGER IF EXISTS detalle_cliente_tocar_updated_at ON detalle_cliente;
+CREATE TRIGGER detalle_cliente_tocar_updated_at
+    BEFORE UPDATE ON detalle_cliente
+    FOR EACH ROW EXECUTE FUNCTION tocar_updated_at();
+
+-- Lápida al borrar un cliente
+CREATE OR REPLACE FUNCTION registrar_cliente_borrado() RETURNS trigger AS $$
+BEGIN
+    INSERT INTO cliente_borrado (id, borrado_en)
+    VALUES (OLD.id, clock_timestamp())
+    ON CONFLICT (id) DO UPDATE SET borrado_en = EXCLUDED.borrado_en;
+    RETURN OLD;
+END
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS cliente_registrar_borrado ON cliente;
+CREATE TRIGGER cliente_registrar_borrado
+    AFTER DELETE ON cliente
+    FOR EACH ROW EXECUTE FUNCTION registrar_cliente_borrado();
+
+-- Borrar solo el detalle marca al cliente como modificado
+CREATE OR REPLACE FUNCTION tocar_cliente_de_detalle() RETURNS trigger AS $$
+BEGIN
+    UPDATE cliente SET updated_at = clock_timestamp() WHERE id = OLD.id;
+    RETURN OLD;
+END
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS detalle_cliente_tocar_cliente ON detalle_cliente;
+CREATE TRIGGER detalle_cliente_tocar_cliente
+    AFTER DELETE ON detalle_cliente
+    FOR EACH ROW EXECUTE FUNCTION tocar_cliente_de_detalle();
@@ -0,0 +1,57 @@
+-- =========================================================================
+--  pedido / detalle_pedido particionados por mes según fecha
+--  (ver dao.PedidoDAO y services.ParticionesPedido).
+--
+--  - Ambas tablas se particionan por RANGE (fecha) con particiones mensuales
+--    pedido_pAAAA_MM y detalle_pedido_pAAAA_MM.
+--  - detalle_pedido lleva la fecha de su pedido (copia) para poder
+--    particionar igual y podar particiones en los joins.
+--  - Las claves primarias incluyen fecha (obligatorio en tablas particionadas).
+--
+--  Si ya existen tablas pedido/detalle_pedido sin particionar, se renombran
+--  a *_plano; ParticionesPedido.migrarTablasPlanas() copia sus filas.
+--  Las particiones mensuales NO se crean aquí: las crea ParticionesPedido
+--  (al arrancar la aplicación y una vez al día, varios meses por delante).
+--  Las particiones DEFAULT (*_pdefecto) recogen las filas de meses que aún no
+--  tienen partición, para que un INSERT no falle nunca por eso; al crear el
+--  mes, ParticionesPedido.asegurarParticiones() saca esas filas a su sitio.
+-- =========================================================================
+
+DO $$
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_class WHERE relname = 'detalle_pedido' AND relkind = 'r') THEN
+        ALTER TABLE detalle_pedido RENAME TO detalle_pedido_plano;
+    END IF;
+    IF EXISTS (SELECT 1 FROM pg_class WHERE relname = 'pedido' AND relkind = 'r') THEN
+        ALTER TABLE pedido RENAME TO pedido_plano;
+    END IF;
+END
+$$;
+
+CREATE TABLE IF NOT EXISTS pedido (
+    id          integer NOT NULL,
+    cliente_id  integer NOT NULL REFERENCES cliente (id),
+    fecha       date    NOT NULL,
+    PRIMARY KEY (id, fecha)
+) PARTITION BY RANGE (fecha);
+
+CREATE TABLE IF NOT EXISTS detalle_pedido (
+    pedido_id    integer       NOT NULL,
+    fecha        date          NOT NULL,
+    producto_id  integer       NOT NULL REFERENCES producto (id),
+    cantidad     integer       NOT NULL CHECK (cantidad > 0),
+    precio_unit  numeric(12,2) NOT NULL,
+    PRIMARY KEY (pedido_id, producto_id, fecha),
+    FOREIGN KEY (pedido_id, fecha) REFERENCES pedido (id, fecha)
+) PARTITION BY RANGE (fecha);
+
+-- Red de seguridad para meses sin partición (deberían quedarse vacías).
+CREATE TABLE IF NOT EXISTS pedido_pdefecto PARTITION OF pedido DEFAULT;
+CREATE TABLE IF NOT EXISTS detalle_pedido_pdefecto PARTITION OF detalle_pedido DEFAULT;
+
+-- Índices en la tabla padre: PostgreSQL los crea en cada partición.
+CREATE INDEX IF NOT EXISTS pedido_cliente_fecha_idx ON pedido (cliente_id, fecha);
+CREATE INDEX IF NOT EXISTS detalle_pedido_producto_idx ON detalle_pedido (producto_id, fecha);
+
+-- Esquema donde acaban las particiones archivadas.
+CREATE SCHEMA IF NOT EXISTS archivo;
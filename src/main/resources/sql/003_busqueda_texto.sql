@@ -0,0 +1,53 @@
+-- =========================================================================
+--  Búsqueda de texto completo sobre detalle_cliente (direccion + notas)
+--  (ver DetalleClienteDAO.buscarTexto).
+--
+--  - Configuración es_sin_acentos: la "spanish" de PostgreSQL pasando antes
+--    por unaccent, para que "Peñíscola" y "peniscola" coincidan.
+--  - Columna busqueda (tsvector) mantenida por trigger. No puede ser una
+--    columna GENERATED porque unaccent() no está marcada IMMUTABLE.
+--    La dirección pesa más (A) que las notas (B) al ordenar por relevancia.
+--  - Índice GIN sobre busqueda.
+--
+--  Script idempotente: se puede ejecutar varias veces.
+-- =========================================================================
+
+CREATE EXTENSION IF NOT EXISTS unaccent;
+
+DO $$
+BEGIN
+    IF NOT EXISTS (SELECT 1 FROM pg_ts_config WHERE cfgname = 'es_sin_acentos') THEN
+        CREATE TEXT SEARCH CONFIGURATION es_sin_acentos (COPY = spanish);
+        ALTER TEXT SEARCH CONFIGURATION es_sin_acentos
+            ALTER MAPPING FOR hword, hword_part, word WITH unaccent, spanish_stem;
+    END IF;
+END
+$$;
+
+ALTER TABLE detalle_cliente
+    ADD COLUMN IF NOT EXISTS busqueda tsvector;
+
+CREATE OR REPLACE FUNCTION detalle_cliente_busqueda(direccion text, notas text) RETURNS tsvector AS $$
+    SELECT setweight(to_tsvector('es_sin_acentos', coalesce(direccion, '')), 'A')
+        || setweight(to_tsvector('es_sin_acentos', coalesce(notas, '')), 'B')
+$$ LANGUAGE sql STABLE;
+
+CREATE OR REPLACE FUNCTION actualizar_busqueda_detalle() RETURNS trigger AS $$
+BEGIN
+    NEW.busqueda := detalle_cliente_busqueda(NEW.direccion, NEW.notas);
+    RETURN NEW;
+END
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS detalle_cliente_busqueda ON detalle_cliente;
+CREATE TRIGGER detalle_cliente_busqueda
+    BEFORE INSERT OR UPDATE OF direccion, notas ON detalle_cliente
+    FOR EACH ROW EXECUTE FUNCTION actualizar_busqueda_detalle();
+
+-- Relleno de las filas que ya existían (solo las que faltan).
+UPDATE detalle_cliente
+SET busqueda = detalle_cliente_busqueda(direccion, notas)
+WHERE busqueda IS NULL;
+
+CREATE INDEX IF NOT EXISTS detalle_cliente_busqueda_idx
+    ON detalle_cliente USING gin (busqueda);
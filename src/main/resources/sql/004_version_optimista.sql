@@ -0,0 +1,22 @@
+-- =========================================================================
+--  Bloqueo optimista en cliente y detalle_cliente
+--  (ver ClienteDAO.update, DetalleClienteDAO.update y
+--  services.ClienteDetalle.actualizarClienteCompleto).
+--
+--  - Columna version: se lee con la fila y el UPDATE solo se aplica con
+--    WHERE id = ? AND version = ?, subiéndola en uno. Si no actualiza nada
+--    es que otro la ha cambiado: el DAO lanza ConflictoVersionException.
+--  - Los upsert / update por lotes de la escritura diferida llevan la
+--    versión en un array más y solo tocan las filas que siguen en ella.
+--    Los que copian filas tal cual (RebalanceoShards) no la comprueban pero
+--    también la suben, para que las ediciones en curso detecten el cambio.
+--  - Las filas existentes empiezan en 0.
+--
+--  Script idempotente: se puede ejecutar varias veces.
+-- =========================================================================
+
+ALTER TABLE cliente
+    ADD COLUMN IF NOT EXISTS version integer NOT NULL DEFAULT 0;
+
+ALTER TABLE detalle_cliente
+    ADD COLUMN IF NOT EXISTS version integer NOT NULL DEFAULT 0;